@@ -28,7 +28,9 @@ import android.os.Bundle;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
+import android.widget.CheckBox;
 import android.widget.RadioButton;
+import android.widget.Spinner;
 import android.widget.TextView;
 
 import edu.pdx.pong2pong.DeviceListFragment.DeviceActionListener;
@@ -83,12 +85,29 @@ public class DeviceDetailFragment extends Fragment implements ConnectionInfoList
 
                     @Override
                     public void onClick(View v) {
-                        // start Pong2Pong
+                        // start Pong2Pong; the time is the start of the time to the first frame
+                        long startTime = System.nanoTime();
                         RadioButton btn = (RadioButton)mContentView.findViewById(R.id.inputmethod_acc);
                         Intent i = new Intent(getActivity(), GameActivity.class);
                         i.putExtra(GameActivity.EXTRA_IS_SERVER, info.isGroupOwner);
                         i.putExtra(GameActivity.EXTRA_IP_SERVER, info.groupOwnerAddress.getHostAddress());
                         i.putExtra(GameActivity.EXTRA_USE_ACCELEROMETER, btn.isChecked());
+                        CheckBox udp = (CheckBox)mContentView.findViewById(R.id.transport_udp);
+                        i.putExtra(GameActivity.EXTRA_USE_UDP, udp.isChecked());
+                        CheckBox lockstep = (CheckBox)mContentView.findViewById(R.id.lockstep);
+                        i.putExtra(GameActivity.EXTRA_LOCKSTEP, lockstep.isChecked());
+                        Spinner frameRate = (Spinner)mContentView.findViewById(R.id.frame_rate);
+                        int[] rates = getResources().getIntArray(R.array.frame_rate_values);
+                        i.putExtra(GameActivity.EXTRA_FRAME_RATE,
+                                rates[frameRate.getSelectedItemPosition()]);
+                        CheckBox spectate = (CheckBox)mContentView.findViewById(R.id.spectate);
+                        i.putExtra(GameActivity.EXTRA_SPECTATE, spectate.isChecked());
+                        i.putExtra(GameActivity.EXTRA_START_TIME, startTime);
+                        Spinner filter = (Spinner)mContentView.findViewById(R.id.sensor_filter);
+                        i.putExtra(GameActivity.EXTRA_SENSOR_FILTER,
+                                filter.getSelectedItemPosition());
+                        CheckBox trace = (CheckBox)mContentView.findViewById(R.id.trace_latency);
+                        i.putExtra(GameActivity.EXTRA_TRACE_LATENCY, trace.isChecked());
                         startActivity(i);
                     }
                 });
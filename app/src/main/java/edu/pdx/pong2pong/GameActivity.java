@@ -22,9 +22,15 @@ import android.hardware.SensorEvent;
 import android.hardware.SensorEventListener;
 import android.hardware.SensorManager;
 import android.support.v7.app.AppCompatActivity;
+import android.os.Build;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.SystemClock;
 import android.view.Window;
 import android.view.WindowManager;
+import edu.pdx.pong2pong.core.FramePacer;
+import edu.pdx.pong2pong.core.SensorFilter;
 
 /**
  * Manages the main game screen and logic.
@@ -35,6 +41,26 @@ public class GameActivity extends AppCompatActivity implements SensorEventListen
     public static String EXTRA_IP_SERVER = "EXTRA_IP_SERVER";
     public static String EXTRA_IS_SERVER = "EXTRA_IS_SERVER";
     public static String EXTRA_USE_ACCELEROMETER = "EXTRA_USE_ACCELEROMETER";
+    public static String EXTRA_USE_UDP = "EXTRA_USE_UDP";
+    public static String EXTRA_LOCKSTEP = "EXTRA_LOCKSTEP";
+    public static String EXTRA_FRAME_RATE = "EXTRA_FRAME_RATE";
+    public static String EXTRA_SPECTATE = "EXTRA_SPECTATE";
+    public static String EXTRA_START_TIME = "EXTRA_START_TIME";
+    public static String EXTRA_SENSOR_FILTER = "EXTRA_SENSOR_FILTER";
+    public static String EXTRA_TRACE_LATENCY = "EXTRA_TRACE_LATENCY";
+    public static String EXTRA_REPLAY = "EXTRA_REPLAY";
+    public static String EXTRA_REPLAY_SPEED = "EXTRA_REPLAY_SPEED";
+
+    /** the values of EXTRA_SENSOR_FILTER, in the order of R.array.sensor_filters */
+    public static final int FILTER_ONE_EURO = 0;
+    public static final int FILTER_LOW_PASS = 1;
+    public static final int FILTER_NONE = 2;
+
+    /**
+     * the oldest (ns) a sensor event can plausibly be when it is delivered; an older one has
+     * a timestamp on another clock
+     */
+    private static final long MAX_EVENT_AGE_NS = 1000000000L;
 
     /** hardware sensor */
     private SensorManager mSm;
@@ -45,6 +71,12 @@ public class GameActivity extends AppCompatActivity implements SensorEventListen
     /** whether or not to use the accelerometer */
     private boolean mUseAcc;
 
+    /** the thread the sensor events are delivered on, so they never wait for the UI */
+    private HandlerThread mSensorThread;
+
+    /** smooths the sensor readings; used on the sensor thread only */
+    private SensorFilter mFilter;
+
     /**
      * Setup accelerometer and game view.
      * @param savedInstanceState
@@ -66,28 +98,56 @@ public class GameActivity extends AppCompatActivity implements SensorEventListen
             if (s == null) {
                 //don't use accelerometer, as we don't have one
                 mUseAcc = false;
-            } else {
-                //register listener for sensor
-                mSm.registerListener(this, s, SensorManager.SENSOR_DELAY_GAME);
             }
         }
+        switch (getIntent().getIntExtra(EXTRA_SENSOR_FILTER, FILTER_ONE_EURO)) {
+            case FILTER_LOW_PASS:
+                mFilter = SensorFilter.lowPass();
+                break;
+            case FILTER_NONE:
+                mFilter = SensorFilter.none();
+                break;
+            default:
+                mFilter = SensorFilter.oneEuro();
+        }
 
         //get WifiDirect data
-        boolean isServer = getIntent().getBooleanExtra(EXTRA_IS_SERVER, true);
-        String addrServer = getIntent().getStringExtra(EXTRA_IP_SERVER);
-        mGameView = new GameView(this, isServer, addrServer);
+        GameOptions options = new GameOptions();
+        String replay = getIntent().getStringExtra(EXTRA_REPLAY);
+        if (replay != null) {
+            //a replay instead of a game, e.g. of the last match (see WiFiDirectActivity)
+            options.mode = GameOptions.Mode.REPLAY;
+            options.replayFile = replay;
+            options.replaySpeed = getIntent().getFloatExtra(EXTRA_REPLAY_SPEED, 1);
+        } else if (getIntent().getBooleanExtra(EXTRA_SPECTATE, false)) {
+            options.mode = GameOptions.Mode.SPECTATOR;
+        } else if (getIntent().getBooleanExtra(EXTRA_IS_SERVER, true)) {
+            options.mode = GameOptions.Mode.SERVER;
+        } else {
+            options.mode = GameOptions.Mode.CLIENT;
+        }
+        options.serverAddress = getIntent().getStringExtra(EXTRA_IP_SERVER);
+        options.protocol = getIntent().getBooleanExtra(EXTRA_USE_UDP, false)
+                ? GameOptions.Protocol.UDP : GameOptions.Protocol.TCP;
+        options.lockstep = getIntent().getBooleanExtra(EXTRA_LOCKSTEP, false);
+        options.frameRate = getIntent().getIntExtra(EXTRA_FRAME_RATE, FramePacer.DISPLAY_RATE);
+        options.startTime = getIntent().getLongExtra(EXTRA_START_TIME, System.nanoTime());
+        options.traceLatency = getIntent().getBooleanExtra(EXTRA_TRACE_LATENCY, false);
+        mGameView = new GameView(this, options);
         setContentView(mGameView);
      }
 
     /**
-     * Register sensor listener.
+     * Register sensor listener, on a thread of its own.
      */
     @Override
     protected void onResume() {
         super.onResume();
         if (mUseAcc) {
+            mSensorThread = new HandlerThread("Sensors");
+            mSensorThread.start();
             mSm.registerListener(this, mSm.getDefaultSensor(Sensor.TYPE_GRAVITY),
-                    SensorManager.SENSOR_DELAY_GAME);
+                    SensorManager.SENSOR_DELAY_GAME, new Handler(mSensorThread.getLooper()));
         }
     }
 
@@ -99,21 +159,30 @@ public class GameActivity extends AppCompatActivity implements SensorEventListen
         super.onPause();
         if (mUseAcc) {
             mSm.unregisterListener(this);
+            mSensorThread.quit();
+            mSensorThread = null;
         }
     }
 
     /**
-     * Callback - accelerometer sensor changed.
+     * Callback - accelerometer sensor changed. Called on the sensor thread; the filtered
+     * reading is queued for the game loop, which moves the paddle in its next tick.
      * @param event the sensor and the current sensor readings
      */
     @Override
     public void onSensorChanged(SensorEvent event) {
-        try {
-            Thread.sleep(15); //delay to buffer sensor
-        } catch (InterruptedException e) {
-            e.printStackTrace();
+        long now = System.nanoTime();
+        //the latency ("sensor to paddle") starts when the sensor measured, so it includes the
+        //delivery of the event: on most devices, event.timestamp counts from boot, like
+        //SystemClock.elapsedRealtimeNanos(); on the others, it starts at the delivery
+        long time = now;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1) {
+            long age = SystemClock.elapsedRealtimeNanos() - event.timestamp;
+            if (age >= 0 && age < MAX_EVENT_AGE_NS) {
+                time = now - age;
+            }
         }
-        mGameView.setSensorY(event.values[0]);
+        mGameView.setSensorY(mFilter.filter(event.values[0], event.timestamp), time);
     }
 
     /**
@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) 2015 Josef Mihalits, Randon Stasney, Dakota Ward
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.pdx.pong2pong;
+
+import edu.pdx.pong2pong.core.FramePacer;
+
+/**
+ * How GameView runs: what this device does in the game, and how. GameActivity sets the
+ * options from the extras of its intent; the fields not set keep their defaults.
+ */
+public class GameOptions {
+
+    /** what this device does */
+    public enum Mode {
+        /** plays the right paddle, and simulates the game for both players */
+        SERVER,
+        /** plays the left paddle in the game of the server */
+        CLIENT,
+        /** watches the game of the server, without playing */
+        SPECTATOR,
+        /** plays back a recorded match (see MatchRecorder) */
+        REPLAY
+    }
+
+    /** how the states are sent to the other device */
+    public enum Protocol {
+        /** a Session over TCP, which survives short drops of the connection */
+        TCP,
+        /** UDP datagrams; late or lost frames are not sent again */
+        UDP
+    }
+
+    /** what this device does */
+    public Mode mode = Mode.SERVER;
+
+    /**
+     * the IP address of the device running in server mode; if null or empty, the test address
+     * (R.string.test_server_addr), and in SERVER or CLIENT mode the device with that address
+     * is the server; not used in REPLAY mode
+     */
+    public String serverAddress;
+
+    /** how the states are sent to the other device */
+    public Protocol protocol = Protocol.TCP;
+
+    /** true to simulate the game on both devices and exchange paddle inputs only */
+    public boolean lockstep = false;
+
+    /** the target frame rate (frames/s), FramePacer.DISPLAY_RATE or FramePacer.HALF_RATE */
+    public int frameRate = FramePacer.DISPLAY_RATE;
+
+    /** true to measure the input-to-display latency on both devices (see LatencyTrace) */
+    public boolean traceLatency = false;
+
+    /** the time (System.nanoTime()) "Start Game" was pressed */
+    public long startTime = System.nanoTime();
+
+    /** the recording to play back, and the replay speed (1: the speed of the match) */
+    public String replayFile;
+    public float replaySpeed = 1;
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2015 Josef Mihalits, Randon Stasney, Dakota Ward
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.pdx.pong2pong;
+
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import edu.pdx.pong2pong.core.Ball;
+import edu.pdx.pong2pong.core.Game;
+import edu.pdx.pong2pong.core.Paddle;
+
+/**
+ * Draws the ball and the paddles of a Game to a graphics canvas, scaled from virtual field
+ * coordinates to screen coordinates.
+ */
+public class GameRenderer {
+    /** the game that is drawn */
+    private final Game mGame;
+
+    /** the paint objects used for drawing the ball and the paddles */
+    private final Paint mBallPaint = new Paint();
+    private final Paint mLeftPaint = new Paint();
+    private final Paint mRightPaint = new Paint();
+
+    /** the radius of the ball in screen resolution (pixels) */
+    private final int mScreenRadius;
+
+    /** the position of the ball before the last tick */
+    private int mPrevX;
+    private int mPrevY;
+
+    /**
+     * @param game the game that is drawn
+     */
+    public GameRenderer(Game game) {
+        mGame = game;
+        mLeftPaint.setColor(Color.rgb(200, 0, 0));
+        mRightPaint.setColor(Color.rgb(0, 0, 200));
+        mScreenRadius = (int) GameView.scaleX(Ball.RADIUS);
+    }
+
+    /**
+     * Remembers the position of the ball; call before each tick of the game.
+     */
+    public void beforeTick() {
+        mPrevX = mGame.getBall().getX();
+        mPrevY = mGame.getBall().getY();
+    }
+
+    /**
+     * Draws the ball between its positions of the last two ticks.
+     * @param c the canvas on which the ball is drawn
+     * @param alpha how far (0..1) the time has progressed from the last tick to the next
+     */
+    public void drawBall(Canvas c, float alpha) {
+        Ball ball = mGame.getBall();
+        float x = ball.getX();
+        float y = ball.getY();
+        //no interpolation if the ball jumped (a new round, or a correction by the server)
+        if (Math.abs(x - mPrevX) + Math.abs(y - mPrevY) <= 2 * ball.getSpeed()) {
+            x = mPrevX + (x - mPrevX) * alpha;
+            y = mPrevY + (y - mPrevY) * alpha;
+        }
+        c.drawCircle(GameView.scaleX(x), GameView.scaleY(y), mScreenRadius, mBallPaint);
+    }
+
+    /**
+     * Draws a paddle at a given y position (e.g. interpolated).
+     * @param c the canvas on which the paddle is drawn
+     * @param paddle the paddle; left paddles are red, right paddles blue
+     * @param y the y position at which the paddle is drawn
+     */
+    public void drawPaddle(Canvas c, Paddle paddle, float y) {
+        final int halfW = Paddle.WIDTH / 2;
+        final int halfH = Paddle.HEIGHT / 2;
+        float x = paddle.getX();
+        c.drawRect(
+                GameView.scaleX(x - halfW),
+                GameView.scaleY(y - halfH),
+                GameView.scaleX(x + halfW),
+                GameView.scaleY(y + halfH),
+                paddle == mGame.getLeftPaddle() ? mLeftPaint : mRightPaint);
+    }
+}
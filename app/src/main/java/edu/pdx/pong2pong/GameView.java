@@ -21,19 +21,52 @@ import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Paint;
 import android.graphics.Rect;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.SystemClock;
 import android.util.Log;
+import android.view.Choreographer;
 import android.view.MotionEvent;
 import android.view.SurfaceHolder;
 import android.view.SurfaceView;
-import java.io.DataInputStream;
-import java.io.DataOutputStream;
+import android.view.WindowManager;
+import edu.pdx.pong2pong.core.Backoff;
+import edu.pdx.pong2pong.core.Ball;
+import edu.pdx.pong2pong.core.ClockSync;
+import edu.pdx.pong2pong.core.FixedStepper;
+import edu.pdx.pong2pong.core.FramePacer;
+import edu.pdx.pong2pong.core.Game;
+import edu.pdx.pong2pong.core.Histogram;
+import edu.pdx.pong2pong.core.InterpolationBuffer;
+import edu.pdx.pong2pong.core.LatencyTrace;
+import edu.pdx.pong2pong.core.MatchRecorder;
+import edu.pdx.pong2pong.core.Lockstep;
+import edu.pdx.pong2pong.core.NetworkThread;
+import edu.pdx.pong2pong.core.Paddle;
+import edu.pdx.pong2pong.core.PaddleInput;
+import edu.pdx.pong2pong.core.Peer;
+import edu.pdx.pong2pong.core.ReplayPlayer;
+import edu.pdx.pong2pong.core.Session;
+import edu.pdx.pong2pong.core.Snapshot;
+import edu.pdx.pong2pong.core.SpectatorChannel;
+import edu.pdx.pong2pong.core.StateCheck;
+import edu.pdx.pong2pong.core.StateCodec;
+import edu.pdx.pong2pong.core.TcpTransport;
+import edu.pdx.pong2pong.core.TextBuffer;
+import edu.pdx.pong2pong.core.Transport;
+import edu.pdx.pong2pong.core.UdpTransport;
+import java.io.File;
+import java.io.FileWriter;
 import java.io.IOException;
+import java.io.Writer;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.NetworkInterface;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.SocketException;
-import java.net.UnknownHostException;
 import java.util.Enumeration;
 
 /**
@@ -42,15 +75,21 @@ import java.util.Enumeration;
  * (Uses code snippets from the Android SDK LunarLander sample program.)
  */
 public class GameView extends SurfaceView
-        implements SurfaceHolder.Callback, Runnable {
+        implements SurfaceHolder.Callback, Runnable, Choreographer.FrameCallback {
 
     /** tag strings for logging */
     private static String TAG_ERROR = "PONGLOG_ERROR_GameView";
     private static String TAG_MSG = "PONGLOG_MSG_GameView";
 
     /** the "virtual field" - all math is done using these dimensions */
-    public static final int FIELD_X = 1000;
-    public static final int FIELD_Y = 500;
+    public static final int FIELD_X = Game.FIELD_X;
+    public static final int FIELD_Y = Game.FIELD_Y;
+
+    /** ball, paddles and score; GameView only draws the game and feeds it input */
+    Game mGame;
+
+    /** draws ball and paddles */
+    private GameRenderer mRenderer;
 
     /** the Pong ball */
     Ball mBall;
@@ -61,8 +100,8 @@ public class GameView extends SurfaceView
     /** the right paddle */
     Paddle mRightPaddle;
 
-    /** the paddle the user controls; either the left or the right paddle */
-    Paddle mMyPaddle = new Paddle(0, 0, 0);
+    /** the paddle the user controls; either the left or the right paddle (game loop only) */
+    Paddle mMyPaddle = new Paddle(0, 0);
 
     /** the width of the screen (max x; number of actual screen pixels) */
     static int mScreenW = 0;
@@ -70,8 +109,8 @@ public class GameView extends SurfaceView
     /** the height of the screen (max y; number of actual screen pixels) */
     static int mScreenH = 0;
 
-    /** The thread that actually draws the animation */
-    private Thread mThread;
+    /** The thread that actually draws the animation; its Looper receives the vsync signals */
+    private HandlerThread mThread;
 
     /** Style and color information for debug text output */
     private Paint mDebugText = new Paint();
@@ -82,8 +121,16 @@ public class GameView extends SurfaceView
     /** y location (in px) where the text for the current score is drawn */
     private int mScoreTextY;
 
+    /** the text of the score, and the score it shows; rebuilt only when the score changes */
+    private final TextBuffer mScore = new TextBuffer(16);
+    private int mShownLeftScore = -1;
+    private int mShownRightScore = -1;
+
+    /** a line of debug text; reused for every line in every frame */
+    private final TextBuffer mLine = new TextBuffer(160);
+
     /** Indicate whether the surface has been created & is ready to draw */
-    private boolean mRun = false;
+    private volatile boolean mRun = false;
 
     /** Handle to the surface manager object we interact with */
     private SurfaceHolder mHolder;
@@ -91,19 +138,111 @@ public class GameView extends SurfaceView
     /** a reference to the parent context */
     private Context mContext;
 
-    /** time (ms) between frames; one iteration of the main processing loop in run() */
-    private int mDt;
+    /** the target frame rate (frames/s), FramePacer.DISPLAY_RATE or FramePacer.HALF_RATE */
+    private int mFrameRate;
+
+    /** decides on which vsyncs a frame is drawn; measures how evenly frames are paced */
+    private FramePacer mPacer;
+
+    /** the time (ns) between frames, and how long simulating and drawing a frame take */
+    private final Histogram mFrameTime = new Histogram("frame time");
+    private final Histogram mSimTime = new Histogram("simulation time");
+    private final Histogram mDrawTime = new Histogram("draw time");
+
+    /** the time (vsync) of the last frame drawn; 0 before the first frame */
+    private long mLastFrameTime = 0;
+
+    /** the time (System.nanoTime()) "Start Game" was pressed */
+    private final long mStartTime;
+
+    /** the time (ns) from "Start Game" to the connection, and to the first frame drawn */
+    private long mTimeToConnect;
+    private long mTimeToFirstFrame;
+
+    /** the number of ticks the game is simulated per second, on both devices */
+    private static final int TICK_RATE = Game.DEFAULT_TICK_RATE;
+
+    /** the maximum number of ticks simulated per frame, after the thread was delayed */
+    private static final int MAX_CATCH_UP = 5;
+
+    /** decides how many ticks of the game are simulated (or played back) in each frame */
+    private FixedStepper mStepper = new FixedStepper(TICK_RATE, MAX_CATCH_UP);
+
+    /** the time (ms) before the first retry to connect, and the longest time between retries */
+    private static final int CONNECT_RETRY_MS = 50;
+    private static final int CONNECT_MAX_RETRY_MS = 1000;
+
+    /** how long (ms) the client tries to connect before it gives up */
+    private static final int CONNECT_DEADLINE_MS = 60000;
+
+    /** one attempt to connect to the server, which close() or closeNetwork() can cancel */
+    private interface ConnectAttempt {
+        void connect() throws IOException;
+    }
+
+    /** set once the connection is open; until then, a destroyed surface cancels the connect */
+    private volatile boolean mConnected = false;
 
     /** comma separated list of local IP addresses */
     private String mIpAddress;
 
     /** sockets for the TCP/IP connection to the other device used in the game */
-    private Socket mSocket = null;
-    private ServerSocket mServerSocket = null;
+    private volatile Socket mSocket = null;
+    private volatile ServerSocket mServerSocket = null;
+
+    /** the connection to the other device; either TCP or UDP */
+    private volatile Transport mTransport;
+
+    /** the TCP connection to the other device, which survives short drops; null with UDP */
+    private volatile Session mSession;
+
+    /** shown while the match is paused, because the connection dropped */
+    private static final String RECONNECTING = "Connection lost - waiting for the other device";
+
+    /** true to use UdpTransport instead of TcpTransport */
+    private boolean mUseUdp;
+
+    /** true to send delta frames (see StateCodec) instead of full frames only */
+    private static final boolean DELTA_FRAMES = true;
+
+    /** checks that the client got the server's state right; null if there is no server state */
+    private StateCheck mStateCheck;
+
+    /** the number of desyncs found by the StateCheck that have been logged */
+    private long mLoggedDesyncs = 0;
+
+    /** the thread that exchanges the game state with the other device */
+    private NetworkThread mNetwork;
+
+    /** measures the round trip time to the other device and the offset of its clock */
+    private final ClockSync mClockSync = new ClockSync();
+
+    /** the number of frames drawn since the game started */
+    private long mFramesRendered;
+
+    /** the game loop of the server or the client playing the match; null if not playing one */
+    private Peer mPeer;
 
-    /** input and output streams for reading and writing to the socket */
-    private DataInputStream mInStream;
-    private DataOutputStream mOutStream;
+    /** spectator: the tick of the server state shown */
+    private int mTick;
+
+    /** true to simulate the game on both devices and exchange paddle inputs only */
+    private boolean mUseLockstep;
+
+    /** the number of ticks a paddle input is scheduled ahead in lockstep */
+    private static final int INPUT_DELAY = 3;
+
+    /** runs the game in lockstep with the other device; null if not used */
+    private Lockstep mLockstep;
+
+    /** true to watch the game of the server program instead of playing */
+    private boolean mSpectate;
+
+    /** server: broadcasts the game to spectators; null if they cannot connect */
+    private SpectatorChannel mSpectators;
+
+    /** server: the state of the game sent to the spectators */
+    private final Snapshot mSpectatorState = new Snapshot();
 
     /** the IP address of the device running in server mode */
     private String mAddrServer;
@@ -111,17 +250,54 @@ public class GameView extends SurfaceView
     /** true if the program is running in server mode; false if the program runs in client mode */
     private boolean mIsServer;
 
-    /** the last reading from the gravity sensor */
-    private float mSensorY;
+    /** sensor readings (sensor thread) and touch positions (UI thread) for the game loop */
+    private final PaddleInput mInput = new PaddleInput();
+
+    /** System.nanoTime() minus SystemClock.uptimeMillis() (ns), for the times of MotionEvents */
+    private final long mUptimeOffset = System.nanoTime() - SystemClock.uptimeMillis() * 1000000L;
+
+    /** follows the paddle inputs to the display of both devices; null if not measured */
+    private final LatencyTrace mTrace;
+
+    /** a keyframe of the game is recorded at least once a second */
+    private static final int KEYFRAME_INTERVAL = TICK_RATE;
+
+    /** records the match to the app's external files directory; null if it cannot */
+    private MatchRecorder mRecorder;
+
+    /** the recording to replay instead of playing, and the replay speed; null to play */
+    private String mReplayFile;
+    private float mReplaySpeed = 1;
+
+    /** plays back the recording; null if not replaying */
+    private ReplayPlayer mReplay;
+
+    /** where (0..1 of the recording) the replay should jump to; negative if it should not */
+    private volatile float mSeek = -1;
 
     /** a flag for enabling/disabling the printing of some debug information */
     private boolean mIsDebug = false;
 
-    public GameView(Context context, boolean isServer, String addrServer) {
+    /**
+     * @param context the activity
+     * @param options what this device does in the game, and how
+     */
+    public GameView(Context context, GameOptions options) {
         super(context);
         mContext = context;
-        mIsServer = isServer;
-        mAddrServer = addrServer;
+        mIsServer = options.mode == GameOptions.Mode.SERVER;
+        mSpectate = options.mode == GameOptions.Mode.SPECTATOR;
+        if (options.mode == GameOptions.Mode.REPLAY) {
+            mReplayFile = options.replayFile;
+            mReplaySpeed = options.replaySpeed;
+        }
+        mAddrServer = options.serverAddress;
+        mUseUdp = options.protocol == GameOptions.Protocol.UDP;
+        mUseLockstep = options.lockstep;
+        mFrameRate = options.frameRate;
+        mStartTime = options.startTime;
+        //in lockstep, the inputs take effect INPUT_DELAY ticks later; spectators have none
+        mTrace = options.traceLatency && !mUseLockstep && !mSpectate ? new LatencyTrace() : null;
 
         // register our interest in hearing about changes to our surface
         mHolder = getHolder();
@@ -146,9 +322,14 @@ public class GameView extends SurfaceView
         // "emulator -avd MY_AVD2 -shared-net-id 43"
         // this starts a virtual LAN with IPs 10.1.2.42 and 10.1.2.43
         // R.string.test_server_addr needs to be one of the two IP addresses
-        if (mAddrServer == null || mAddrServer.equals("")) {
+        // (a replay does not use the network, and a spectator never is the server)
+        if (options.mode != GameOptions.Mode.REPLAY
+                && (mAddrServer == null || mAddrServer.equals(""))) {
             mAddrServer = context.getResources().getString(R.string.test_server_addr);
-            mIsServer = mIpAddress.contains(mAddrServer);
+            if (options.mode == GameOptions.Mode.SERVER
+                    || options.mode == GameOptions.Mode.CLIENT) {
+                mIsServer = mIpAddress.contains(mAddrServer);
+            }
         }
     }
 
@@ -174,8 +355,9 @@ public class GameView extends SurfaceView
     @Override
     public void surfaceCreated(SurfaceHolder holder) {
         mRun = true;
-        mThread = new Thread(this);
+        mThread = new HandlerThread("GameLoop");
         mThread.start();
+        new Handler(mThread.getLooper()).post(this);
     }
 
     /**
@@ -195,6 +377,11 @@ public class GameView extends SurfaceView
     public void surfaceDestroyed(SurfaceHolder holder) {
         // tell thread to shut down
         mRun = false;
+        if (!mConnected) {
+            //still connecting: give up at once
+            closeNetwork();
+            mThread.interrupt();
+        }
         // wait for it to finish
         while(true) {
             try {
@@ -207,89 +394,379 @@ public class GameView extends SurfaceView
 
     /**
      * A touch screen event (MotionEvent.ACTION_DOWN, MotionEvent.ACTION_UP,
-     * MotionEvent.ACTION_MOVE) has occurred.
+     * MotionEvent.ACTION_MOVE) has occurred. The positions are queued for the game loop
+     * (see PaddleInput), including the ones batched in the event since the last one.
+     * In a replay, a touch jumps to that point of the match instead (left edge: start).
      * @param event x/y position of the touch event (in screen coordinates)
      * @return true so that multiple events are processed
      */
     @Override
     public boolean onTouchEvent(MotionEvent event) {
-        float y = event.getY();
-        //scale screen coordinates ot virtual field coordinates
-        mMyPaddle.setY(y * FIELD_Y / mScreenH);
+        if (mReplayFile != null) {
+            //in a replay, the x position picks the point of the match to jump to
+            mSeek = event.getX() / mScreenW;
+            return true;
+        }
+        //scale screen coordinates to virtual field coordinates; the oldest sample first
+        for (int i = 0; i < event.getHistorySize(); i++) {
+            mInput.offerTouch(event.getHistoricalY(i) * FIELD_Y / mScreenH,
+                    event.getHistoricalEventTime(i) * 1000000L + mUptimeOffset);
+        }
+        mInput.offerTouch(event.getY() * FIELD_Y / mScreenH,
+                event.getEventTime() * 1000000L + mUptimeOffset);
         return true;
     }
 
     /**
-     * Gravity sensor change callback from activity.
-     * @param value the current reading of the sensor
+     * Gravity sensor change callback from activity, on the sensor thread. The reading is
+     * queued for the game loop (see PaddleInput).
+     * @param value the current (filtered) reading of the sensor
+     * @param time the time (System.nanoTime()) the sensor measured the reading; if that is not
+     *             known, the time the event was delivered
      */
-    public void setSensorY(float value) {
-        mSensorY = value;
-        final int middle = FIELD_Y / 2;
-        // The range of sensor values is between -9.8 and +9.8 (i.e. 1g), but let's use
-        // a lower max value so that one is not required to tilt the device all the way (90 degree)
-        final int maxSensorValue = 4;
-        mMyPaddle.setY(middle + middle / maxSensorValue * value);
+    public void setSensorY(float value, long time) {
+        mInput.offerSensor(value, time);
     }
 
     /**
-     * The entry point of the processing thread. Contains the main game loop.
+     * The entry point of the processing thread. Opens the connection and sets up the game;
+     * the game loop then runs in doFrame(), once per vsync signal of the display.
      */
     @Override
     public void run() {
+        if (mReplayFile != null) {
+            startReplay();
+            return;
+        }
         try {
             openNetwork();
             setupGame();
         } catch(Exception e) {
+            if (!mRun) {
+                //the surface was destroyed while connecting
+                Looper.myLooper().quit();
+                return;
+            }
             Log.d(TAG_ERROR, "Network error: " + e);
             e.printStackTrace();
             drawText("Network error: " + e);
+            Looper.myLooper().quit();
             return;
         }
-        long timeEnd = System.currentTimeMillis();
+        mConnected = true;
+        mTimeToConnect = System.nanoTime() - mStartTime;
         mBall.start();
+        startRecording();
 
-        while (mRun) {
-            long timeStart = System.currentTimeMillis();
-            //time between frames; adding 1 guarantees that the value is never 0
-            mDt = (int) (timeStart - timeEnd + 1);
-            timeEnd = timeStart;
-
-            //update the UI
-            Canvas c = mHolder.lockCanvas();
-            if (c != null) {
-                doDraw(c);
-                mHolder.unlockCanvasAndPost(c);
-            }
+        //the network thread starts with the initial state of the game
+        mNetwork = mSpectate ? NetworkThread.spectate(mTransport)
+                : new NetworkThread(isServer(), mTransport);
+        if (mLockstep == null && !mSpectate) {
+            mPeer = new Peer(mGame, isServer(), mNetwork, mInput);
+        }
+        if (mTrace != null) {
+            mNetwork.setLatencyTrace(mTrace);
+            mPeer.setLatencyTrace(mTrace);
+        }
+        publishState();
+        mNetwork.start();
+        startFrames();
+    }
 
-            if (isServer()) {
-                //the server program controls the ball
-                mBall.move(mLeftPaddle, mRightPaddle, mDt);
-                sendReceiveServer();
+    /**
+     * Opens the recording to replay and sets up its game; the replay then runs in
+     * replayFrame(), once per vsync signal of the display.
+     */
+    private void startReplay() {
+        try {
+            mReplay = new ReplayPlayer(new File(mReplayFile));
+        } catch (IOException e) {
+            Log.d(TAG_ERROR, "cannot replay " + mReplayFile + ": " + e);
+            drawText("Cannot replay: " + e);
+            Looper.myLooper().quit();
+            return;
+        }
+        mConnected = true;
+        setupGame();
+        int tickRate = Math.round(mReplay.getGame().getTickRate() * mReplaySpeed);
+        mStepper = new FixedStepper(Math.max(1, tickRate), MAX_CATCH_UP);
+        startFrames();
+    }
+
+    /**
+     * Starts the game loop: doFrame() is called for every vsync signal from now on.
+     */
+    private void startFrames() {
+        float displayRate = ((WindowManager) mContext.getSystemService(Context.WINDOW_SERVICE))
+                .getDefaultDisplay().getRefreshRate();
+        mPacer = new FramePacer(displayRate, mFrameRate);
+        Choreographer.getInstance().postFrameCallback(this);
+    }
+
+    /**
+     * Records the match to a file in the app's external files directory
+     * (Android/data/edu.pdx.pong2pong/files); the match goes on unrecorded if it cannot.
+     */
+    private void startRecording() {
+        File dir = mContext.getExternalFilesDir(null);
+        if (dir == null) {
+            Log.d(TAG_ERROR, "no storage for recording the match");
+            return;
+        }
+        File file = new File(dir, "match-" + (mSpectate ? "spectator-" : isServer() ? "server-"
+                : "client-") + System.currentTimeMillis() + MatchRecorder.EXTENSION);
+        try {
+            mRecorder = new MatchRecorder(file, TICK_RATE, KEYFRAME_INTERVAL);
+        } catch (IOException e) {
+            Log.d(TAG_ERROR, "cannot record the match: " + e);
+        }
+    }
+
+    /**
+     * Writes the rest of the recording, if the match is recorded.
+     */
+    private void stopRecording() {
+        if (mRecorder == null) {
+            return;
+        }
+        try {
+            mRecorder.close();
+            Log.d(TAG_MSG, "match recorded: " + mRecorder.getTicks() + " ticks, "
+                    + mRecorder.getBytesWritten() + " bytes, records dropped: "
+                    + mRecorder.getDropped());
+        } catch (IOException e) {
+            Log.d(TAG_ERROR, "could not write the recording: " + e);
+        }
+    }
+
+    /**
+     * The main game loop; called on the processing thread for every vsync signal of the
+     * display. Simulation and drawing are timed by the vsync, not by when the thread happens
+     * to run, so the frames reach the display at an even pace.
+     * @param frameTimeNanos the time (System.nanoTime()) of the vsync signal
+     */
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        if (!mRun) {
+            finishGame();
+            Looper.myLooper().quit();
+            return;
+        }
+        Choreographer.getInstance().postFrameCallback(this);
+        if (!mPacer.onVsync(frameTimeNanos)) {
+            return;
+        }
+        if (mLastFrameTime != 0) {
+            mFrameTime.record(frameTimeNanos - mLastFrameTime);
+        }
+        mLastFrameTime = frameTimeNanos;
+        if (mReplay != null) {
+            replayFrame(frameTimeNanos);
+            return;
+        }
+
+        //simulate the ticks that are due; the frame time only decides how many
+        long simStart = System.nanoTime();
+        int ticks = mStepper.advance(frameTimeNanos);
+        if (isSuspended()) {
+            //the match is paused till the connection is back (see Session)
+            ticks = 0;
+        }
+        for (int i = 0; i < ticks; i++) {
+            mRenderer.beforeTick();
+            //true if the state of the game was not (only) simulated here, for the recording
+            boolean corrected;
+            if (mPeer != null) {
+                //the server program controls the ball, the client predicts it
+                corrected = mPeer.tick(System.nanoTime());
+            } else if (mLockstep != null) {
+                //both programs simulate the game; the paddle inputs are all they exchange
+                mInput.apply(mMyPaddle, System.nanoTime());
+                receiveLockstep();
+                if (!mLockstep.advance(mMyPaddle.getY())) {
+                    continue;
+                }
+                corrected = false;
             } else {
-                networkClient();
+                //the spectator moves the ball on till the next state arrives
+                mInput.apply(mMyPaddle, System.nanoTime());
+                corrected = receiveSpectator();
+                if (!corrected) {
+                    mBall.move(mLeftPaddle, mRightPaddle);
+                }
             }
+            if (mRecorder != null) {
+                mRecorder.record(mGame, corrected);
+            }
+        }
+        if (ticks > 0) {
+            publishState();
+            broadcastState();
+        }
+        long drawStart = System.nanoTime();
+        mSimTime.record(drawStart - simStart);
 
-            //check if the ball is outside the game area
-            if (mBall.getX() < 0) {
-                mRightPaddle.incScore();
-                mBall.start();
-            } else if (mBall.getX() > FIELD_X) {
-                mLeftPaddle.incScore();
-                mBall.start();
+        //update the UI
+        Canvas c = mHolder.lockCanvas();
+        if (c != null) {
+            doDraw(c);
+            mHolder.unlockCanvasAndPost(c);
+            if (mTrace != null) {
+                mTrace.onDisplay(System.nanoTime());
+            }
+            if (mFramesRendered++ == 0) {
+                mTimeToFirstFrame = System.nanoTime() - mStartTime;
+                Log.d(TAG_MSG, "time to connect (ms): " + mTimeToConnect / 1e6f
+                        + ", time to first frame (ms): " + mTimeToFirstFrame / 1e6f);
             }
         }
+        mDrawTime.record(System.nanoTime() - drawStart);
+
+        logDesync();
+        if (mNetwork.hasFailed()) {
+            Log.d(TAG_ERROR, "read/write error (" + (isServer() ? "server" : "client") + "): "
+                    + mNetwork.getError());
+            mRun = false;
+        }
+    }
+
+    /**
+     * One frame of a replay: jumps to where the user tapped, if they did, plays back the
+     * ticks that are due at the replay speed, and draws the game.
+     * @param frameTimeNanos the time (System.nanoTime()) of the vsync signal
+     */
+    private void replayFrame(long frameTimeNanos) {
+        float seek = mSeek;
+        if (seek >= 0) {
+            mSeek = -1;
+            mReplay.seek(Math.round(seek * mReplay.getTickCount()));
+            mRenderer.beforeTick();
+        }
+        int ticks = mStepper.advance(frameTimeNanos);
+        for (int i = 0; i < ticks && !mReplay.isFinished(); i++) {
+            mRenderer.beforeTick();
+            mReplay.advance();
+        }
+        Canvas c = mHolder.lockCanvas();
+        if (c != null) {
+            doDraw(c);
+            mHolder.unlockCanvasAndPost(c);
+            mFramesRendered++;
+        }
+    }
+
+    /**
+     * Logs the statistics of the game and closes the connection.
+     */
+    private void finishGame() {
+        if (mReplay != null) {
+            Log.d(TAG_MSG, "replayed " + mReplay.getTick() + " of " + mReplay.getTickCount()
+                    + " ticks");
+            return;
+        }
+        Log.d(TAG_MSG, "frames rendered: " + mFramesRendered
+                + ", snapshots received: " + mNetwork.getSnapshotsReceived()
+                + ", bytes sent: " + mTransport.getSendMeter().getTotal()
+                + ", bytes received: " + mTransport.getReceiveMeter().getTotal()
+                + (mPeer == null ? "" : ", extrapolations: "
+                        + mPeer.getRemotePaddle().getExtrapolations())
+                + ", ticks dropped: " + mStepper.getDroppedTicks()
+                + ", late frames: " + mPacer.getLateFrames()
+                + ", missed vsyncs: " + mPacer.getMissedVsyncs()
+                + ", max frame time (ms): " + mPacer.getMaxIntervalNs() / 1e6f
+                + ", RTT (ms): " + mClockSync.getRtt() / 1e3f
+                + ", min RTT (ms): " + mClockSync.getMinRtt() / 1e3f
+                + ", jitter (ms): " + mClockSync.getJitter() / 1e3f
+                + (mLockstep == null ? "" : ", lockstep stalls: " + mLockstep.getStalls()
+                        + ", desyncs: " + mLockstep.getDesyncs())
+                + (mStateCheck == null ? "" : ", state checks: " + mStateCheck.getChecks()
+                        + ", desyncs: " + mStateCheck.getDesyncs())
+                + (mSession == null ? "" : ", connection drops: " + mSession.getDrops()
+                        + ", resumed: " + mSession.getResumes())
+                + (mSpectators == null ? "" : ", spectators: " + mSpectators.getViewerCount()
+                        + ", frames dropped for spectators: " + mSpectators.getFramesDropped())
+                + (mTrace == null ? "" : ", input to display p99 (ms): "
+                        + mTrace.getDisplay().getValueAtPercentile(99) / 1e6f
+                        + ", remote input to display p99 (ms): "
+                        + mTrace.getRemoteDisplay().getValueAtPercentile(99) / 1e6f));
+        mNetwork.shutdown();
         closeNetwork();
+        while (true) {
+            try {
+                mNetwork.join();
+                break;
+            } catch (InterruptedException e) {}
+        }
+        stopRecording();
+        writeHistograms();
+    }
+
+    /**
+     * Writes the histograms of the game to a text file in the app's external files directory
+     * (Android/data/edu.pdx.pong2pong/files), for comparing them across devices.
+     */
+    private void writeHistograms() {
+        File dir = mContext.getExternalFilesDir(null);
+        if (dir == null) {
+            Log.d(TAG_ERROR, "no storage for the histograms");
+            return;
+        }
+        File file = new File(dir, "histograms-" + (isServer() ? "server-" : "client-")
+                + System.currentTimeMillis() + ".txt");
+        Writer out = null;
+        try {
+            out = new FileWriter(file);
+            out.write("# device: " + Build.MANUFACTURER + " " + Build.MODEL
+                    + ", Android " + Build.VERSION.RELEASE + "\n");
+            out.write("# time to connect (ms): " + mTimeToConnect / 1e6
+                    + ", time to first frame (ms): " + mTimeToFirstFrame / 1e6 + "\n");
+            out.write("# frame rate: " + mPacer.getFrameRate()
+                    + ", transport: " + (mUseUdp ? "UDP" : "TCP")
+                    + (mLockstep != null ? ", lockstep" : "") + "\n");
+            Histogram[] histograms = {mFrameTime, mSimTime, mDrawTime, mInput.getSensorLatency(),
+                    mInput.getTouchLatency(), mNetwork.getReadWait(), mNetwork.getWriteTime()};
+            for (Histogram h : histograms) {
+                h.write(out);
+            }
+            if (mSession != null) {
+                mSession.getResumeTime().write(out);
+            }
+            if (mTrace != null) {
+                mTrace.getSend().write(out);
+                mTrace.getDisplay().write(out);
+                mTrace.getRemoteReceive().write(out);
+                mTrace.getRemoteDisplay().write(out);
+            }
+            Log.d(TAG_MSG, "histograms written to " + file);
+        } catch (IOException e) {
+            Log.d(TAG_ERROR, "could not write the histograms: " + e);
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {}
+            }
+        }
     }
 
     /**
      * Setup the ball and the paddles.
      */
     private void setupGame()  {
-        mBall = new Ball();
-        mLeftPaddle = new Paddle(Color.rgb(200, 0, 0), 20 , FIELD_Y / 2);
-        mRightPaddle = new Paddle(Color.rgb(0, 0, 200), FIELD_X - 20, FIELD_Y / 2);
+        mGame = mReplay != null ? mReplay.getGame() : new Game(TICK_RATE);
+        mBall = mGame.getBall();
+        mLeftPaddle = mGame.getLeftPaddle();
+        mRightPaddle = mGame.getRightPaddle();
         mMyPaddle = isServer() ? mRightPaddle : mLeftPaddle;
+        if (mSpectate || mReplay != null) {
+            //a spectator or a replay watches; touch and sensor move no paddle of the game
+            mMyPaddle = new Paddle(mMyPaddle.getX(), FIELD_Y / 2);
+        } else if (mUseLockstep) {
+            //in lockstep, only the Lockstep moves the paddles of the game, tick by tick
+            mLockstep = new Lockstep(mGame, isServer(), INPUT_DELAY);
+            mMyPaddle = new Paddle(mMyPaddle.getX(), FIELD_Y / 2);
+        }
+        mRenderer = new GameRenderer(mGame);
 
         //init Paint object used for drawing the score text
         mScoreText = new Paint();
@@ -304,70 +781,235 @@ public class GameView extends SurfaceView
     }
 
     /**
-     * The network code that runs on the server program.
+     * Hands the current state of the game over to the network thread.
      */
-    private void sendReceiveServer() {
-        try {
-            //send ball coordinates
-            mOutStream.writeInt(mBall.getX());
-            mOutStream.writeInt(mBall.getY());
-            //send coordinates of right paddle
-            mOutStream.writeInt(mRightPaddle.getY());
-            mOutStream.flush();
-            //read coordinates of left paddle
-            int y = mInStream.readInt();
-            mLeftPaddle.setY(y);
-
-        } catch(IOException e) {
-            Log.d(TAG_ERROR, "read/write error (server): " + e);
-            mRun = false;
+    private void publishState() {
+        if (mPeer != null) {
+            mPeer.publish();
+        } else if (mLockstep != null) {
+            mLockstep.send(mNetwork.getOutgoing().getWriteBuffer());
+            mNetwork.getOutgoing().publish();
         }
     }
 
     /**
-     * The network code that runs on the client program.
+     * Sends the current state of the game to the spectators, if any are watching.
      */
-    private void networkClient() {
-        try {
-            //read coordinates of ball
-            int x = mInStream.readInt();
-            int y = mInStream.readInt();
-            mBall.setCoord(x, y);
-            //read coordinates of right paddle
-            y = mInStream.readInt();
-            mRightPaddle.setY(y);
-            //send coordinates of left paddle
-            mOutStream.writeInt(mLeftPaddle.getY());
-            mOutStream.flush();
-        } catch(IOException e) {
-            Log.d(TAG_ERROR, "read/write error (client): " + e);
-            mRun = false;
+    private void broadcastState() {
+        if (mSpectators == null) {
+            return;
+        }
+        Snapshot out = mSpectatorState;
+        out.ballX = mBall.getX();
+        out.ballY = mBall.getY();
+        out.ballVx = mBall.getVx();
+        out.ballVy = mBall.getVy();
+        out.leftY = mLeftPaddle.getY();
+        out.rightY = mRightPaddle.getY();
+        out.leftScore = mLeftPaddle.getScore();
+        out.rightScore = mRightPaddle.getScore();
+        out.tick = mGame.getTick();
+        mSpectators.broadcast(out);
+    }
+
+    /**
+     * Applies the latest state broadcast by the server program to a spectator, if there is
+     * a new one. The spectator has no say in the game, so the state is taken as it is.
+     * @return true if a new state was applied
+     */
+    private boolean receiveSpectator() {
+        if (!mNetwork.getIncoming().update()) {
+            return false;
+        }
+        Snapshot in = mNetwork.getIncoming().getReadBuffer();
+        mBall.setCoord(in.ballX, in.ballY);
+        mBall.setVelocity(in.ballVx, in.ballVy);
+        mLeftPaddle.setY(in.leftY);
+        mRightPaddle.setY(in.rightY);
+        mLeftPaddle.setScore(in.leftScore);
+        mRightPaddle.setScore(in.rightScore);
+        mTick = in.tick;
+        return true;
+    }
+
+    /**
+     * Hands the latest paddle inputs received to the Lockstep, if there are new ones.
+     */
+    private void receiveLockstep() {
+        if (mNetwork.getIncoming().update()) {
+            mLockstep.receive(mNetwork.getIncoming().getReadBuffer());
         }
     }
 
     /**
-     * Draw ball, paddles, and everything else to canvas.
+     * Logs a new desync found by the StateCheck on the network thread: the tick, and the state
+     * at the tick. The codec has already sent (or asked for) the server's state in a full frame.
+     */
+    private void logDesync() {
+        long desyncs = mStateCheck == null ? 0 : mStateCheck.getDesyncs();
+        if (desyncs != mLoggedDesyncs) {
+            mLoggedDesyncs = desyncs;
+            Log.d(TAG_ERROR, "desync (" + (isServer() ? "server" : "client") + ") at "
+                    + mStateCheck.getLastDesync());
+        }
+    }
+
+    /**
+     * Draw ball, paddles, and everything else to canvas. Called for every frame, so it must
+     * not create any objects (which would cause garbage collection pauses during a game).
      * @param c canvas
      */
     private void doDraw(Canvas c) {
         c.drawColor(Color.LTGRAY); //background
-        if (mIsDebug) {
-            c.drawText("time between frames (ms): " + mDt, 10, 60, mDebugText);
-            int fps = 1000 / mDt;
-            c.drawText("frames per second: " + fps, 10, 100, mDebugText);
-            c.drawText("screen: " + mScreenW + "x" + mScreenH, 10, 140, mDebugText);
-            c.drawText("speed of ball: " + mBall.mSpeed, 10, 180, mDebugText);
-            c.drawText("IP addresses: " + mIpAddress + "(" + (isServer() ? "server" : "client") + ")", 10, 220, mDebugText);
-            c.drawText("sensorY: " + mSensorY, 10, 260, mDebugText);
+        if (mIsDebug && mReplay == null) {
+            drawDebugText(c);
+        }
+
+        //the score text only changes at the end of a round
+        int leftScore = mLeftPaddle.getScore();
+        int rightScore = mRightPaddle.getScore();
+        if (leftScore != mShownLeftScore || rightScore != mShownRightScore) {
+            mShownLeftScore = leftScore;
+            mShownRightScore = rightScore;
+            mScore.clear().append(leftScore).append(" : ").append(rightScore);
+        }
+        c.drawText(mScore.getChars(), 0, mScore.length(), mScreenW / 2, mScoreTextY, mScoreText);
+        if (isSuspended()) {
+            c.drawText(RECONNECTING, 10, mScreenH - 30, mDebugText);
+        }
+        if (mReplay != null) {
+            mLine.clear().append("replay: tick ").append(mReplay.getTick()).append(" / ")
+                    .append(mReplay.getTickCount()).append(", speed: ").append(mReplaySpeed, 2)
+                    .append(mReplay.isFinished() ? " (finished)" : "")
+                    .append(" - tap to jump to a point of the match");
+            drawLine(c, mScreenH - 30);
+        }
+
+        if (mLockstep != null || mSpectate || mReplay != null) {
+            //both paddles exactly as simulated (or as broadcast, or as recorded)
+            mRenderer.drawBall(c, mStepper.getAlpha());
+            mRenderer.drawPaddle(c, mLeftPaddle, mLeftPaddle.getY());
+            mRenderer.drawPaddle(c, mRightPaddle, mRightPaddle.getY());
+            return;
+        }
+
+        //the paddle of the other player is drawn a little in the past, but smoothly
+        Paddle remote = isServer() ? mLeftPaddle : mRightPaddle;
+        float remoteY = mPeer.sampleRemotePaddle(System.nanoTime());
+        mRenderer.drawBall(c, mStepper.getAlpha());
+        mRenderer.drawPaddle(c, mMyPaddle, mMyPaddle.getY());
+        mRenderer.drawPaddle(c, remote, remoteY);
+    }
+
+    /**
+     * Draws the debug information. Each line is written into the same TextBuffer, so no
+     * strings are created.
+     * @param c canvas
+     */
+    private void drawDebugText(Canvas c) {
+        drawPercentiles(c, mFrameTime, 60);
+        mLine.clear().append("target frames per second: ").append(mPacer.getFrameRate(), 1)
+                .append(", late frames: ").append(mPacer.getLateFrames())
+                .append(", missed vsyncs: ").append(mPacer.getMissedVsyncs());
+        drawLine(c, 100);
+        mLine.clear().append("screen: ").append(mScreenW).append('x').append(mScreenH)
+                .append(", time to first frame (ms): ").append(mTimeToFirstFrame / 1e6f, 0);
+        drawLine(c, 140);
+        mLine.clear().append("speed of ball: ").append(mBall.getSpeed(), 2).append(" per tick, ")
+                .append(TICK_RATE).append(" ticks/s, dropped: ").append(mStepper.getDroppedTicks());
+        drawLine(c, 180);
+        mLine.clear().append("IP addresses: ").append(mIpAddress)
+                .append(isServer() ? "(server)" : "(client)");
+        drawLine(c, 220);
+        mLine.clear().append("sensorY: ").append(mInput.getSensorY(), 3);
+        drawLine(c, 260);
+        mLine.clear().append("frames rendered / snapshots received: ").append(mFramesRendered)
+                .append(" / ").append(mNetwork.getSnapshotsReceived());
+        drawLine(c, 300);
+        mLine.clear().append("transport: ").append(mUseUdp ? "UDP" : "TCP")
+                .append(", packets dropped: ").append(mTransport.getPacketsDropped());
+        drawLine(c, 340);
+        mLine.clear().append("bytes/s sent / received: ").append(mTransport.getSendMeter().getRate())
+                .append(" / ").append(mTransport.getReceiveMeter().getRate());
+        drawLine(c, 380);
+        if (mPeer != null) {
+            mLine.clear().append("unacknowledged inputs: ").append(mPeer.getUnacknowledgedInputs());
+            drawLine(c, 420);
+            InterpolationBuffer remote = mPeer.getRemotePaddle();
+            mLine.clear().append("interpolation buffer depth: ").append(remote.getDepth())
+                    .append(", extrapolations: ").append(remote.getExtrapolations());
+            drawLine(c, 460);
+            mLine.clear().append("tick: ").append(mPeer.getTick())
+                    .append(", hits granted by rewind: ")
+                    .append(mPeer.getLagCompensator().getRewinds());
+            drawLine(c, 500);
+        } else if (mSpectate) {
+            mLine.clear().append("tick: ").append(mTick);
+            drawLine(c, 500);
+        }
+        if (mLockstep != null) {
+            mLine.clear().append("lockstep: tick ").append(mGame.getTick())
+                    .append(", input delay: ").append(mLockstep.getInputDelay())
+                    .append(", stalls: ").append(mLockstep.getStalls())
+                    .append(", desyncs: ").append(mLockstep.getDesyncs());
+            drawLine(c, 540);
+        } else if (mStateCheck != null) {
+            mLine.clear().append("state checks: ").append(mStateCheck.getChecks())
+                    .append(", desyncs: ").append(mStateCheck.getDesyncs());
+            drawLine(c, 540);
         }
-        String score = mLeftPaddle.getScore() + " : " + mRightPaddle.getScore();
-        c.drawText(score, mScreenW / 2, mScoreTextY, mScoreText);
+        drawPercentiles(c, mSimTime, 580);
+        drawPercentiles(c, mDrawTime, 620);
+        drawPercentiles(c, mNetwork.getReadWait(), 660);
+        drawPercentiles(c, mNetwork.getWriteTime(), 700);
+        mLine.clear().append("RTT (ms) smoothed / min / jitter: ")
+                .append(mClockSync.getRtt() / 1e3f, 2)
+                .append(" / ").append(mClockSync.getMinRtt() / 1e3f, 2)
+                .append(" / ").append(mClockSync.getJitter() / 1e3f, 2)
+                .append(", clock offset (ms): ").append(mClockSync.getOffset() / 1e3f, 1);
+        drawLine(c, 740);
+        if (mSpectators != null) {
+            mLine.clear().append("spectators: ").append(mSpectators.getViewerCount())
+                    .append(", frames dropped: ").append(mSpectators.getFramesDropped());
+            drawLine(c, 780);
+        }
+        if (mSession != null) {
+            mLine.clear().append("connection drops: ").append(mSession.getDrops())
+                    .append(", resumed: ").append(mSession.getResumes());
+            drawLine(c, 820);
+            drawPercentiles(c, mSession.getResumeTime(), 860);
+        }
+        drawPercentiles(c, mInput.getSensorLatency(), 900);
+        drawPercentiles(c, mInput.getTouchLatency(), 940);
+        if (mTrace != null) {
+            drawPercentiles(c, mTrace.getDisplay(), 980);
+            drawPercentiles(c, mTrace.getRemoteDisplay(), 1020);
+        }
+    }
 
-        mBall.draw(c);
-        mLeftPaddle.draw(c);
-        mRightPaddle.draw(c);
+    /**
+     * Draws the percentiles of a histogram as a line of debug text.
+     * @param c canvas
+     * @param h the histogram
+     * @param y the y position (in px) of the line
+     */
+    private void drawPercentiles(Canvas c, Histogram h, int y) {
+        mLine.clear().append(h.getName()).append(" (ms) p50 / p95 / p99 / max: ")
+                .append(h.getValueAtPercentile(50) / 1e6f, 2)
+                .append(" / ").append(h.getValueAtPercentile(95) / 1e6f, 2)
+                .append(" / ").append(h.getValueAtPercentile(99) / 1e6f, 2)
+                .append(" / ").append(h.getMax() / 1e6f, 2);
+        drawLine(c, y);
     }
 
+    /**
+     * Draws the debug text in mLine.
+     * @param c canvas
+     * @param y the y position (in px) of the line
+     */
+    private void drawLine(Canvas c, int y) {
+        c.drawText(mLine.getChars(), 0, mLine.length(), 10, y, mDebugText);
+    }
 
     /**
      * @return a comma separated list of IP addresses found on the local device
@@ -424,72 +1066,156 @@ public class GameView extends SurfaceView
     }
 
     /**
-     * Opens a server socket and waits for a client connection.
-     * @param port the port on which the server socket listens for incoming connections
-     * @throws IOException
+     * Connects a socket to the server, retrying with a backoff (see connect()).
+     * @param port the port on the target host to connect to
+     * @throws IOException if the server could not be reached in time, or connecting was cancelled
      */
-    private void openServerSocket(int port) throws IOException {
-        drawText("My IP: " + mIpAddress + "  Waiting for client.");
-        mServerSocket = new ServerSocket(port);
-        mSocket = mServerSocket.accept();
+    private void openClientSocket(final int port) throws IOException {
+        connect(new ConnectAttempt() {
+            @Override
+            public void connect() throws IOException {
+                Socket socket = new Socket();
+                //closeNetwork() aborts the attempt
+                mSocket = socket;
+                try {
+                    socket.connect(new InetSocketAddress(mAddrServer, port), CONNECT_MAX_RETRY_MS);
+                } catch (IOException e) {
+                    socket.close();
+                    mSocket = null;
+                    throw e;
+                }
+            }
+        });
     }
 
     /**
-     * Tries to open a socket connection in an infinite loop till it succeeds.
+     * Starts a session with the server, retrying with a backoff (see connect()).
      * @param port the port on the target host to connect to
+     * @param codec the codec of the client
+     * @throws IOException if the server could not be reached in time, or connecting was cancelled
      */
-    private void openClientSocket(int port) {
-        String dots = ""; //a visual indicator; number of dots is number of connect attempts
+    private void openClientSession(int port, StateCodec codec) throws IOException {
+        final Session session = Session.client(mAddrServer, port, codec, Session.DEFAULT_GRACE_MS,
+                Session.DEFAULT_LINK_TIMEOUT_MS);
+        //closeNetwork() closes the session, which aborts an attempt
+        mSession = session;
+        mTransport = session;
+        connect(new ConnectAttempt() {
+            @Override
+            public void connect() throws IOException {
+                session.connect();
+            }
+        });
+    }
 
-        while (mSocket == null) {
+    /**
+     * Connects to the server. The first attempt is made right away, as the server is usually
+     * listening already; the retries follow quickly at first, and then less and less often
+     * (see Backoff), till the deadline. A destroyed surface cancels the attempts.
+     * @param attempt makes one attempt to connect
+     * @throws IOException if the server could not be reached in time, or connecting was cancelled
+     */
+    private void connect(ConnectAttempt attempt) throws IOException {
+        drawText("Connecting to " + mAddrServer + ".");
+        Backoff backoff = new Backoff(CONNECT_RETRY_MS, CONNECT_MAX_RETRY_MS, CONNECT_DEADLINE_MS,
+                System.nanoTime());
+        while (true) {
             try {
-                //try connect to server
-                drawText("Connecting to " + mAddrServer + "." + dots);
-                sleep(1000);
-                mSocket = new Socket(mAddrServer, port);
-            } catch (UnknownHostException e) {
-                Log.d(TAG_ERROR, "connect error: hostname cannot be resolved: " + e);
+                attempt.connect();
+                return;
             } catch (IOException e) {
+                if (!mRun) {
+                    throw e;
+                }
                 Log.d(TAG_ERROR, "connect error (client): " + e);
             }
-            dots += ".";
+            long delay = backoff.nextDelay(System.nanoTime());
+            if (delay < 0) {
+                throw new IOException("could not connect to " + mAddrServer + " in "
+                        + CONNECT_DEADLINE_MS / 1000 + " s");
+            }
+            if (delay >= CONNECT_MAX_RETRY_MS * 1000000L) {
+                //only the slow retries are worth showing
+                drawText("Connecting to " + mAddrServer + " (attempt "
+                        + (backoff.getRetries() + 1) + ").");
+            }
+            sleep(delay / 1000000L);
+            if (!mRun) {
+                throw new IOException("connecting cancelled");
+            }
         }
     }
 
     /**
-     * Opens and initializes a socket connection. And gets streams for reading from
-     * and writing to the socket.
+     * Opens and initializes the connection to the other device.
      * @throws IOException
      */
     private void openNetwork() throws IOException {
         final int PORT = 8080;
-
         mSocket = null;
-        if (isServer()) {
-            openServerSocket(PORT);
+        if (mSpectate) {
+            openClientSocket(SpectatorChannel.DEFAULT_PORT);
+            mTransport = new TcpTransport(mSocket, SpectatorChannel.viewerCodec());
+            return;
+        }
+        StateCodec codec = new StateCodec(isServer(), DELTA_FRAMES, mUseLockstep);
+        codec.setClockSync(mClockSync);
+        if (!mUseLockstep) {
+            mStateCheck = new StateCheck(isServer(), StateCheck.DEFAULT_INTERVAL);
+            codec.setStateCheck(mStateCheck);
+        }
+
+        if (mUseUdp) {
+            if (isServer()) {
+                drawText("My IP: " + mIpAddress + "  Waiting for client (UDP).");
+                UdpTransport udp = UdpTransport.listen(PORT, codec);
+                mTransport = udp;
+                udp.awaitPeer();
+            } else {
+                mTransport = UdpTransport.connect(mAddrServer, PORT, codec);
+            }
         } else {
-            openClientSocket(PORT);
+            //the match survives short drops of the connection
+            if (isServer()) {
+                drawText("My IP: " + mIpAddress + "  Waiting for client.");
+                mServerSocket = new ServerSocket(PORT);
+                mSession = Session.accept(mServerSocket, codec, Session.DEFAULT_GRACE_MS,
+                        Session.DEFAULT_LINK_TIMEOUT_MS);
+            } else {
+                openClientSession(PORT, codec);
+            }
+            mTransport = mSession;
         }
 
-        //send data immediately; do not buffer
-        mSocket.setTcpNoDelay(true);
-        //indicate that latency is important
-        mSocket.setPerformancePreferences(0, 1, 0);
-        //get streams
-        mInStream =  new DataInputStream(mSocket.getInputStream());
-        mOutStream = new DataOutputStream(mSocket.getOutputStream());
+        if (isServer()) {
+            //the game goes on without spectators if their port is taken
+            try {
+                mSpectators = new SpectatorChannel(SpectatorChannel.DEFAULT_PORT);
+            } catch (IOException e) {
+                Log.d(TAG_ERROR, "spectators cannot connect: " + e);
+            }
+        }
     }
 
     /**
-     * Closes all streams and sockets.
+     * Closes the connection, the server socket and the connections to the spectators.
+     * Also cancels a connect in progress, from any thread.
      */
     private void closeNetwork() {
+        Socket socket = mSocket;
+        if (socket != null && mTransport == null) {
+            //a spectator still connecting
+            try {
+                socket.close();
+            } catch (IOException e) {}
+        }
+        if (mTransport != null) {
+            mTransport.close();
+        }
+        if (mSpectators != null) {
+            mSpectators.close();
+        }
         try {
-            if (mSocket != null) {
-                mSocket.shutdownInput();
-                mSocket.shutdownOutput();
-                mSocket.close();
-            }
             if (mServerSocket != null) {
                 mServerSocket.close();
             }
@@ -499,6 +1225,13 @@ public class GameView extends SurfaceView
         }
     }
 
+    /**
+     * @return true while the connection to the other device is dropped, and the match paused
+     */
+    private boolean isSuspended() {
+        return mSession != null && mSession.isSuspended();
+    }
+
     /**
      * This program is either running in server or client mode.
      * @return true if running in server mode
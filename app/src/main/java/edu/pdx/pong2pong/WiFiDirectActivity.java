@@ -35,6 +35,8 @@ import android.view.MenuInflater;
 import android.view.MenuItem;
 import android.view.View;
 import android.widget.Toast;
+import edu.pdx.pong2pong.core.MatchRecorder;
+import java.io.File;
 
 /**
  * An activity that uses WiFi Direct APIs to discover and connect with available
@@ -160,11 +162,46 @@ public class WiFiDirectActivity extends Activity implements ChannelListener, Dev
                     }
                 });
                 return true;
+
+            case R.id.atn_replay:
+                replayLastMatch(1);
+                return true;
+
+            case R.id.atn_replay_slow:
+                replayLastMatch(0.25f);
+                return true;
             default:
                 return super.onOptionsItemSelected(item);
         }
     }
 
+    /**
+     * Replays the newest match recorded on this device (see GameView and MatchRecorder).
+     * @param speed the replay speed; 1 for the speed of the match
+     */
+    private void replayLastMatch(float speed) {
+        File newest = null;
+        File dir = getExternalFilesDir(null);
+        File[] files = dir == null ? null : dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.getName().endsWith(MatchRecorder.EXTENSION)
+                        && (newest == null || file.lastModified() > newest.lastModified())) {
+                    newest = file;
+                }
+            }
+        }
+        if (newest == null) {
+            Toast.makeText(this, R.string.no_recording, Toast.LENGTH_SHORT).show();
+            return;
+        }
+        Intent i = new Intent(this, GameActivity.class);
+        i.putExtra(GameActivity.EXTRA_USE_ACCELEROMETER, false);
+        i.putExtra(GameActivity.EXTRA_REPLAY, newest.getPath());
+        i.putExtra(GameActivity.EXTRA_REPLAY_SPEED, speed);
+        startActivity(i);
+    }
+
     /**
      * Callback from device list fragment when a found device was clicked on.
      * @param device the device that was clicked on
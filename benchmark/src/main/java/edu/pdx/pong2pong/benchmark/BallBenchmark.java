@@ -0,0 +1,94 @@
+/*
+ * Copyright (C) 2015 Josef Mihalits, Randon Stasney, Dakota Ward
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.pdx.pong2pong.benchmark;
+
+import edu.pdx.pong2pong.core.Ball;
+import edu.pdx.pong2pong.core.Game;
+import edu.pdx.pong2pong.core.Paddle;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Ball.move(), the innermost loop of the simulation. Before each move,
+ * the ball is put back to the start of the case, so every call does the same work.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BallBenchmark {
+
+    /**
+     * open: the ball crosses the field without touching anything;
+     * wall: the ball bounces off the top wall;
+     * paddle: the ball bounces off the right paddle;
+     * fast: a ball five field widths per tick, bouncing off walls and paddles many times
+     */
+    @Param({"open", "wall", "paddle", "fast"})
+    public String scenario;
+
+    private Ball mBall;
+    private final Paddle mLeft = new Paddle(Game.PADDLE_INSET, Game.FIELD_Y / 2);
+    private final Paddle mRight = new Paddle(Game.FIELD_X - Game.PADDLE_INSET, Game.FIELD_Y / 2);
+
+    /** the start of the case */
+    private int mX;
+    private int mY;
+    private float mVx;
+    private float mVy;
+
+    @Setup
+    public void setup() {
+        float speed = (float) Game.FIELD_X / Game.DEFAULT_TICK_RATE;
+        mX = Game.FIELD_X / 2;
+        mY = Game.FIELD_Y / 2;
+        mVx = 0.8f;
+        mVy = 0.6f;
+        if (scenario.equals("wall")) {
+            mY = Ball.RADIUS + 5;
+            mVy = -0.6f;
+        } else if (scenario.equals("paddle")) {
+            mX = Game.FIELD_X - Game.PADDLE_INSET - Paddle.WIDTH / 2 - Ball.RADIUS - 5;
+            mVy = 0.1f;
+            mVx = 0.995f;
+        } else if (scenario.equals("fast")) {
+            speed = 5 * Game.FIELD_X;
+            mLeft.setY(Game.FIELD_Y / 4);
+            mRight.setY(Game.FIELD_Y * 3 / 4);
+        }
+        mBall = new Ball(speed);
+    }
+
+    @Benchmark
+    public Ball move() {
+        mBall.setCoord(mX, mY);
+        mBall.setVelocity(mVx, mVy);
+        mBall.move(mLeft, mRight);
+        return mBall;
+    }
+}
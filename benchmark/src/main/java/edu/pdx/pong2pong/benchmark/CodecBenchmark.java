@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) 2015 Josef Mihalits, Randon Stasney, Dakota Ward
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.pdx.pong2pong.benchmark;
+
+import edu.pdx.pong2pong.core.Game;
+import edu.pdx.pong2pong.core.Lockstep;
+import edu.pdx.pong2pong.core.Snapshot;
+import edu.pdx.pong2pong.core.StateCodec;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The serialization the NetworkThread does for every frame: the server encodes its state, the
+ * client decodes it, and the same the other way round, as sendReceiveServer() and
+ * networkClient() do through a Transport. The game state changes in every frame, so delta
+ * frames are never empty.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CodecBenchmark {
+
+    private StateCodec mFullServer;
+    private StateCodec mFullClient;
+    private StateCodec mDeltaServer;
+    private StateCodec mDeltaClient;
+    private StateCodec mLockstepServer;
+    private StateCodec mLockstepClient;
+
+    /** lockstep on both sides, with games that never advance (only the inputs are sent) */
+    private Lockstep mServerLockstep;
+    private Lockstep mClientLockstep;
+
+    private final ByteBuffer mBuf = ByteBuffer.allocate(StateCodec.MAX_FRAME_SIZE);
+    private final Snapshot mServerState = new Snapshot();
+    private final Snapshot mClientState = new Snapshot();
+    private final Snapshot mReceived = new Snapshot();
+
+    /** the number of frames exchanged */
+    private int mFrames;
+
+    @Setup
+    public void setup() {
+        mFullServer = new StateCodec(true, false);
+        mFullClient = new StateCodec(false, false);
+        mDeltaServer = new StateCodec(true, true);
+        mDeltaClient = new StateCodec(false, true);
+        mLockstepServer = new StateCodec(true, false, true);
+        mLockstepClient = new StateCodec(false, false, true);
+        mServerLockstep = new Lockstep(new Game(), true, 3);
+        mClientLockstep = new Lockstep(new Game(), false, 3);
+        mServerState.ballVx = 0.8f;
+        mServerState.ballVy = 0.6f;
+        mServerState.rightY = Game.FIELD_Y / 2;
+    }
+
+    @Benchmark
+    public Snapshot exchangeFull() {
+        return exchange(mFullServer, mFullClient);
+    }
+
+    @Benchmark
+    public Snapshot exchangeDelta() {
+        return exchange(mDeltaServer, mDeltaClient);
+    }
+
+    @Benchmark
+    public Snapshot exchangeLockstep() {
+        mServerLockstep.send(mServerState);
+        transfer(mLockstepServer, mServerState, mLockstepClient);
+        mClientLockstep.receive(mReceived);
+        mClientLockstep.send(mClientState);
+        transfer(mLockstepClient, mClientState, mLockstepServer);
+        mServerLockstep.receive(mReceived);
+        return mReceived;
+    }
+
+    /**
+     * Moves the game state a little, and sends one frame each way.
+     * @param server the codec of the server
+     * @param client the codec of the client
+     * @return the last snapshot received
+     */
+    private Snapshot exchange(StateCodec server, StateCodec client) {
+        int frame = mFrames++;
+        mServerState.ballX = frame % Game.FIELD_X;
+        mServerState.ballY = frame % Game.FIELD_Y;
+        mServerState.tick = frame;
+        mServerState.input = frame;
+        mClientState.leftY = frame % Game.FIELD_Y;
+        mClientState.input = frame;
+        mClientState.tick = frame;
+        transfer(server, mServerState, client);
+        transfer(client, mClientState, server);
+        return mReceived;
+    }
+
+    /**
+     * Encodes a snapshot with one codec and decodes it with the other.
+     * @param from the codec of the sender
+     * @param s the snapshot sent
+     * @param to the codec of the receiver
+     */
+    private void transfer(StateCodec from, Snapshot s, StateCodec to) {
+        mBuf.clear();
+        from.encode(s, mBuf);
+        mBuf.flip();
+        to.decode(mBuf, mReceived);
+    }
+}
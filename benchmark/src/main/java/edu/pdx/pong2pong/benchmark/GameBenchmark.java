@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2015 Josef Mihalits, Randon Stasney, Dakota Ward
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.pdx.pong2pong.benchmark;
+
+import edu.pdx.pong2pong.core.Game;
+import edu.pdx.pong2pong.core.LagCompensator;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * A full headless tick of the game, as the server runs it: paddles, ball, scoring and
+ * (optionally) the history of the lag compensation.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GameBenchmark {
+
+    private Game mGame;
+    private Game mCompensatedGame;
+
+    /** the number of ticks run; moves the paddles so that some balls are missed */
+    private int mTicks;
+
+    @Setup
+    public void setup() {
+        mGame = new Game();
+        mCompensatedGame = new Game();
+        mCompensatedGame.setLagCompensator(new LagCompensator(200, Game.DEFAULT_TICK_RATE));
+    }
+
+    @Benchmark
+    public Game step() {
+        return step(mGame);
+    }
+
+    @Benchmark
+    public Game stepWithLagCompensation() {
+        return step(mCompensatedGame);
+    }
+
+    /**
+     * Runs one tick with two players following the ball, with an offset that changes slowly.
+     * @param game the game
+     * @return the game
+     */
+    private Game step(Game game) {
+        int offset = (mTicks++ >> 6) % 9 * 20 - 80;
+        game.getLeftPaddle().setY(game.getBall().getY() + offset);
+        game.getRightPaddle().setY(game.getBall().getY() - offset);
+        game.step();
+        return game;
+    }
+}
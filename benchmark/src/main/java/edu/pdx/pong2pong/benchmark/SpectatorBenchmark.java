@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2015 Josef Mihalits, Randon Stasney, Dakota Ward
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.pdx.pong2pong.benchmark;
+
+import edu.pdx.pong2pong.core.Game;
+import edu.pdx.pong2pong.core.Snapshot;
+import edu.pdx.pong2pong.core.SpectatorChannel;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * What the host pays in its game loop for every tick spectators watch: SpectatorChannel
+ * encodes the state once and writes it to every viewer. The viewers are real sockets on the
+ * loopback interface, drained by a thread of their own, so the cost grows with their number
+ * only by the writes, not by the encoding.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SpectatorBenchmark {
+
+    @Param({"0", "1", "8", "32", "128"})
+    public int viewers;
+
+    private SpectatorChannel mChannel;
+
+    /** reads and discards everything the viewers receive */
+    private Selector mSelector;
+    private Thread mDrain;
+    private volatile boolean mRun;
+
+    private final Snapshot mState = new Snapshot();
+
+    /** the number of states broadcast */
+    private int mFrames;
+
+    @Setup
+    public void setup() throws IOException {
+        mChannel = new SpectatorChannel(0);
+        mSelector = Selector.open();
+        for (int i = 0; i < viewers; i++) {
+            SocketChannel viewer = SocketChannel.open(
+                    new InetSocketAddress("127.0.0.1", mChannel.getPort()));
+            viewer.configureBlocking(false);
+            viewer.register(mSelector, SelectionKey.OP_READ);
+            //the viewers are accepted while states are broadcast; one at a time, so the
+            //backlog of the server socket never overflows
+            while (mChannel.getViewerCount() <= i) {
+                broadcast();
+            }
+        }
+        mRun = true;
+        mDrain = new Thread("Viewers") {
+            @Override
+            public void run() {
+                drain();
+            }
+        };
+        mDrain.start();
+        mState.ballVx = 0.8f;
+        mState.ballVy = 0.6f;
+        mState.rightY = Game.FIELD_Y / 2;
+    }
+
+    @TearDown
+    public void tearDown() throws IOException, InterruptedException {
+        mRun = false;
+        mSelector.wakeup();
+        mDrain.join();
+        for (SelectionKey key : mSelector.keys()) {
+            key.channel().close();
+        }
+        mSelector.close();
+        mChannel.close();
+        if (mChannel.getFramesDropped() > 0) {
+            System.out.println("\nframes dropped for slow viewers: " + mChannel.getFramesDropped());
+        }
+    }
+
+    @Benchmark
+    public SpectatorChannel broadcast() {
+        int frame = mFrames++;
+        mState.ballX = frame % Game.FIELD_X;
+        mState.ballY = frame % Game.FIELD_Y;
+        mState.leftY = frame % Game.FIELD_Y;
+        mState.tick = frame;
+        mChannel.broadcast(mState);
+        return mChannel;
+    }
+
+    /**
+     * Reads from all viewers till the benchmark is torn down.
+     */
+    private void drain() {
+        ByteBuffer buf = ByteBuffer.allocateDirect(64 * 1024);
+        try {
+            while (mRun) {
+                mSelector.select();
+                for (SelectionKey key : mSelector.selectedKeys()) {
+                    buf.clear();
+                    if (((SocketChannel) key.channel()).read(buf) < 0) {
+                        key.cancel();
+                    }
+                }
+                mSelector.selectedKeys().clear();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2015 Josef Mihalits, Randon Stasney, Dakota Ward
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.pdx.pong2pong.core;
+
+/**
+ * Spaces out the attempts to connect to a server that is not there yet. The first attempt
+ * is made right away, and the first retry follows quickly, because the other device usually
+ * just needs a moment to start listening; then the time between retries doubles, up to a cap,
+ * so a device that takes longer is not flooded. Past the deadline, there are no more retries.
+ */
+public class Backoff {
+    private static final long MS = 1000000L;
+
+    /** the time (ns) before the first retry, and the longest time between retries */
+    private final long mInitialNs;
+    private final long mMaxNs;
+
+    /** the time (System.nanoTime()) after which no more attempts are made */
+    private final long mDeadline;
+
+    /** the time (ns) before the next retry */
+    private long mNextNs;
+
+    /** the number of retries so far */
+    private int mRetries = 0;
+
+    /**
+     * @param initialMs the time (ms) before the first retry
+     * @param maxMs the longest time (ms) between retries
+     * @param deadlineMs how long (ms) after now the last attempt may be made
+     * @param now the current time (System.nanoTime()): the time of the first attempt
+     */
+    public Backoff(int initialMs, int maxMs, int deadlineMs, long now) {
+        mInitialNs = initialMs * MS;
+        mMaxNs = maxMs * MS;
+        mDeadline = now + deadlineMs * MS;
+        mNextNs = mInitialNs;
+    }
+
+    /**
+     * Called after an attempt failed.
+     * @param now the current time (System.nanoTime())
+     * @return the time (ns) to wait before the next attempt; -1 if the deadline has passed.
+     *         The last wait ends at the deadline, so there is always a last attempt then.
+     */
+    public long nextDelay(long now) {
+        long left = mDeadline - now;
+        if (left <= 0) {
+            return -1;
+        }
+        long delay = Math.min(mNextNs, left);
+        mNextNs = Math.min(mNextNs * 2, mMaxNs);
+        mRetries++;
+        return delay;
+    }
+
+    /**
+     * @return the number of retries so far
+     */
+    public int getRetries() {
+        return mRetries;
+    }
+}
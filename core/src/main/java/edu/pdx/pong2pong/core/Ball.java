@@ -0,0 +1,342 @@
+/*
+ * Copyright (C) 2015 Josef Mihalits, Randon Stasney, Dakota Ward
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.pdx.pong2pong.core;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Models the physical properties (location, speed) of the ball.
+ * Position and speed of the ball are measured in "virtual field coordinates,"
+ * which is defined and bounded by Game.FIELD_X and Game.FIELD_Y.
+ *
+ * All math is done in fixed point: values are stored as integers in units of 1/ONE of a
+ * virtual field unit. The ball thus moves exactly the same on every device and every JVM,
+ * which is what lets two devices simulate the same game in lockstep (see Lockstep).
+ */
+public class Ball {
+    /** the radius of the ball in virtual field coordinate system */
+    public final static int RADIUS = 10;
+    /** the fixed point representation of 1 */
+    public final static int ONE = 1 << 16;
+    /** x coordinate of center of ball (in field coordinate system, fixed point) */
+    private int mX;
+    /** y coordinate of center of ball (fixed point) */
+    private int mY;
+    /** speed of the ball (in virtual field units per tick, fixed point) */
+    private final int mSpeed;
+    /** x component of ball velocity (unit vector, fixed point) */
+    private int mVx;
+    /** y component of ball velocity (unit vector, fixed point) */
+    private int mVy;
+    /** the number or rounds played (number of times start() was called) */
+    private int mRounds = 0;
+
+    /**
+     * Creates a ball that moves at a constant speed.
+     * @param speed the distance (in virtual field units) the ball moves per call to move()
+     */
+    public Ball(float speed) {
+        mSpeed = Math.round(speed * ONE);
+        start();
+    }
+
+    /**
+     * Initialize/reset the ball to the start location and start velocity.
+     */
+    public void start() {
+        // set location to middle of the screen
+        mX = Game.FIELD_X / 2 * ONE;
+        mY = Game.FIELD_Y / 2 * ONE;
+
+        // alternate start direction: right, left, right, left, right, ...
+        mVx = mRounds++ % 2 == 0 ? ONE : -ONE;
+        mVy = 0;
+    }
+
+    /**
+     * Returns the current x location of the ball.
+     * @return current x position of ball
+     */
+    public int getX() {
+        return mX >> 16;
+    }
+
+    /**
+     * Returns the current y location of the ball.
+     * @return current y position of ball
+     */
+    public int getY() {
+        return mY >> 16;
+    }
+
+    /**
+     * Sets the current location of the ball.
+     * @param x the x position of the ball
+     * @param y the y position of the ball
+     */
+    public void setCoord(int x, int y) {
+        mX = x * ONE;
+        mY = y * ONE;
+    }
+
+    /**
+     * Returns the x component of the current direction of the ball.
+     * @return x component of the velocity (unit vector)
+     */
+    public float getVx() {
+        return (float) mVx / ONE;
+    }
+
+    /**
+     * Returns the y component of the current direction of the ball.
+     * @return y component of the velocity (unit vector)
+     */
+    public float getVy() {
+        return (float) mVy / ONE;
+    }
+
+    /**
+     * Sets the current direction of the ball.
+     * @param vx x component of the velocity (unit vector)
+     * @param vy y component of the velocity (unit vector)
+     */
+    public void setVelocity(float vx, float vy) {
+        mVx = Math.round(vx * ONE);
+        mVy = Math.round(vy * ONE);
+    }
+
+    /**
+     * Returns the distance the ball moves in each call to move().
+     * @return the speed of the ball (in virtual field units per tick)
+     */
+    public float getSpeed() {
+        return (float) mSpeed / ONE;
+    }
+
+    /**
+     * Combines the exact state of the ball into a single number, for comparing the state on
+     * two devices.
+     * @return the checksum
+     */
+    public int checksum() {
+        int h = mX;
+        h = 31 * h + mY;
+        h = 31 * h + mVx;
+        h = 31 * h + mVy;
+        h = 31 * h + mRounds;
+        return h;
+    }
+
+    /** the size (bytes) of the state written by writeState() */
+    static final int STATE_SIZE = 20;
+
+    /**
+     * Writes the exact state of the ball, e.g. for a keyframe of a recording (see
+     * MatchRecorder).
+     * @param out the buffer the state is written to
+     */
+    void writeState(ByteBuffer out) {
+        out.putInt(mX).putInt(mY).putInt(mVx).putInt(mVy).putInt(mRounds);
+    }
+
+    /**
+     * Restores the exact state of the ball, as written by writeState().
+     * @param in the buffer the state is read from
+     */
+    void readState(ByteBuffer in) {
+        mX = in.getInt();
+        mY = in.getInt();
+        mVx = in.getInt();
+        mVy = in.getInt();
+        mRounds = in.getInt();
+    }
+
+    /** the largest possible angle the ball is ever reflected */
+    private final static double MAXBOUNCEANGLE = 5 * Math.PI / 12;
+
+    /** the number of bounce angles on either side of the center of the paddle */
+    private final static int BOUNCE_STEPS = 64;
+
+    /**
+     * The direction of the ball after a bounce (fixed point), by where it hit the paddle:
+     * index BOUNCE_STEPS is the center, 0 the top and 2 * BOUNCE_STEPS the bottom. StrictMath
+     * gives the same results on every JVM, so the tables are the same on every device.
+     */
+    private final static int[] BOUNCE_VX = new int[2 * BOUNCE_STEPS + 1];
+    private final static int[] BOUNCE_VY = new int[2 * BOUNCE_STEPS + 1];
+
+    static {
+        for (int i = 0; i <= 2 * BOUNCE_STEPS; i++) {
+            double bounceAngle = (double) (BOUNCE_STEPS - i) / BOUNCE_STEPS * MAXBOUNCEANGLE;
+            BOUNCE_VX[i] = (int) StrictMath.round(StrictMath.cos(bounceAngle) * ONE);
+            BOUNCE_VY[i] = (int) StrictMath.round(-StrictMath.sin(bounceAngle) * ONE);
+        }
+    }
+
+    /**
+     * Moves the ball by one tick of the simulation, based on the current position and
+     * velocity. The ball is reflected if the ball hits the top or bottom walls or the paddles.
+     * The distance is the same in every tick, no matter how long it took to draw a frame,
+     * and the ball may bounce several times in one tick.
+     * @param left the left paddle
+     * @param right the right paddle
+     */
+    public void move(Paddle left, Paddle right) {
+
+        /*
+        Ball reflection logic modelled after this:
+        http://gamedev.stackexchange.com/questions/4253/in-pong-how-do-you-calculate-the-balls-direction-when-it-bounces-off-the-paddl
+
+        Essentially, when the ball collides with the paddle, its direction is completely
+        disregarded; it is given a new direction according to how far from the center of
+        the paddle it collided. If the ball hits the paddle right in the center, it is sent
+        away exactly horizontal; if it hits right on the edge, it flies off at an extreme
+        angle (75 degrees). And it always travels at a constant speed.
+
+        var relativeIntersectY = (paddle1Y+(PADDLEHEIGHT/2)) - intersectY;
+
+        Take the middle Y value of the paddle, and subtract the Y intersection of the ball.
+        If the paddle is 10 pixels high, this number will be between -5 and 5. I call this
+        the "relative intersect" because it is in "paddle space" now, the ball's intersection
+        relative to the middle of the paddle.
+
+        var normalizedRelativeIntersectionY = (relativeIntersectY/(PADDLEHEIGHT/2));
+        var bounceAngle = normalizedRelativeIntersectionY * MAXBOUNCEANGLE;
+
+        Take the relative intersection and divide it by half the paddle height. Now our
+        -5 to 5 number is a decimal from -1 to 1; it's normalized. Then multiply it by the
+        maximum angle by which you want the ball to bounce.
+        I set it to 5*Pi/12 radians (75 degrees).
+
+        ballVx = BALLSPEED*Math.cos(bounceAngle);
+        ballVy = BALLSPEED*-Math.sin(bounceAngle);
+
+        Finally, calculate new ball velocities, using simple trigonometry.
+
+        Here, the trigonometry is looked up in a table (see BOUNCE_VX and BOUNCE_VY), because
+        Math.cos() and Math.sin() may give slightly different results on different devices.
+        */
+
+        // The ball travels the full distance of a tick, however fast it is: its path is swept
+        // for the first obstacle (paddle or wall), the ball is moved there and bounced, and
+        // the rest of the path is swept again. A ball cannot jump over a paddle.
+        int remaining = mSpeed;
+        for (int i = 0; i < MAX_BOUNCES && remaining > 0; i++) {
+            // the paddle (left or right) the ball is approaching
+            Paddle paddle = mVx > 0 ? right : left;
+            Box rec = paddle.getSpace();
+            long dx = (long) mVx * remaining >> 16;
+            long dy = (long) mVy * remaining >> 16;
+
+            // the time of impact, as a (fixed point) fraction of the rest of the path
+            long t = timeOfImpact(rec, dx, dy);
+            boolean hitsPaddle = t <= ONE;
+            boolean hitsWall = false;
+            long tWall = dy < 0 ? ((long) RADIUS * ONE - mY << 16) / dy
+                    : dy > 0 ? ((long) (Game.FIELD_Y - RADIUS) * ONE - mY << 16) / dy : NO_IMPACT;
+            if (tWall < Math.min(t, ONE)) {
+                t = Math.max(tWall, 0);
+                hitsPaddle = false;
+                hitsWall = true;
+            } else if (!hitsPaddle) {
+                t = ONE;
+            }
+
+            mX += (int) (dx * t >> 16);
+            mY += (int) (dy * t >> 16);
+            remaining -= (int) (remaining * t >> 16);
+
+            if (hitsPaddle) {
+                bounce(paddle == right, rec);
+            } else if (hitsWall) {
+                // top or bottom wall
+                mY = (mVy < 0 ? RADIUS : Game.FIELD_Y - RADIUS) * ONE;
+                mVy = -mVy;
+            }
+        }
+    }
+
+    /** the maximum number of bounces in one tick (a safeguard against endless loops) */
+    private final static int MAX_BOUNCES = 64;
+
+    /** the time of impact if there is none on the path */
+    private final static long NO_IMPACT = Long.MAX_VALUE;
+
+    /**
+     * Sweeps the path of the ball against the area of a paddle (the paddle, expanded by the
+     * radius of the ball).
+     * @param rec the area of the paddle
+     * @param dx the x component of the path (fixed point)
+     * @param dy the y component of the path (fixed point)
+     * @return the (fixed point) fraction 0..ONE of the path at which the ball enters the area
+     *         first; NO_IMPACT if it does not
+     */
+    private long timeOfImpact(Box rec, long dx, long dy) {
+        // e.g. the paddle was moved onto the ball
+        if (rec.contains(getX(), getY())) {
+            return 0;
+        }
+        // the path is inside the area between the latest entry and the earliest exit
+        // of the x and the y range of the area
+        long enter = 0;
+        long exit = ONE;
+        if (dx == 0) {
+            if (getX() < rec.left || getX() >= rec.right) {
+                return NO_IMPACT;
+            }
+        } else {
+            long t1 = ((long) rec.left * ONE - mX << 16) / dx;
+            long t2 = ((long) rec.right * ONE - mX << 16) / dx;
+            enter = Math.max(enter, Math.min(t1, t2));
+            exit = Math.min(exit, Math.max(t1, t2));
+        }
+        if (dy == 0) {
+            if (getY() < rec.top || getY() >= rec.bottom) {
+                return NO_IMPACT;
+            }
+        } else {
+            long t1 = ((long) rec.top * ONE - mY << 16) / dy;
+            long t2 = ((long) rec.bottom * ONE - mY << 16) / dy;
+            enter = Math.max(enter, Math.min(t1, t2));
+            exit = Math.min(exit, Math.max(t1, t2));
+        }
+        return enter <= exit ? enter : NO_IMPACT;
+    }
+
+    /**
+     * Reflects the ball off a paddle it hit.
+     * @param isRight true for the right paddle
+     * @param rec the area of the paddle
+     */
+    private void bounce(boolean isRight, Box rec) {
+        int halfPaddleH = rec.height() / 2;
+        // where the ball hit the paddle, from -BOUNCE_STEPS (top) to BOUNCE_STEPS (bottom)
+        long intersectY = mY - (long) (rec.top + halfPaddleH) * ONE;
+        int step = (int) ((intersectY * BOUNCE_STEPS + halfPaddleH * ONE / 2) / (halfPaddleH * ONE));
+        step = Math.max(-BOUNCE_STEPS, Math.min(BOUNCE_STEPS, step));
+        mVx = BOUNCE_VX[BOUNCE_STEPS + step];
+        mVy = BOUNCE_VY[BOUNCE_STEPS + step];
+
+        if (isRight) {
+            mVx = -mVx;
+            // fix up x coordinate of ball so that ball is not "inside" paddle
+            mX = rec.left * ONE;
+        } else {
+            mX = rec.right * ONE;
+        }
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright (C) 2015 Josef Mihalits, Randon Stasney, Dakota Ward
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.pdx.pong2pong.core;
+
+/**
+ * An axis-aligned rectangle with integer coordinates (in virtual field coordinates).
+ * Behaves like android.graphics.Rect: left and top are inside, right and bottom are outside.
+ */
+public class Box {
+    public int left;
+    public int top;
+    public int right;
+    public int bottom;
+
+    /**
+     * Sets all four coordinates.
+     * @param left the left edge
+     * @param top the top edge
+     * @param right the right edge
+     * @param bottom the bottom edge
+     */
+    public void set(int left, int top, int right, int bottom) {
+        this.left = left;
+        this.top = top;
+        this.right = right;
+        this.bottom = bottom;
+    }
+
+    /**
+     * @return the width of the rectangle
+     */
+    public int width() {
+        return right - left;
+    }
+
+    /**
+     * @return the height of the rectangle
+     */
+    public int height() {
+        return bottom - top;
+    }
+
+    /**
+     * Tests whether a point is inside the rectangle.
+     * @param x the x coordinate of the point
+     * @param y the y coordinate of the point
+     * @return true if the rectangle is not empty and (x,y) is inside
+     */
+    public boolean contains(int x, int y) {
+        return left < right && top < bottom && x >= left && x < right && y >= top && y < bottom;
+    }
+}
@@ -0,0 +1,241 @@
+/*
+ * Copyright (C) 2015 Josef Mihalits, Randon Stasney, Dakota Ward
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.pdx.pong2pong.core;
+
+/**
+ * Measures the round trip time (RTT) to the other device and the offset between the clocks
+ * of the two devices, the way NTP does. The timestamps travel on the game connection, in the
+ * frames of the StateCodec:
+ *
+ * Every PING_INTERVAL_NS, a frame carries a ping: the time t1 it was sent. The other device
+ * answers in its next frame with a pong: t1, the time t2 it received the ping and the time
+ * it held the ping before answering (t3 - t2). When the pong arrives at t4,
+ * <pre>
+ *   RTT = (t4 - t1) - (t3 - t2)        offset = ((t2 - t1) + (t3 - t4)) / 2
+ * </pre>
+ * t1 and t4 are read from our clock, t2 and t3 from the clock of the other device. The offset
+ * is exact if the ping and the pong took the same time; a sample with a long RTT was queued
+ * somewhere, probably in one direction only. So the offset is taken from the sample with the
+ * shortest RTT of the last FILTER_SIZE samples (the clock filter of NTP). The RTT is smoothed,
+ * and its variation (jitter) is measured, like TCP does (RFC 6298).
+ *
+ * The clock is System.nanoTime(), sent as microseconds in 32 bits. They wrap around every 71
+ * minutes, so the offset is only known modulo 2^32 microseconds; use toPeerMicros() and
+ * fromPeerMicros() to convert timestamps between the devices.
+ *
+ * Written by the NetworkThread (through the StateCodec); the estimates may be read by any thread.
+ */
+public class ClockSync {
+    /** the time (ns) between two pings */
+    public static final long PING_INTERVAL_NS = 100000000L;
+
+    /** the number of samples the offset is chosen from */
+    private static final int FILTER_SIZE = 8;
+
+    /** the longest time (us) a ping may be held before the pong is sent; it fits 16 bits */
+    static final int MAX_HOLD = 0xffff;
+
+    /** the time (ns) the last ping was sent; valid if mPinged */
+    private long mLastPing;
+    private boolean mPinged = false;
+
+    /** the ping to answer: its time (us, peer clock), and when it arrived (ns, our clock) */
+    private boolean mPongPending = false;
+    private int mPingTime;
+    private long mPingReceived;
+
+    /** the last samples: RTT (us) and offset (us) */
+    private final int[] mDelays = new int[FILTER_SIZE];
+    private final int[] mOffsets = new int[FILTER_SIZE];
+
+    /** the number of samples taken */
+    private volatile long mSamples = 0;
+
+    /** smoothed RTT (us) and its mean deviation (us) */
+    private volatile int mRtt = 0;
+    private volatile int mJitter = 0;
+
+    /** the shortest RTT (us) in the filter, and the offset (us) measured with it */
+    private volatile int mMinRtt = 0;
+    private volatile int mOffset = 0;
+
+    /**
+     * @param ns a time (System.nanoTime())
+     * @return the time in microseconds, as sent
+     */
+    static int micros(long ns) {
+        return (int) (ns / 1000);
+    }
+
+    /**
+     * @param now the current time (ns)
+     * @return true if the next frame should carry a ping
+     */
+    boolean isPingDue(long now) {
+        return !mPinged || now - mLastPing >= PING_INTERVAL_NS;
+    }
+
+    /**
+     * Takes note that a ping is sent.
+     * @param now the current time (ns)
+     * @return the timestamp of the ping (us)
+     */
+    int ping(long now) {
+        mPinged = true;
+        mLastPing = now;
+        return micros(now);
+    }
+
+    /**
+     * @param now the current time (ns)
+     * @return true if the next frame should carry a pong; a ping held for too long is not
+     *         answered any more
+     */
+    boolean isPongDue(long now) {
+        if (mPongPending && micros(now) - micros(mPingReceived) > MAX_HOLD) {
+            mPongPending = false;
+        }
+        return mPongPending;
+    }
+
+    /**
+     * @return the timestamp of the ping to answer (us, peer clock)
+     */
+    int getPingTime() {
+        return mPingTime;
+    }
+
+    /**
+     * @return the time the ping to answer arrived (us, our clock)
+     */
+    int getPingReceived() {
+        return micros(mPingReceived);
+    }
+
+    /**
+     * Takes note that a pong is sent.
+     * @param now the current time (ns)
+     * @return the time (us) the ping was held
+     */
+    int pong(long now) {
+        mPongPending = false;
+        return micros(now) - micros(mPingReceived);
+    }
+
+    /**
+     * A ping of the other device arrived; it is answered with the next frame.
+     * @param now the current time (ns)
+     * @param pingTime the timestamp of the ping (us, peer clock)
+     */
+    void onPing(long now, int pingTime) {
+        mPongPending = true;
+        mPingTime = pingTime;
+        mPingReceived = now;
+    }
+
+    /**
+     * A pong of the other device arrived: takes a sample of RTT and offset.
+     * @param now the current time (ns): t4
+     * @param pingTime the timestamp of our ping (us): t1
+     * @param received the time the other device received the ping (us, peer clock): t2
+     * @param hold the time the other device held the ping (us): t3 - t2
+     */
+    void onPong(long now, int pingTime, int received, int hold) {
+        int t4 = micros(now);
+        //all differences of 32 bit timestamps are computed in 32 bits, so wrap-around does no harm
+        int rtt = Math.max(0, t4 - pingTime - hold);
+        int toPeer = received - pingTime;
+        int fromPeer = received + hold - t4;
+        int offset = fromPeer + (toPeer - fromPeer) / 2;
+
+        int slot = (int) (mSamples % FILTER_SIZE);
+        mDelays[slot] = rtt;
+        mOffsets[slot] = offset;
+        int filled = (int) Math.min(mSamples + 1, FILTER_SIZE);
+        int best = 0;
+        for (int i = 1; i < filled; i++) {
+            if (mDelays[i] < mDelays[best]) {
+                best = i;
+            }
+        }
+        mMinRtt = mDelays[best];
+        mOffset = mOffsets[best];
+
+        if (mSamples == 0) {
+            mRtt = rtt;
+            mJitter = rtt / 2;
+        } else {
+            mJitter += (Math.abs(mRtt - rtt) - mJitter) / 4;
+            mRtt += (rtt - mRtt) / 8;
+        }
+        mSamples++;
+    }
+
+    /**
+     * @return the number of RTT samples taken
+     */
+    public long getSamples() {
+        return mSamples;
+    }
+
+    /**
+     * @return the smoothed round trip time (us); 0 before the first sample
+     */
+    public int getRtt() {
+        return mRtt;
+    }
+
+    /**
+     * @return the shortest round trip time (us) of the last samples
+     */
+    public int getMinRtt() {
+        return mMinRtt;
+    }
+
+    /**
+     * @return the mean deviation of the round trip time (us)
+     */
+    public int getJitter() {
+        return mJitter;
+    }
+
+    /**
+     * @return the clock of the other device minus our clock (us, modulo 2^32)
+     */
+    public int getOffset() {
+        return mOffset;
+    }
+
+    /**
+     * @param ns a time on our clock (System.nanoTime())
+     * @return the same time on the clock of the other device (us, 32 bits)
+     */
+    public int toPeerMicros(long ns) {
+        return micros(ns) + mOffset;
+    }
+
+    /**
+     * @param peerMicros a time on the clock of the other device (us, 32 bits)
+     * @param now the current time on our clock (System.nanoTime()); the result is the time
+     *            closest to it, so it must be less than 35 minutes away
+     * @return the same time on our clock (ns)
+     */
+    public long fromPeerMicros(int peerMicros, long now) {
+        int ago = micros(now) - (peerMicros - mOffset);
+        return now - ago * 1000L;
+    }
+}
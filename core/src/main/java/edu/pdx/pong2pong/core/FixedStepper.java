@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2015 Josef Mihalits, Randon Stasney, Dakota Ward
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.pdx.pong2pong.core;
+
+/**
+ * Turns the irregular time between frames into a whole number of fixed simulation ticks.
+ * The time of each frame is added to an accumulator, and a tick is simulated for every full
+ * tick time in it; the remainder carries over to the next frame. The simulation thus does
+ * the same work and produces the same results, whatever the refresh rate of the display.
+ *
+ * After a long stall (e.g. the app was in the background) the simulation does not try to
+ * catch up on all the ticks it missed; it runs at most a fixed number of ticks per frame and
+ * drops the rest of the backlog.
+ */
+public class FixedStepper {
+    /** the duration (ns) of a tick */
+    private final long mTickNs;
+
+    /** the maximum number of ticks simulated in one frame */
+    private final int mMaxCatchUp;
+
+    /** the time (ns) not yet simulated */
+    private long mAccumulator = 0;
+
+    /** the time (System.nanoTime()) of the last call to advance(); 0 before the first call */
+    private long mLast = 0;
+
+    /** the number of ticks dropped because the simulation fell too far behind */
+    private long mDropped = 0;
+
+    /**
+     * @param tickRate the number of ticks per second
+     * @param maxCatchUp the maximum number of ticks simulated in one frame
+     */
+    public FixedStepper(int tickRate, int maxCatchUp) {
+        mTickNs = 1000000000L / tickRate;
+        mMaxCatchUp = maxCatchUp;
+    }
+
+    /**
+     * Adds the time since the last call to the accumulator.
+     * @param now the current time (System.nanoTime())
+     * @return the number of ticks to simulate now; 0 on the first call
+     */
+    public int advance(long now) {
+        if (mLast != 0) {
+            mAccumulator += now - mLast;
+        }
+        mLast = now;
+
+        long ticks = mAccumulator / mTickNs;
+        mAccumulator -= ticks * mTickNs;
+        if (ticks > mMaxCatchUp) {
+            mDropped += ticks - mMaxCatchUp;
+            ticks = mMaxCatchUp;
+        }
+        return (int) ticks;
+    }
+
+    /**
+     * Returns how far the time has progressed into the next tick, for drawing moving objects
+     * between the positions of the last two ticks.
+     * @return a value in [0, 1)
+     */
+    public float getAlpha() {
+        return (float) mAccumulator / mTickNs;
+    }
+
+    /**
+     * @return the duration (ns) of a tick
+     */
+    public long getTickNs() {
+        return mTickNs;
+    }
+
+    /**
+     * @return the number of ticks dropped because the simulation fell too far behind
+     */
+    public long getDroppedTicks() {
+        return mDropped;
+    }
+}
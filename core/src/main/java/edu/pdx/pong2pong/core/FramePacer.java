@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) 2015 Josef Mihalits, Randon Stasney, Dakota Ward
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.pdx.pong2pong.core;
+
+/**
+ * Decides on which vsync signals of the display a frame is drawn, and keeps statistics about
+ * how evenly the frames are paced.
+ *
+ * A frame is drawn every n-th vsync, where n is the refresh rate of the display divided by the
+ * target frame rate (e.g. every second vsync for 60 frames/s on a 120 Hz display). The decision
+ * is based on the vsync timestamps, not on counting them: when a vsync is missed because a frame
+ * took too long, the next frame is drawn on the first vsync that is due, so the frames keep
+ * their rhythm instead of shifting by one vsync.
+ *
+ * A frame is late if it follows the previous one by at least one vsync more than the target
+ * frame time; the user sees the previous frame for too long (jank).
+ */
+public class FramePacer {
+    /** target frame rate: draw a frame on every vsync */
+    public static final int DISPLAY_RATE = 0;
+
+    /** target frame rate: draw a frame on every second vsync, to save battery */
+    public static final int HALF_RATE = -1;
+
+    /** the time (ns) between two vsync signals */
+    private final long mVsyncNs;
+
+    /** the target time (ns) between two frames; a whole number of vsyncs */
+    private final long mFrameNs;
+
+    /** the time (ns) of the vsync of the last frame; 0 before the first frame */
+    private long mLast = 0;
+
+    /** the number of frame intervals measured */
+    private long mFrames = 0;
+
+    /** the sum (ns) of all frame intervals measured */
+    private long mTotalNs = 0;
+
+    /** the longest frame interval (ns) measured */
+    private long mMaxNs = 0;
+
+    /** the number of frames drawn at least one vsync late */
+    private long mLateFrames = 0;
+
+    /** the number of vsyncs missed by late frames */
+    private long mMissedVsyncs = 0;
+
+    /**
+     * @param displayRate the refresh rate (Hz) of the display
+     * @param targetRate the target frame rate (frames/s), DISPLAY_RATE or HALF_RATE; it is
+     *                   rounded to a whole fraction of the refresh rate of the display
+     */
+    public FramePacer(float displayRate, int targetRate) {
+        mVsyncNs = Math.round(1e9 / displayRate);
+        int vsyncsPerFrame;
+        if (targetRate == DISPLAY_RATE) {
+            vsyncsPerFrame = 1;
+        } else if (targetRate == HALF_RATE) {
+            vsyncsPerFrame = 2;
+        } else {
+            vsyncsPerFrame = Math.max(1, Math.round(displayRate / targetRate));
+        }
+        mFrameNs = mVsyncNs * vsyncsPerFrame;
+    }
+
+    /**
+     * Called on every vsync signal of the display.
+     * @param frameTimeNs the time (System.nanoTime()) of the vsync signal
+     * @return true if a frame is to be drawn now
+     */
+    public boolean onVsync(long frameTimeNs) {
+        if (mLast != 0) {
+            long interval = frameTimeNs - mLast;
+            //the vsync timestamps jitter a little, so they are compared within half a vsync
+            if (interval < mFrameNs - mVsyncNs / 2) {
+                return false;
+            }
+            mFrames++;
+            mTotalNs += interval;
+            mMaxNs = Math.max(mMaxNs, interval);
+            long missed = (interval - mFrameNs + mVsyncNs / 2) / mVsyncNs;
+            if (missed > 0) {
+                mLateFrames++;
+                mMissedVsyncs += missed;
+            }
+        }
+        mLast = frameTimeNs;
+        return true;
+    }
+
+    /**
+     * @return the target time (ns) between two frames
+     */
+    public long getFrameNs() {
+        return mFrameNs;
+    }
+
+    /**
+     * @return the target frame rate (frames/s), after rounding to the display
+     */
+    public float getFrameRate() {
+        return 1e9f / mFrameNs;
+    }
+
+    /**
+     * @return the average time (ns) between two frames; 0 before the second frame
+     */
+    public long getMeanIntervalNs() {
+        return mFrames == 0 ? 0 : mTotalNs / mFrames;
+    }
+
+    /**
+     * @return the longest time (ns) between two frames
+     */
+    public long getMaxIntervalNs() {
+        return mMaxNs;
+    }
+
+    /**
+     * @return the number of frames drawn at least one vsync late
+     */
+    public long getLateFrames() {
+        return mLateFrames;
+    }
+
+    /**
+     * @return the number of vsyncs on which no frame was drawn, although one was due
+     */
+    public long getMissedVsyncs() {
+        return mMissedVsyncs;
+    }
+}
@@ -0,0 +1,190 @@
+/*
+ * Copyright (C) 2015 Josef Mihalits, Randon Stasney, Dakota Ward
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.pdx.pong2pong.core;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The state of a game of Pong2Pong - ball, paddles and score - and the rules for scoring.
+ * Contains no platform code, so it runs the same on a device, in a unit test, in a
+ * benchmark, or on a server.
+ */
+public class Game {
+    /** the "virtual field" - all math is done using these dimensions */
+    public static final int FIELD_X = 1000;
+    public static final int FIELD_Y = 500;
+
+    /** the distance of the paddle centers from the left and right edges of the field */
+    public static final int PADDLE_INSET = 20;
+
+    /** the default number of ticks simulated per second */
+    public static final int DEFAULT_TICK_RATE = 60;
+
+    /** the number of ticks simulated per second */
+    private final int mTickRate;
+
+    /** the Pong ball */
+    private final Ball mBall;
+
+    /** the left paddle (the client's) */
+    private final Paddle mLeftPaddle = new Paddle(PADDLE_INSET, FIELD_Y / 2);
+
+    /** the right paddle (the server's) */
+    private final Paddle mRightPaddle = new Paddle(FIELD_X - PADDLE_INSET, FIELD_Y / 2);
+
+    /** the current simulation tick */
+    private int mTick = 0;
+
+    /** grants late hits of the left paddle; null if not used */
+    private LagCompensator mLagCompensator;
+
+    /**
+     * Creates a game simulated at the default tick rate.
+     */
+    public Game() {
+        this(DEFAULT_TICK_RATE);
+    }
+
+    /**
+     * Creates a game simulated at a fixed number of ticks per second. Both devices must use
+     * the same tick rate.
+     * @param tickRate the number of ticks per second
+     */
+    public Game(int tickRate) {
+        mTickRate = tickRate;
+        //the ball crosses the field in one second
+        mBall = new Ball((float) FIELD_X / tickRate);
+    }
+
+    /**
+     * @return the number of ticks simulated per second
+     */
+    public int getTickRate() {
+        return mTickRate;
+    }
+
+    /**
+     * @return the ball
+     */
+    public Ball getBall() {
+        return mBall;
+    }
+
+    /**
+     * @return the left paddle
+     */
+    public Paddle getLeftPaddle() {
+        return mLeftPaddle;
+    }
+
+    /**
+     * @return the right paddle
+     */
+    public Paddle getRightPaddle() {
+        return mRightPaddle;
+    }
+
+    /**
+     * @return the number of ticks simulated so far
+     */
+    public int getTick() {
+        return mTick;
+    }
+
+    /**
+     * Uses lag compensation for hits of the left paddle (see LagCompensator).
+     * @param lagCompensator the lag compensator; null to turn it off
+     */
+    public void setLagCompensator(LagCompensator lagCompensator) {
+        mLagCompensator = lagCompensator;
+    }
+
+    /**
+     * Advances the game by one tick: moves the ball and applies the rules for scoring.
+     * Call it getTickRate() times per second (see FixedStepper).
+     */
+    public void step() {
+        mTick++;
+        if (mLagCompensator != null) {
+            mLagCompensator.record(mTick, mBall, mRightPaddle.getY());
+        }
+        mBall.move(mLeftPaddle, mRightPaddle);
+
+        //check if the ball is outside the game area; with lag compensation, a ball that passed
+        //the left paddle only counts once the client can no longer claim a hit
+        if (mBall.getX() < 0 && (mLagCompensator == null || mLagCompensator.mayScore())) {
+            mRightPaddle.incScore();
+            startRound();
+        } else if (mBall.getX() > FIELD_X) {
+            mLeftPaddle.incScore();
+            startRound();
+        }
+    }
+
+    /**
+     * Combines the exact state of the game into a single number. Two devices simulating the
+     * same game in lockstep have the same checksum after the same tick.
+     * @return the checksum
+     */
+    public int checksum() {
+        int h = mTick;
+        h = 31 * h + mBall.checksum();
+        h = 31 * h + mLeftPaddle.getY();
+        h = 31 * h + mRightPaddle.getY();
+        h = 31 * h + mLeftPaddle.getScore();
+        h = 31 * h + mRightPaddle.getScore();
+        return h;
+    }
+
+    /** the size (bytes) of the state written by writeState() */
+    static final int STATE_SIZE = 4 + Ball.STATE_SIZE + 4 * 2;
+
+    /**
+     * Writes the exact state of the game (tick, ball, paddles and score), e.g. for a keyframe
+     * of a recording (see MatchRecorder).
+     * @param out the buffer the state is written to
+     */
+    void writeState(ByteBuffer out) {
+        out.putInt(mTick);
+        mBall.writeState(out);
+        out.putShort((short) mLeftPaddle.getY()).putShort((short) mRightPaddle.getY());
+        out.putShort((short) mLeftPaddle.getScore()).putShort((short) mRightPaddle.getScore());
+    }
+
+    /**
+     * Restores the exact state of the game, as written by writeState().
+     * @param in the buffer the state is read from
+     */
+    void readState(ByteBuffer in) {
+        mTick = in.getInt();
+        mBall.readState(in);
+        mLeftPaddle.setY(in.getShort());
+        mRightPaddle.setY(in.getShort());
+        mLeftPaddle.setScore(in.getShort());
+        mRightPaddle.setScore(in.getShort());
+    }
+
+    /**
+     * Puts the ball back to the center for the next round.
+     */
+    private void startRound() {
+        mBall.start();
+        if (mLagCompensator != null) {
+            mLagCompensator.reset(mTick + 1);
+        }
+    }
+}
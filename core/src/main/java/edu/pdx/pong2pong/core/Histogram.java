@@ -0,0 +1,211 @@
+/*
+ * Copyright (C) 2015 Josef Mihalits, Randon Stasney, Dakota Ward
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.pdx.pong2pong.core;
+
+import java.io.IOException;
+
+/**
+ * Counts how often durations (ns) occur, for reporting percentiles such as p99 of the frame
+ * time. Recording a value only increments a counter, so it does not create any objects.
+ *
+ * The buckets are logarithmic, like those of HdrHistogram: every power of two is split into
+ * SUB_BUCKETS linear buckets, so a value is counted with an error of less than 1 / SUB_BUCKETS
+ * of its size, whether it is a microsecond or a second.
+ *
+ * Written by one thread; may be read by any thread. A reader may see a value that is
+ * recorded at the same time in the count, but not yet in the buckets (or vice versa).
+ */
+public class Histogram {
+    /** values below SUB_BUCKETS have a bucket each; above, every power of two has SUB_BUCKETS / 2 */
+    private static final int SUB_BITS = 6;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    private static final int HALF = SUB_BUCKETS / 2;
+
+    /** enough buckets for any non-negative long */
+    private static final int BUCKETS = SUB_BUCKETS + (63 - SUB_BITS) * HALF;
+
+    /** the percentiles written by write() */
+    private static final double[] PERCENTILES = {50, 90, 95, 99, 99.9};
+
+    /** the name of the histogram, e.g. "frame time" */
+    private final String mName;
+
+    /** the number of values counted in each bucket */
+    private final long[] mCounts = new long[BUCKETS];
+
+    /** the number of values recorded, their sum and their maximum */
+    private volatile long mTotal = 0;
+    private long mSum = 0;
+    private volatile long mMax = 0;
+
+    /**
+     * @param name the name of the histogram, e.g. "frame time"
+     */
+    public Histogram(String name) {
+        mName = name;
+    }
+
+    /**
+     * @return the name of the histogram
+     */
+    public String getName() {
+        return mName;
+    }
+
+    /**
+     * Counts a value.
+     * @param value the value (ns); negative values are counted as 0
+     */
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        mCounts[index(value)]++;
+        mSum += value;
+        if (value > mMax) {
+            mMax = value;
+        }
+        mTotal++;
+    }
+
+    /**
+     * Clears all counts.
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            mCounts[i] = 0;
+        }
+        mSum = 0;
+        mMax = 0;
+        mTotal = 0;
+    }
+
+    /**
+     * @return the number of values recorded
+     */
+    public long getCount() {
+        return mTotal;
+    }
+
+    /**
+     * @return the largest value recorded; 0 if none was
+     */
+    public long getMax() {
+        return mMax;
+    }
+
+    /**
+     * @return the average of the values recorded; 0 if none was
+     */
+    public long getMean() {
+        long total = mTotal;
+        return total == 0 ? 0 : mSum / total;
+    }
+
+    /**
+     * Returns the value below or at which the given percentage of the values recorded are.
+     * The value is the upper end of its bucket, but never more than the largest value recorded.
+     * @param percentile the percentage, e.g. 99 for p99
+     * @return the value; 0 if no value was recorded
+     */
+    public long getValueAtPercentile(double percentile) {
+        long total = mTotal;
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += mCounts[i];
+            if (seen >= rank) {
+                return Math.min(highestValue(i), mMax);
+            }
+        }
+        return mMax;
+    }
+
+    /**
+     * Writes a summary (count, mean, percentiles, max) and all non-empty buckets, as text.
+     * Values are written in milliseconds. The output is meant for comparing runs offline,
+     * e.g. across devices; it is written once at the end of a game, so it may create objects.
+     * @param out where the text is written to
+     * @throws IOException
+     */
+    public void write(Appendable out) throws IOException {
+        out.append("# ").append(mName).append('\n');
+        out.append("count ").append(Long.toString(mTotal)).append('\n');
+        out.append("mean ").append(toMs(getMean())).append('\n');
+        for (double p : PERCENTILES) {
+            out.append("p").append(p == (long) p ? Long.toString((long) p) : Double.toString(p))
+                    .append(' ').append(toMs(getValueAtPercentile(p))).append('\n');
+        }
+        out.append("max ").append(toMs(mMax)).append('\n');
+        out.append("# bucket: from (ms) to (ms) count\n");
+        for (int i = 0; i < BUCKETS; i++) {
+            if (mCounts[i] != 0) {
+                out.append(toMs(lowestValue(i))).append(' ').append(toMs(highestValue(i)))
+                        .append(' ').append(Long.toString(mCounts[i])).append('\n');
+            }
+        }
+    }
+
+    /**
+     * @param ns a duration (ns)
+     * @return the duration in milliseconds, as text
+     */
+    private static String toMs(long ns) {
+        return Double.toString(ns / 1e6);
+    }
+
+    /**
+     * @param value a non-negative value
+     * @return the index of the bucket the value is counted in
+     */
+    static int index(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        //shift the value so that it falls in [HALF, SUB_BUCKETS)
+        int shift = 63 - Long.numberOfLeadingZeros(value) - (SUB_BITS - 1);
+        return SUB_BUCKETS + (shift - 1) * HALF + (int) (value >> shift) - HALF;
+    }
+
+    /**
+     * @param index the index of a bucket
+     * @return the smallest value counted in the bucket
+     */
+    static long lowestValue(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int shift = (index - SUB_BUCKETS) / HALF + 1;
+        long sub = (index - SUB_BUCKETS) % HALF + HALF;
+        return sub << shift;
+    }
+
+    /**
+     * @param index the index of a bucket
+     * @return the largest value counted in the bucket
+     */
+    static long highestValue(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int shift = (index - SUB_BUCKETS) / HALF + 1;
+        return lowestValue(index) + (1L << shift) - 1;
+    }
+}
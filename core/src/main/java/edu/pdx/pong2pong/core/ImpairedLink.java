@@ -0,0 +1,182 @@
+/*
+ * Copyright (C) 2015 Josef Mihalits, Randon Stasney, Dakota Ward
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.pdx.pong2pong.core;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Random;
+
+/**
+ * One direction of a simulated network link: packets sent into it come out after a delay,
+ * or not at all, as described by an Impairment. The time is passed in by the caller, so a
+ * test can run a minute of network traffic in milliseconds, and the same seed always gives
+ * the same packet fate.
+ *
+ * The packets leave in the order they were sent; the jitter changes how long they take, but
+ * a packet waits for the one before it (like in the queue of a router). Only the packets
+ * picked for reordering are held back and overtaken. With a bandwidth cap, each packet also
+ * occupies the link for its size / bandwidth; packets that would wait too long for the link
+ * are dropped (like in a full queue).
+ */
+public class ImpairedLink {
+    private static final long MS = 1000000L;
+
+    /** how long (ns) a packet picked for reordering is held back */
+    private static final long REORDER_NS = 30 * MS;
+
+    /** the longest time (ns) a packet waits for a busy link before it is dropped */
+    private static final long MAX_QUEUE_NS = 500 * MS;
+
+    /** a packet on its way */
+    private static class Packet {
+        final byte[] data;
+        final long delivery;
+
+        Packet(byte[] data, long delivery) {
+            this.data = data;
+            this.delivery = delivery;
+        }
+    }
+
+    /** how packets are treated */
+    private final Impairment mImpairment;
+
+    /** decides the fate of each packet */
+    private final Random mRandom;
+
+    /** the packets on their way, ordered by delivery time */
+    private final ArrayList<Packet> mPackets = new ArrayList<Packet>();
+
+    /** the time (ns) the link is busy until, with a bandwidth cap */
+    private long mBusyUntil = Long.MIN_VALUE;
+
+    /** the delivery time (ns) of the last packet that was not held back */
+    private long mLastDelivery = Long.MIN_VALUE;
+
+    /** the bit of the next packet to flip; negative for none */
+    private int mCorruptBit = -1;
+
+    /** counters */
+    private long mSent = 0;
+    private long mLost = 0;
+    private long mDelivered = 0;
+
+    /**
+     * @param impairment how packets are treated
+     * @param seed the seed of the random numbers deciding the fate of each packet
+     */
+    public ImpairedLink(Impairment impairment, long seed) {
+        mImpairment = impairment;
+        mRandom = new Random(seed);
+    }
+
+    /**
+     * Sends a packet.
+     * @param packet the packet; all remaining bytes of the buffer (they are copied)
+     * @param now the current time (ns)
+     * @return false if the packet is lost
+     */
+    public boolean send(ByteBuffer packet, long now) {
+        mSent++;
+        byte[] data = new byte[packet.remaining()];
+        packet.get(data);
+        if (mRandom.nextFloat() < mImpairment.loss) {
+            mLost++;
+            return false;
+        }
+        if (mCorruptBit >= 0 && mCorruptBit < data.length * 8) {
+            data[mCorruptBit / 8] ^= 0x80 >>> (mCorruptBit % 8);
+            mCorruptBit = -1;
+        }
+        long start = now;
+        if (mImpairment.bandwidth > 0) {
+            start = Math.max(now, mBusyUntil);
+            if (start - now > MAX_QUEUE_NS) {
+                mLost++;
+                return false;
+            }
+            mBusyUntil = start + data.length * 1000000000L / mImpairment.bandwidth;
+            start = mBusyUntil;
+        }
+        long delivery = start + mImpairment.latencyMs * MS;
+        if (mImpairment.jitterMs > 0) {
+            delivery += (long) ((mRandom.nextFloat() * 2 - 1) * mImpairment.jitterMs * MS);
+        }
+        if (mRandom.nextFloat() < mImpairment.reorder) {
+            delivery += REORDER_NS;
+        } else {
+            delivery = Math.max(delivery, mLastDelivery);
+            mLastDelivery = delivery;
+        }
+
+        //insert behind all packets that are delivered at the same time or earlier
+        int i = mPackets.size();
+        while (i > 0 && mPackets.get(i - 1).delivery > delivery) {
+            i--;
+        }
+        mPackets.add(i, new Packet(data, delivery));
+        return true;
+    }
+
+    /**
+     * Flips a bit of the next packet that is not lost, like a bit error the checksums of the
+     * lower layers missed, e.g. to test that the receiver notices.
+     * @param bit the number of the bit, counted from the start of the packet, most significant
+     *            bit first (like the frame layout of the StateCodec)
+     */
+    public void corruptNext(int bit) {
+        mCorruptBit = bit;
+    }
+
+    /**
+     * Receives the next packet that has arrived.
+     * @param out the buffer the packet is written to; it is cleared and flipped
+     * @param now the current time (ns)
+     * @return false if no packet has arrived (yet)
+     */
+    public boolean receive(ByteBuffer out, long now) {
+        if (mPackets.isEmpty() || mPackets.get(0).delivery > now) {
+            return false;
+        }
+        Packet p = mPackets.remove(0);
+        out.clear();
+        out.put(p.data);
+        out.flip();
+        mDelivered++;
+        return true;
+    }
+
+    /**
+     * @return the number of packets sent into the link
+     */
+    public long getSent() {
+        return mSent;
+    }
+
+    /**
+     * @return the number of packets lost (including those dropped by a full queue)
+     */
+    public long getLost() {
+        return mLost;
+    }
+
+    /**
+     * @return the number of packets that came out of the link
+     */
+    public long getDelivered() {
+        return mDelivered;
+    }
+}
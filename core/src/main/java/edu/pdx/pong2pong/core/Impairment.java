@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2015 Josef Mihalits, Randon Stasney, Dakota Ward
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.pdx.pong2pong.core;
+
+/**
+ * How badly an ImpairedLink treats the packets sent over it: the values of a simulated network,
+ * such as a crowded WiFi channel. The profiles below are used by the loopback tests; they are
+ * rough models of real links, not measurements.
+ */
+public class Impairment {
+    /** a perfect link: packets arrive immediately, all of them, in order */
+    public static final Impairment NONE = new Impairment(0, 0, 0, 0, 0);
+
+    /** the one-way delay (ms) of every packet */
+    public final int latencyMs;
+
+    /** the largest random deviation (ms) from latencyMs, up or down */
+    public final int jitterMs;
+
+    /** the probability (0..1) that a packet is lost */
+    public final float loss;
+
+    /** the probability (0..1) that a packet is held back, so that later packets overtake it */
+    public final float reorder;
+
+    /** the capacity of the link (bytes/s); 0 for unlimited */
+    public final int bandwidth;
+
+    /**
+     * @param latencyMs the one-way delay (ms) of every packet
+     * @param jitterMs the largest random deviation (ms) from latencyMs
+     * @param loss the probability (0..1) that a packet is lost
+     * @param reorder the probability (0..1) that a packet is overtaken by later ones
+     * @param bandwidth the capacity of the link (bytes/s); 0 for unlimited
+     */
+    public Impairment(int latencyMs, int jitterMs, float loss, float reorder, int bandwidth) {
+        this.latencyMs = latencyMs;
+        this.jitterMs = jitterMs;
+        this.loss = loss;
+        this.reorder = reorder;
+        this.bandwidth = bandwidth;
+    }
+
+    /**
+     * @return two devices next to each other on WiFi Direct
+     */
+    public static Impairment wifiDirect() {
+        return new Impairment(4, 3, 0.005f, 0, 0);
+    }
+
+    /**
+     * @return a busy channel: long, varying delays, some loss and reordering, little capacity
+     */
+    public static Impairment congested() {
+        return new Impairment(40, 25, 0.05f, 0.02f, 4000);
+    }
+
+    /**
+     * @return a link at the edge of its range: most things that can go wrong, do
+     */
+    public static Impairment hostile() {
+        return new Impairment(100, 60, 0.2f, 0.1f, 2000);
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) 2015 Josef Mihalits, Randon Stasney, Dakota Ward
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.pdx.pong2pong.core;
+
+/**
+ * The paddle inputs of the client that the server has not acknowledged yet, oldest first;
+ * one input per simulation tick.
+ * After applying an authoritative state from the server, the client replays these inputs
+ * on top of it, each from the server tick it will be applied at. That tick is estimated from
+ * the states: a state of tick t echoing input k means the server applied k at tick t at the
+ * latest, so the lowest t - k of the recent states is the delay (ticks) from an input of the
+ * client to the server's tick that applies it. The lowest of a window of states, so that the
+ * delay follows the network when it gets slower.
+ */
+public class InputHistory {
+    /** the maximum number of inputs kept; older inputs are discarded */
+    private static final int CAPACITY = 128;
+
+    /** the number of states the lowest delay is taken from */
+    private static final int DELAY_WINDOW = 64;
+
+    /** ring buffer: sequence number and paddle position of each input */
+    private final int[] mSeq = new int[CAPACITY];
+    private final float[] mY = new float[CAPACITY];
+
+    /** index of the oldest input and number of inputs */
+    private int mHead = 0;
+    private int mCount = 0;
+
+    /** the position of the paddle of the newest input acknowledged */
+    private float mAcknowledgedY;
+
+    /** the delay (ticks) from an input to the server's tick that applies it; -1 if unknown */
+    private int mDelay = -1;
+
+    /** the lowest delay of the current window of states, and the number of states in it */
+    private int mWindowDelay = Integer.MAX_VALUE;
+    private int mWindowCount = 0;
+
+    /**
+     * Records a new input.
+     * @param seq the sequence number of the input (only the lower 16 bits are used)
+     * @param y the position of the paddle
+     */
+    public void add(int seq, float y) {
+        if (mCount == CAPACITY) {
+            mHead = (mHead + 1) % CAPACITY;
+            mCount--;
+        }
+        int i = (mHead + mCount) % CAPACITY;
+        mSeq[i] = seq & StateCodec.SEQ_MASK;
+        mY[i] = y;
+        mCount++;
+    }
+
+    /**
+     * Discards all inputs up to (and including) an acknowledged input, and updates the delay.
+     * @param seq the sequence number of the last input the server processed (0 if none)
+     * @param tick the tick of the state that acknowledges it
+     */
+    public void acknowledge(int seq, int tick) {
+        if (seq != 0) {
+            //by (16 bit) difference, like the StateCodec
+            mWindowDelay = Math.min(mWindowDelay, Math.max(0, (short) (tick - seq)));
+            mWindowCount++;
+            if (mDelay < 0 || mWindowDelay < mDelay) {
+                //a shorter delay counts at once, a longer one only after a whole window
+                mDelay = mWindowDelay;
+            }
+            if (mWindowCount == DELAY_WINDOW) {
+                mDelay = mWindowDelay;
+                mWindowDelay = Integer.MAX_VALUE;
+                mWindowCount = 0;
+            }
+        }
+        //compare by (16 bit) difference, like the StateCodec
+        while (mCount > 0 && (short) (mSeq[mHead] - seq) <= 0) {
+            mAcknowledgedY = mY[mHead];
+            mHead = (mHead + 1) % CAPACITY;
+            mCount--;
+        }
+    }
+
+    /**
+     * @return the number of unacknowledged inputs
+     */
+    public int size() {
+        return mCount;
+    }
+
+    /**
+     * @return the delay (ticks) from an input to the server's tick that applies it; 0 before
+     *         the first state that acknowledges an input
+     */
+    public int getDelay() {
+        return Math.max(0, mDelay);
+    }
+
+    /**
+     * @return the position of the paddle of the newest input acknowledged, which the server
+     *         applies till the next one
+     */
+    public float getAcknowledgedY() {
+        return mAcknowledgedY;
+    }
+
+    /**
+     * @param i the index of the input; 0 is the oldest
+     * @return the sequence number of the input (16 bits)
+     */
+    public int getSeq(int i) {
+        return mSeq[(mHead + i) % CAPACITY];
+    }
+
+    /**
+     * @param i the index of the input; 0 is the oldest
+     * @return the position of the paddle
+     */
+    public float getY(int i) {
+        return mY[(mHead + i) % CAPACITY];
+    }
+}
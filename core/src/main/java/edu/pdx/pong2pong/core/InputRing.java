@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) 2015 Josef Mihalits, Randon Stasney, Dakota Ward
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.pdx.pong2pong.core;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A lock-free queue of timestamped input samples (paddle positions or sensor readings) from
+ * exactly one producer thread, such as the UI thread delivering touch events, to one consumer
+ * thread, the game loop. Unlike a TripleBuffer, it keeps every sample, e.g. all the historical
+ * samples batched in a MotionEvent, so the game loop can average them or account for the
+ * latency of each one.
+ *
+ * The samples are held in preallocated arrays, used as a ring; neither side ever blocks or
+ * allocates. The producer publishes a sample by advancing the tail, the consumer frees its
+ * slot by advancing the head (ordered writes, so the values are visible before the index).
+ * When the ring is full, new samples are dropped, and counted.
+ */
+public class InputRing {
+    /** the capacity of the ring minus 1; the capacity is a power of two */
+    private final int mMask;
+
+    /** the samples: value and time (ns, System.nanoTime()) */
+    private final float[] mValues;
+    private final long[] mTimes;
+
+    /** the number of samples ever published (producer writes) and consumed (consumer writes) */
+    private final AtomicLong mTail = new AtomicLong(0);
+    private final AtomicLong mHead = new AtomicLong(0);
+
+    /** the number of samples dropped because the ring was full */
+    private volatile long mOverflows = 0;
+
+    /** the samples of the last drain() (consumer side only) */
+    private int mCount = 0;
+    private float mLatest;
+    private float mSum;
+    private long mLatestTime;
+
+    /**
+     * @param capacity the number of samples the ring holds; rounded up to a power of two
+     */
+    public InputRing(int capacity) {
+        int size = Integer.highestOneBit(Math.max(1, capacity - 1)) << 1;
+        mMask = size - 1;
+        mValues = new float[size];
+        mTimes = new long[size];
+    }
+
+    /**
+     * Producer side: adds a sample.
+     * @param value the value of the sample
+     * @param time the time (System.nanoTime()) the sample was taken
+     * @return false if the ring is full, and the sample was dropped
+     */
+    public boolean offer(float value, long time) {
+        long tail = mTail.get();
+        if (tail - mHead.get() > mMask) {
+            mOverflows++;
+            return false;
+        }
+        int i = (int) tail & mMask;
+        mValues[i] = value;
+        mTimes[i] = time;
+        mTail.lazySet(tail + 1);
+        return true;
+    }
+
+    /**
+     * Consumer side: takes all the samples published so far. They are then described by
+     * getCount(), getLatest(), getAverage() and getLatestTime().
+     * @param now the current time (System.nanoTime())
+     * @param latency the histogram that gets the age (ns) of each sample; may be null
+     * @return the number of samples taken; 0 if there were none (the last ones are kept)
+     */
+    public int drain(long now, Histogram latency) {
+        long head = mHead.get();
+        long tail = mTail.get();
+        if (head == tail) {
+            return 0;
+        }
+        float sum = 0;
+        for (long n = head; n < tail; n++) {
+            int i = (int) n & mMask;
+            sum += mValues[i];
+            if (latency != null) {
+                latency.record(now - mTimes[i]);
+            }
+        }
+        int last = (int) (tail - 1) & mMask;
+        mLatest = mValues[last];
+        mLatestTime = mTimes[last];
+        mSum = sum;
+        mCount = (int) (tail - head);
+        mHead.lazySet(tail);
+        return mCount;
+    }
+
+    /**
+     * @return the number of samples taken by the last drain() that found any
+     */
+    public int getCount() {
+        return mCount;
+    }
+
+    /**
+     * @return the most recent sample taken
+     */
+    public float getLatest() {
+        return mLatest;
+    }
+
+    /**
+     * @return the average of the samples taken by the last drain() that found any
+     */
+    public float getAverage() {
+        return mCount == 0 ? 0 : mSum / mCount;
+    }
+
+    /**
+     * @return the time (System.nanoTime()) of the most recent sample taken
+     */
+    public long getLatestTime() {
+        return mLatestTime;
+    }
+
+    /**
+     * @return the number of samples dropped because the ring was full
+     */
+    public long getOverflows() {
+        return mOverflows;
+    }
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright (C) 2015 Josef Mihalits, Randon Stasney, Dakota Ward
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.pdx.pong2pong.core;
+
+/**
+ * Smooths the motion of a remote entity (e.g. the paddle of the other player) whose position
+ * arrives over the network at irregular intervals. Received positions are buffered with the
+ * time the sender took them (e.g. its tick, converted to time), not the time they arrived, as
+ * a frame may sit in a buffer or be sent late. The entity is shown a fixed delay behind the
+ * newest position, interpolated between the two positions around that time. If no newer
+ * position has arrived in time (a late or lost packet), the last motion is continued, but only
+ * for a limited time.
+ *
+ * The clock of the sender is followed by the offset of its time to the arrival time: the
+ * largest offset of a window of positions, i.e. of the one that arrived the fastest. A larger
+ * offset counts at once, a smaller one only after a whole window (like the delay of
+ * InputHistory), or at once if a position arrives too late to be shown at all, e.g. after
+ * the sender paused.
+ */
+public class InterpolationBuffer {
+    /** the maximum number of buffered positions */
+    private static final int CAPACITY = 32;
+
+    /** the number of positions the largest offset is taken from */
+    private static final int OFFSET_WINDOW = 64;
+
+    /** ring buffer: time (ns) on the clock of the sender and position */
+    private final long[] mTime = new long[CAPACITY];
+    private final float[] mValue = new float[CAPACITY];
+
+    /** index of the oldest position and number of positions */
+    private int mHead = 0;
+    private int mCount = 0;
+
+    /** how far (ns) behind the newest position the entity is shown */
+    private final long mDelay;
+
+    /** how far (ns) beyond the newest position the motion is continued at most */
+    private final long mMaxExtrapolation;
+
+    /** the time of the sender minus the time of arrival (ns); valid once a position arrived */
+    private long mOffset;
+
+    /** the largest offset of the current window of positions, and the number of positions */
+    private long mWindowOffset;
+    private int mWindowCount = 0;
+
+    /** number of buffered positions newer than the time shown by the last call to sample() */
+    private int mDepth = 0;
+
+    /** true while the last call to sample() had to extrapolate */
+    private boolean mExtrapolating = false;
+
+    /** number of times sample() started to extrapolate */
+    private long mExtrapolations = 0;
+
+    /**
+     * @param delayMs how far (ms) behind the newest position the entity is shown
+     * @param maxExtrapolationMs how far (ms) beyond the newest position the motion is continued
+     */
+    public InterpolationBuffer(int delayMs, int maxExtrapolationMs) {
+        mDelay = delayMs * 1000000L;
+        mMaxExtrapolation = maxExtrapolationMs * 1000000L;
+    }
+
+    /**
+     * Adds a received position. Positions not newer than the newest one are ignored.
+     * @param time the time (ns) the sender took the position, on its clock
+     * @param arrival the time (ns, System.nanoTime()) the position arrived
+     * @param value the position
+     */
+    public void add(long time, long arrival, float value) {
+        if (mCount > 0 && time - mTime[index(mCount - 1)] <= 0) {
+            return;
+        }
+        long offset = time - arrival;
+        if (mCount == 0 || mOffset - offset > mDelay + mMaxExtrapolation) {
+            //the first position, or one that would never be shown: start over
+            mOffset = offset;
+            mWindowOffset = offset;
+            mWindowCount = 0;
+        }
+        mWindowOffset = Math.max(mWindowOffset, offset);
+        mOffset = Math.max(mOffset, offset);
+        if (++mWindowCount == OFFSET_WINDOW) {
+            mOffset = mWindowOffset;
+            mWindowOffset = Long.MIN_VALUE;
+            mWindowCount = 0;
+        }
+        if (mCount == CAPACITY) {
+            mHead = index(1);
+            mCount--;
+        }
+        mTime[index(mCount)] = time;
+        mValue[index(mCount)] = value;
+        mCount++;
+    }
+
+    /**
+     * Computes the position to show now.
+     * @param now the current time (ns, System.nanoTime())
+     * @param fallback the position returned while the buffer is empty
+     * @return the interpolated (or extrapolated) position
+     */
+    public float sample(long now, float fallback) {
+        if (mCount == 0) {
+            mDepth = 0;
+            return fallback;
+        }
+        long t = now + mOffset - mDelay;
+        //the oldest two positions are the ones around t; older ones are not needed any more
+        while (mCount > 2 && mTime[index(1)] - t <= 0) {
+            mHead = index(1);
+            mCount--;
+        }
+        int depth = 0;
+        while (depth < mCount && mTime[index(mCount - 1 - depth)] - t > 0) {
+            depth++;
+        }
+        mDepth = depth;
+
+        long t0 = mTime[mHead];
+        float v0 = mValue[mHead];
+        if (mCount == 1 || t - t0 <= 0) {
+            //nothing to interpolate with (yet)
+            mExtrapolating = false;
+            return v0;
+        }
+        long t1 = mTime[index(1)];
+        float v1 = mValue[index(1)];
+        if (t - t1 <= 0) {
+            mExtrapolating = false;
+            return v0 + (v1 - v0) * (t - t0) / (t1 - t0);
+        }
+
+        //t is past the newest position: continue the last motion for a limited time
+        if (!mExtrapolating) {
+            mExtrapolating = true;
+            mExtrapolations++;
+        }
+        long ahead = Math.min(t - t1, mMaxExtrapolation);
+        return v1 + (v1 - v0) * ahead / (t1 - t0);
+    }
+
+    /**
+     * @return the number of buffered positions ahead of the time last shown
+     */
+    public int getDepth() {
+        return mDepth;
+    }
+
+    /**
+     * @return the number of times the buffer ran dry and had to extrapolate
+     */
+    public long getExtrapolations() {
+        return mExtrapolations;
+    }
+
+    /**
+     * @param i the index relative to the oldest position
+     * @return the index in the ring buffer
+     */
+    private int index(int i) {
+        return (mHead + i) % CAPACITY;
+    }
+}
@@ -0,0 +1,188 @@
+/*
+ * Copyright (C) 2015 Josef Mihalits, Randon Stasney, Dakota Ward
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.pdx.pong2pong.core;
+
+/**
+ * Server-side lag compensation for the paddle of the client. The position of that paddle
+ * reaches the server one trip over the network late, so a ball the client saw hit its paddle
+ * may already have passed it on the server. To be fair to the client, the server keeps the
+ * recent history of the game, keyed by simulation tick. Whenever an input of the client
+ * arrives, it is tested against the ball as it was at the tick the client was looking at.
+ * If that is a hit, the server rewinds the ball to that tick, bounces it off the paddle, and
+ * simulates it forward again to the present.
+ *
+ * A ball that passed the client's paddle is not counted as a point till the rewind window has
+ * passed, so that a late hit can still be honored.
+ */
+public class LagCompensator {
+    /** the number of ticks in the history (power of 2); also limits the rewind window */
+    private static final int CAPACITY = 256;
+
+    /** the maximum number of ticks the ball is rewound */
+    private final int mMaxRewind;
+
+    /** the state of the game at the beginning of each tick, indexed by tick % CAPACITY */
+    private final int[] mBallX = new int[CAPACITY];
+    private final int[] mBallY = new int[CAPACITY];
+    private final float[] mBallVx = new float[CAPACITY];
+    private final float[] mBallVy = new float[CAPACITY];
+    private final float[] mRightY = new float[CAPACITY];
+
+    /** the newest tick recorded */
+    private int mTick = 0;
+
+    /** the oldest tick the ball may be rewound to (ticks before a new round are off limits) */
+    private int mFirstTick = 1;
+
+    /** the newest tick the client has reported looking at */
+    private int mLastView = 0;
+
+    /** the tick in which the ball passed the client's paddle; -1 if it has not */
+    private int mPassTick = -1;
+
+    /** stand-ins for the paddles while the ball is simulated again */
+    private final Paddle mLeft = new Paddle(Game.PADDLE_INSET, Game.FIELD_Y / 2);
+    private final Paddle mRight = new Paddle(Game.FIELD_X - Game.PADDLE_INSET, Game.FIELD_Y / 2);
+
+    /** number of hits granted after the fact */
+    private long mRewinds = 0;
+
+    /**
+     * @param maxRewindMs the maximum time (ms) the ball is rewound
+     * @param tickRate the number of ticks simulated per second
+     */
+    public LagCompensator(int maxRewindMs, int tickRate) {
+        mMaxRewind = Math.min(maxRewindMs * tickRate / 1000, CAPACITY - 1);
+    }
+
+    /**
+     * Records the state of the game at the beginning of a tick, before the ball is moved.
+     * @param tick the tick (one more than the last one recorded)
+     * @param ball the ball
+     * @param rightY the y position of the right paddle (the server's own paddle)
+     */
+    public void record(int tick, Ball ball, float rightY) {
+        int i = tick % CAPACITY;
+        mBallX[i] = ball.getX();
+        mBallY[i] = ball.getY();
+        mBallVx[i] = ball.getVx();
+        mBallVy[i] = ball.getVy();
+        mRightY[i] = rightY;
+        mTick = tick;
+
+        //remember when the ball passed the client's paddle
+        if (hasPassed(ball)) {
+            if (mPassTick < 0) {
+                mPassTick = tick;
+            }
+        } else {
+            mPassTick = -1;
+        }
+    }
+
+    /**
+     * Starts a new round: the ball is never rewound to a tick before this one.
+     * @param tick the first tick of the new round
+     */
+    public void reset(int tick) {
+        mFirstTick = tick;
+        mPassTick = -1;
+    }
+
+    /**
+     * Tests an input of the client against the ball as the client saw it, and rewinds the
+     * ball if the client hit it.
+     * @param view the tick of the state the client was showing (only the lower 16 bits)
+     * @param y the position of the client's paddle
+     * @param ball the ball; changed if a hit is granted
+     * @return true if the ball was rewound
+     */
+    public boolean onRemoteInput(int view, float y, Ball ball) {
+        //restore the upper bits of the 16 bit tick sent by the client
+        int viewTick = mTick - ((mTick - view) & StateCodec.SEQ_MASK);
+        int from = Math.max(mLastView + 1, Math.max(mFirstTick, mTick - CAPACITY + 1));
+        mLastView = Math.max(mLastView, viewTick);
+        if (!hasPassed(ball)) {
+            return false;
+        }
+
+        //the client held its paddle at y while looking at the ticks from..viewTick
+        mLeft.setY(y);
+        for (int tick = from; tick <= viewTick; tick++) {
+            int i = tick % CAPACITY;
+            if (mTick - tick >= mMaxRewind || mBallVx[i] >= 0) {
+                continue;
+            }
+            if (mLeft.getSpace().contains(mBallX[i], mBallY[i])) {
+                resimulate(tick, ball);
+                mRewinds++;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Whether a ball that left the field on the side of the client may be counted as a point;
+     * i.e. the client can no longer claim a hit.
+     * @return true if the rewind window has passed
+     */
+    public boolean mayScore() {
+        return mPassTick >= 0 && mTick - mPassTick >= mMaxRewind;
+    }
+
+    /**
+     * @return the number of hits granted after the fact
+     */
+    public long getRewinds() {
+        return mRewinds;
+    }
+
+    /**
+     * @param ball the ball
+     * @return true if the ball passed the client's paddle without bouncing off it
+     */
+    private boolean hasPassed(Ball ball) {
+        return ball.getVx() < 0 && ball.getX() < mLeft.getSpace().right;
+    }
+
+    /**
+     * Moves the ball again from the beginning of a tick to the present, with the client's
+     * paddle (mLeft) at the position of the hit.
+     * @param tick the tick in which the ball hit the paddle
+     * @param ball the ball
+     */
+    private void resimulate(int tick, Ball ball) {
+        int i = tick % CAPACITY;
+        ball.setCoord(mBallX[i], mBallY[i]);
+        ball.setVelocity(mBallVx[i], mBallVy[i]);
+        for (int t = tick; t <= mTick; t++) {
+            i = t % CAPACITY;
+            mRight.setY(mRightY[i]);
+            ball.move(mLeft, mRight);
+            if (t < mTick) {
+                //the history now follows the new path of the ball
+                int next = (t + 1) % CAPACITY;
+                mBallX[next] = ball.getX();
+                mBallY[next] = ball.getY();
+                mBallVx[next] = ball.getVx();
+                mBallVy[next] = ball.getVy();
+            }
+        }
+        mPassTick = -1;
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright (C) 2015 Josef Mihalits, Randon Stasney, Dakota Ward
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.pdx.pong2pong.core;
+
+/**
+ * Measures the input-to-display latency of the paddles: the time from an input sample
+ * (System.nanoTime() of the touch or sensor event, see InputRing) until a frame showing the
+ * moved paddle is handed to the display, on this device and on the other one. The newest
+ * input applied to the paddle is followed through the stages of the pipeline:
+ * <pre>
+ *   input to send:    the frame with the moved paddle is sent        (network thread, sender)
+ *   input to receive: the frame arrives at the other device          (network thread, receiver)
+ *   input to display: unlockCanvasAndPost() of the first frame       (game loop, both devices)
+ *                     that shows the paddle
+ * </pre>
+ * The time from the input to the tick that applies it is measured by the game loop (e.g.
+ * "touch to paddle"). The time of the input travels in the frames (see StateCodec), converted
+ * to the clock of the receiver by its ClockSync, so the remote stages are only as exact as
+ * the clock offset: within half the RTT. The display adds at least one more vsync, which no
+ * clock of the device can see.
+ *
+ * The histograms "input to send" and "remote input to receive" are written by the network
+ * thread, the others by the game loop; all may be read by any thread.
+ */
+public class LatencyTrace {
+    /** the time (ns) from an input to the frame that sends it, and to the frame that shows it */
+    private final Histogram mSend = new Histogram("input to send");
+    private final Histogram mDisplay = new Histogram("input to display");
+
+    /** the same for inputs of the other device: to the frame that brings it, and that shows it */
+    private final Histogram mRemoteReceive = new Histogram("remote input to receive");
+    private final Histogram mRemoteDisplay = new Histogram("remote input to display");
+
+    /** the oldest input, of this and of the other device, not yet shown; 0 if none */
+    private long mInput = 0;
+    private long mRemoteInput = 0;
+
+    /** the time of the last input sent (network thread only) */
+    private long mSentInput = 0;
+
+    /**
+     * Game loop: an input moved the paddle of this device.
+     * @param time the time (ns) of the input sample
+     */
+    public void onInput(long time) {
+        if (mInput == 0) {
+            mInput = time;
+        }
+    }
+
+    /**
+     * Game loop: an input of the other device moved its paddle.
+     * @param time the time (ns, our clock) of the input sample
+     */
+    public void onRemoteInput(long time) {
+        if (mRemoteInput == 0) {
+            mRemoteInput = time;
+        }
+    }
+
+    /**
+     * Game loop: a frame was posted (unlockCanvasAndPost() returned); it shows all inputs
+     * applied since the last one.
+     * @param now the current time (ns)
+     */
+    public void onDisplay(long now) {
+        if (mInput != 0) {
+            mDisplay.record(now - mInput);
+            mInput = 0;
+        }
+        if (mRemoteInput != 0) {
+            mRemoteDisplay.record(now - mRemoteInput);
+            mRemoteInput = 0;
+        }
+    }
+
+    /**
+     * Network thread: a snapshot was sent. Each input is counted once, with the first
+     * snapshot that carries it.
+     * @param s the snapshot
+     * @param now the current time (ns)
+     */
+    public void onSend(Snapshot s, long now) {
+        if (s.inputTime != 0 && s.inputTime != mSentInput) {
+            mSentInput = s.inputTime;
+            mSend.record(now - s.inputTime);
+        }
+    }
+
+    /**
+     * Network thread: a snapshot was received.
+     * @param s the snapshot
+     * @param now the current time (ns)
+     */
+    public void onReceive(Snapshot s, long now) {
+        if (s.inputTime != 0) {
+            mRemoteReceive.record(now - s.inputTime);
+        }
+    }
+
+    /**
+     * @return the time (ns) from an input of this device to the frame that sends it
+     */
+    public Histogram getSend() {
+        return mSend;
+    }
+
+    /**
+     * @return the time (ns) from an input of this device to the frame that shows it
+     */
+    public Histogram getDisplay() {
+        return mDisplay;
+    }
+
+    /**
+     * @return the time (ns) from an input of the other device until it arrives here
+     */
+    public Histogram getRemoteReceive() {
+        return mRemoteReceive;
+    }
+
+    /**
+     * @return the time (ns) from an input of the other device to the frame here that shows it
+     */
+    public Histogram getRemoteDisplay() {
+        return mRemoteDisplay;
+    }
+}
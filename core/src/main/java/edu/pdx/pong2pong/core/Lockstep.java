@@ -0,0 +1,213 @@
+/*
+ * Copyright (C) 2015 Josef Mihalits, Randon Stasney, Dakota Ward
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.pdx.pong2pong.core;
+
+/**
+ * Runs a game in lockstep with the other device. Since the simulation is deterministic
+ * (see Ball), both devices only exchange paddle inputs, and each simulates the whole game
+ * itself. A tick is only simulated once the inputs of both players for it are known.
+ *
+ * An input is scheduled for a tick a few ticks in the future (the input delay), so that it
+ * usually reaches the other device in time, and the game does not stall. Each frame sent
+ * repeats all inputs the other side has not acknowledged yet, so a lost frame costs nothing
+ * as long as a later one arrives.
+ *
+ * Every CHECKSUM_INTERVAL ticks, both devices compare a checksum of their game state. A
+ * mismatch (a desync) means the simulations have diverged.
+ */
+public class Lockstep {
+    /** the number of ticks in the input buffers (power of 2) */
+    private static final int CAPACITY = 128;
+
+    /** the number of ticks between two checksums */
+    public static final int CHECKSUM_INTERVAL = 30;
+
+    /** the number of ticks a new checksum is repeated in the frames sent */
+    private static final int CHECKSUM_REPEAT = 8;
+
+    /** the game simulated */
+    private final Game mGame;
+
+    /** the paddle of this device and the paddle of the other device */
+    private final Paddle mLocalPaddle;
+    private final Paddle mRemotePaddle;
+
+    /** the number of ticks an input is scheduled ahead */
+    private final int mDelay;
+
+    /** the inputs of this device and of the other device, indexed by tick % CAPACITY */
+    private final int[] mLocal = new int[CAPACITY];
+    private final int[] mRemote = new int[CAPACITY];
+
+    /** the newest tick with an input of this device */
+    private int mLocalTick;
+
+    /** the newest tick with an input of the other device (all earlier ones are known, too) */
+    private int mRemoteTick;
+
+    /** the newest tick of our inputs the other device has received */
+    private int mAcked;
+
+    /** the newest checksum of our game and its tick; 0 if none yet */
+    private int mChecksumTick = 0;
+    private int mChecksum;
+
+    /** a checksum of the other device for a tick we have not simulated yet; 0 if none */
+    private int mPendingTick = 0;
+    private int mPendingChecksum;
+
+    /** the newest tick whose checksums were compared */
+    private int mComparedTick = 0;
+
+    /** the number of ticks that could not be simulated because an input was missing */
+    private long mStalls = 0;
+
+    /** the number of checksums that did not match */
+    private long mDesyncs = 0;
+
+    /**
+     * Starts the lockstep at the beginning of a game. The inputs for the first ticks (up to
+     * the input delay) are the start positions of the paddles, on both devices.
+     * @param game the game, at tick 0
+     * @param isServer true if running in server mode (this device controls the right paddle)
+     * @param inputDelay the number of ticks an input is scheduled ahead
+     */
+    public Lockstep(Game game, boolean isServer, int inputDelay) {
+        mGame = game;
+        mLocalPaddle = isServer ? game.getRightPaddle() : game.getLeftPaddle();
+        mRemotePaddle = isServer ? game.getLeftPaddle() : game.getRightPaddle();
+        mDelay = inputDelay;
+        for (int tick = 1; tick <= inputDelay; tick++) {
+            mLocal[tick % CAPACITY] = StateCodec.quantizePaddle(mLocalPaddle.getY());
+            mRemote[tick % CAPACITY] = StateCodec.quantizePaddle(mRemotePaddle.getY());
+        }
+        mLocalTick = mRemoteTick = mAcked = inputDelay;
+    }
+
+    /**
+     * Called once per tick: schedules the input of this device, and simulates the next
+     * tick if the input of the other device for it is known.
+     * @param y the current position of the paddle of this device
+     * @return true if a tick was simulated; false if the game stalled
+     */
+    public boolean advance(int y) {
+        //no new input while stalled, so that the input delay stays the same
+        if (mLocalTick == mGame.getTick() + mDelay) {
+            mLocalTick++;
+            mLocal[mLocalTick % CAPACITY] = StateCodec.quantizePaddle(y);
+        }
+        int next = mGame.getTick() + 1;
+        if (mRemoteTick < next) {
+            mStalls++;
+            return false;
+        }
+        mLocalPaddle.setY(mLocal[next % CAPACITY]);
+        mRemotePaddle.setY(mRemote[next % CAPACITY]);
+        mGame.step();
+        if (next % CHECKSUM_INTERVAL == 0) {
+            mChecksumTick = next;
+            mChecksum = mGame.checksum();
+            if (mPendingTick == next) {
+                compare(next, mPendingChecksum);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Writes the inputs the other device has not acknowledged yet, and the newest checksum
+     * while it is new.
+     * @param out the snapshot to send
+     */
+    public void send(Snapshot out) {
+        out.tick = mAcked + 1;
+        out.inputCount = Math.min(mLocalTick - mAcked, Snapshot.MAX_INPUTS);
+        for (int i = 0; i < out.inputCount; i++) {
+            out.inputs[i] = mLocal[(mAcked + 1 + i) % CAPACITY];
+        }
+        out.input = mRemoteTick;
+        boolean isNew = mChecksumTick != 0 && mGame.getTick() - mChecksumTick < CHECKSUM_REPEAT;
+        out.checksumTick = isNew ? mChecksumTick : 0;
+        out.checksum = mChecksum;
+    }
+
+    /**
+     * Takes the new inputs and the checksum from a snapshot of the other device.
+     * Ticks arrive as their lower 16 bits; the upper bits are restored from the
+     * (16 bit) difference to a tick known on this side.
+     * @param in the snapshot received
+     */
+    public void receive(Snapshot in) {
+        int first = mRemoteTick + (short) (in.tick - mRemoteTick);
+        for (int i = 0; i < in.inputCount; i++) {
+            int tick = first + i;
+            if (tick == mRemoteTick + 1 && tick - mGame.getTick() < CAPACITY) {
+                mRemote[tick % CAPACITY] = in.inputs[i];
+                mRemoteTick = tick;
+            }
+        }
+        int ack = mLocalTick + (short) (in.input - mLocalTick);
+        if (ack > mAcked && ack <= mLocalTick) {
+            mAcked = ack;
+        }
+
+        if (in.checksumTick != 0) {
+            int tick = mGame.getTick() + (short) (in.checksumTick - mGame.getTick());
+            if (tick == mChecksumTick) {
+                compare(tick, in.checksum);
+            } else if (tick > mChecksumTick) {
+                mPendingTick = tick;
+                mPendingChecksum = in.checksum;
+            }
+        }
+    }
+
+    /**
+     * @return the number of ticks an input is scheduled ahead
+     */
+    public int getInputDelay() {
+        return mDelay;
+    }
+
+    /**
+     * @return the number of ticks that could not be simulated because an input was missing
+     */
+    public long getStalls() {
+        return mStalls;
+    }
+
+    /**
+     * @return the number of checksums that did not match the other device's
+     */
+    public long getDesyncs() {
+        return mDesyncs;
+    }
+
+    /**
+     * Compares the checksum of the other device with ours, once per tick.
+     * @param tick the tick of both checksums
+     * @param checksum the checksum of the other device
+     */
+    private void compare(int tick, int checksum) {
+        if (tick > mComparedTick) {
+            mComparedTick = tick;
+            if (checksum != mChecksum) {
+                mDesyncs++;
+            }
+        }
+    }
+}
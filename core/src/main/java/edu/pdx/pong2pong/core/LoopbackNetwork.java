@@ -0,0 +1,171 @@
+/*
+ * Copyright (C) 2015 Josef Mihalits, Randon Stasney, Dakota Ward
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.pdx.pong2pong.core;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Connects a server and a client in the same process, through two ImpairedLinks, so that
+ * both ends of a game can be tested on one JVM, under any network conditions, and without
+ * any devices. The frames are encoded and decoded by the StateCodecs exactly as with a
+ * UdpTransport: each frame is a packet, lost frames are not retransmitted, and a frame
+ * older than the newest one received is dropped.
+ *
+ * The network runs on a simulated clock: the test sets the time, and receive() returns the
+ * frames that have arrived by then. It never blocks.
+ */
+public class LoopbackNetwork {
+
+    /** the current time (ns) of the simulated clock; it starts at the real time */
+    private long mNow = System.nanoTime();
+
+    /** the links from the server to the client and back */
+    private final ImpairedLink mToClient;
+    private final ImpairedLink mToServer;
+
+    /** the two ends of the connection */
+    private final End mServer;
+    private final End mClient;
+
+    /**
+     * @param serverCodec the codec of the server
+     * @param clientCodec the codec of the client
+     * @param impairment how the packets are treated, in both directions
+     * @param seed the seed deciding the fate of each packet
+     */
+    public LoopbackNetwork(StateCodec serverCodec, StateCodec clientCodec,
+                           Impairment impairment, long seed) {
+        mToClient = new ImpairedLink(impairment, seed);
+        mToServer = new ImpairedLink(impairment, seed + 1);
+        mServer = new End(serverCodec, mToClient, mToServer);
+        mClient = new End(clientCodec, mToServer, mToClient);
+    }
+
+    /**
+     * @return the server's end of the connection
+     */
+    public Transport getServer() {
+        return mServer;
+    }
+
+    /**
+     * @return the client's end of the connection
+     */
+    public Transport getClient() {
+        return mClient;
+    }
+
+    /**
+     * @return the link from the server to the client
+     */
+    public ImpairedLink getToClient() {
+        return mToClient;
+    }
+
+    /**
+     * @return the link from the client to the server
+     */
+    public ImpairedLink getToServer() {
+        return mToServer;
+    }
+
+    /**
+     * @return the current time (ns) of the simulated clock
+     */
+    public long getTime() {
+        return mNow;
+    }
+
+    /**
+     * Sets the simulated clock; it must not go back.
+     * @param now the current time (ns)
+     */
+    public void setTime(long now) {
+        mNow = now;
+    }
+
+    /**
+     * One end of the connection.
+     */
+    private class End implements Transport {
+        private final StateCodec mCodec;
+        private final ImpairedLink mOut;
+        private final ImpairedLink mIn;
+        private final ByteBuffer mSendBuf = ByteBuffer.allocate(StateCodec.MAX_FRAME_SIZE);
+        private final ByteBuffer mReceiveBuf = ByteBuffer.allocate(StateCodec.MAX_FRAME_SIZE);
+        private final RateMeter mSendMeter = new RateMeter();
+        private final RateMeter mReceiveMeter = new RateMeter();
+        private boolean mClosed = false;
+
+        End(StateCodec codec, ImpairedLink out, ImpairedLink in) {
+            mCodec = codec;
+            mOut = out;
+            mIn = in;
+        }
+
+        @Override
+        public void send(Snapshot s) throws IOException {
+            checkOpen();
+            mSendBuf.clear();
+            int size = mCodec.encode(s, mSendBuf);
+            mSendBuf.flip();
+            mOut.send(mSendBuf, mNow);
+            mSendMeter.add(size, mNow);
+        }
+
+        @Override
+        public boolean receive(Snapshot s) throws IOException {
+            checkOpen();
+            //like UdpTransport: all frames that have arrived are read; the newest one wins
+            boolean received = false;
+            while (mIn.receive(mReceiveBuf, mNow)) {
+                mReceiveMeter.add(mReceiveBuf.remaining(), mNow);
+                if (mCodec.decode(mReceiveBuf, s)) {
+                    s.time = mNow;
+                    received = true;
+                }
+            }
+            return received;
+        }
+
+        private void checkOpen() throws IOException {
+            if (mClosed) {
+                throw new IOException("socket closed");
+            }
+        }
+
+        @Override
+        public long getPacketsDropped() {
+            return mCodec.getFramesDropped();
+        }
+
+        @Override
+        public RateMeter getSendMeter() {
+            return mSendMeter;
+        }
+
+        @Override
+        public RateMeter getReceiveMeter() {
+            return mReceiveMeter;
+        }
+
+        @Override
+        public void close() {
+            mClosed = true;
+        }
+    }
+}
@@ -0,0 +1,305 @@
+/*
+ * Copyright (C) 2015 Josef Mihalits, Randon Stasney, Dakota Ward
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.pdx.pong2pong.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Records a match to a compact binary file, for looking at it again later (see ReplayPlayer),
+ * e.g. after a player reported a hit that should not have been. Each tick of the game is one
+ * record: usually the positions of the two paddles, which are all a replay needs to simulate
+ * the tick again; every keyframe interval, and whenever the state of the game came from
+ * somewhere else than its own simulation (e.g. from the server), a keyframe with the exact
+ * state of the game instead.
+ *
+ * File layout (big endian):
+ * <pre>
+ *   header:   magic "P2PR" (4) | version (2) | tick rate (2)
+ *   tick:     TICK (1) | left paddle y (2) | right paddle y (2)
+ *   keyframe: KEYFRAME (1) | tick (4) | game state (32): tick, ball (fixed point), paddles, score
+ * </pre>
+ * The keyframes are indexed in a second file (the name of the recording plus INDEX_EXTENSION):
+ * tick (4) | offset of the keyframe in the recording (8), for each keyframe.
+ *
+ * The game loop never waits for the disk: record() writes into one of two preallocated
+ * buffers, and hands a filled buffer over to a writer thread of its own, which writes it to
+ * the file and indexes the keyframes in it. If the writer falls so far behind that both
+ * buffers are full, records are dropped (and counted), and the next record is a keyframe, so
+ * the replay catches up with the match. In steady state, record() creates no objects.
+ */
+public class MatchRecorder {
+    /** the extension of recordings, and of their keyframe indexes */
+    public static final String EXTENSION = ".p2p";
+    public static final String INDEX_EXTENSION = ".idx";
+
+    /** the first bytes of a recording, and the version of the format */
+    static final int MAGIC = 0x50325052;
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 8;
+
+    /** the types of records, and their sizes (bytes) */
+    static final byte TICK = 1;
+    static final byte KEYFRAME = 2;
+    static final int TICK_SIZE = 1 + 2 * 2;
+    static final int KEYFRAME_SIZE = 1 + 4 + Game.STATE_SIZE;
+
+    /** the size (bytes) of an entry of the keyframe index */
+    static final int INDEX_ENTRY_SIZE = 4 + 8;
+
+    /** the size (bytes) of each of the two buffers; a minute of ticks at 60 ticks/s */
+    private static final int BUFFER_SIZE = 16 * 1024;
+
+    /** time (ns) the writer waits before checking again for a buffer to write */
+    private static final long WAIT_NS = 10000000;
+
+    /** a keyframe is recorded at least every this many ticks */
+    private final int mKeyframeInterval;
+
+    /** the recording and its keyframe index */
+    private final FileChannel mFile;
+    private final FileChannel mIndex;
+
+    /** the buffer the game loop records into, and the one handed to the writer (or null) */
+    private final ByteBuffer[] mBuffers = {
+            ByteBuffer.allocateDirect(BUFFER_SIZE), ByteBuffer.allocateDirect(BUFFER_SIZE)};
+    private ByteBuffer mFill = mBuffers[0];
+    private volatile ByteBuffer mFull = null;
+
+    /** writes the buffers handed over to it */
+    private final Thread mWriter;
+
+    /** cleared to ask the writer to finish */
+    private volatile boolean mRun = true;
+
+    /** the number of ticks recorded, and since the last keyframe (game loop only) */
+    private int mTick = 0;
+    private int mSinceKeyframe = 0;
+    private boolean mNeedKeyframe = true;
+
+    /** the number of records dropped because the writer fell behind */
+    private volatile long mDropped = 0;
+
+    /** the offset in the file of the next buffer written (writer only), and an index entry */
+    private volatile long mOffset = HEADER_SIZE;
+    private final ByteBuffer mEntry = ByteBuffer.allocate(INDEX_ENTRY_SIZE);
+
+    /** the reason the writer stopped; null if it did not fail */
+    private volatile IOException mError;
+
+    /**
+     * Creates the recording (and its index), and starts the writer thread.
+     * @param file the recording; replaced if it exists
+     * @param tickRate the number of ticks the game is simulated per second
+     * @param keyframeInterval a keyframe is recorded at least every this many ticks
+     * @throws IOException
+     */
+    public MatchRecorder(File file, int tickRate, int keyframeInterval) throws IOException {
+        mKeyframeInterval = keyframeInterval;
+        mFile = open(file);
+        mIndex = open(indexFile(file));
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC).putShort((short) VERSION).putShort((short) tickRate).flip();
+        writeFully(mFile, header);
+        mWriter = new Thread("MatchRecorder") {
+            @Override
+            public void run() {
+                writeLoop();
+            }
+        };
+        mWriter.start();
+    }
+
+    /**
+     * @param file a recording
+     * @return the keyframe index of the recording
+     */
+    public static File indexFile(File file) {
+        return new File(file.getPath() + INDEX_EXTENSION);
+    }
+
+    /**
+     * @param file a file
+     * @return the file opened for writing, emptied
+     * @throws IOException
+     */
+    private static FileChannel open(File file) throws IOException {
+        FileChannel channel = new RandomAccessFile(file, "rw").getChannel();
+        channel.truncate(0);
+        return channel;
+    }
+
+    /**
+     * Game loop: records a tick of the game, after it was simulated.
+     * @param game the game
+     * @param corrected true if the state of the game was set from outside its simulation in
+     *                  this tick (e.g. from the server); then a keyframe is recorded
+     */
+    public void record(Game game, boolean corrected) {
+        boolean keyframe = corrected || mNeedKeyframe || mSinceKeyframe >= mKeyframeInterval;
+        int size = keyframe ? KEYFRAME_SIZE : TICK_SIZE;
+        if (mFill.remaining() < size) {
+            handOver();
+        }
+        if (mFill.remaining() < size) {
+            mDropped++;
+            mNeedKeyframe = true;
+            mTick++;
+            return;
+        }
+        if (keyframe) {
+            mFill.put(KEYFRAME).putInt(mTick);
+            game.writeState(mFill);
+            mSinceKeyframe = 0;
+            mNeedKeyframe = false;
+            //the writer gets the keyframes while they are new
+            handOver();
+        } else {
+            mFill.put(TICK).putShort((short) game.getLeftPaddle().getY())
+                    .putShort((short) game.getRightPaddle().getY());
+            mSinceKeyframe++;
+        }
+        mTick++;
+    }
+
+    /**
+     * Hands the records over to the writer, unless it is still busy with the last ones.
+     */
+    private void handOver() {
+        if (mFull != null || mFill.position() == 0) {
+            return;
+        }
+        mFill.flip();
+        mFull = mFill;
+        mFill = mFill == mBuffers[0] ? mBuffers[1] : mBuffers[0];
+        mFill.clear();
+        LockSupport.unpark(mWriter);
+    }
+
+    /**
+     * The entry point of the writer thread: writes the buffers handed over to it.
+     */
+    private void writeLoop() {
+        try {
+            while (true) {
+                ByteBuffer buffer = mFull;
+                if (buffer == null) {
+                    if (!mRun) {
+                        break;
+                    }
+                    LockSupport.parkNanos(WAIT_NS);
+                    continue;
+                }
+                write(buffer);
+                mFull = null;
+            }
+        } catch (IOException e) {
+            mError = e;
+        }
+    }
+
+    /**
+     * Writes the records in a buffer to the file, and the keyframes among them to the index.
+     * Records never span two buffers.
+     * @param buffer the records
+     * @throws IOException
+     */
+    private void write(ByteBuffer buffer) throws IOException {
+        int start = buffer.position();
+        int end = buffer.limit();
+        writeFully(mFile, buffer);
+        //the index only points to keyframes that are in the file
+        for (int i = start; i < end; ) {
+            if (buffer.get(i) == KEYFRAME) {
+                mEntry.clear();
+                mEntry.putInt(buffer.getInt(i + 1)).putLong(mOffset + i - start).flip();
+                writeFully(mIndex, mEntry);
+                i += KEYFRAME_SIZE;
+            } else {
+                i += TICK_SIZE;
+            }
+        }
+        mOffset += end - start;
+    }
+
+    /**
+     * @param channel a file
+     * @param buffer the bytes to append to the file; all remaining bytes are written
+     * @throws IOException
+     */
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    /**
+     * @return the number of ticks recorded
+     */
+    public int getTicks() {
+        return mTick;
+    }
+
+    /**
+     * @return the number of records dropped because the writer fell behind
+     */
+    public long getDropped() {
+        return mDropped;
+    }
+
+    /**
+     * @return the number of bytes written to the recording so far
+     */
+    public long getBytesWritten() {
+        return mOffset;
+    }
+
+    /**
+     * Game loop: writes the remaining records, and closes the files. Waits for the writer.
+     * @throws IOException if a record could not be written
+     */
+    public void close() throws IOException {
+        mRun = false;
+        LockSupport.unpark(mWriter);
+        while (true) {
+            try {
+                mWriter.join();
+                break;
+            } catch (InterruptedException e) {}
+        }
+        try {
+            if (mError != null) {
+                throw mError;
+            }
+            //the writer is done: the game loop writes what is left itself
+            if (mFull != null) {
+                write(mFull);
+                mFull = null;
+            }
+            mFill.flip();
+            write(mFill);
+            mFill.clear();
+        } finally {
+            mFile.close();
+            mIndex.close();
+        }
+    }
+}
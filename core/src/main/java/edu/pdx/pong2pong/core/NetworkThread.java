@@ -0,0 +1,277 @@
+/*
+ * Copyright (C) 2015 Josef Mihalits, Randon Stasney, Dakota Ward
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.pdx.pong2pong.core;
+
+import java.io.IOException;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Exchanges game state with the other device, so that the game loop never waits for
+ * the network. The game loop and this thread only share two TripleBuffers:
+ * the game loop publishes its latest state to the outgoing buffer, and picks up the latest
+ * state received from the other device from the incoming buffer.
+ *
+ * The server sends ball, right paddle and score, the client answers with the position of the
+ * left paddle. With a TcpTransport this is lockstep; with a UdpTransport a lost datagram only
+ * costs a receive timeout. When the game runs in lockstep (see Lockstep), both send their
+ * paddle inputs instead. A spectator (see SpectatorChannel) only receives.
+ *
+ * With a Session, a dropped connection pauses the game until it is back, and only fails the
+ * thread after the grace period.
+ */
+public class NetworkThread extends Thread {
+
+    /** time (ns) the server waits before checking again for a new state to send */
+    private static final long WAIT_NS = 1000000;
+
+    /** true if the program is running in server mode */
+    private final boolean mIsServer;
+
+    /** true if the program only watches a game, and never sends */
+    private final boolean mSpectator;
+
+    /** the connection to the other device */
+    private final Transport mTransport;
+
+    /** the latest state of the game loop (game loop writes, this thread reads) */
+    private final TripleBuffer<Snapshot> mOutgoing =
+            new TripleBuffer<Snapshot>(new Snapshot(), new Snapshot(), new Snapshot());
+
+    /** the latest state received from the other device (this thread writes, game loop reads) */
+    private final TripleBuffer<Snapshot> mIncoming =
+            new TripleBuffer<Snapshot>(new Snapshot(), new Snapshot(), new Snapshot());
+
+    /** cleared to ask the thread to finish */
+    private volatile boolean mRun = true;
+
+    /** set if the connection broke */
+    private volatile boolean mFailed = false;
+
+    /** the reason the connection broke */
+    private volatile IOException mError;
+
+    /** number of snapshots received from / sent to the other device (written by this thread only) */
+    private volatile long mSnapshotsReceived = 0;
+    private volatile long mSnapshotsSent = 0;
+
+    /** how long (ns) the thread waits in receive() and takes in send() */
+    private final Histogram mReadWait = new Histogram("socket read wait");
+    private final Histogram mWriteTime = new Histogram("socket write time");
+
+    /** follows the paddle inputs through send and receive; null if not measured */
+    private volatile LatencyTrace mTrace;
+
+    /**
+     * Constructs a new network thread; the thread is started with start().
+     * @param isServer true if running in server mode
+     * @param transport the connection to the other device
+     */
+    public NetworkThread(boolean isServer, Transport transport) {
+        this(isServer, false, transport);
+    }
+
+    /**
+     * Constructs a network thread that only receives the game of a host, for a spectator.
+     * @param transport the connection to the host's SpectatorChannel
+     * @return the new network thread; it is started with start()
+     */
+    public static NetworkThread spectate(Transport transport) {
+        return new NetworkThread(false, true, transport);
+    }
+
+    /**
+     * @param isServer true if running in server mode
+     * @param spectator true to only receive
+     * @param transport the connection to the other device
+     */
+    private NetworkThread(boolean isServer, boolean spectator, Transport transport) {
+        super("NetworkThread");
+        mIsServer = isServer;
+        mSpectator = spectator;
+        mTransport = transport;
+    }
+
+    /**
+     * The buffer the game loop writes its state to.
+     * @return the outgoing buffer
+     */
+    public TripleBuffer<Snapshot> getOutgoing() {
+        return mOutgoing;
+    }
+
+    /**
+     * The buffer the game loop reads the state of the other device from.
+     * @return the incoming buffer
+     */
+    public TripleBuffer<Snapshot> getIncoming() {
+        return mIncoming;
+    }
+
+    /**
+     * @return true if the connection broke and the thread has stopped
+     */
+    public boolean hasFailed() {
+        return mFailed;
+    }
+
+    /**
+     * @return the error that broke the connection; null if hasFailed() is false
+     */
+    public IOException getError() {
+        return mError;
+    }
+
+    /**
+     * @return the number of snapshots received from the other device
+     */
+    public long getSnapshotsReceived() {
+        return mSnapshotsReceived;
+    }
+
+    /**
+     * @return the number of snapshots sent to the other device
+     */
+    public long getSnapshotsSent() {
+        return mSnapshotsSent;
+    }
+
+    /**
+     * @return how long (ns) the thread waits for the other device in receive()
+     */
+    public Histogram getReadWait() {
+        return mReadWait;
+    }
+
+    /**
+     * @return how long (ns) sending a snapshot takes
+     */
+    public Histogram getWriteTime() {
+        return mWriteTime;
+    }
+
+    /**
+     * Measures when the paddle inputs are sent and received (see LatencyTrace).
+     * @param trace the trace of the game loop
+     */
+    public void setLatencyTrace(LatencyTrace trace) {
+        mTrace = trace;
+    }
+
+    /**
+     * Asks the thread to stop. A thread blocked in receive() only returns once the transport is closed.
+     */
+    public void shutdown() {
+        mRun = false;
+        interrupt();
+    }
+
+    /**
+     * The entry point of the network thread.
+     */
+    @Override
+    public void run() {
+        try {
+            while (mRun) {
+                if (!step()) {
+                    LockSupport.parkNanos(WAIT_NS);
+                }
+            }
+        } catch (IOException e) {
+            if (mRun) {
+                mError = e;
+                mFailed = true;
+            }
+        }
+    }
+
+    /**
+     * One round of the thread; run() calls it over and over. A test may call it on a thread
+     * that is not started instead, e.g. over a LoopbackNetwork, whose receive() never blocks.
+     * @return false if there was nothing to do: the server had no new state to send
+     * @throws IOException
+     */
+    boolean step() throws IOException {
+        if (mSpectator) {
+            receive();
+            return true;
+        } else if (mIsServer) {
+            return sendReceiveServer();
+        }
+        networkClient();
+        return true;
+    }
+
+    /**
+     * The network code that runs on the server program: sends the new state of the
+     * game loop, if there is one, and receives the position of the left paddle.
+     * @return false if there was no new state to send
+     * @throws IOException
+     */
+    private boolean sendReceiveServer() throws IOException {
+        if (!mOutgoing.update()) {
+            return false;
+        }
+        send();
+        receive();
+        return true;
+    }
+
+    /**
+     * The network code that runs on the client program: receives ball, right paddle and score,
+     * and answers with the latest position of the left paddle.
+     * @throws IOException
+     */
+    private void networkClient() throws IOException {
+        receive();
+        mOutgoing.update();
+        send();
+    }
+
+    /**
+     * Sends the latest state of the game loop.
+     * @throws IOException
+     */
+    private void send() throws IOException {
+        long start = System.nanoTime();
+        mTransport.send(mOutgoing.getReadBuffer());
+        long now = System.nanoTime();
+        mWriteTime.record(now - start);
+        mSnapshotsSent++;
+        if (mTrace != null) {
+            mTrace.onSend(mOutgoing.getReadBuffer(), now);
+        }
+    }
+
+    /**
+     * Waits for a snapshot from the other device, and hands it over to the game loop.
+     * @throws IOException
+     */
+    private void receive() throws IOException {
+        long start = System.nanoTime();
+        boolean received = mTransport.receive(mIncoming.getWriteBuffer());
+        long now = System.nanoTime();
+        mReadWait.record(now - start);
+        if (received) {
+            mIncoming.getWriteBuffer().time = now;
+            if (mTrace != null) {
+                mTrace.onReceive(mIncoming.getWriteBuffer(), now);
+            }
+            mIncoming.publish();
+            mSnapshotsReceived++;
+        }
+    }
+}
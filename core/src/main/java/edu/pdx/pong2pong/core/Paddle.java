@@ -14,11 +14,7 @@
  * limitations under the License.
  */
 
-package edu.pdx.pong2pong;
-
-import android.graphics.Canvas;
-import android.graphics.Paint;
-import android.graphics.Rect;
+package edu.pdx.pong2pong.core;
 
 /**
  * Models a game paddle: paddle dimensions, current location, etc.
@@ -31,31 +27,35 @@ public class Paddle {
     /** the number of won rounds (current score) */
     private int mNumWins;
     /** the width of the paddle */
-    final static int WIDTH = 20;
+    public final static int WIDTH = 20;
     /** the height of the paddle */
-    final static int HEIGHT = 100;
+    public final static int HEIGHT = 100;
     /** half the width of the paddle */
     final private static int half_w = WIDTH / 2;
     /** half the height of the paddle */
     final private static int half_h = HEIGHT / 2;
-    /** paint object used when drawing the ball */
-    private final Paint p = new Paint();
     /** if the center of the ball (x,y) is inside this rect. area, then the ball hits the paddle */
-    private Rect mPaddleSpace = new Rect();
+    private Box mPaddleSpace = new Box();
 
     /**
      * Constructs a new paddle.
-     * @param color the color of the paddle (argb value)
      * @param x the x position of the paddle (pixels in virtual field)
      * @param y the y position of the paddle
      */
-    public Paddle(int color, float x, float y) {
-        p.setColor(color);
+    public Paddle(float x, float y) {
         mX = x;
         mY = y;
         mNumWins = 0;
     }
 
+    /**
+     * Returns the x position of the paddle.
+     * @return the x position of the paddle center
+     */
+    public float getX() {
+        return mX;
+    }
+
     /**
      * Returns the current y position of the paddle.
      * @return the current y position of the paddle
@@ -80,6 +80,14 @@ public class Paddle {
         return mNumWins;
     }
 
+    /**
+     * Sets the current score (e.g. to the score received from the server).
+     * @param score the new score
+     */
+    public void setScore(int score) {
+        mNumWins = score;
+    }
+
     /**
      * Increase the score by one.
      */
@@ -89,9 +97,9 @@ public class Paddle {
 
     /**
      * If the center of the ball is inside this rect area, then the ball is hitting this paddle.
-     * @return Rect area occupied by the paddle
+     * @return Box area occupied by the paddle
      */
-    public Rect getSpace() {
+    public Box getSpace() {
         mPaddleSpace.set(
                 (int)mX - half_w - Ball.RADIUS,
                 (int)mY - half_h - Ball.RADIUS,
@@ -100,17 +108,4 @@ public class Paddle {
         );
         return mPaddleSpace;
     }
-
-    /**
-     * Draws the paddle to a graphics canvas.
-     * @param c the canvas on which the paddle is drawn
-     */
-    void draw(Canvas c) {
-        c.drawRect(
-                GameView.scaleX(mX - half_w),
-                GameView.scaleY(mY - half_h),
-                GameView.scaleX(mX + half_w),
-                GameView.scaleY(mY + half_h), p);
-    }
-
 }
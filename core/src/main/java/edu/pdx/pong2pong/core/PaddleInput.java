@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2015 Josef Mihalits, Randon Stasney, Dakota Ward
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.pdx.pong2pong.core;
+
+/**
+ * The input of the player for the game loop: readings of the gravity sensor (sensor thread)
+ * and touch positions (UI thread), each passed through an InputRing. Once per tick, the game
+ * loop moves the paddle of the player by the input that arrived since the last tick: to the
+ * average of the sensor readings, or to the most recent touch position.
+ */
+public class PaddleInput {
+    /** the number of input samples that may pile up between two ticks */
+    private static final int INPUT_SAMPLES = 64;
+
+    /**
+     * the sensor reading (m/s^2) that moves the paddle to the edge of the field; the range of
+     * readings is -9.8 to +9.8 (1g), but one should not have to tilt the device all the way
+     */
+    private static final int MAX_SENSOR_VALUE = 4;
+
+    /** sensor readings (sensor thread) and touch positions (UI thread) for the game loop */
+    private final InputRing mSensorInput = new InputRing(INPUT_SAMPLES);
+    private final InputRing mTouchInput = new InputRing(INPUT_SAMPLES);
+
+    /** the time (ns) from a sensor event or a touch event until it moves the paddle */
+    private final Histogram mSensorLatency = new Histogram("sensor to paddle");
+    private final Histogram mTouchLatency = new Histogram("touch to paddle");
+
+    /** the last reading from the gravity sensor, as applied to the paddle */
+    private float mSensorY;
+
+    /** the time (ns) of the newest input that moved the paddle; only set for the LatencyTrace */
+    private long mInputTime = 0;
+
+    /** follows the inputs to the display; null if not measured */
+    private LatencyTrace mTrace;
+
+    /**
+     * Sensor thread: adds a reading of the gravity sensor.
+     * @param value the current (filtered) reading of the sensor
+     * @param time the time (System.nanoTime()) the sensor measured the reading; if that is not
+     *             known, the time the event was delivered
+     */
+    public void offerSensor(float value, long time) {
+        mSensorInput.offer(value, time);
+    }
+
+    /**
+     * UI thread: adds a touch position.
+     * @param y the position, in field coordinates
+     * @param time the time (System.nanoTime()) of the touch event
+     */
+    public void offerTouch(float y, long time) {
+        mTouchInput.offer(y, time);
+    }
+
+    /**
+     * Game loop: moves the paddle by the input that arrived since the last tick.
+     * @param paddle the paddle of the player
+     * @param now the current time (System.nanoTime())
+     * @return true if the paddle was moved
+     */
+    public boolean apply(Paddle paddle, long now) {
+        long inputTime = 0;
+        if (mSensorInput.drain(now, mSensorLatency) > 0) {
+            mSensorY = mSensorInput.getAverage();
+            final int middle = Game.FIELD_Y / 2;
+            paddle.setY(middle + middle / MAX_SENSOR_VALUE * mSensorY);
+            inputTime = mSensorInput.getLatestTime();
+        }
+        if (mTouchInput.drain(now, mTouchLatency) > 0) {
+            paddle.setY(mTouchInput.getLatest());
+            inputTime = mTouchInput.getLatestTime();
+        }
+        if (inputTime == 0) {
+            return false;
+        }
+        if (mTrace != null) {
+            mInputTime = inputTime;
+            mTrace.onInput(inputTime);
+        }
+        return true;
+    }
+
+    /**
+     * @param trace follows the inputs to the display; null to stop
+     */
+    public void setLatencyTrace(LatencyTrace trace) {
+        mTrace = trace;
+    }
+
+    /**
+     * @return the time (System.nanoTime()) of the newest input that moved the paddle, to send
+     *         along with it; 0 if there was none, or no LatencyTrace is set
+     */
+    public long getInputTime() {
+        return mInputTime;
+    }
+
+    /**
+     * @return the last reading from the gravity sensor, as applied to the paddle
+     */
+    public float getSensorY() {
+        return mSensorY;
+    }
+
+    /**
+     * @return the time (ns) from a sensor event until it moved the paddle
+     */
+    public Histogram getSensorLatency() {
+        return mSensorLatency;
+    }
+
+    /**
+     * @return the time (ns) from a touch event until it moved the paddle
+     */
+    public Histogram getTouchLatency() {
+        return mTouchLatency;
+    }
+}
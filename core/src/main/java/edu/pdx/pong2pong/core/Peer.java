@@ -0,0 +1,298 @@
+/*
+ * Copyright (C) 2015 Josef Mihalits, Randon Stasney, Dakota Ward
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.pdx.pong2pong.core;
+
+/**
+ * The game loop of a server or a client program playing with the server's authoritative
+ * state (not in lockstep), one tick at a time; the other program runs its own Peer. Each
+ * tick, the paddle of the player is moved by its input (see PaddleInput), and the latest
+ * state received through the NetworkThread is applied:
+ * <ul>
+ *   <li>The server takes the left paddle of the client (granting the hits the client saw,
+ *       see LagCompensator), and simulates the game.</li>
+ *   <li>The client predicts the ball till the server's state arrives. The state is one round
+ *       trip old: it only includes the paddle inputs up to the one the server echoes, so the
+ *       client replays the ticks from the state's tick to the tick the server will apply its
+ *       newest input at, with each later input from the tick the server will apply it at
+ *       (see InputHistory). The ball ends up where the client predicted it to be, at the
+ *       tick the paddle of the player is shown at. The client never waits for the server.</li>
+ * </ul>
+ * Once per frame, publish() hands the state of the game over to the network thread; the
+ * paddle of the other player is drawn smoothly, a little in the past (see
+ * sampleRemotePaddle()). Used by the game loop only.
+ */
+public class Peer {
+    /** how far (ms) behind the received positions the paddle of the other player is drawn */
+    private static final int INTERPOLATION_DELAY = 50;
+
+    /** how long (ms) the motion of the other paddle is continued when no positions arrive */
+    private static final int MAX_EXTRAPOLATION = 100;
+
+    /** the most ticks the client replays on a state of the server (2 s at 60 ticks/s) */
+    private static final int MAX_REPLAY = 120;
+
+    /** the maximum time (ms) the server rewinds the ball to grant the client a hit */
+    private static final int MAX_REWIND = 200;
+
+    /** true if running in server mode */
+    private final boolean mIsServer;
+
+    /** the game, and its ball and paddles */
+    private final Game mGame;
+    private final Ball mBall;
+    private final Paddle mLeftPaddle;
+    private final Paddle mRightPaddle;
+
+    /** the paddle of the player, and of the other player */
+    private final Paddle mMyPaddle;
+    private final Paddle mRemote;
+
+    /** exchanges the states with the other program */
+    private final NetworkThread mNetwork;
+
+    /** the input of the player */
+    private final PaddleInput mInput;
+
+    /** client: the sequence number of the latest paddle input; server: the last one processed */
+    private int mInputSeq;
+
+    /** client: the paddle inputs not yet acknowledged by the server */
+    private final InputHistory mInputs = new InputHistory();
+
+    /** client: stands in for the left paddle while inputs are replayed */
+    private final Paddle mReplayPaddle = new Paddle(Game.PADDLE_INSET, Game.FIELD_Y / 2);
+
+    /** the received positions of the paddle of the other player, for drawing it smoothly */
+    private final InterpolationBuffer mRemotePaddle =
+            new InterpolationBuffer(INTERPOLATION_DELAY, MAX_EXTRAPOLATION);
+
+    /**
+     * the newest tick of the other program received, unwrapped from 16 bits: the server's
+     * simulation tick, or the client's input sequence number (one per tick of the client)
+     */
+    private int mRemoteTick;
+
+    /** client: the tick of the server state shown */
+    private int mTick;
+
+    /** client: the server tick (16 bits) the ball shown is predicted for */
+    private int mPredictedTick;
+
+    /** server: grants hits the client saw, but the server did not */
+    private final LagCompensator mLagCompensator;
+
+    /** follows the paddle inputs to the display of both devices; null if not measured */
+    private LatencyTrace mTrace;
+
+    /**
+     * @param game the game; the server's game gets the LagCompensator
+     * @param isServer true if running in server mode
+     * @param network exchanges the states with the other program
+     * @param input the input of the player
+     */
+    public Peer(Game game, boolean isServer, NetworkThread network, PaddleInput input) {
+        mGame = game;
+        mIsServer = isServer;
+        mNetwork = network;
+        mInput = input;
+        mBall = game.getBall();
+        mLeftPaddle = game.getLeftPaddle();
+        mRightPaddle = game.getRightPaddle();
+        mMyPaddle = isServer ? mRightPaddle : mLeftPaddle;
+        mRemote = isServer ? mLeftPaddle : mRightPaddle;
+        mLagCompensator = new LagCompensator(MAX_REWIND, game.getTickRate());
+        if (isServer) {
+            game.setLagCompensator(mLagCompensator);
+        }
+    }
+
+    /**
+     * Follows the paddle inputs to the display of both devices (see LatencyTrace).
+     * @param trace the trace; null to stop
+     */
+    public void setLatencyTrace(LatencyTrace trace) {
+        mTrace = trace;
+        mInput.setLatencyTrace(trace);
+    }
+
+    /**
+     * Simulates one tick.
+     * @param now the current time (System.nanoTime())
+     * @return true if the state of the game was not (only) simulated here: the client applied
+     *         the server's state, or the server granted a hit the client saw
+     */
+    public boolean tick(long now) {
+        mInput.apply(mMyPaddle, now);
+        if (mIsServer) {
+            //the server program controls the ball
+            long rewinds = mLagCompensator.getRewinds();
+            receiveServer();
+            mGame.step();
+            return mLagCompensator.getRewinds() != rewinds;
+        }
+        //the client predicts the ball till the server's state arrives
+        mInputs.add(++mInputSeq, mLeftPaddle.getY());
+        if (receiveClient()) {
+            return true;
+        }
+        mBall.move(mLeftPaddle, mRightPaddle);
+        mPredictedTick = (mPredictedTick + 1) & StateCodec.SEQ_MASK;
+        return false;
+    }
+
+    /**
+     * Hands the current state of the game over to the network thread.
+     */
+    public void publish() {
+        Snapshot out = mNetwork.getOutgoing().getWriteBuffer();
+        out.ballX = mBall.getX();
+        out.ballY = mBall.getY();
+        out.ballVx = mBall.getVx();
+        out.ballVy = mBall.getVy();
+        out.leftY = mLeftPaddle.getY();
+        out.rightY = mRightPaddle.getY();
+        out.leftScore = mLeftPaddle.getScore();
+        out.rightScore = mRightPaddle.getScore();
+        out.input = mInputSeq;
+        out.tick = getTick();
+        out.inputTime = mInput.getInputTime();
+        mNetwork.getOutgoing().publish();
+    }
+
+    /**
+     * Computes where to draw the paddle of the other player: a little in the past, but
+     * smoothly.
+     * @param now the current time (System.nanoTime())
+     * @return the y position of the paddle
+     */
+    public float sampleRemotePaddle(long now) {
+        return mRemotePaddle.sample(now, mRemote.getY());
+    }
+
+    /**
+     * Applies the latest state received by the server program, if there is a new one.
+     */
+    private void receiveServer() {
+        if (mNetwork.getIncoming().update()) {
+            Snapshot in = mNetwork.getIncoming().getReadBuffer();
+            mLeftPaddle.setY(in.leftY);
+            addRemotePaddle(in.input, in.time, in.leftY);
+            if (mTrace != null && in.inputTime != 0) {
+                mTrace.onRemoteInput(in.inputTime);
+            }
+            mInputSeq = in.input;
+            mLagCompensator.onRemoteInput(in.tick, in.leftY, mBall);
+        }
+    }
+
+    /**
+     * Applies the latest state received by the client program, if there is a new one, and
+     * replays the inputs the server has not seen yet on top of it.
+     * @return true if a new state was applied (including the input of the current tick)
+     */
+    private boolean receiveClient() {
+        if (!mNetwork.getIncoming().update()) {
+            return false;
+        }
+        Snapshot in = mNetwork.getIncoming().getReadBuffer();
+        mBall.setCoord(in.ballX, in.ballY);
+        mBall.setVelocity(in.ballVx, in.ballVy);
+        mRightPaddle.setY(in.rightY);
+        addRemotePaddle(in.tick, in.time, in.rightY);
+        if (mTrace != null && in.inputTime != 0) {
+            mTrace.onRemoteInput(in.inputTime);
+        }
+        mTick = in.tick;
+        mLeftPaddle.setScore(in.leftScore);
+        mRightPaddle.setScore(in.rightScore);
+
+        //replay up to the tick the server will apply the newest input at; the server holds
+        //the paddle of each input till it applies the next one
+        mInputs.acknowledge(in.input, in.tick);
+        int delay = mInputs.getDelay();
+        int ticks = Math.min(MAX_REPLAY, Math.max(0, (short) (mInputSeq + delay - in.tick)));
+        float y = mInputs.getAcknowledgedY();
+        int next = 0;
+        for (int i = 1; i <= ticks; i++) {
+            while (next < mInputs.size()
+                    && (short) (mInputs.getSeq(next) + delay - (in.tick + i)) <= 0) {
+                y = mInputs.getY(next++);
+            }
+            mReplayPaddle.setY(y);
+            mBall.move(mReplayPaddle, mRightPaddle);
+        }
+        mPredictedTick = (in.tick + ticks) & StateCodec.SEQ_MASK;
+        return true;
+    }
+
+    /**
+     * Adds a received position of the paddle of the other player, at the time of the tick the
+     * other program took it at.
+     * @param tick the tick (16 bits)
+     * @param arrival the time (System.nanoTime()) the position arrived
+     * @param y the position
+     */
+    private void addRemotePaddle(int tick, long arrival, float y) {
+        mRemoteTick += (short) (tick - mRemoteTick);
+        mRemotePaddle.add(mRemoteTick * 1000000000L / mGame.getTickRate(), arrival, y);
+    }
+
+    /**
+     * @return the tick of the state shown: the server's simulation tick, or on the client,
+     *         the tick of the server's state it predicts from
+     */
+    public int getTick() {
+        return mIsServer ? mGame.getTick() : mTick;
+    }
+
+    /**
+     * @return client: the server tick (16 bits) the ball shown is predicted for, i.e. the tick
+     *         the server will apply the newest paddle input at
+     */
+    public int getPredictedTick() {
+        return mPredictedTick;
+    }
+
+    /**
+     * @return client: the sequence number of the latest paddle input; server: the last one
+     *         processed
+     */
+    public int getInputSeq() {
+        return mInputSeq;
+    }
+
+    /**
+     * @return client: the number of paddle inputs not yet acknowledged by the server
+     */
+    public int getUnacknowledgedInputs() {
+        return mInputs.size();
+    }
+
+    /**
+     * @return the received positions of the paddle of the other player
+     */
+    public InterpolationBuffer getRemotePaddle() {
+        return mRemotePaddle;
+    }
+
+    /**
+     * @return server: grants hits the client saw, but the server did not
+     */
+    public LagCompensator getLagCompensator() {
+        return mLagCompensator;
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2015 Josef Mihalits, Randon Stasney, Dakota Ward
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.pdx.pong2pong.core;
+
+/**
+ * Counts bytes and measures the rate at which they are counted (bytes per second,
+ * averaged over one second). Written by one thread; may be read by any thread.
+ */
+public class RateMeter {
+    /** length of the averaging window (ns) */
+    private static final long WINDOW = 1000000000L;
+
+    /** the total number of bytes counted */
+    private volatile long mTotal = 0;
+
+    /** the rate measured over the last complete window (bytes per second) */
+    private volatile int mRate = 0;
+
+    /** start of the current window (ns) and bytes counted in it */
+    private long mWindowStart = System.nanoTime();
+    private long mWindowBytes = 0;
+
+    /**
+     * Counts bytes that were just sent or received.
+     * @param bytes the number of bytes
+     */
+    public void add(int bytes) {
+        add(bytes, System.nanoTime());
+    }
+
+    /**
+     * Counts bytes.
+     * @param bytes the number of bytes
+     * @param now the current time (ns)
+     */
+    void add(int bytes, long now) {
+        mTotal += bytes;
+        mWindowBytes += bytes;
+        long elapsed = now - mWindowStart;
+        if (elapsed >= WINDOW) {
+            mRate = (int) (mWindowBytes * WINDOW / elapsed);
+            mWindowStart = now;
+            mWindowBytes = 0;
+        }
+    }
+
+    /**
+     * @return the total number of bytes counted
+     */
+    public long getTotal() {
+        return mTotal;
+    }
+
+    /**
+     * @return the number of bytes per second, averaged over the last second
+     */
+    public int getRate() {
+        return mRate;
+    }
+}
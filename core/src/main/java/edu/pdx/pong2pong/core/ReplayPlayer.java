@@ -0,0 +1,243 @@
+/*
+ * Copyright (C) 2015 Josef Mihalits, Randon Stasney, Dakota Ward
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.pdx.pong2pong.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Plays back a match recorded by a MatchRecorder, tick by tick, into a Game of its own, which
+ * can be drawn like any other game. Ticks are simulated again from the recorded paddle
+ * positions; keyframes set the exact state of the game.
+ *
+ * The recording and its keyframe index are memory-mapped, so seeking to any tick only takes a
+ * binary search in the index, and simulating at most a keyframe interval of ticks. A recording
+ * that was cut short (e.g. the app was killed) plays up to its last complete record; if the
+ * index is missing, it is rebuilt by reading through the recording once.
+ *
+ * Used by one thread only.
+ */
+public class ReplayPlayer {
+    /** the game being played back */
+    private final Game mGame;
+
+    /** the records (after the header), and the keyframe index */
+    private final ByteBuffer mData;
+    private final ByteBuffer mIndex;
+
+    /** the number of keyframes in the index */
+    private final int mKeyframes;
+
+    /** the number of ticks in the recording */
+    private final int mTickCount;
+
+    /** the number of ticks played back so far; the position in the recording */
+    private int mTick = 0;
+
+    /**
+     * Opens a recording and plays back its first record.
+     * @param file the recording
+     * @throws IOException if the file cannot be read or is not a recording
+     */
+    public ReplayPlayer(File file) throws IOException {
+        ByteBuffer data = map(file);
+        if (data.remaining() < MatchRecorder.HEADER_SIZE || data.getInt() != MatchRecorder.MAGIC
+                || data.getShort() != MatchRecorder.VERSION) {
+            throw new IOException("not a recording: " + file);
+        }
+        mGame = new Game(data.getShort());
+        mData = data.slice();
+        //only complete records count
+        int end = 0;
+        while (end < mData.limit()) {
+            int size = recordSize(mData.get(end));
+            if (size == 0 || end + size > mData.limit()) {
+                break;
+            }
+            end += size;
+        }
+        mData.limit(end);
+
+        File indexFile = MatchRecorder.indexFile(file);
+        mIndex = indexFile.exists() ? map(indexFile) : buildIndex(mData);
+        //the index may point beyond the records, if the recording was cut short
+        int keyframes = mIndex.limit() / MatchRecorder.INDEX_ENTRY_SIZE;
+        while (keyframes > 0
+                && offset(keyframes - 1) + MatchRecorder.KEYFRAME_SIZE > mData.limit()) {
+            keyframes--;
+        }
+        mKeyframes = keyframes;
+        if (mKeyframes == 0) {
+            throw new IOException("no keyframe in the recording: " + file);
+        }
+
+        //the ticks up to the last keyframe, and the ones after it
+        int ticks = keyframeTick(mKeyframes - 1) + 1;
+        for (int i = (int) offset(mKeyframes - 1) + MatchRecorder.KEYFRAME_SIZE; i < end; ) {
+            i += recordSize(mData.get(i));
+            ticks++;
+        }
+        mTickCount = ticks;
+        seek(0);
+    }
+
+    /**
+     * @param file a file
+     * @return the file mapped into memory, read-only
+     * @throws IOException
+     */
+    private static ByteBuffer map(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            //the mapping stays valid after the file is closed
+            return raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * @param type the type of a record
+     * @return the size (bytes) of the record; 0 for an unknown type
+     */
+    private static int recordSize(byte type) {
+        switch (type) {
+            case MatchRecorder.TICK:
+                return MatchRecorder.TICK_SIZE;
+            case MatchRecorder.KEYFRAME:
+                return MatchRecorder.KEYFRAME_SIZE;
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * Indexes the keyframes of a recording, like the MatchRecorder does.
+     * @param data the complete records
+     * @return the index
+     */
+    private static ByteBuffer buildIndex(ByteBuffer data) {
+        int count = 0;
+        for (int i = 0; i < data.limit(); i += recordSize(data.get(i))) {
+            if (data.get(i) == MatchRecorder.KEYFRAME) {
+                count++;
+            }
+        }
+        ByteBuffer index = ByteBuffer.allocate(count * MatchRecorder.INDEX_ENTRY_SIZE);
+        for (int i = 0; i < data.limit(); i += recordSize(data.get(i))) {
+            if (data.get(i) == MatchRecorder.KEYFRAME) {
+                index.putInt(data.getInt(i + 1)).putLong(MatchRecorder.HEADER_SIZE + i);
+            }
+        }
+        index.flip();
+        return index;
+    }
+
+    /**
+     * @param keyframe the number of a keyframe in the index
+     * @return the tick of the keyframe
+     */
+    private int keyframeTick(int keyframe) {
+        return mIndex.getInt(keyframe * MatchRecorder.INDEX_ENTRY_SIZE);
+    }
+
+    /**
+     * @param keyframe the number of a keyframe in the index
+     * @return the offset of the keyframe in the records (after the header)
+     */
+    private long offset(int keyframe) {
+        return mIndex.getLong(keyframe * MatchRecorder.INDEX_ENTRY_SIZE + 4)
+                - MatchRecorder.HEADER_SIZE;
+    }
+
+    /**
+     * @return the game being played back
+     */
+    public Game getGame() {
+        return mGame;
+    }
+
+    /**
+     * @return the number of ticks in the recording
+     */
+    public int getTickCount() {
+        return mTickCount;
+    }
+
+    /**
+     * @return the number of ticks played back; the game shows the state after them
+     */
+    public int getTick() {
+        return mTick;
+    }
+
+    /**
+     * @return true if all ticks have been played back
+     */
+    public boolean isFinished() {
+        return !mData.hasRemaining();
+    }
+
+    /**
+     * Plays back the next tick.
+     * @return false if the recording has ended
+     */
+    public boolean advance() {
+        if (!mData.hasRemaining()) {
+            return false;
+        }
+        if (mData.get() == MatchRecorder.TICK) {
+            mGame.getLeftPaddle().setY(mData.getShort());
+            mGame.getRightPaddle().setY(mData.getShort());
+            mGame.step();
+            mTick++;
+        } else {
+            mTick = mData.getInt() + 1;
+            mGame.readState(mData);
+        }
+        return true;
+    }
+
+    /**
+     * Jumps to a tick: restores the last keyframe before it, and plays back the ticks from
+     * there. The first tick that can be shown is the one of the first keyframe.
+     * @param tick the number of ticks played back after the jump
+     */
+    public void seek(int tick) {
+        //the last keyframe that leaves the game before the tick
+        int lo = 0;
+        int hi = mKeyframes - 1;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (keyframeTick(mid) < tick) {
+                lo = mid;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        mData.position((int) offset(lo));
+        advance();
+        while (mTick < tick) {
+            if (!advance()) {
+                break;
+            }
+        }
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2015 Josef Mihalits, Randon Stasney, Dakota Ward
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.pdx.pong2pong.core;
+
+/**
+ * Smooths the readings of the tilt sensor with a one euro filter (Casiez et al., CHI 2012): a
+ * low-pass filter whose cutoff frequency rises with the speed of the signal. While the device
+ * is held still, a low cutoff removes the jitter of the sensor; when it is tilted quickly, a
+ * high cutoff keeps the lag small. With beta = 0 the cutoff is fixed, a plain low-pass filter.
+ *
+ * Around the rest position, a dead zone keeps the paddle from drifting; beyond it the value
+ * rises from 0, without a jump.
+ *
+ * Used by one thread; it creates no objects.
+ */
+public class SensorFilter {
+    /** the cutoff frequency (Hz) of the low-pass filter of the speed */
+    private static final float SPEED_CUTOFF = 1.0f;
+
+    /** the cutoff frequency (Hz) at rest; 0 for no smoothing */
+    private final float mMinCutoff;
+
+    /** how much the cutoff frequency rises with the speed (Hz per m/s^3) */
+    private final float mBeta;
+
+    /** readings (m/s^2) closer to 0 than this count as 0 */
+    private final float mDeadZone;
+
+    /** the last filtered value and speed, and the time (ns) of the last reading */
+    private float mValue;
+    private float mSpeed;
+    private long mLast;
+    private boolean mStarted = false;
+
+    /**
+     * @param minCutoff the cutoff frequency (Hz) at rest; 0 for no smoothing
+     * @param beta how much the cutoff frequency rises with the speed (Hz per m/s^3);
+     *             0 for a plain low-pass filter
+     * @param deadZone readings (m/s^2) closer to 0 than this count as 0
+     */
+    public SensorFilter(float minCutoff, float beta, float deadZone) {
+        mMinCutoff = minCutoff;
+        mBeta = beta;
+        mDeadZone = deadZone;
+    }
+
+    /**
+     * @return a one euro filter, tuned for tilting a phone
+     */
+    public static SensorFilter oneEuro() {
+        return new SensorFilter(1.0f, 0.1f, 0.3f);
+    }
+
+    /**
+     * @return a low-pass filter with a fixed cutoff frequency
+     */
+    public static SensorFilter lowPass() {
+        return new SensorFilter(2.0f, 0, 0.3f);
+    }
+
+    /**
+     * @return a filter that passes the readings unchanged
+     */
+    public static SensorFilter none() {
+        return new SensorFilter(0, 0, 0);
+    }
+
+    /**
+     * Filters the next reading.
+     * @param value the reading (m/s^2)
+     * @param time the time (ns) of the reading; only the time between readings matters
+     * @return the filtered value (m/s^2)
+     */
+    public float filter(float value, long time) {
+        if (mMinCutoff <= 0) {
+            return deadZone(value);
+        }
+        if (!mStarted) {
+            mStarted = true;
+            mValue = value;
+            mSpeed = 0;
+            mLast = time;
+            return deadZone(value);
+        }
+        float dt = (time - mLast) / 1e9f;
+        if (dt <= 0) {
+            return deadZone(mValue);
+        }
+        mLast = time;
+        float speed = (value - mValue) / dt;
+        mSpeed += alpha(SPEED_CUTOFF, dt) * (speed - mSpeed);
+        float cutoff = mMinCutoff + mBeta * Math.abs(mSpeed);
+        mValue += alpha(cutoff, dt) * (value - mValue);
+        return deadZone(mValue);
+    }
+
+    /**
+     * @param cutoff the cutoff frequency (Hz) of a low-pass filter
+     * @param dt the time (s) since the last reading
+     * @return the share of the new reading in the filtered value
+     */
+    private static float alpha(float cutoff, float dt) {
+        float tau = 1 / (2 * (float) Math.PI * cutoff);
+        return 1 / (1 + tau / dt);
+    }
+
+    /**
+     * @param value a value (m/s^2)
+     * @return 0 inside the dead zone; outside, the distance to it, with the sign of the value
+     */
+    private float deadZone(float value) {
+        if (Math.abs(value) <= mDeadZone) {
+            return 0;
+        }
+        return value > 0 ? value - mDeadZone : value + mDeadZone;
+    }
+}
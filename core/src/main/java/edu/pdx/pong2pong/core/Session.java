@@ -0,0 +1,412 @@
+/*
+ * Copyright (C) 2015 Josef Mihalits, Randon Stasney, Dakota Ward
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.pdx.pong2pong.core;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.security.SecureRandom;
+
+/**
+ * A TCP connection to the other device that survives being dropped for a while, e.g. by a
+ * hiccup of WiFi Direct. The server gives the session a random token when the client first
+ * connects. When the connection breaks (an error, or nothing arrives for the link timeout),
+ * the server waits for the client to connect again with the token, and the client keeps
+ * reconnecting, for up to the grace period. Meanwhile send() and receive() do not return,
+ * and the game loop pauses the match (see isSuspended()); it carries on from the state of
+ * the server, which is authoritative, once the connection is back. Only if the grace period
+ * runs out, the Session throws, and the game ends as before.
+ *
+ * Each connection starts with a handshake: the client sends the token (0 for a new session)
+ * as 8 bytes, and the server answers with the token of the session, or with 0 if it does not
+ * know the client's token. The frames then go on through the same StateCodec, so delta frames
+ * and the clock sync carry on; frames lost with the old connection are missed like lost
+ * datagrams.
+ */
+public class Session implements Transport {
+    private static final long MS = 1000000L;
+
+    /** how long (ms) a dropped connection may take to come back */
+    public static final int DEFAULT_GRACE_MS = 10000;
+
+    /** after how long (ms) without a frame the connection counts as dropped */
+    public static final int DEFAULT_LINK_TIMEOUT_MS = 1000;
+
+    /** the time (ms) between two attempts of the client to reconnect */
+    private static final int RETRY_MS = 100;
+
+    /** true if this is the end of the server */
+    private final boolean mIsServer;
+
+    /** server: accepts the connections of the client */
+    private final ServerSocket mServerSocket;
+
+    /** client: the address of the server */
+    private final String mHost;
+    private final int mPort;
+
+    /** packs and unpacks the frames, across all connections of the session */
+    private final StateCodec mCodec;
+
+    /** how long (ms) a dropped connection may take to come back */
+    private final int mGraceMs;
+
+    /** after how long (ms) without a frame the connection counts as dropped */
+    private final int mLinkTimeoutMs;
+
+    /** identifies the session; 0 before the handshake */
+    private long mToken = 0;
+
+    /** the current connection and its socket (or an attempt's); broken while mSuspended */
+    private volatile TcpTransport mTransport;
+    private volatile Socket mSocket;
+
+    /** set while the connection is dropped and the session waits for it to come back */
+    private volatile boolean mSuspended = false;
+
+    /** set by close() */
+    private volatile boolean mClosed = false;
+
+    /** the number of times the connection dropped, and came back */
+    private volatile int mDrops = 0;
+    private volatile int mResumes = 0;
+
+    /** how long (ns) it took for the connection to come back after it dropped */
+    private final Histogram mResumeTime = new Histogram("time to resume");
+
+    /** bytes sent and received, across all connections */
+    private final RateMeter mSendMeter = new RateMeter();
+    private final RateMeter mReceiveMeter = new RateMeter();
+
+    /**
+     * @param serverSocket server: accepts the connections of the client; null for the client
+     * @param host client: the address of the server
+     * @param port client: the port of the server
+     * @param codec the codec for this end of the connection
+     * @param graceMs how long (ms) a dropped connection may take to come back
+     * @param linkTimeoutMs after how long (ms) without a frame the connection counts as dropped
+     */
+    private Session(ServerSocket serverSocket, String host, int port, StateCodec codec,
+                    int graceMs, int linkTimeoutMs) {
+        mIsServer = serverSocket != null;
+        mServerSocket = serverSocket;
+        mHost = host;
+        mPort = port;
+        mCodec = codec;
+        mGraceMs = graceMs;
+        mLinkTimeoutMs = linkTimeoutMs;
+    }
+
+    /**
+     * Waits for a client to start a new session. Clients that try to resume an old session
+     * are turned away.
+     * @param serverSocket the server socket the client connects to; it is not closed with
+     *                     the session
+     * @param codec the codec of the server
+     * @param graceMs how long (ms) a dropped connection may take to come back
+     * @param linkTimeoutMs after how long (ms) without a frame the connection counts as dropped
+     * @return the session
+     * @throws IOException
+     */
+    public static Session accept(ServerSocket serverSocket, StateCodec codec, int graceMs,
+                                 int linkTimeoutMs) throws IOException {
+        Session session = new Session(serverSocket, null, 0, codec, graceMs, linkTimeoutMs);
+        serverSocket.setSoTimeout(0);
+        Socket socket = null;
+        while (socket == null) {
+            socket = session.handshakeServer(serverSocket.accept());
+        }
+        session.open(socket);
+        return session;
+    }
+
+    /**
+     * Connects to the server and starts a new session.
+     * @param host the address of the server
+     * @param port the port of the server
+     * @param codec the codec of the client
+     * @param graceMs how long (ms) a dropped connection may take to come back
+     * @param linkTimeoutMs after how long (ms) without a frame the connection counts as dropped
+     * @return the session
+     * @throws IOException if the server cannot be reached
+     */
+    public static Session connect(String host, int port, StateCodec codec, int graceMs,
+                                  int linkTimeoutMs) throws IOException {
+        Session session = client(host, port, codec, graceMs, linkTimeoutMs);
+        session.connect();
+        return session;
+    }
+
+    /**
+     * Prepares a new session with the server, without connecting yet. connect() makes the
+     * attempts, and close() (from another thread) cancels an attempt at once.
+     * @param host the address of the server
+     * @param port the port of the server
+     * @param codec the codec of the client
+     * @param graceMs how long (ms) a dropped connection may take to come back
+     * @param linkTimeoutMs after how long (ms) without a frame the connection counts as dropped
+     * @return the session
+     */
+    public static Session client(String host, int port, StateCodec codec, int graceMs,
+                                 int linkTimeoutMs) {
+        return new Session(null, host, port, codec, graceMs, linkTimeoutMs);
+    }
+
+    /**
+     * Client: makes one attempt to connect to the server and start the session.
+     * @throws IOException if the server cannot be reached, or refused the session
+     */
+    public void connect() throws IOException {
+        Socket socket = handshakeClient();
+        if (socket == null) {
+            throw new IOException("cannot connect to " + mHost + ":" + mPort);
+        }
+        open(socket);
+    }
+
+    @Override
+    public void send(Snapshot s) throws IOException {
+        try {
+            mTransport.send(s);
+        } catch (IOException e) {
+            resume(e);
+        }
+    }
+
+    @Override
+    public boolean receive(Snapshot s) throws IOException {
+        try {
+            return mTransport.receive(s);
+        } catch (IOException e) {
+            resume(e);
+            return false;
+        }
+    }
+
+    /**
+     * @return the token the server gave the session; 0 before the handshake
+     */
+    public long getToken() {
+        return mToken;
+    }
+
+    /**
+     * @return true while the connection is dropped and the session waits for it to come back
+     */
+    public boolean isSuspended() {
+        return mSuspended;
+    }
+
+    /**
+     * @return the number of times the connection dropped
+     */
+    public int getDrops() {
+        return mDrops;
+    }
+
+    /**
+     * @return the number of times the connection came back in time
+     */
+    public int getResumes() {
+        return mResumes;
+    }
+
+    /**
+     * @return how long (ns) it took for the connection to come back after it dropped
+     */
+    public Histogram getResumeTime() {
+        return mResumeTime;
+    }
+
+    @Override
+    public long getPacketsDropped() {
+        return mCodec.getFramesDropped();
+    }
+
+    @Override
+    public RateMeter getSendMeter() {
+        return mSendMeter;
+    }
+
+    @Override
+    public RateMeter getReceiveMeter() {
+        return mReceiveMeter;
+    }
+
+    /**
+     * Closes the connection, and stops waiting for it to come back (or connecting). The
+     * server socket is left open.
+     */
+    @Override
+    public void close() {
+        mClosed = true;
+        Socket socket = mSocket;
+        if (socket != null) {
+            close(socket);
+        }
+    }
+
+    /**
+     * Waits for the dropped connection to come back, for up to the grace period.
+     * @param cause the error that broke the connection
+     * @throws IOException if the grace period ran out, or the session was closed
+     */
+    private void resume(IOException cause) throws IOException {
+        if (mClosed) {
+            throw cause;
+        }
+        long start = System.nanoTime();
+        mSuspended = true;
+        mDrops++;
+        close(mSocket);
+
+        long deadline = start + mGraceMs * MS;
+        Socket socket = null;
+        while (socket == null) {
+            long left = deadline - System.nanoTime();
+            if (mClosed || left <= 0) {
+                throw new IOException("connection lost for more than " + mGraceMs + " ms", cause);
+            }
+            if (mIsServer) {
+                //the client has the rest of the grace period to come back
+                mServerSocket.setSoTimeout((int) Math.max(1, left / MS));
+                try {
+                    socket = handshakeServer(mServerSocket.accept());
+                } catch (SocketTimeoutException e) {
+                    //the grace period is over
+                }
+            } else {
+                socket = handshakeClient();
+                if (socket == null) {
+                    try {
+                        Thread.sleep(RETRY_MS);
+                    } catch (InterruptedException e) {
+                        throw new IOException("interrupted while reconnecting", cause);
+                    }
+                }
+            }
+        }
+        open(socket);
+        if (mClosed) {
+            close(socket);
+            throw new IOException("session closed", cause);
+        }
+        mResumeTime.record(System.nanoTime() - start);
+        mResumes++;
+        mSuspended = false;
+    }
+
+    /**
+     * Server: reads the token of a client that just connected, and answers it.
+     * @param socket the connection of the client
+     * @return the socket, if it continues this session (or starts it); null if the client
+     *         was turned away or did not finish the handshake
+     * @throws IOException
+     */
+    private Socket handshakeServer(Socket socket) throws IOException {
+        try {
+            socket.setSoTimeout(mLinkTimeoutMs);
+            long token = new DataInputStream(socket.getInputStream()).readLong();
+            boolean accepted = token == 0 ? mToken == 0 : token == mToken;
+            if (accepted && mToken == 0) {
+                mToken = newToken();
+            }
+            DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+            out.writeLong(accepted ? mToken : 0);
+            out.flush();
+            if (accepted) {
+                return socket;
+            }
+        } catch (IOException e) {
+            //the client is gone again; wait for the next one
+        }
+        close(socket);
+        return null;
+    }
+
+    /**
+     * Client: connects to the server, and presents the token.
+     * @return the connected socket; null if the server cannot be reached
+     * @throws IOException if the server does not know the session (any more)
+     */
+    private Socket handshakeClient() throws IOException {
+        Socket socket = new Socket();
+        //close() aborts the attempt
+        mSocket = socket;
+        long answer;
+        try {
+            if (mClosed) {
+                throw new IOException("session closed");
+            }
+            socket.connect(new InetSocketAddress(mHost, mPort), mLinkTimeoutMs);
+            socket.setSoTimeout(mLinkTimeoutMs);
+            DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+            out.writeLong(mToken);
+            out.flush();
+            answer = new DataInputStream(socket.getInputStream()).readLong();
+        } catch (IOException e) {
+            close(socket);
+            return null;
+        }
+        if (answer == 0 || (mToken != 0 && answer != mToken)) {
+            close(socket);
+            throw new IOException("the server refused the session");
+        }
+        mToken = answer;
+        return socket;
+    }
+
+    /**
+     * Makes a connection that is done with the handshake the current one.
+     * @param socket the connection
+     * @throws IOException
+     */
+    private void open(Socket socket) throws IOException {
+        //a connection that delivers nothing for this long has dropped
+        socket.setSoTimeout(mLinkTimeoutMs);
+        mTransport = new TcpTransport(socket, mCodec, mSendMeter, mReceiveMeter);
+        mSocket = socket;
+    }
+
+    /**
+     * Makes a token for a new session, e.g. on a server that speaks the protocol of Session
+     * without using this class.
+     * @return a random token, which is not 0
+     */
+    public static long newToken() {
+        SecureRandom random = new SecureRandom();
+        long token = 0;
+        while (token == 0) {
+            token = random.nextLong();
+        }
+        return token;
+    }
+
+    /**
+     * Closes a socket, ignoring errors.
+     * @param socket the socket
+     */
+    private static void close(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {}
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright (C) 2015 Josef Mihalits, Randon Stasney, Dakota Ward
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.pdx.pong2pong.core;
+
+/**
+ * The game state that is exchanged between the game loop and the network thread
+ * (in virtual field coordinates). Instances are preallocated and reused; see TripleBuffer.
+ */
+public class Snapshot {
+    /** sequence number of the frame this snapshot was received in (set by the StateCodec) */
+    public int seq;
+    /** time (ns, System.nanoTime()) the snapshot was received (set by the NetworkThread) */
+    public long time;
+    /** position of the ball */
+    public int ballX;
+    public int ballY;
+    /** direction of the ball (unit vector) */
+    public float ballVx;
+    public float ballVy;
+    /** y positions of the left and the right paddle */
+    public int leftY;
+    public int rightY;
+    /** current score of the left and the right player */
+    public int leftScore;
+    public int rightScore;
+    /**
+     * input sequence number: on the client, the number of its latest paddle input; on the
+     * server, the number of the last client input it processed
+     */
+    public int input;
+    /**
+     * simulation tick: on the server, the tick of this state; on the client, the tick of the
+     * server state it was showing
+     */
+    public int tick;
+    /**
+     * latency trace only (see LatencyTrace): the time (ns, System.nanoTime() of this device)
+     * of the newest input that moved the sender's paddle; 0 if none is traced
+     */
+    public long inputTime;
+
+    /** the maximum number of paddle inputs in a snapshot */
+    public static final int MAX_INPUTS = 16;
+    /**
+     * lockstep only: the paddle inputs of the sender for the ticks tick, tick + 1, ...
+     * (inputCount of them); input is the newest tick of the other side's inputs received
+     */
+    public final int[] inputs = new int[MAX_INPUTS];
+    public int inputCount;
+    /**
+     * the checksum of the sender's game after tick checksumTick (0 if none): in lockstep, of
+     * the game (see Lockstep); otherwise of the server's state (see StateCheck)
+     */
+    public int checksumTick;
+    public int checksum;
+
+    /**
+     * Copies all values of another snapshot.
+     * @param other the snapshot to copy
+     */
+    public void set(Snapshot other) {
+        seq = other.seq;
+        time = other.time;
+        ballX = other.ballX;
+        ballY = other.ballY;
+        ballVx = other.ballVx;
+        ballVy = other.ballVy;
+        leftY = other.leftY;
+        rightY = other.rightY;
+        leftScore = other.leftScore;
+        rightScore = other.rightScore;
+        input = other.input;
+        tick = other.tick;
+        inputTime = other.inputTime;
+        System.arraycopy(other.inputs, 0, inputs, 0, MAX_INPUTS);
+        inputCount = other.inputCount;
+        checksumTick = other.checksumTick;
+        checksum = other.checksum;
+    }
+}
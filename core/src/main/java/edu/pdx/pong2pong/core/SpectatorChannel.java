@@ -0,0 +1,204 @@
+/*
+ * Copyright (C) 2015 Josef Mihalits, Randon Stasney, Dakota Ward
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.pdx.pong2pong.core;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+
+/**
+ * Broadcasts the state of the game from the host to any number of read-only viewers over TCP.
+ * Each state is encoded once, as a full frame with all fields (viewers never acknowledge
+ * frames, so there are no delta frames), and the same bytes are written to every viewer,
+ * framed like TcpTransport frames: one byte holding the length, then the frame. Viewers
+ * receive them with a TcpTransport and the codec from viewerCodec().
+ *
+ * Everything runs on the game loop, so nothing may block: the sockets are non-blocking, new
+ * viewers are accepted when broadcast() is called, and a viewer that cannot take the next
+ * frame (its socket buffer is full) misses it. A frame that was only partly written is
+ * finished before the viewer gets a new one, so the stream stays intact. In steady state,
+ * broadcast() creates no objects.
+ */
+public class SpectatorChannel {
+    /** the port viewers connect to */
+    public static final int DEFAULT_PORT = 8081;
+
+    /** new viewers are accepted every this many broadcasts */
+    private static final int ACCEPT_INTERVAL = 30;
+
+    /** a viewer, and the rest of a frame it has not taken yet */
+    private static class Viewer {
+        final SocketChannel channel;
+        final ByteBuffer pending = ByteBuffer.allocate(1 + StateCodec.MAX_FRAME_SIZE);
+
+        Viewer(SocketChannel channel) {
+            this.channel = channel;
+            pending.flip();
+        }
+    }
+
+    /** accepts the viewers (non-blocking) */
+    private final ServerSocketChannel mServerChannel;
+
+    /** encodes the states as full frames with all fields */
+    private final StateCodec mCodec = new StateCodec(StateCodec.ALL_FIELDS, 0, false);
+
+    /** the frame being broadcast: length byte and frame */
+    private final ByteBuffer mFrame = ByteBuffer.allocateDirect(1 + StateCodec.MAX_FRAME_SIZE);
+
+    /** the connected viewers */
+    private final ArrayList<Viewer> mViewers = new ArrayList<Viewer>();
+
+    /** the number of broadcasts so far */
+    private long mBroadcasts = 0;
+
+    /** the number of frames viewers missed because they were too slow */
+    private volatile long mDropped = 0;
+
+    /** the number of viewers connected */
+    private volatile int mViewerCount = 0;
+
+    /**
+     * Opens the socket viewers connect to.
+     * @param port the port; 0 for any free port
+     * @throws IOException
+     */
+    public SpectatorChannel(int port) throws IOException {
+        mServerChannel = ServerSocketChannel.open();
+        mServerChannel.socket().setReuseAddress(true);
+        mServerChannel.socket().bind(new InetSocketAddress(port));
+        mServerChannel.configureBlocking(false);
+    }
+
+    /**
+     * @return a codec for the viewer's end of the connection
+     */
+    public static StateCodec viewerCodec() {
+        return new StateCodec(0, StateCodec.ALL_FIELDS, false);
+    }
+
+    /**
+     * @return the port viewers connect to
+     */
+    public int getPort() {
+        return mServerChannel.socket().getLocalPort();
+    }
+
+    /**
+     * @return the number of viewers connected
+     */
+    public int getViewerCount() {
+        return mViewerCount;
+    }
+
+    /**
+     * @return the number of frames viewers missed because they were too slow
+     */
+    public long getFramesDropped() {
+        return mDropped;
+    }
+
+    /**
+     * Sends a state to all viewers, without blocking.
+     * @param s the state of the game; all fields are sent
+     */
+    public void broadcast(Snapshot s) {
+        if (mBroadcasts++ % ACCEPT_INTERVAL == 0) {
+            acceptViewers();
+        }
+        if (mViewers.isEmpty()) {
+            return;
+        }
+        mFrame.clear();
+        mFrame.position(1);
+        int size = mCodec.encode(s, mFrame);
+        mFrame.put(0, (byte) size);
+        mFrame.flip();
+
+        for (int i = mViewers.size() - 1; i >= 0; i--) {
+            Viewer v = mViewers.get(i);
+            try {
+                if (v.pending.hasRemaining()) {
+                    v.channel.write(v.pending);
+                    if (v.pending.hasRemaining()) {
+                        mDropped++;
+                        continue;
+                    }
+                }
+                mFrame.position(0);
+                v.channel.write(mFrame);
+                if (mFrame.hasRemaining()) {
+                    //keep the rest for the next broadcast
+                    v.pending.clear();
+                    v.pending.put(mFrame);
+                    v.pending.flip();
+                }
+            } catch (IOException e) {
+                //the viewer left
+                close(v);
+                mViewers.remove(i);
+                mViewerCount = mViewers.size();
+            }
+        }
+    }
+
+    /**
+     * Accepts all viewers waiting to connect.
+     */
+    private void acceptViewers() {
+        try {
+            SocketChannel channel;
+            while ((channel = mServerChannel.accept()) != null) {
+                channel.configureBlocking(false);
+                channel.socket().setTcpNoDelay(true);
+                mViewers.add(new Viewer(channel));
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        mViewerCount = mViewers.size();
+    }
+
+    /**
+     * Disconnects all viewers and closes the socket.
+     */
+    public void close() {
+        for (Viewer v : mViewers) {
+            close(v);
+        }
+        mViewers.clear();
+        mViewerCount = 0;
+        try {
+            mServerChannel.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * @param v a viewer to disconnect
+     */
+    private static void close(Viewer v) {
+        try {
+            v.channel.close();
+        } catch (IOException e) {
+            //closing anyway
+        }
+    }
+}
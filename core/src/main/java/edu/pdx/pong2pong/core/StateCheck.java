@@ -0,0 +1,176 @@
+/*
+ * Copyright (C) 2015 Josef Mihalits, Randon Stasney, Dakota Ward
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.pdx.pong2pong.core;
+
+/**
+ * Finds out whether the client's copy of the server's state went wrong, e.g. through a delta
+ * frame applied to the wrong base frame, which would otherwise only show as a score the two
+ * players disagree on. Now and then, the server sends a checksum of the state in a frame
+ * (see StateCodec.checksum()) along with that state. The client computes the checksum of the
+ * state it decoded from the frame, compares, and sends its own back, so the server compares,
+ * too. On a mismatch, both count a desync, and send their next frame as a full frame: the
+ * server's authoritative state replaces the client's copy.
+ *
+ * The StateCodec feeds it (see StateCodec.setStateCheck()), with the frames it actually sends
+ * and receives: the game loop publishes more states than the network thread sends, and the
+ * network thread receives more than the game loop picks up, so a checksum taken or compared
+ * in the game loop would mostly miss its frame. The checksums ride in the frames exchanged
+ * anyway (checksumTick and checksum). Used by the network thread only; the counts and the
+ * last desync may be read by any thread.
+ */
+public class StateCheck {
+    /** the default number of ticks between two checksums of the server */
+    public static final int DEFAULT_INTERVAL = 30;
+
+    /** true on the server */
+    private final boolean mIsServer;
+
+    /** the number of ticks between two checksums of the server */
+    private final int mInterval;
+
+    /** server: the tick (16 bits) of the last checksum */
+    private int mLastTick;
+
+    /** the tick (16 bits; 0 if none) and the checksum last computed, and the state it is of */
+    private int mTick = 0;
+    private int mChecksum;
+    private final Snapshot mState = new Snapshot();
+
+    /** server: the tick of the last checksum the client sent back */
+    private int mCheckedTick = 0;
+
+    /** the checksum of the other side for mTick, if it differs */
+    private int mPeerChecksum;
+
+    /** the number of checksums compared, and how many of them differed */
+    private volatile long mChecks = 0;
+    private volatile long mDesyncs = 0;
+
+    /** the description of the last desync (see describe()); null if there was none */
+    private volatile String mLastDesync;
+
+    /**
+     * @param isServer true if running in server mode
+     * @param interval the number of ticks between two checksums of the server
+     */
+    public StateCheck(boolean isServer, int interval) {
+        mIsServer = isServer;
+        mInterval = interval;
+    }
+
+    /**
+     * Adds the checksum to a frame about to be sent: on the server, every interval ticks,
+     * a new checksum of its state; on the client, the checksum of the last state checked.
+     * @param out the state to send; tick and the fields of the server must be set
+     */
+    public void send(Snapshot out) {
+        int tick = out.tick & StateCodec.SEQ_MASK;
+        if (mIsServer && tick != 0
+                && (mTick == 0 || ((tick - mLastTick) & StateCodec.SEQ_MASK) >= mInterval)) {
+            mLastTick = tick;
+            mTick = tick;
+            mChecksum = StateCodec.checksum(out);
+            mState.set(out);
+        }
+        out.checksumTick = mTick;
+        out.checksum = mChecksum;
+    }
+
+    /**
+     * Compares the checksum in a received frame, if it has a new one.
+     * @param in the state received, with all fields of the other side
+     * @return true if the checksums differ; then getTick(), getState() and getLastDesync()
+     *         tell where
+     */
+    public boolean receive(Snapshot in) {
+        if (in.checksumTick == 0) {
+            return false;
+        }
+        if (mIsServer) {
+            //the client's checksum of our last one
+            if (in.checksumTick != mTick || in.checksumTick == mCheckedTick) {
+                return false;
+            }
+            mCheckedTick = in.checksumTick;
+        } else {
+            //only the state of the checksum's own tick can be compared
+            if (in.checksumTick != (in.tick & StateCodec.SEQ_MASK) || in.checksumTick == mTick) {
+                return false;
+            }
+            mTick = in.checksumTick;
+            mChecksum = StateCodec.checksum(in);
+            mState.set(in);
+        }
+        mChecks++;
+        if (in.checksum == mChecksum) {
+            return false;
+        }
+        mPeerChecksum = in.checksum;
+        mLastDesync = describe();
+        mDesyncs++;
+        return true;
+    }
+
+    /**
+     * @return the tick (16 bits) of the last checksum compared, or sent by the server
+     */
+    public int getTick() {
+        return mTick;
+    }
+
+    /**
+     * @return the state the last checksum was computed of
+     */
+    public Snapshot getState() {
+        return mState;
+    }
+
+    /**
+     * @return the description of the last desync, for the log: the diverging tick, the state
+     *         at the tick, and both checksums; null if there was none
+     */
+    public String getLastDesync() {
+        return mLastDesync;
+    }
+
+    /**
+     * Describes a desync; creates objects, so it is only called when there is one.
+     * @return the diverging tick, the state at the tick, and both checksums
+     */
+    private String describe() {
+        Snapshot s = mState;
+        return "tick " + mTick + ": ball (" + s.ballX + ", " + s.ballY + ") moving ("
+                + s.ballVx + ", " + s.ballVy + "), right paddle " + s.rightY
+                + ", score " + s.leftScore + ":" + s.rightScore
+                + ", checksum " + Integer.toHexString(mChecksum)
+                + ", other side " + Integer.toHexString(mPeerChecksum);
+    }
+
+    /**
+     * @return the number of checksums compared
+     */
+    public long getChecks() {
+        return mChecks;
+    }
+
+    /**
+     * @return the number of checksums that differed
+     */
+    public long getDesyncs() {
+        return mDesyncs;
+    }
+}
@@ -0,0 +1,849 @@
+/*
+ * Copyright (C) 2015 Josef Mihalits, Randon Stasney, Dakota Ward
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.pdx.pong2pong.core;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Packs snapshots into compact binary frames and back. All values are quantized to the
+ * virtual field (FIELD_X x FIELD_Y), so e.g. the x position of the ball needs 11 bits instead
+ * of 32. Each side only sends the fields it controls: the server sends ball, right paddle
+ * and score; the client sends the left paddle. Both send an input sequence number: the client
+ * numbers its paddle inputs, the server echoes the number of the last input it processed.
+ * Both also send a tick: the server its simulation tick, the client the tick of the state it
+ * was showing when it sampled its input. And with a StateCheck, both send a checksum of the
+ * server's state at a tick now and then, to find out whether the client got that state right.
+ *
+ * Frame layout (bits, most significant bit first):
+ * <pre>
+ *   version (4) | type (2) | ack valid (1) | time (1) | seq (16) | ack (16)
+ *   delta frames only: distance to base frame (5) | field mask (8)
+ *   fields: ball x (11), ball y (10) | ball vx (8), ball vy (8) | left paddle (10) |
+ *           right paddle (10) | left score (8), right score (8) | input (16) | tick (16) |
+ *           checksum tick (16), checksum (32)
+ * </pre>
+ * A full frame contains all fields of the sender. A delta frame only contains the fields that
+ * changed since the last frame the other side acknowledged; the receiver takes the rest from
+ * its copy of that frame.
+ *
+ * In lockstep (see Lockstep), both sides send lockstep frames instead: no game state, only
+ * the paddle inputs the other side has not received yet, and now and then a checksum of the
+ * game state.
+ * <pre>
+ *   header | first tick (16) | newest tick received (16) | count (5) | checksum (1) |
+ *   count x paddle (10) | checksum only: checksum tick (16) | checksum (32)
+ * </pre>
+ * If the time bit of the header is set, the frame ends with timestamps: those of a ClockSync
+ * (see there), a ping, a pong, or both; and the time of the newest input that moved the
+ * sender's paddle, once for each input (see LatencyTrace).
+ * <pre>
+ *   ping (1) | pong (1) | input (1) | ping only: time (32) | pong only: ping time (32) |
+ *   received (32) | hold (16) | input only: input time (32)
+ * </pre>
+ * The input time is sent on the clock of the sender, and the receiver converts it with its
+ * ClockSync; it is dropped while the clock offset is unknown.
+ */
+public class StateCodec {
+
+    /** version of the frame format; frames with another version are dropped */
+    public static final int VERSION = 6;
+
+    /** frame types */
+    private static final int TYPE_FULL = 0;
+    private static final int TYPE_DELTA = 1;
+    private static final int TYPE_LOCKSTEP = 2;
+
+    /** the fields of a snapshot, as bits of a field mask */
+    public static final int BALL_POS = 1;
+    public static final int BALL_VEL = 2;
+    public static final int LEFT_PADDLE = 4;
+    public static final int RIGHT_PADDLE = 8;
+    public static final int SCORE = 16;
+    public static final int INPUT = 32;
+    public static final int TICK = 64;
+    public static final int CHECKSUM = 128;
+    private static final int FIELD_COUNT = 8;
+
+    /** the fields sent by the server and by the client */
+    public static final int SERVER_FIELDS =
+            BALL_POS | BALL_VEL | RIGHT_PADDLE | SCORE | INPUT | TICK | CHECKSUM;
+    public static final int CLIENT_FIELDS = LEFT_PADDLE | INPUT | TICK | CHECKSUM;
+
+    /** all fields; what the host sends to spectators (see SpectatorChannel) */
+    public static final int ALL_FIELDS = SERVER_FIELDS | CLIENT_FIELDS;
+
+    /** bit sizes of the values; positions are stored with an offset so they may be negative */
+    private static final int SEQ_BITS = 16;
+    public static final int SEQ_MASK = (1 << SEQ_BITS) - 1;
+    private static final int BALL_X_BITS = 11;
+    private static final int BALL_X_OFFSET = 512;
+    private static final int BALL_Y_BITS = 10;
+    private static final int BALL_Y_OFFSET = 256;
+    private static final int VEL_BITS = 8;
+    private static final int VEL_SCALE = 127;
+    private static final int PADDLE_BITS = 10;
+    private static final int PADDLE_OFFSET = 256;
+    private static final int SCORE_BITS = 8;
+    private static final int HEADER_BITS = 8 + 2 * SEQ_BITS;
+    private static final int DISTANCE_BITS = 5;
+    private static final int COUNT_BITS = 5;
+    private static final int CHECKSUM_BITS = 32;
+    private static final int TIME_BITS = 32;
+    private static final int HOLD_BITS = 16;
+    private static final int PING_BITS = TIME_BITS;
+    private static final int PONG_BITS = 2 * TIME_BITS + HOLD_BITS;
+
+    /** number of frames remembered as base frames; the distance to a base must fit DISTANCE_BITS */
+    private static final int HISTORY = 1 << DISTANCE_BITS;
+
+    /** the size of a lockstep frame without inputs and checksum, in bits */
+    private static final int LOCKSTEP_BITS = HEADER_BITS + 2 * SEQ_BITS + COUNT_BITS + 1;
+
+    /** the largest frame (a delta frame with all fields, or a full lockstep frame), in bytes */
+    public static final int MAX_FRAME_SIZE = (Math.max(
+            HEADER_BITS + DISTANCE_BITS + FIELD_COUNT + fieldBits(SERVER_FIELDS | CLIENT_FIELDS),
+            LOCKSTEP_BITS + Snapshot.MAX_INPUTS * PADDLE_BITS + SEQ_BITS + CHECKSUM_BITS)
+            + 3 + PING_BITS + PONG_BITS + TIME_BITS + 7) / 8;
+
+    /** the fields this side sends and the fields the other side sends */
+    private final int mSendFields;
+    private final int mReceiveFields;
+
+    /** whether delta frames are sent */
+    private final boolean mDelta;
+
+    /** whether lockstep frames are sent and received (instead of game state) */
+    private final boolean mLockstep;
+
+    /** the last frames sent and received (as the receiver sees them), indexed by seq % HISTORY */
+    private final Snapshot[] mSent = new Snapshot[HISTORY];
+    private final int[] mSentSeq = new int[HISTORY];
+    private final Snapshot[] mReceived = new Snapshot[HISTORY];
+    private final int[] mReceivedSeq = new int[HISTORY];
+
+    /** sequence number of the last frame sent */
+    private int mSendSeq = 0;
+
+    /** sequence number of the newest frame received; valid if mHasReceived */
+    private int mReceiveSeq = 0;
+    private boolean mHasReceived = false;
+
+    /** the newest of our frames the other side has acknowledged; valid if mHasAck */
+    private int mPeerAck = 0;
+    private boolean mHasAck = false;
+
+    /** number of frames dropped by decode() */
+    private volatile long mDropped = 0;
+
+    /** set to send the next frame as a full frame */
+    private volatile boolean mFullFrameRequested = false;
+
+    /** measures RTT and clock offset with the timestamps in the frames; null if not used */
+    private ClockSync mClock;
+
+    /** checks the client's copy of the server's state with the checksums; null if not used */
+    private StateCheck mCheck;
+
+    /** the timestamps read from the frame being decoded */
+    private boolean mHasPing;
+    private boolean mHasPong;
+    private int mPingTime;
+    private int mPongPingTime;
+    private int mPongReceived;
+    private int mPongHold;
+    private boolean mHasInput;
+    private int mInputTime;
+
+    /** the input time last sent; each one is sent once */
+    private long mSentInputTime = 0;
+
+    /** bit accumulators for writing and reading */
+    private ByteBuffer mOut;
+    private long mOutBits;
+    private int mOutCount;
+    private ByteBuffer mIn;
+    private long mInBits;
+    private int mInCount;
+
+    /**
+     * Constructs the codec for one end of a connection.
+     * @param isServer true if running in server mode
+     * @param delta true to send delta frames whenever possible
+     */
+    public StateCodec(boolean isServer, boolean delta) {
+        this(isServer, delta, false);
+    }
+
+    /**
+     * Constructs the codec for one end of a connection.
+     * @param isServer true if running in server mode
+     * @param delta true to send delta frames whenever possible
+     * @param lockstep true to exchange lockstep frames (inputs only); then delta is ignored
+     */
+    public StateCodec(boolean isServer, boolean delta, boolean lockstep) {
+        this(isServer ? SERVER_FIELDS : CLIENT_FIELDS, isServer ? CLIENT_FIELDS : SERVER_FIELDS,
+                delta, lockstep);
+    }
+
+    /**
+     * Constructs a codec that sends and receives any fields, e.g. for spectators, who
+     * receive all fields and send none.
+     * @param sendFields the fields this side sends
+     * @param receiveFields the fields the other side sends
+     * @param delta true to send delta frames whenever possible
+     */
+    public StateCodec(int sendFields, int receiveFields, boolean delta) {
+        this(sendFields, receiveFields, delta, false);
+    }
+
+    /**
+     * @param sendFields the fields this side sends
+     * @param receiveFields the fields the other side sends
+     * @param delta true to send delta frames whenever possible
+     * @param lockstep true to exchange lockstep frames (inputs only); then delta is ignored
+     */
+    private StateCodec(int sendFields, int receiveFields, boolean delta, boolean lockstep) {
+        mSendFields = sendFields;
+        mReceiveFields = receiveFields;
+        mDelta = delta && !lockstep;
+        mLockstep = lockstep;
+        for (int i = 0; i < HISTORY; i++) {
+            mSent[i] = new Snapshot();
+            mSentSeq[i] = -1;
+            mReceived[i] = new Snapshot();
+            mReceivedSeq[i] = -1;
+        }
+    }
+
+    /**
+     * Sends pings and pongs in the frames, to measure the RTT and the clock offset.
+     * @param clock receives the pings and pongs of the other side
+     */
+    public void setClockSync(ClockSync clock) {
+        mClock = clock;
+    }
+
+    /**
+     * @return the ClockSync fed by this codec; null if none is set
+     */
+    public ClockSync getClockSync() {
+        return mClock;
+    }
+
+    /**
+     * Sends and compares checksums of the server's state in the frames (not in lockstep).
+     * On a desync, the next frame is sent as a full frame.
+     * @param check the StateCheck of this side
+     */
+    public void setStateCheck(StateCheck check) {
+        mCheck = check;
+    }
+
+    /**
+     * @return the StateCheck fed by this codec; null if none is set
+     */
+    public StateCheck getStateCheck() {
+        return mCheck;
+    }
+
+    /**
+     * Writes the next frame.
+     * @param s the snapshot to send
+     * @param out the buffer the frame is written to (needs MAX_FRAME_SIZE bytes)
+     * @return the size of the frame in bytes
+     */
+    public int encode(Snapshot s, ByteBuffer out) {
+        int seq = mSendSeq = (mSendSeq + 1) & SEQ_MASK;
+        int slot = seq % HISTORY;
+
+        //the quantized values, exactly as the receiver will see them
+        Snapshot q = mSent[slot];
+        quantize(s, q);
+        if (mCheck != null && !mLockstep) {
+            mCheck.send(q);
+        }
+
+        //find the base frame for a delta frame
+        Snapshot base = null;
+        int distance = (seq - mPeerAck) & SEQ_MASK;
+        if (mDelta && mHasAck && distance < HISTORY && mSentSeq[mPeerAck % HISTORY] == mPeerAck) {
+            base = mSent[mPeerAck % HISTORY];
+        }
+        if (mFullFrameRequested) {
+            mFullFrameRequested = false;
+            base = null;
+        }
+        mSentSeq[slot] = seq;
+
+        int start = out.position();
+        mOut = out;
+        long now = System.nanoTime();
+        boolean ping = mClock != null && mClock.isPingDue(now);
+        boolean pong = mClock != null && mClock.isPongDue(now);
+        boolean input = s.inputTime != 0 && s.inputTime != mSentInputTime;
+        write(VERSION, 4);
+        write(mLockstep ? TYPE_LOCKSTEP : base == null ? TYPE_FULL : TYPE_DELTA, 2);
+        write(mHasReceived ? 1 : 0, 1);
+        write(ping || pong || input ? 1 : 0, 1);
+        write(seq, SEQ_BITS);
+        write(mReceiveSeq, SEQ_BITS);
+        if (mLockstep) {
+            writeLockstep(q);
+        } else {
+            int fields = mSendFields;
+            if (base != null) {
+                fields = changedFields(base, q) & mSendFields;
+                write(distance, DISTANCE_BITS);
+                write(fields, FIELD_COUNT);
+            }
+            writeFields(q, fields);
+        }
+        if (ping || pong || input) {
+            writeTime(now, ping, pong, input ? s.inputTime : 0);
+            mSentInputTime = s.inputTime;
+        }
+        flush();
+        mOut = null;
+        return out.position() - start;
+    }
+
+    /**
+     * Sends the next frame as a full frame, with all fields of this side, e.g. because the
+     * other side got the state wrong (see setStateCheck()). May be called from any thread.
+     */
+    public void requestFullFrame() {
+        mFullFrameRequested = true;
+    }
+
+    /**
+     * Reads a frame. Stale frames (older than the newest frame received), delta frames
+     * whose base frame is unknown, and malformed frames are dropped.
+     * @param in the frame; all remaining bytes of the buffer
+     * @param s the snapshot the received fields are written to; other fields are not touched
+     * @return true if the frame was accepted
+     */
+    public boolean decode(ByteBuffer in, Snapshot s) {
+        if (in.remaining() * 8 < HEADER_BITS) {
+            return drop();
+        }
+        mIn = in;
+        mInCount = 0;
+        int version = read(4);
+        int type = read(2);
+        boolean ackValid = read(1) == 1;
+        boolean hasTime = read(1) == 1;
+        int seq = read(SEQ_BITS);
+        int ack = read(SEQ_BITS);
+        //compare by (16 bit) difference, so that wrap-around of the sequence number does no harm
+        if (version != VERSION || (mHasReceived && (short) (seq - mReceiveSeq) <= 0)
+                || (type == TYPE_LOCKSTEP) != mLockstep) {
+            return drop();
+        }
+        if (mLockstep) {
+            if (!readLockstep(s) || !readTime(hasTime)) {
+                return drop();
+            }
+            accept(seq, ackValid, ack);
+            s.seq = seq;
+            s.inputTime = inputTime();
+            return true;
+        }
+
+        int fields = mReceiveFields;
+        Snapshot base = null;
+        if (type == TYPE_DELTA) {
+            if (in.remaining() * 8 + mInCount < DISTANCE_BITS + FIELD_COUNT) {
+                return drop();
+            }
+            int distance = read(DISTANCE_BITS);
+            fields = read(FIELD_COUNT) & mReceiveFields;
+            int baseSeq = (seq - distance) & SEQ_MASK;
+            if (distance == 0 || mReceivedSeq[baseSeq % HISTORY] != baseSeq) {
+                return drop();
+            }
+            base = mReceived[baseSeq % HISTORY];
+        } else if (type != TYPE_FULL) {
+            return drop();
+        }
+        if (in.remaining() * 8 + mInCount < fieldBits(fields)) {
+            return drop();
+        }
+
+        Snapshot r = mReceived[seq % HISTORY];
+        mReceivedSeq[seq % HISTORY] = -1;
+        if (base != null) {
+            r.set(base);
+        }
+        readFields(r, fields);
+        if (!readTime(hasTime)) {
+            return drop();
+        }
+        mReceivedSeq[seq % HISTORY] = seq;
+        accept(seq, ackValid, ack);
+        if (mCheck != null && mCheck.receive(r)) {
+            mFullFrameRequested = true;
+        }
+
+        copyFields(r, s, mReceiveFields);
+        s.seq = seq;
+        s.inputTime = inputTime();
+        return true;
+    }
+
+    /**
+     * Takes note of an accepted frame.
+     * @param seq the sequence number of the frame
+     * @param ackValid whether the frame acknowledges one of our frames
+     * @param ack the newest of our frames the other side has received
+     */
+    private void accept(int seq, boolean ackValid, int ack) {
+        mIn = null;
+        mReceiveSeq = seq;
+        mHasReceived = true;
+        if (ackValid && (!mHasAck || (short) (ack - mPeerAck) > 0)) {
+            mPeerAck = ack;
+            mHasAck = true;
+        }
+        if (mClock != null) {
+            long now = System.nanoTime();
+            if (mHasPing) {
+                mClock.onPing(now, mPingTime);
+            }
+            if (mHasPong) {
+                mClock.onPong(now, mPongPingTime, mPongReceived, mPongHold);
+            }
+        }
+    }
+
+    /**
+     * @return the input time of the frame just accepted, on our clock; 0 if there is none,
+     *         or the offset of the clocks is not known yet
+     */
+    private long inputTime() {
+        if (!mHasInput || mClock == null || mClock.getSamples() == 0) {
+            return 0;
+        }
+        long time = mClock.fromPeerMicros(mInputTime, System.nanoTime());
+        return time == 0 ? 1 : time;
+    }
+
+    /**
+     * Writes the ping and the pong of the ClockSync, and the time of an input.
+     * @param now the current time (ns)
+     * @param ping true to write a ping
+     * @param pong true to write a pong
+     * @param inputTime the time (ns) of the input to write; 0 for none
+     */
+    private void writeTime(long now, boolean ping, boolean pong, long inputTime) {
+        write(ping ? 1 : 0, 1);
+        write(pong ? 1 : 0, 1);
+        write(inputTime != 0 ? 1 : 0, 1);
+        if (ping) {
+            write(mClock.ping(now), TIME_BITS);
+        }
+        if (pong) {
+            write(mClock.getPingTime(), TIME_BITS);
+            write(mClock.getPingReceived(), TIME_BITS);
+            write(mClock.pong(now), HOLD_BITS);
+        }
+        if (inputTime != 0) {
+            write(ClockSync.micros(inputTime), TIME_BITS);
+        }
+    }
+
+    /**
+     * Reads the ping, the pong and the input time at the end of a frame, if there are any.
+     * @param hasTime whether the header announces them
+     * @return false if the frame is malformed
+     */
+    private boolean readTime(boolean hasTime) {
+        mHasPing = false;
+        mHasPong = false;
+        mHasInput = false;
+        if (!hasTime) {
+            return true;
+        }
+        if (mIn.remaining() * 8 + mInCount < 3) {
+            return false;
+        }
+        boolean ping = read(1) == 1;
+        boolean pong = read(1) == 1;
+        boolean input = read(1) == 1;
+        int bits = (ping ? PING_BITS : 0) + (pong ? PONG_BITS : 0) + (input ? TIME_BITS : 0);
+        if (mIn.remaining() * 8 + mInCount < bits) {
+            return false;
+        }
+        if (ping) {
+            mPingTime = read(TIME_BITS);
+        }
+        if (pong) {
+            mPongPingTime = read(TIME_BITS);
+            mPongReceived = read(TIME_BITS);
+            mPongHold = read(HOLD_BITS);
+        }
+        if (input) {
+            mInputTime = read(TIME_BITS);
+        }
+        mHasPing = ping;
+        mHasPong = pong;
+        mHasInput = input;
+        return true;
+    }
+
+    /**
+     * Writes the rest of a lockstep frame, after the header.
+     * @param q the quantized snapshot
+     */
+    private void writeLockstep(Snapshot q) {
+        boolean hasChecksum = q.checksumTick != 0;
+        write(q.tick, SEQ_BITS);
+        write(q.input, SEQ_BITS);
+        write(q.inputCount, COUNT_BITS);
+        write(hasChecksum ? 1 : 0, 1);
+        for (int i = 0; i < q.inputCount; i++) {
+            write(q.inputs[i] + PADDLE_OFFSET, PADDLE_BITS);
+        }
+        if (hasChecksum) {
+            write(q.checksumTick, SEQ_BITS);
+            write(q.checksum, CHECKSUM_BITS);
+        }
+    }
+
+    /**
+     * Reads the rest of a lockstep frame, after the header.
+     * @param s the snapshot the inputs and the checksum are written to
+     * @return false if the frame is malformed
+     */
+    private boolean readLockstep(Snapshot s) {
+        if (mIn.remaining() * 8 + mInCount < LOCKSTEP_BITS - HEADER_BITS) {
+            return false;
+        }
+        int tick = read(SEQ_BITS);
+        int input = read(SEQ_BITS);
+        int count = read(COUNT_BITS);
+        boolean hasChecksum = read(1) == 1;
+        int bits = count * PADDLE_BITS + (hasChecksum ? SEQ_BITS + CHECKSUM_BITS : 0);
+        if (count > Snapshot.MAX_INPUTS || mIn.remaining() * 8 + mInCount < bits) {
+            return false;
+        }
+        s.tick = tick;
+        s.input = input;
+        s.inputCount = count;
+        for (int i = 0; i < count; i++) {
+            s.inputs[i] = read(PADDLE_BITS) - PADDLE_OFFSET;
+        }
+        s.checksumTick = hasChecksum ? read(SEQ_BITS) : 0;
+        s.checksum = hasChecksum ? read(CHECKSUM_BITS) : 0;
+        return true;
+    }
+
+    /**
+     * Rounds the position of a paddle the way it is sent. Lockstep uses it for its own
+     * inputs, so that both sides simulate with exactly the same values.
+     * @param y the position of the paddle
+     * @return the position as the other side receives it
+     */
+    public static int quantizePaddle(int y) {
+        return clamp(y, PADDLE_OFFSET, PADDLE_BITS);
+    }
+
+    /**
+     * Combines the state the server sends (ball, right paddle, score and tick), rounded the
+     * way it is sent, into a single number. The server computes it of the state it sends,
+     * the client of the state it received; they are equal if the client got the state right.
+     * @param s the state
+     * @return the checksum
+     */
+    public static int checksum(Snapshot s) {
+        int h = s.tick & SEQ_MASK;
+        h = 31 * h + clamp(s.ballX, BALL_X_OFFSET, BALL_X_BITS);
+        h = 31 * h + clamp(s.ballY, BALL_Y_OFFSET, BALL_Y_BITS);
+        h = 31 * h + clamp(Math.round(s.ballVx * VEL_SCALE), VEL_SCALE, VEL_BITS);
+        h = 31 * h + clamp(Math.round(s.ballVy * VEL_SCALE), VEL_SCALE, VEL_BITS);
+        h = 31 * h + quantizePaddle(s.rightY);
+        h = 31 * h + clamp(s.leftScore, 0, SCORE_BITS);
+        h = 31 * h + clamp(s.rightScore, 0, SCORE_BITS);
+        return h;
+    }
+
+    /**
+     * @return the number of frames dropped by decode()
+     */
+    public long getFramesDropped() {
+        return mDropped;
+    }
+
+    /**
+     * Counts a dropped frame.
+     * @return false
+     */
+    private boolean drop() {
+        mIn = null;
+        mDropped++;
+        return false;
+    }
+
+    /**
+     * Copies the values of a snapshot, rounded the way the receiver will see them.
+     * @param s the original snapshot
+     * @param q the quantized copy
+     */
+    private static void quantize(Snapshot s, Snapshot q) {
+        q.set(s);
+        q.ballX = clamp(s.ballX, BALL_X_OFFSET, BALL_X_BITS);
+        q.ballY = clamp(s.ballY, BALL_Y_OFFSET, BALL_Y_BITS);
+        q.ballVx = (float) clamp(Math.round(s.ballVx * VEL_SCALE), VEL_SCALE, VEL_BITS) / VEL_SCALE;
+        q.ballVy = (float) clamp(Math.round(s.ballVy * VEL_SCALE), VEL_SCALE, VEL_BITS) / VEL_SCALE;
+        q.leftY = clamp(s.leftY, PADDLE_OFFSET, PADDLE_BITS);
+        q.rightY = clamp(s.rightY, PADDLE_OFFSET, PADDLE_BITS);
+        q.leftScore = clamp(s.leftScore, 0, SCORE_BITS);
+        q.rightScore = clamp(s.rightScore, 0, SCORE_BITS);
+        q.input = s.input & SEQ_MASK;
+        q.tick = s.tick & SEQ_MASK;
+        q.inputCount = Math.min(s.inputCount, Snapshot.MAX_INPUTS);
+        for (int i = 0; i < q.inputCount; i++) {
+            q.inputs[i] = quantizePaddle(s.inputs[i]);
+        }
+        q.checksumTick = s.checksumTick & SEQ_MASK;
+    }
+
+    /**
+     * Clamps a value to the range that can be stored.
+     * @param value the value
+     * @param offset the value stored as 0 is -offset
+     * @param bits the number of bits available
+     * @return the clamped value
+     */
+    private static int clamp(int value, int offset, int bits) {
+        return Math.max(-offset, Math.min(value, (1 << bits) - 1 - offset));
+    }
+
+    /**
+     * @param a a quantized snapshot
+     * @param b another quantized snapshot
+     * @return the mask of fields that differ between a and b
+     */
+    private static int changedFields(Snapshot a, Snapshot b) {
+        int fields = 0;
+        if (a.ballX != b.ballX || a.ballY != b.ballY) {
+            fields |= BALL_POS;
+        }
+        if (a.ballVx != b.ballVx || a.ballVy != b.ballVy) {
+            fields |= BALL_VEL;
+        }
+        if (a.leftY != b.leftY) {
+            fields |= LEFT_PADDLE;
+        }
+        if (a.rightY != b.rightY) {
+            fields |= RIGHT_PADDLE;
+        }
+        if (a.leftScore != b.leftScore || a.rightScore != b.rightScore) {
+            fields |= SCORE;
+        }
+        if (a.input != b.input) {
+            fields |= INPUT;
+        }
+        if (a.tick != b.tick) {
+            fields |= TICK;
+        }
+        if (a.checksumTick != b.checksumTick || a.checksum != b.checksum) {
+            fields |= CHECKSUM;
+        }
+        return fields;
+    }
+
+    /**
+     * @param fields a field mask
+     * @return the number of bits needed for the fields
+     */
+    private static int fieldBits(int fields) {
+        int bits = 0;
+        if ((fields & BALL_POS) != 0) {
+            bits += BALL_X_BITS + BALL_Y_BITS;
+        }
+        if ((fields & BALL_VEL) != 0) {
+            bits += 2 * VEL_BITS;
+        }
+        if ((fields & LEFT_PADDLE) != 0) {
+            bits += PADDLE_BITS;
+        }
+        if ((fields & RIGHT_PADDLE) != 0) {
+            bits += PADDLE_BITS;
+        }
+        if ((fields & SCORE) != 0) {
+            bits += 2 * SCORE_BITS;
+        }
+        if ((fields & INPUT) != 0) {
+            bits += SEQ_BITS;
+        }
+        if ((fields & TICK) != 0) {
+            bits += SEQ_BITS;
+        }
+        if ((fields & CHECKSUM) != 0) {
+            bits += SEQ_BITS + CHECKSUM_BITS;
+        }
+        return bits;
+    }
+
+    /**
+     * Copies some fields from one snapshot to another.
+     * @param from the source
+     * @param to the destination
+     * @param fields the fields to copy
+     */
+    private static void copyFields(Snapshot from, Snapshot to, int fields) {
+        if ((fields & BALL_POS) != 0) {
+            to.ballX = from.ballX;
+            to.ballY = from.ballY;
+        }
+        if ((fields & BALL_VEL) != 0) {
+            to.ballVx = from.ballVx;
+            to.ballVy = from.ballVy;
+        }
+        if ((fields & LEFT_PADDLE) != 0) {
+            to.leftY = from.leftY;
+        }
+        if ((fields & RIGHT_PADDLE) != 0) {
+            to.rightY = from.rightY;
+        }
+        if ((fields & SCORE) != 0) {
+            to.leftScore = from.leftScore;
+            to.rightScore = from.rightScore;
+        }
+        if ((fields & INPUT) != 0) {
+            to.input = from.input;
+        }
+        if ((fields & TICK) != 0) {
+            to.tick = from.tick;
+        }
+        if ((fields & CHECKSUM) != 0) {
+            to.checksumTick = from.checksumTick;
+            to.checksum = from.checksum;
+        }
+    }
+
+    /**
+     * Writes the values of some fields of a quantized snapshot.
+     * @param q the snapshot
+     * @param fields the fields to write
+     */
+    private void writeFields(Snapshot q, int fields) {
+        if ((fields & BALL_POS) != 0) {
+            write(q.ballX + BALL_X_OFFSET, BALL_X_BITS);
+            write(q.ballY + BALL_Y_OFFSET, BALL_Y_BITS);
+        }
+        if ((fields & BALL_VEL) != 0) {
+            write(Math.round(q.ballVx * VEL_SCALE) + VEL_SCALE, VEL_BITS);
+            write(Math.round(q.ballVy * VEL_SCALE) + VEL_SCALE, VEL_BITS);
+        }
+        if ((fields & LEFT_PADDLE) != 0) {
+            write(q.leftY + PADDLE_OFFSET, PADDLE_BITS);
+        }
+        if ((fields & RIGHT_PADDLE) != 0) {
+            write(q.rightY + PADDLE_OFFSET, PADDLE_BITS);
+        }
+        if ((fields & SCORE) != 0) {
+            write(q.leftScore, SCORE_BITS);
+            write(q.rightScore, SCORE_BITS);
+        }
+        if ((fields & INPUT) != 0) {
+            write(q.input, SEQ_BITS);
+        }
+        if ((fields & TICK) != 0) {
+            write(q.tick, SEQ_BITS);
+        }
+        if ((fields & CHECKSUM) != 0) {
+            write(q.checksumTick, SEQ_BITS);
+            write(q.checksum, CHECKSUM_BITS);
+        }
+    }
+
+    /**
+     * Reads the values of some fields.
+     * @param r the snapshot the values are written to
+     * @param fields the fields to read
+     */
+    private void readFields(Snapshot r, int fields) {
+        if ((fields & BALL_POS) != 0) {
+            r.ballX = read(BALL_X_BITS) - BALL_X_OFFSET;
+            r.ballY = read(BALL_Y_BITS) - BALL_Y_OFFSET;
+        }
+        if ((fields & BALL_VEL) != 0) {
+            r.ballVx = (float) (read(VEL_BITS) - VEL_SCALE) / VEL_SCALE;
+            r.ballVy = (float) (read(VEL_BITS) - VEL_SCALE) / VEL_SCALE;
+        }
+        if ((fields & LEFT_PADDLE) != 0) {
+            r.leftY = read(PADDLE_BITS) - PADDLE_OFFSET;
+        }
+        if ((fields & RIGHT_PADDLE) != 0) {
+            r.rightY = read(PADDLE_BITS) - PADDLE_OFFSET;
+        }
+        if ((fields & SCORE) != 0) {
+            r.leftScore = read(SCORE_BITS);
+            r.rightScore = read(SCORE_BITS);
+        }
+        if ((fields & INPUT) != 0) {
+            r.input = read(SEQ_BITS);
+        }
+        if ((fields & TICK) != 0) {
+            r.tick = read(SEQ_BITS);
+        }
+        if ((fields & CHECKSUM) != 0) {
+            r.checksumTick = read(SEQ_BITS);
+            r.checksum = read(CHECKSUM_BITS);
+        }
+    }
+
+    /**
+     * Appends the lowest bits of a value to the frame being written.
+     * @param value the value
+     * @param bits the number of bits to write
+     */
+    private void write(int value, int bits) {
+        mOutBits = (mOutBits << bits) | (value & ((1L << bits) - 1));
+        mOutCount += bits;
+        while (mOutCount >= 8) {
+            mOutCount -= 8;
+            mOut.put((byte) (mOutBits >>> mOutCount));
+        }
+    }
+
+    /**
+     * Writes the remaining bits, padded with zeros to a full byte.
+     */
+    private void flush() {
+        if (mOutCount > 0) {
+            mOut.put((byte) (mOutBits << (8 - mOutCount)));
+        }
+        mOutBits = 0;
+        mOutCount = 0;
+    }
+
+    /**
+     * Reads the next bits of the frame being read.
+     * @param bits the number of bits to read
+     * @return the value
+     */
+    private int read(int bits) {
+        while (mInCount < bits) {
+            mInBits = (mInBits << 8) | (mIn.get() & 0xff);
+            mInCount += 8;
+        }
+        mInCount -= bits;
+        return (int) ((mInBits >>> mInCount) & ((1L << bits) - 1));
+    }
+}
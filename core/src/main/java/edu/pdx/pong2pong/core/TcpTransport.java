@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2015 Josef Mihalits, Randon Stasney, Dakota Ward
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.pdx.pong2pong.core;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+
+/**
+ * Lockstep transport over a TCP socket: every snapshot arrives, in order, but a single lost
+ * segment holds back all snapshots behind it. Each frame of the StateCodec is preceded by
+ * one byte holding its length.
+ */
+public class TcpTransport implements Transport {
+
+    /** the connected socket */
+    private final Socket mSocket;
+
+    /** packs and unpacks the frames */
+    private final StateCodec mCodec;
+
+    /** input and output streams for reading and writing to the socket */
+    private final DataInputStream mInStream;
+    private final DataOutputStream mOutStream;
+
+    /** preallocated buffers for sending and receiving frames */
+    private final ByteBuffer mSendBuf = ByteBuffer.allocate(StateCodec.MAX_FRAME_SIZE);
+    private final ByteBuffer mReceiveBuf = ByteBuffer.allocate(255);
+
+    /** bytes sent and received */
+    private final RateMeter mSendMeter;
+    private final RateMeter mReceiveMeter;
+
+    /**
+     * Wraps a connected socket.
+     * @param socket the connected socket
+     * @param codec the codec for this end of the connection
+     * @throws IOException
+     */
+    public TcpTransport(Socket socket, StateCodec codec) throws IOException {
+        this(socket, codec, new RateMeter(), new RateMeter());
+    }
+
+    /**
+     * Wraps a connected socket, counting the bytes with meters that outlive it (see Session).
+     * @param socket the connected socket
+     * @param codec the codec for this end of the connection
+     * @param sendMeter counts the bytes sent
+     * @param receiveMeter counts the bytes received
+     * @throws IOException
+     */
+    TcpTransport(Socket socket, StateCodec codec, RateMeter sendMeter, RateMeter receiveMeter)
+            throws IOException {
+        mSocket = socket;
+        mCodec = codec;
+        mSendMeter = sendMeter;
+        mReceiveMeter = receiveMeter;
+        //send data immediately; do not buffer
+        mSocket.setTcpNoDelay(true);
+        //indicate that latency is important
+        mSocket.setPerformancePreferences(0, 1, 0);
+        //get streams
+        mInStream = new DataInputStream(mSocket.getInputStream());
+        mOutStream = new DataOutputStream(mSocket.getOutputStream());
+    }
+
+    @Override
+    public void send(Snapshot s) throws IOException {
+        mSendBuf.clear();
+        int size = mCodec.encode(s, mSendBuf);
+        mOutStream.writeByte(size);
+        mOutStream.write(mSendBuf.array(), 0, size);
+        mOutStream.flush();
+        mSendMeter.add(size + 1);
+    }
+
+    @Override
+    public boolean receive(Snapshot s) throws IOException {
+        int size = mInStream.readUnsignedByte();
+        mInStream.readFully(mReceiveBuf.array(), 0, size);
+        mReceiveMeter.add(size + 1);
+        mReceiveBuf.clear();
+        mReceiveBuf.limit(size);
+        return mCodec.decode(mReceiveBuf, s);
+    }
+
+    @Override
+    public long getPacketsDropped() {
+        return mCodec.getFramesDropped();
+    }
+
+    @Override
+    public RateMeter getSendMeter() {
+        return mSendMeter;
+    }
+
+    @Override
+    public RateMeter getReceiveMeter() {
+        return mReceiveMeter;
+    }
+
+    @Override
+    public void close() {
+        try {
+            mSocket.shutdownInput();
+            mSocket.shutdownOutput();
+            mSocket.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
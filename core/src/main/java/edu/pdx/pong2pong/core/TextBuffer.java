@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2015 Josef Mihalits, Randon Stasney, Dakota Ward
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.pdx.pong2pong.core;
+
+/**
+ * A reusable line of text, for drawing text in every frame without creating objects.
+ * Unlike StringBuilder, it formats numbers itself and hands out its characters directly
+ * (e.g. to Canvas.drawText(char[], int, int, ...)), so nothing is allocated after the
+ * constructor. Text that does not fit the capacity is cut off.
+ */
+public class TextBuffer {
+    /** the characters of the text */
+    private final char[] mChars;
+
+    /** the length of the text */
+    private int mLength = 0;
+
+    /** the digits of a number, written backwards */
+    private final char[] mDigits = new char[20];
+
+    /**
+     * @param capacity the maximum length of the text
+     */
+    public TextBuffer(int capacity) {
+        mChars = new char[capacity];
+    }
+
+    /**
+     * Empties the text.
+     * @return this
+     */
+    public TextBuffer clear() {
+        mLength = 0;
+        return this;
+    }
+
+    /**
+     * Appends a string.
+     * @param s the string
+     * @return this
+     */
+    public TextBuffer append(String s) {
+        int n = Math.min(s.length(), mChars.length - mLength);
+        s.getChars(0, n, mChars, mLength);
+        mLength += n;
+        return this;
+    }
+
+    /**
+     * Appends a character.
+     * @param ch the character
+     * @return this
+     */
+    public TextBuffer append(char ch) {
+        if (mLength < mChars.length) {
+            mChars[mLength++] = ch;
+        }
+        return this;
+    }
+
+    /**
+     * Appends an integer number in decimal.
+     * @param value the number
+     * @return this
+     */
+    public TextBuffer append(long value) {
+        if (value < 0) {
+            append('-');
+        }
+        //digits of the negative value, so that Long.MIN_VALUE works, too
+        long v = value < 0 ? value : -value;
+        int count = 0;
+        do {
+            mDigits[count++] = (char) ('0' - v % 10);
+            v /= 10;
+        } while (v != 0);
+        while (count > 0) {
+            append(mDigits[--count]);
+        }
+        return this;
+    }
+
+    /**
+     * Appends a number with a fixed number of decimal places (rounded).
+     * @param value the number
+     * @param decimals the number of decimal places
+     * @return this
+     */
+    public TextBuffer append(float value, int decimals) {
+        long scale = 1;
+        for (int i = 0; i < decimals; i++) {
+            scale *= 10;
+        }
+        long scaled = Math.round(Math.abs((double) value) * scale);
+        if (value < 0 && scaled != 0) {
+            append('-');
+        }
+        append(scaled / scale);
+        if (decimals > 0) {
+            append('.');
+            long fraction = scaled % scale;
+            for (long digit = scale / 10; digit > 0; digit /= 10) {
+                append((char) ('0' + fraction / digit % 10));
+            }
+        }
+        return this;
+    }
+
+    /**
+     * @return the characters of the text; valid up to length()
+     */
+    public char[] getChars() {
+        return mChars;
+    }
+
+    /**
+     * @return the length of the text
+     */
+    public int length() {
+        return mLength;
+    }
+
+    /**
+     * Creates a String of the text (allocates; not meant for every frame).
+     * @return the text
+     */
+    @Override
+    public String toString() {
+        return new String(mChars, 0, mLength);
+    }
+}
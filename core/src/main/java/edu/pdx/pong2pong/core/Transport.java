@@ -0,0 +1,62 @@
+/*
+ * Copyright (C) 2015 Josef Mihalits, Randon Stasney, Dakota Ward
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.pdx.pong2pong.core;
+
+import java.io.IOException;
+
+/**
+ * The connection to the other device, as seen by the NetworkThread. The server sends the
+ * state of the game; the client sends the position of its (left) paddle.
+ */
+public interface Transport {
+
+    /**
+     * Sends a snapshot to the other device.
+     * @param s the snapshot to send
+     * @throws IOException
+     */
+    void send(Snapshot s) throws IOException;
+
+    /**
+     * Receives the next snapshot from the other device. Fields the other device does
+     * not send are left untouched.
+     * @param s the snapshot the received values are written to
+     * @return true if s was updated; false if nothing new has arrived (yet)
+     * @throws IOException
+     */
+    boolean receive(Snapshot s) throws IOException;
+
+    /**
+     * @return the number of received packets that were discarded (e.g. out of order)
+     */
+    long getPacketsDropped();
+
+    /**
+     * @return the meter counting the bytes sent
+     */
+    RateMeter getSendMeter();
+
+    /**
+     * @return the meter counting the bytes received
+     */
+    RateMeter getReceiveMeter();
+
+    /**
+     * Closes the connection. Unblocks a thread waiting in receive().
+     */
+    void close();
+}
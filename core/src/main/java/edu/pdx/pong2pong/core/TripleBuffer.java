@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2015 Josef Mihalits, Randon Stasney, Dakota Ward
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.pdx.pong2pong.core;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A lock-free "latest value" exchange between exactly one writer thread and one reader thread.
+ * Three slots are allocated up front: the writer fills the back slot and publishes it,
+ * the reader swaps in the most recently published slot. Neither side ever blocks or allocates,
+ * and values published in between two reads are simply overwritten.
+ * @param <T> the type of the value that is exchanged
+ */
+public class TripleBuffer<T> {
+    /** flag set in mMiddle when the middle slot holds a value the reader has not seen yet */
+    private static final int DIRTY = 4;
+    /** mask for the slot index stored in mMiddle */
+    private static final int INDEX = 3;
+
+    /** the three slots */
+    private final Object[] mSlots;
+    /** index of the slot handed over between writer and reader (plus the DIRTY flag) */
+    private final AtomicInteger mMiddle = new AtomicInteger(1);
+    /** index of the slot the writer fills; only touched by the writer thread */
+    private int mBack = 2;
+    /** index of the slot the reader looks at; only touched by the reader thread */
+    private int mFront = 0;
+
+    /**
+     * Constructs a new buffer from three distinct, preallocated values.
+     * @param a the first slot
+     * @param b the second slot
+     * @param c the third slot
+     */
+    public TripleBuffer(T a, T b, T c) {
+        mSlots = new Object[] {a, b, c};
+    }
+
+    /**
+     * Writer side: the slot to fill before calling publish().
+     * @return the current back slot
+     */
+    @SuppressWarnings("unchecked")
+    public T getWriteBuffer() {
+        return (T) mSlots[mBack];
+    }
+
+    /**
+     * Writer side: hands the back slot over to the reader.
+     */
+    public void publish() {
+        mBack = mMiddle.getAndSet(mBack | DIRTY) & INDEX;
+    }
+
+    /**
+     * Reader side: swaps in the latest published value, if there is one.
+     * @return true if getReadBuffer() now returns a value that was not seen before
+     */
+    public boolean update() {
+        if ((mMiddle.get() & DIRTY) == 0) {
+            return false;
+        }
+        mFront = mMiddle.getAndSet(mFront) & INDEX;
+        return true;
+    }
+
+    /**
+     * Reader side: the latest value swapped in by update().
+     * @return the current front slot
+     */
+    @SuppressWarnings("unchecked")
+    public T getReadBuffer() {
+        return (T) mSlots[mFront];
+    }
+}
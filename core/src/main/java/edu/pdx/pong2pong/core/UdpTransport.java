@@ -0,0 +1,202 @@
+/*
+ * Copyright (C) 2015 Josef Mihalits, Randon Stasney, Dakota Ward
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.pdx.pong2pong.core;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+
+/**
+ * Unreliable transport over UDP: each snapshot is sent as a single frame of the StateCodec
+ * in its own datagram. Lost snapshots are not retransmitted; snapshots that arrive out of order
+ * (older than the newest one received so far) are dropped by the codec. When several datagrams
+ * are queued up, only the newest one is used.
+ */
+public class UdpTransport implements Transport {
+
+    /** time (ms) receive() waits for a datagram before giving up */
+    private static final int RECEIVE_TIMEOUT = 10;
+
+    /** the (non-blocking) socket */
+    private final DatagramChannel mChannel;
+
+    /** used to wait for datagrams with a timeout */
+    private final Selector mSelector;
+
+    /** address of the other device; null until the server received the first datagram */
+    private SocketAddress mPeer;
+
+    /** packs and unpacks the frames */
+    private final StateCodec mCodec;
+
+    /** preallocated buffers for sending and receiving datagrams */
+    private final ByteBuffer mSendBuf = ByteBuffer.allocate(StateCodec.MAX_FRAME_SIZE);
+    private final ByteBuffer mReceiveBuf = ByteBuffer.allocate(1500);
+
+    /** bytes sent and received (UDP payload) */
+    private final RateMeter mSendMeter = new RateMeter();
+    private final RateMeter mReceiveMeter = new RateMeter();
+
+    /**
+     * Opens a socket on the server that waits for the client; see awaitPeer().
+     * @param port the local port
+     * @param codec the codec for this end of the connection
+     * @return the new transport
+     * @throws IOException
+     */
+    public static UdpTransport listen(int port, StateCodec codec) throws IOException {
+        DatagramChannel channel = DatagramChannel.open();
+        channel.socket().bind(new InetSocketAddress(port));
+        return new UdpTransport(channel, null, codec);
+    }
+
+    /**
+     * Opens a socket on the client that sends to the server.
+     * @param host the address of the server
+     * @param port the port of the server
+     * @param codec the codec for this end of the connection
+     * @return the new transport
+     * @throws IOException
+     */
+    public static UdpTransport connect(String host, int port, StateCodec codec) throws IOException {
+        DatagramChannel channel = DatagramChannel.open();
+        channel.socket().bind(null);
+        return new UdpTransport(channel, new InetSocketAddress(host, port), codec);
+    }
+
+    /**
+     * @param channel an unconnected datagram channel
+     * @param peer the address of the other device, or null to use the sender of the
+     *             first datagram that arrives
+     * @param codec the codec for this end of the connection
+     * @throws IOException
+     */
+    private UdpTransport(DatagramChannel channel, SocketAddress peer, StateCodec codec)
+            throws IOException {
+        mChannel = channel;
+        mPeer = peer;
+        mCodec = codec;
+        mChannel.configureBlocking(false);
+        mSelector = Selector.open();
+        mChannel.register(mSelector, SelectionKey.OP_READ);
+    }
+
+    /**
+     * Blocks until the first datagram of the other device has arrived, so that its address
+     * is known. (The content of this first datagram is discarded.)
+     * @throws IOException
+     */
+    public void awaitPeer() throws IOException {
+        while (mPeer == null) {
+            checkOpen();
+            mSelector.select(RECEIVE_TIMEOUT);
+            mSelector.selectedKeys().clear();
+            mReceiveBuf.clear();
+            mPeer = mChannel.receive(mReceiveBuf);
+        }
+    }
+
+    @Override
+    public void send(Snapshot s) throws IOException {
+        if (mPeer == null) {
+            //nobody to send to yet
+            return;
+        }
+        mSendBuf.clear();
+        int size = mCodec.encode(s, mSendBuf);
+        mSendBuf.flip();
+        mChannel.send(mSendBuf, mPeer);
+        mSendMeter.add(size);
+    }
+
+    @Override
+    public boolean receive(Snapshot s) throws IOException {
+        checkOpen();
+        boolean received = drain(s);
+        if (!received && mSelector.select(RECEIVE_TIMEOUT) > 0) {
+            mSelector.selectedKeys().clear();
+            received = drain(s);
+        }
+        return received;
+    }
+
+    /**
+     * Throws if close() has been called. (The selector is closed on the thread using it.)
+     * @throws IOException
+     */
+    private void checkOpen() throws IOException {
+        if (!mChannel.isOpen()) {
+            mSelector.close();
+            throw new IOException("socket closed");
+        }
+    }
+
+    /**
+     * Reads all queued datagrams without blocking; the newest one wins.
+     * @param s the snapshot the values of the newest datagram are written to
+     * @return true if s was updated
+     * @throws IOException
+     */
+    private boolean drain(Snapshot s) throws IOException {
+        boolean received = false;
+        while (true) {
+            mReceiveBuf.clear();
+            SocketAddress from = mChannel.receive(mReceiveBuf);
+            if (from == null) {
+                return received;
+            }
+            if (mPeer == null) {
+                mPeer = from;
+            }
+            mReceiveBuf.flip();
+            if (from.equals(mPeer)) {
+                mReceiveMeter.add(mReceiveBuf.remaining());
+                if (mCodec.decode(mReceiveBuf, s)) {
+                    received = true;
+                }
+            }
+        }
+    }
+
+    @Override
+    public long getPacketsDropped() {
+        return mCodec.getFramesDropped();
+    }
+
+    @Override
+    public RateMeter getSendMeter() {
+        return mSendMeter;
+    }
+
+    @Override
+    public RateMeter getReceiveMeter() {
+        return mReceiveMeter;
+    }
+
+    @Override
+    public void close() {
+        try {
+            mChannel.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package edu.pdx.pong2pong.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the times between the attempts to connect.
+ */
+public class BackoffTest {
+
+    private static final long MS = 1000000L;
+
+    @Test
+    public void delays_doubleUpToCap() throws Exception {
+        long now = 1000 * MS;
+        Backoff b = new Backoff(50, 1000, 60000, now);
+        long[] expected = {50, 100, 200, 400, 800, 1000, 1000};
+        for (long ms : expected) {
+            long delay = b.nextDelay(now);
+            assertEquals(ms * MS, delay);
+            now += delay;
+        }
+        assertEquals(7, b.getRetries());
+    }
+
+    @Test
+    public void deadline_endsRetries() throws Exception {
+        long start = 1000 * MS;
+        long now = start;
+        Backoff b = new Backoff(50, 1000, 3000, now);
+        long delay;
+        while ((delay = b.nextDelay(now)) >= 0) {
+            now += delay;
+        }
+        //the last attempt is made at the deadline, not before or after it
+        assertEquals(start + 3000 * MS, now);
+        //50 + 100 + 200 + 400 + 800 + 1000, and the rest up to the deadline
+        assertEquals(7, b.getRetries());
+        assertEquals(-1, b.nextDelay(now + 1000 * MS));
+    }
+}
@@ -0,0 +1,125 @@
+package edu.pdx.pong2pong.core;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Property tests for the swept collision of the ball: for random positions, directions and
+ * speeds (from a fraction of a unit to five field widths per tick), a ball whose path crosses
+ * a paddle bounces off it, and a ball whose path misses a paddle passes it.
+ */
+public class BallTest {
+
+    /** the number of random cases per property */
+    private static final int CASES = 2000;
+
+    /** the right paddle's x position and the x position of its face (the edge of its area) */
+    private static final int PADDLE_X = Game.FIELD_X - Game.PADDLE_INSET;
+    private static final int FACE = PADDLE_X - Paddle.WIDTH / 2 - Ball.RADIUS;
+
+    /** half the height of the area of the paddle, in which the center of the ball hits it */
+    private static final int REACH = Paddle.HEIGHT / 2 + Ball.RADIUS;
+
+    /** the width of that area */
+    private static final int DEPTH = Paddle.WIDTH + 2 * Ball.RADIUS;
+
+    /** the range of y positions of the center of the ball: [RADIUS, RADIUS + RANGE] */
+    private static final int RANGE = Game.FIELD_Y - 2 * Ball.RADIUS;
+
+    @Test
+    public void pathCrossesPaddle_ballBounces() throws Exception {
+        Random random = new Random(42);
+        for (int n = 0; n < CASES; n++) {
+            Ball ball = randomBall(random);
+            float cross = crossingY(ball, FACE);
+            //the paddle is placed so that the path of the ball crosses it
+            float offset = (random.nextFloat() * 2 - 1) * (REACH - 2);
+            Paddle right = new Paddle(PADDLE_X, cross + offset);
+
+            String msg = describe(n, ball, cross + offset);
+            run(ball, right, msg);
+            assertTrue("passed through the paddle: " + msg, ball.getVx() < 0);
+            assertTrue("ended inside the paddle: " + msg, ball.getX() <= FACE);
+        }
+    }
+
+    @Test
+    public void pathMissesPaddle_ballPasses() throws Exception {
+        Random random = new Random(4711);
+        int cases = 0;
+        while (cases < CASES) {
+            Ball ball = randomBall(random);
+            //the y positions of the path where it enters and leaves the x range of the paddle
+            float enter = crossingY(ball, FACE);
+            float leave = crossingY(ball, FACE + DEPTH);
+            if (Math.abs(Math.abs(leave - enter) - Math.abs(ball.getVy() / ball.getVx()) * DEPTH) > 1) {
+                //bounced off a wall on the way; paddle position too hard to tell
+                continue;
+            }
+            float y = random.nextBoolean()
+                    ? Math.min(enter, leave) - REACH - 2 - random.nextFloat() * 200
+                    : Math.max(enter, leave) + REACH + 2 + random.nextFloat() * 200;
+            Paddle right = new Paddle(PADDLE_X, y);
+
+            String msg = describe(cases, ball, y);
+            run(ball, right, msg);
+            assertTrue("bounced off a paddle out of reach: " + msg, ball.getVx() > 0);
+            cases++;
+        }
+    }
+
+    /**
+     * @param random the random generator
+     * @return a ball somewhere on the left of the field, moving right at a random speed
+     */
+    private static Ball randomBall(Random random) {
+        float speed = (float) Math.pow(10, random.nextDouble() * 4 - 0.3);
+        Ball ball = new Ball(speed);
+        double angle = (random.nextDouble() * 2 - 1) * 5 * Math.PI / 12;
+        ball.setVelocity((float) Math.cos(angle), (float) Math.sin(angle));
+        ball.setCoord(Ball.RADIUS + random.nextInt(FACE - 100),
+                Ball.RADIUS + random.nextInt(RANGE));
+        return ball;
+    }
+
+    /**
+     * Calculates where the straight path of the ball, reflected off the walls, reaches an x
+     * position: the walls are unfolded into a straight line and folded back.
+     * @param ball the ball, moving right
+     * @param x the x position
+     * @return the y position of the center of the ball at x
+     */
+    private static float crossingY(Ball ball, float x) {
+        double u = ball.getY() - Ball.RADIUS + (x - ball.getX()) * ball.getVy() / ball.getVx();
+        double m = u % (2 * RANGE);
+        if (m < 0) {
+            m += 2 * RANGE;
+        }
+        return (float) (Ball.RADIUS + (m <= RANGE ? m : 2 * RANGE - m));
+    }
+
+    /**
+     * Moves the ball till it either turns back or leaves the field on the right.
+     * @param ball the ball
+     * @param right the right paddle
+     * @param msg describes the case
+     */
+    private static void run(Ball ball, Paddle right, String msg) {
+        Paddle left = new Paddle(Game.PADDLE_INSET, -1000);
+        for (int tick = 0; ball.getVx() > 0 && ball.getX() <= Game.FIELD_X; tick++) {
+            assertTrue("too many ticks: " + msg, tick < 1000000);
+            ball.move(left, right);
+            assertTrue("left the field: " + msg, ball.getY() >= Ball.RADIUS - 1);
+            assertTrue("left the field: " + msg, ball.getY() <= Game.FIELD_Y - Ball.RADIUS);
+        }
+    }
+
+    private static String describe(int n, Ball ball, float paddleY) {
+        return "case " + n + ": ball (" + ball.getX() + ", " + ball.getY() + ") direction ("
+                + ball.getVx() + ", " + ball.getVy() + ") speed " + ball.getSpeed()
+                + ", paddle at " + paddleY;
+    }
+}
@@ -0,0 +1,82 @@
+package edu.pdx.pong2pong.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the RTT and clock offset estimates of the ClockSync with simulated clocks.
+ */
+public class ClockSyncTest {
+
+    private static final long MS = 1000000L;
+
+    /** the clock of the other device is this much (ns) ahead of ours */
+    private static final long PEER_OFFSET = 123456 * MS;
+
+    private final ClockSync mOurs = new ClockSync();
+    private final ClockSync mPeers = new ClockSync();
+
+    /**
+     * One ping from us and the pong of the other device.
+     * @param now the time (ns, our clock) the ping is sent
+     * @param toPeer the time (ns) the ping takes
+     * @param hold the time (ns) the other device holds the ping
+     * @param back the time (ns) the pong takes
+     */
+    private void exchange(long now, long toPeer, long hold, long back) {
+        assertTrue(mOurs.isPingDue(now));
+        int ping = mOurs.ping(now);
+        long peerNow = now + PEER_OFFSET + toPeer;
+        mPeers.onPing(peerNow, ping);
+        peerNow += hold;
+        assertTrue(mPeers.isPongDue(peerNow));
+        int received = mPeers.getPingReceived();
+        int held = mPeers.pong(peerNow);
+        mOurs.onPong(now + toPeer + hold + back, mPeers.getPingTime(), received, held);
+    }
+
+    @Test
+    public void symmetricPath_exactOffset() throws Exception {
+        exchange(1000 * MS, 20 * MS, 5 * MS, 20 * MS);
+        assertEquals(1, mOurs.getSamples());
+        assertEquals(40000, mOurs.getRtt());
+        assertEquals(PEER_OFFSET / 1000, mOurs.getOffset());
+        assertFalse(mOurs.isPingDue(1050 * MS));
+
+        //the time of the other device converts back and forth
+        long t = 2000 * MS;
+        assertEquals(t, mOurs.fromPeerMicros(mOurs.toPeerMicros(t), 2010 * MS));
+    }
+
+    @Test
+    public void queuedSamples_filteredOut() throws Exception {
+        long now = 1000 * MS;
+        for (int i = 0; i < 8; i++) {
+            //most pongs are held up in a queue on the way back; one gets through quickly
+            long back = i == 5 ? 10 * MS : (30 + i * 7) * MS;
+            exchange(now, 10 * MS, MS, back);
+            now += ClockSync.PING_INTERVAL_NS;
+        }
+        assertEquals(20000, mOurs.getMinRtt());
+        assertEquals(PEER_OFFSET / 1000, mOurs.getOffset());
+        assertTrue(mOurs.getRtt() > mOurs.getMinRtt());
+        assertTrue(mOurs.getJitter() > 0);
+    }
+
+    @Test
+    public void clocksWrapAround_sameEstimates() throws Exception {
+        //our microseconds wrap from 2^31 - 1 to -2^31 between ping and pong
+        long now = ((1L << 31) - 10000) * 1000;
+        exchange(now, 15 * MS, 2 * MS, 15 * MS);
+        assertEquals(30000, mOurs.getRtt());
+        assertEquals(PEER_OFFSET / 1000, mOurs.getOffset());
+    }
+
+    @Test
+    public void pingHeldTooLong_notAnswered() throws Exception {
+        mPeers.onPing(1000 * MS, 42);
+        assertTrue(mPeers.isPongDue(1060 * MS));
+        assertFalse(mPeers.isPongDue(1070 * MS));
+    }
+}
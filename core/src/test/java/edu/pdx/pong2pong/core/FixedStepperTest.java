@@ -0,0 +1,49 @@
+package edu.pdx.pong2pong.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that frames of any length add up to the right number of ticks.
+ */
+public class FixedStepperTest {
+
+    private static final long MS = 1000000L;
+
+    @Test
+    public void firstCall_noTicks() throws Exception {
+        FixedStepper stepper = new FixedStepper(50, 5);
+        assertEquals(0, stepper.advance(1000 * MS));
+    }
+
+    @Test
+    public void irregularFrames_sameTicksAsRegularFrames() throws Exception {
+        FixedStepper stepper = new FixedStepper(50, 5);
+        long now = 1000 * MS;
+        stepper.advance(now);
+        int ticks = 0;
+        //one second of frames of 7, 13, 33 ms, ...
+        long[] frames = {7, 13, 33, 4, 16, 27};
+        for (int i = 0; now < 2000 * MS; i++) {
+            now += frames[i % frames.length] * MS;
+            ticks += stepper.advance(now);
+        }
+        long total = now - 1000 * MS;
+        assertEquals(total / (20 * MS), ticks);
+        assertEquals((float) (total % (20 * MS)) / (20 * MS), stepper.getAlpha(), 1e-4);
+        assertEquals(0, stepper.getDroppedTicks());
+    }
+
+    @Test
+    public void longStall_catchUpLimited() throws Exception {
+        FixedStepper stepper = new FixedStepper(50, 5);
+        stepper.advance(1000 * MS);
+        //a stall of one second: 50 ticks are due, 5 are simulated
+        assertEquals(5, stepper.advance(2010 * MS));
+        assertEquals(45, stepper.getDroppedTicks());
+        assertEquals(0.5f, stepper.getAlpha(), 1e-4);
+        //the backlog is gone; the next frame continues normally
+        assertEquals(1, stepper.advance(2020 * MS));
+    }
+}
@@ -0,0 +1,248 @@
+package edu.pdx.pong2pong.core;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs the work of a frame of the game loop (everything but the drawing calls to the Canvas)
+ * many times, and asserts that a frame in steady state allocates no memory. Garbage created
+ * in every frame would sooner or later cause a garbage collection pause during a rally.
+ *
+ * A server and a client play each other with the game loop of GameView (see Peer), with
+ * everything a match on the devices uses: the codecs with a ClockSync and a StateCheck, the
+ * LatencyTrace, the MatchRecorder, and the debug text. The network threads are not started;
+ * each frame runs a round of both on this thread, over a Transport that hands the frames
+ * straight to the other side, so their allocations count, too.
+ */
+public class FrameAllocationTest {
+
+    private static final int WARMUP_FRAMES = 20000;
+    private static final int FRAMES = 20000;
+
+    private final FixedStepper mStepper = new FixedStepper(Game.DEFAULT_TICK_RATE, 5);
+    private final Game mServerGame = new Game();
+    private final Game mClientGame = new Game();
+    private final StateCodec mServerCodec = new StateCodec(true, true);
+    private final StateCodec mClientCodec = new StateCodec(false, true);
+    private final StateCheck mServerCheck = new StateCheck(true, StateCheck.DEFAULT_INTERVAL);
+    private final StateCheck mClientCheck = new StateCheck(false, StateCheck.DEFAULT_INTERVAL);
+    private final PaddleInput mServerInput = new PaddleInput();
+    private final PaddleInput mClientInput = new PaddleInput();
+    private final LatencyTrace mServerTrace = new LatencyTrace();
+    private final LatencyTrace mClientTrace = new LatencyTrace();
+    private final Wire mServerWire = new Wire(mServerCodec);
+    private final Wire mClientWire = new Wire(mClientCodec);
+    private final NetworkThread mServerNetwork = new NetworkThread(true, mServerWire);
+    private final NetworkThread mClientNetwork = new NetworkThread(false, mClientWire);
+    private final Peer mServer = new Peer(mServerGame, true, mServerNetwork, mServerInput);
+    private final Peer mClient = new Peer(mClientGame, false, mClientNetwork, mClientInput);
+    private final TextBuffer mLine = new TextBuffer(160);
+    private final TextBuffer mScore = new TextBuffer(16);
+    private final FramePacer mPacer = new FramePacer(60, FramePacer.DISPLAY_RATE);
+    private final Histogram mFrameTime = new Histogram("frame time");
+
+    private File mFile;
+    private MatchRecorder mRecorder;
+
+    /** the simulated clock (ns) */
+    private long mNow = 1000000000L;
+    private int mFrame;
+
+    @Before
+    public void setUp() throws Exception {
+        mServerWire.mPeer = mClientWire;
+        mClientWire.mPeer = mServerWire;
+        mServerCodec.setClockSync(new ClockSync());
+        mClientCodec.setClockSync(new ClockSync());
+        mServerCodec.setStateCheck(mServerCheck);
+        mClientCodec.setStateCheck(mClientCheck);
+        mServerNetwork.setLatencyTrace(mServerTrace);
+        mClientNetwork.setLatencyTrace(mClientTrace);
+        mServer.setLatencyTrace(mServerTrace);
+        mClient.setLatencyTrace(mClientTrace);
+        mServerGame.getBall().start();
+        mClientGame.getBall().start();
+        //the client's game is recorded, with a keyframe for each state of the server
+        mFile = File.createTempFile("match", MatchRecorder.EXTENSION);
+        mRecorder = new MatchRecorder(mFile, Game.DEFAULT_TICK_RATE, Game.DEFAULT_TICK_RATE);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mRecorder.close();
+        mFile.delete();
+        MatchRecorder.indexFile(mFile).delete();
+    }
+
+    @Test
+    public void steadyState_noAllocationPerFrame() throws Exception {
+        Assume.assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(threads.isThreadAllocatedMemorySupported());
+        threads.setThreadAllocatedMemoryEnabled(true);
+        long id = Thread.currentThread().getId();
+
+        for (int i = 0; i < WARMUP_FRAMES; i++) {
+            frame();
+        }
+        long before = threads.getThreadAllocatedBytes(id);
+        for (int i = 0; i < FRAMES; i++) {
+            frame();
+        }
+        long allocated = threads.getThreadAllocatedBytes(id) - before;
+
+        //a few bytes may come from measuring; anything per frame would be many kilobytes
+        assertTrue("bytes allocated in " + FRAMES + " frames: " + allocated, allocated < FRAMES);
+        assertTrue(mServerGame.getTick() > FRAMES);
+        //all of it was at work
+        assertTrue(mClientCheck.getChecks() > 0);
+        assertEquals(0, mClientCheck.getDesyncs());
+        assertTrue(mServerCodec.getClockSync().getSamples() > 0);
+        assertTrue(mClientTrace.getRemoteDisplay().getCount() > 0);
+        assertTrue(mRecorder.getTicks() > FRAMES);
+    }
+
+    /**
+     * The work of one frame on both devices: simulate the due ticks, record them, exchange the
+     * states, format the text.
+     */
+    private void frame() throws IOException {
+        //frames of 13 to 20 ms
+        long last = mNow;
+        mNow += (13 + mFrame++ % 8) * 1000000L;
+        mPacer.onVsync(mNow);
+        mFrameTime.record(mNow - last);
+        int ticks = mStepper.advance(mNow);
+        //touch samples and sensor readings, queued by the UI and sensor threads between frames
+        mClientInput.offerTouch(mClientGame.getBall().getY() - 5, mNow - 8000000L);
+        mClientInput.offerTouch(mClientGame.getBall().getY(), mNow - 2000000L);
+        mServerInput.offerSensor((mFrame >> 7) % 5 - 2, mNow - 4000000L);
+        for (int i = 0; i < ticks; i++) {
+            mServer.tick(mNow);
+            mRecorder.record(mClientGame, mClient.tick(mNow));
+        }
+        if (ticks > 0) {
+            mServer.publish();
+            mClient.publish();
+        }
+        mServerNetwork.step();
+        mClientNetwork.step();
+
+        overlay(mServer, mServerGame, mServerCodec.getClockSync(), mServerCheck, mServerInput,
+                mServerTrace);
+        overlay(mClient, mClientGame, mClientCodec.getClockSync(), mClientCheck, mClientInput,
+                mClientTrace);
+        mServerTrace.onDisplay(mNow);
+        mClientTrace.onDisplay(mNow);
+    }
+
+    /**
+     * The text drawn by GameView.doDraw(), with the debug information.
+     */
+    private void overlay(Peer peer, Game game, ClockSync clock, StateCheck check,
+                         PaddleInput input, LatencyTrace trace) {
+        mScore.clear().append(game.getLeftPaddle().getScore()).append(" : ")
+                .append(game.getRightPaddle().getScore());
+        peer.sampleRemotePaddle(mNow);
+        percentiles(mFrameTime);
+        mLine.clear().append("target frames per second: ").append(mPacer.getFrameRate(), 1)
+                .append(", late frames: ").append(mPacer.getLateFrames());
+        mLine.clear().append("speed of ball: ").append(game.getBall().getSpeed(), 2)
+                .append(" per tick, dropped: ").append(mStepper.getDroppedTicks())
+                .append(mStepper.getAlpha(), 3);
+        mLine.clear().append("sensorY: ").append(input.getSensorY(), 3);
+        mLine.clear().append("unacknowledged inputs: ").append(peer.getUnacknowledgedInputs());
+        mLine.clear().append("interpolation buffer depth: ")
+                .append(peer.getRemotePaddle().getDepth()).append(", extrapolations: ")
+                .append(peer.getRemotePaddle().getExtrapolations());
+        mLine.clear().append("tick: ").append(peer.getTick()).append(", hits granted by rewind: ")
+                .append(peer.getLagCompensator().getRewinds());
+        mLine.clear().append("state checks: ").append(check.getChecks())
+                .append(", desyncs: ").append(check.getDesyncs());
+        mLine.clear().append("RTT (ms) smoothed / min / jitter: ").append(clock.getRtt() / 1e3f, 2)
+                .append(" / ").append(clock.getMinRtt() / 1e3f, 2)
+                .append(" / ").append(clock.getJitter() / 1e3f, 2)
+                .append(", clock offset (ms): ").append(clock.getOffset() / 1e3f, 1);
+        percentiles(input.getSensorLatency());
+        percentiles(input.getTouchLatency());
+        percentiles(trace.getDisplay());
+        percentiles(trace.getRemoteDisplay());
+    }
+
+    /**
+     * A line of debug text with the percentiles of a histogram, as in GameView.
+     */
+    private void percentiles(Histogram h) {
+        mLine.clear().append(h.getName()).append(" (ms) p50 / p95 / p99 / max: ")
+                .append(h.getValueAtPercentile(50) / 1e6f, 2)
+                .append(" / ").append(h.getValueAtPercentile(95) / 1e6f, 2)
+                .append(" / ").append(h.getValueAtPercentile(99) / 1e6f, 2)
+                .append(" / ").append(h.getMax() / 1e6f, 2);
+    }
+
+    /**
+     * One end of a connection that hands each frame straight to the other end, which reads it
+     * in its next receive(); unlike a LoopbackNetwork, it creates no objects.
+     */
+    private static class Wire implements Transport {
+        private final StateCodec mCodec;
+        private final ByteBuffer mFrame = ByteBuffer.allocate(StateCodec.MAX_FRAME_SIZE);
+        private final RateMeter mSendMeter = new RateMeter();
+        private final RateMeter mReceiveMeter = new RateMeter();
+
+        /** the other end, and whether a frame of this end waits for it */
+        Wire mPeer;
+        private boolean mPending = false;
+
+        Wire(StateCodec codec) {
+            mCodec = codec;
+        }
+
+        @Override
+        public void send(Snapshot s) {
+            mFrame.clear();
+            mSendMeter.add(mCodec.encode(s, mFrame));
+            mFrame.flip();
+            mPending = true;
+        }
+
+        @Override
+        public boolean receive(Snapshot s) {
+            if (!mPeer.mPending) {
+                return false;
+            }
+            mPeer.mPending = false;
+            mReceiveMeter.add(mPeer.mFrame.remaining());
+            return mCodec.decode(mPeer.mFrame, s);
+        }
+
+        @Override
+        public long getPacketsDropped() {
+            return mCodec.getFramesDropped();
+        }
+
+        @Override
+        public RateMeter getSendMeter() {
+            return mSendMeter;
+        }
+
+        @Override
+        public RateMeter getReceiveMeter() {
+            return mReceiveMeter;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package edu.pdx.pong2pong.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that frames are drawn on the right vsyncs, and that late frames are counted.
+ */
+public class FramePacerTest {
+
+    private static final long MS = 1000000L;
+
+    /** the time (ns) between the vsyncs of a 120 Hz display */
+    private static final long VSYNC_120 = 8333333L;
+
+    @Test
+    public void targetRate_everyNthVsync() throws Exception {
+        assertEquals(120, countFrames(new FramePacer(120, FramePacer.DISPLAY_RATE), 0), 1);
+        assertEquals(60, countFrames(new FramePacer(120, 60), 0), 1);
+        assertEquals(40, countFrames(new FramePacer(120, 40), 0), 1);
+        assertEquals(60, countFrames(new FramePacer(120, FramePacer.HALF_RATE), 0), 1);
+        //90 frames/s can only be rounded to every vsync of a 120 Hz display
+        assertEquals(120, countFrames(new FramePacer(120, 90), 0), 1);
+    }
+
+    @Test
+    public void jitteryVsync_sameFrames() throws Exception {
+        FramePacer pacer = new FramePacer(120, 60);
+        assertEquals(60, countFrames(pacer, 2 * MS), 1);
+        assertEquals(0, pacer.getLateFrames());
+        assertEquals(16667 * 1000, pacer.getMeanIntervalNs(), 100 * 1000);
+    }
+
+    @Test
+    public void missedVsync_lateFrameCounted() throws Exception {
+        FramePacer pacer = new FramePacer(120, 60);
+        long now = 1000 * MS;
+        assertTrue(pacer.onVsync(now));
+        assertFalse(pacer.onVsync(now += VSYNC_120));
+        assertTrue(pacer.onVsync(now += VSYNC_120));
+        //the next frame took too long: the vsync it was due on passed without a frame
+        assertFalse(pacer.onVsync(now += VSYNC_120));
+        assertTrue(pacer.onVsync(now += 2 * VSYNC_120));
+        assertEquals(1, pacer.getLateFrames());
+        assertEquals(1, pacer.getMissedVsyncs());
+        assertEquals(3 * VSYNC_120, pacer.getMaxIntervalNs());
+        //the frames keep their rhythm after the late one
+        assertFalse(pacer.onVsync(now += VSYNC_120));
+        assertTrue(pacer.onVsync(now += VSYNC_120));
+        assertEquals(1, pacer.getLateFrames());
+    }
+
+    /**
+     * Feeds one second of vsyncs of a 120 Hz display into the pacer.
+     * @param jitter the maximum time (ns) a vsync timestamp is off
+     * @return the number of frames drawn
+     */
+    private int countFrames(FramePacer pacer, long jitter) {
+        int frames = 0;
+        for (int i = 0; i < 120; i++) {
+            long offset = (i % 3 - 1) * jitter;
+            if (pacer.onVsync(1000 * MS + i * VSYNC_120 + offset)) {
+                frames++;
+            }
+        }
+        return frames;
+    }
+}
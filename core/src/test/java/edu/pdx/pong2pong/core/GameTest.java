@@ -0,0 +1,92 @@
+package edu.pdx.pong2pong.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs whole games headless, on a plain JVM.
+ */
+public class GameTest {
+
+    /** the duration (ms) of a tick */
+    private static final int TICK_MS = 1000 / Game.DEFAULT_TICK_RATE;
+
+    @Test
+    public void paddlesFollowingBall_neverMiss() throws Exception {
+        Game game = new Game();
+        for (int i = 0; i < 10000; i++) {
+            game.getLeftPaddle().setY(game.getBall().getY());
+            game.getRightPaddle().setY(game.getBall().getY());
+            game.step();
+            assertTrue(game.getBall().getY() >= Ball.RADIUS);
+            assertTrue(game.getBall().getY() <= Game.FIELD_Y - Ball.RADIUS);
+        }
+        assertEquals(10000, game.getTick());
+        assertEquals(0, game.getLeftPaddle().getScore());
+        assertEquals(0, game.getRightPaddle().getScore());
+    }
+
+    @Test
+    public void paddlesOutOfReach_scoreAlternates() throws Exception {
+        Game game = new Game();
+        game.getLeftPaddle().setY(-1000);
+        game.getRightPaddle().setY(-1000);
+        //the first ball goes right, so the left player scores first
+        while (game.getLeftPaddle().getScore() == 0) {
+            game.step();
+            assertEquals(0, game.getRightPaddle().getScore());
+        }
+        while (game.getRightPaddle().getScore() == 0) {
+            game.step();
+            assertEquals(1, game.getLeftPaddle().getScore());
+        }
+        //each round takes about half a second
+        assertTrue(game.getTick() < 2 * Game.DEFAULT_TICK_RATE);
+    }
+
+    @Test
+    public void lagCompensation_delaysPointOnLeftSide() throws Exception {
+        Game game = new Game();
+        game.setLagCompensator(new LagCompensator(200, Game.DEFAULT_TICK_RATE));
+        game.getLeftPaddle().setY(-1000);
+        game.getRightPaddle().setY(game.getBall().getY());
+        //the second ball goes left
+        game.getBall().start();
+        int passed = -1;
+        while (game.getRightPaddle().getScore() == 0) {
+            game.step();
+            if (passed < 0 && game.getBall().getX() < 0) {
+                passed = game.getTick();
+            }
+        }
+        assertTrue(passed > 0);
+        assertTrue((game.getTick() - passed) * TICK_MS >= 200 - 40);
+    }
+
+    @Test
+    public void ballSpeed_independentOfTickRate() throws Exception {
+        //the ball crosses from the center to the right edge in half a second
+        for (int tickRate : new int[] {30, 60, 120}) {
+            Game game = new Game(tickRate);
+            game.getRightPaddle().setY(-1000);
+            while (game.getLeftPaddle().getScore() == 0) {
+                game.step();
+            }
+            assertEquals(tickRate / 2, game.getTick(), 1);
+        }
+    }
+
+    @Test
+    public void lowTickRate_paddlesFollowingBall_neverMiss() throws Exception {
+        //the ball moves 100 units per tick, much more than the width of a paddle
+        Game game = new Game(10);
+        for (int i = 0; i < 1000; i++) {
+            game.getLeftPaddle().setY(game.getBall().getY());
+            game.getRightPaddle().setY(game.getBall().getY());
+            game.step();
+        }
+        assertEquals(0, game.getLeftPaddle().getScore());
+        assertEquals(0, game.getRightPaddle().getScore());
+    }
+}
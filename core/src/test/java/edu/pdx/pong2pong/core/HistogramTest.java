@@ -0,0 +1,67 @@
+package edu.pdx.pong2pong.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the buckets and the percentiles of the Histogram.
+ */
+public class HistogramTest {
+
+    private static final long MS = 1000000L;
+
+    @Test
+    public void buckets_coverAllValues_withSmallError() throws Exception {
+        //the buckets follow each other without gaps
+        for (int i = 1; i < 1888; i++) {
+            assertEquals(Histogram.highestValue(i - 1) + 1, Histogram.lowestValue(i));
+        }
+        assertEquals(Long.MAX_VALUE, Histogram.highestValue(Histogram.index(Long.MAX_VALUE)));
+        long[] values = {0, 1, 63, 64, 65, 127, 128, 1000, 16666667, 999999999, 1L << 40};
+        for (long value : values) {
+            int i = Histogram.index(value);
+            assertTrue(Histogram.lowestValue(i) <= value && value <= Histogram.highestValue(i));
+            assertTrue(Histogram.highestValue(i) - Histogram.lowestValue(i) <= value / 32);
+        }
+    }
+
+    @Test
+    public void percentiles_ofUniformValues() throws Exception {
+        Histogram h = new Histogram("test");
+        assertEquals(0, h.getValueAtPercentile(99));
+        //1 ms to 100 ms, in steps of 1 ms
+        for (int i = 1; i <= 100; i++) {
+            h.record(i * MS);
+        }
+        assertEquals(100, h.getCount());
+        assertEquals(100 * MS, h.getMax());
+        assertEquals(50 * MS + MS / 2, h.getMean());
+        assertEquals(50 * MS, h.getValueAtPercentile(50), 50 * MS / 32);
+        assertEquals(95 * MS, h.getValueAtPercentile(95), 95 * MS / 32);
+        assertEquals(99 * MS, h.getValueAtPercentile(99), 99 * MS / 32);
+        assertEquals(100 * MS, h.getValueAtPercentile(100));
+    }
+
+    @Test
+    public void rareStall_showsInP99() throws Exception {
+        Histogram h = new Histogram("frame time");
+        for (int i = 0; i < 980; i++) {
+            h.record(16 * MS);
+        }
+        for (int i = 0; i < 20; i++) {
+            h.record(50 * MS);
+        }
+        assertEquals(16 * MS, h.getValueAtPercentile(95), MS / 2);
+        assertEquals(50 * MS, h.getValueAtPercentile(99), 2 * MS);
+
+        StringBuilder out = new StringBuilder();
+        h.write(out);
+        assertTrue(out.toString().startsWith("# frame time\ncount 1000\n"));
+        assertTrue(out.toString().contains("\np99 "));
+
+        h.reset();
+        assertEquals(0, h.getCount());
+        assertEquals(0, h.getValueAtPercentile(50));
+    }
+}
@@ -0,0 +1,93 @@
+package edu.pdx.pong2pong.core;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that an ImpairedLink delays, loses, reorders and throttles packets as configured.
+ */
+public class ImpairedLinkTest {
+
+    private static final long MS = 1000000L;
+
+    private final ByteBuffer mBuf = ByteBuffer.allocate(100);
+
+    private void send(ImpairedLink link, int value, int size, long now) {
+        ByteBuffer packet = ByteBuffer.allocate(size);
+        packet.put(0, (byte) value);
+        link.send(packet, now);
+    }
+
+    private int receive(ImpairedLink link, long now) {
+        return link.receive(mBuf, now) ? mBuf.get(0) : -1;
+    }
+
+    @Test
+    public void latency_delaysPackets() throws Exception {
+        ImpairedLink link = new ImpairedLink(new Impairment(20, 0, 0, 0, 0), 1);
+        send(link, 1, 10, 0);
+        assertEquals(-1, receive(link, 19 * MS));
+        assertEquals(1, receive(link, 20 * MS));
+        assertEquals(1, mBuf.get(0));
+        assertEquals(10, mBuf.remaining());
+        assertEquals(-1, receive(link, 100 * MS));
+    }
+
+    @Test
+    public void jitter_keepsOrder_reorderDoesNot() throws Exception {
+        ImpairedLink jittery = new ImpairedLink(new Impairment(20, 15, 0, 0, 0), 1);
+        ImpairedLink reordering = new ImpairedLink(new Impairment(20, 15, 0, 0.2f, 0), 1);
+        for (int i = 0; i < 100; i++) {
+            send(jittery, i, 10, i * MS);
+            send(reordering, i, 10, i * MS);
+        }
+        int overtaken = 0;
+        int last = -1;
+        for (int i = 0; i < 100; i++) {
+            int a = receive(jittery, 1000 * MS);
+            assertEquals(i, a);
+            int b = receive(reordering, 1000 * MS);
+            if (b < last) {
+                overtaken++;
+            }
+            last = Math.max(last, b);
+        }
+        assertTrue(overtaken > 5);
+    }
+
+    @Test
+    public void loss_dropsShareOfPackets() throws Exception {
+        ImpairedLink link = new ImpairedLink(new Impairment(0, 0, 0.25f, 0, 0), 1);
+        for (int i = 0; i < 4000; i++) {
+            send(link, 0, 10, 0);
+        }
+        assertEquals(1000, link.getLost(), 100);
+        assertEquals(4000 - link.getLost(), countReceived(link, 0));
+    }
+
+    @Test
+    public void bandwidth_throttlesAndDropsWhenQueueFull() throws Exception {
+        //1000 bytes/s: a packet of 100 bytes occupies the link for 100 ms
+        ImpairedLink link = new ImpairedLink(new Impairment(0, 0, 0, 0, 1000), 1);
+        for (int i = 0; i < 10; i++) {
+            send(link, i, 100, 0);
+        }
+        //the queue holds 500 ms; the rest is dropped
+        assertEquals(4, link.getLost());
+        assertEquals(-1, receive(link, 99 * MS));
+        assertEquals(0, receive(link, 100 * MS));
+        assertEquals(2, countReceived(link, 350 * MS));
+        assertEquals(3, countReceived(link, 1000 * MS));
+    }
+
+    private int countReceived(ImpairedLink link, long now) {
+        int count = 0;
+        while (link.receive(mBuf, now)) {
+            count++;
+        }
+        return count;
+    }
+}
@@ -0,0 +1,59 @@
+package edu.pdx.pong2pong.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks which inputs the client keeps for the replay, and the delay estimated from the
+ * states of the server.
+ */
+public class InputHistoryTest {
+
+    @Test
+    public void acknowledge_discardsUpToTheEcho() throws Exception {
+        InputHistory h = new InputHistory();
+        for (int seq = 1; seq <= 5; seq++) {
+            h.add(seq, seq * 10);
+        }
+        h.acknowledge(3, 6);
+        assertEquals(2, h.size());
+        assertEquals(4, h.getSeq(0));
+        assertEquals(40, h.getY(0), 0);
+        assertEquals(30, h.getAcknowledgedY(), 0);
+    }
+
+    @Test
+    public void delay_lowestOfTheStates() throws Exception {
+        InputHistory h = new InputHistory();
+        assertEquals(0, h.getDelay());
+        //input 10 applied at tick 13; the later states still echo it
+        h.acknowledge(10, 14);
+        h.acknowledge(10, 15);
+        h.acknowledge(10, 13);
+        h.acknowledge(11, 16);
+        assertEquals(3, h.getDelay());
+    }
+
+    @Test
+    public void delay_wraps() throws Exception {
+        InputHistory h = new InputHistory();
+        h.acknowledge(65534, 2);
+        assertEquals(4, h.getDelay());
+    }
+
+    @Test
+    public void delay_longerOnlyAfterAWindow() throws Exception {
+        InputHistory h = new InputHistory();
+        h.acknowledge(100, 102);
+        //the network got slower: one state is not enough, a whole window is
+        int tick = 110;
+        h.acknowledge(tick - 6, tick);
+        assertEquals(2, h.getDelay());
+        for (int i = 0; i < 200; i++) {
+            tick++;
+            h.acknowledge(tick - 6, tick);
+        }
+        assertEquals(6, h.getDelay());
+    }
+}
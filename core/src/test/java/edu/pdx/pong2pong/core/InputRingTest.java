@@ -0,0 +1,84 @@
+package edu.pdx.pong2pong.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the order, the loss and the visibility of the samples in the InputRing.
+ */
+public class InputRingTest {
+
+    @Test
+    public void drain_takesAllSamples() throws Exception {
+        InputRing ring = new InputRing(8);
+        assertEquals(0, ring.drain(0, null));
+        ring.offer(100, 1000);
+        ring.offer(200, 2000);
+        ring.offer(300, 3000);
+        Histogram latency = new Histogram("latency");
+        assertEquals(3, ring.drain(5000, latency));
+        assertEquals(300, ring.getLatest(), 0);
+        assertEquals(200, ring.getAverage(), 0);
+        assertEquals(3000, ring.getLatestTime());
+        assertEquals(3, latency.getCount());
+        assertEquals(4000, latency.getMax());
+        //nothing new: the last samples are kept
+        assertEquals(0, ring.drain(6000, latency));
+        assertEquals(300, ring.getLatest(), 0);
+        assertEquals(3, ring.getCount());
+    }
+
+    @Test
+    public void fullRing_dropsNewSamples() throws Exception {
+        InputRing ring = new InputRing(4);
+        for (int i = 0; i < 4; i++) {
+            assertTrue(ring.offer(i, i));
+        }
+        assertFalse(ring.offer(4, 4));
+        assertEquals(1, ring.getOverflows());
+        assertEquals(4, ring.drain(10, null));
+        assertEquals(3, ring.getLatest(), 0);
+        //the ring wraps around
+        for (int i = 0; i < 4; i++) {
+            assertTrue(ring.offer(10 + i, 10 + i));
+        }
+        assertEquals(4, ring.drain(20, null));
+        assertEquals(11.5f, ring.getAverage(), 0);
+    }
+
+    @Test
+    public void twoThreads_noSampleLostOrReordered() throws Exception {
+        final int samples = 200000;
+        final InputRing ring = new InputRing(64);
+        Thread producer = new Thread() {
+            @Override
+            public void run() {
+                for (int i = 1; i <= samples; i++) {
+                    while (!ring.offer(i, i)) {
+                        Thread.yield();
+                    }
+                }
+            }
+        };
+        producer.start();
+        long taken = 0;
+        float last = 0;
+        while (taken < samples) {
+            int n = ring.drain(0, null);
+            if (n == 0) {
+                Thread.yield();
+                continue;
+            }
+            taken += n;
+            //the samples arrive in order, each with its own time
+            assertEquals(last + n, ring.getLatest(), 0);
+            assertEquals((long) ring.getLatest(), ring.getLatestTime());
+            assertEquals(last + (n + 1) / 2f, ring.getAverage(), last / 1e5f);
+            last = ring.getLatest();
+        }
+        producer.join();
+        assertEquals(samples, taken);
+        assertEquals(samples, last, 0);
+    }
+}
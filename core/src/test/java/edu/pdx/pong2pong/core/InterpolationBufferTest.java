@@ -0,0 +1,54 @@
+package edu.pdx.pong2pong.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that the remote paddle moves smoothly by the time of the sender, however unevenly
+ * its positions arrive.
+ */
+public class InterpolationBufferTest {
+
+    private static final long MS = 1000000L;
+
+    @Test
+    public void jitteredArrivals_smoothMotion() throws Exception {
+        InterpolationBuffer b = new InterpolationBuffer(50, 100);
+        //a paddle moving 1 unit per ms, sent every 16 ms, arriving 10 to 30 ms later
+        long start = 1000 * MS;
+        int[] jitterMs = {10, 30, 12, 25, 10, 28, 15, 10, 30, 20, 10, 30, 11, 26};
+        long now = start;
+        float last = 0;
+        int sent = 0;
+        for (int ms = 0; ms < 200; ms++) {
+            now = start + ms * MS;
+            while (sent < jitterMs.length && start + (sent * 16 + jitterMs[sent]) * MS <= now) {
+                b.add(sent * 16 * MS, start + (sent * 16 + jitterMs[sent]) * MS, sent * 16);
+                sent++;
+            }
+            if (sent < 2) {
+                continue;
+            }
+            float y = b.sample(now, 0);
+            if (ms > 60 && ms < 60 + 13 * 16) {
+                //one unit per ms, like the sender: 50 ms behind the fastest arrival (10 ms)
+                assertEquals(1, y - last, 1e-3);
+                assertEquals(ms - 60, y, 1e-3);
+            }
+            last = y;
+        }
+        assertEquals(0, b.getExtrapolations());
+    }
+
+    @Test
+    public void lateAfterPause_resyncs() throws Exception {
+        InterpolationBuffer b = new InterpolationBuffer(50, 100);
+        b.add(0, 10 * MS, 0);
+        b.add(16 * MS, 26 * MS, 16);
+        //the sender paused for 5 s; its clock did not go on
+        b.add(32 * MS, 5042 * MS, 32);
+        b.add(48 * MS, 5058 * MS, 48);
+        assertEquals(48 - 50 + 8, b.sample(5066 * MS, 0), 1e-3);
+    }
+}
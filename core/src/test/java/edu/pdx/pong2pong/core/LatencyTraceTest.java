@@ -0,0 +1,44 @@
+package edu.pdx.pong2pong.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that the LatencyTrace measures each input to the first frame that shows it.
+ */
+public class LatencyTraceTest {
+
+    private static final long MS = 1000000L;
+
+    @Test
+    public void input_countedOnce_fromTheOldestNotShown() throws Exception {
+        LatencyTrace trace = new LatencyTrace();
+        //two ticks move the paddle before the frame is posted
+        trace.onInput(100 * MS);
+        trace.onInput(108 * MS);
+        trace.onRemoteInput(90 * MS);
+        trace.onDisplay(120 * MS);
+        //a frame without a new input
+        trace.onDisplay(137 * MS);
+        assertEquals(1, trace.getDisplay().getCount());
+        assertEquals(20 * MS, trace.getDisplay().getMax());
+        assertEquals(1, trace.getRemoteDisplay().getCount());
+        assertEquals(30 * MS, trace.getRemoteDisplay().getMax());
+    }
+
+    @Test
+    public void send_countsEachInputOnce() throws Exception {
+        LatencyTrace trace = new LatencyTrace();
+        Snapshot s = new Snapshot();
+        trace.onSend(s, 10 * MS);
+        s.inputTime = 10 * MS;
+        trace.onSend(s, 12 * MS);
+        trace.onSend(s, 14 * MS);
+        assertEquals(1, trace.getSend().getCount());
+        assertEquals(2 * MS, trace.getSend().getMax());
+
+        trace.onReceive(s, 40 * MS);
+        assertEquals(30 * MS, trace.getRemoteReceive().getMax());
+    }
+}
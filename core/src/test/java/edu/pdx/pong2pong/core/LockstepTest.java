@@ -0,0 +1,139 @@
+package edu.pdx.pong2pong.core;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs two games in lockstep, connected by a pair of StateCodecs that lose frames.
+ */
+public class LockstepTest {
+
+    private static final int DELAY = 3;
+
+    /** both ends of the connection, and the frames in between */
+    private final Game mServerGame = new Game();
+    private final Game mClientGame = new Game();
+    private final Lockstep mServer = new Lockstep(mServerGame, true, DELAY);
+    private final Lockstep mClient = new Lockstep(mClientGame, false, DELAY);
+    private final StateCodec mServerCodec = new StateCodec(true, false, true);
+    private final StateCodec mClientCodec = new StateCodec(false, false, true);
+    private final ByteBuffer mBuf = ByteBuffer.allocate(StateCodec.MAX_FRAME_SIZE);
+    private final Snapshot mOut = new Snapshot();
+    private final Snapshot mIn = new Snapshot();
+    private long mBytes = 0;
+
+    @Test
+    public void lossyConnection_sameGameOnBothSides() throws Exception {
+        Random random = new Random(7);
+        int serverOffset = 0;
+        int clientOffset = 0;
+        for (int i = 0; i < 5000; i++) {
+            //players who follow the ball, but not always closely enough
+            if (i % 50 == 0) {
+                serverOffset = random.nextInt(201) - 100;
+                clientOffset = random.nextInt(201) - 100;
+            }
+            mServer.advance(mServerGame.getBall().getY() + serverOffset);
+            mClient.advance(mClientGame.getBall().getY() + clientOffset);
+            //a fifth of the frames are lost
+            exchange(mServer, mServerCodec, mClient, mClientCodec, random.nextInt(5) != 0);
+            exchange(mClient, mClientCodec, mServer, mServerCodec, random.nextInt(5) != 0);
+        }
+        int ticks = Math.min(mServerGame.getTick(), mClientGame.getTick());
+        assertTrue(ticks > 4000);
+        assertTrue(mServerGame.getLeftPaddle().getScore() + mServerGame.getRightPaddle().getScore() > 0);
+        assertEquals(0, mServer.getDesyncs());
+        assertEquals(0, mClient.getDesyncs());
+
+        //catch up the game that is behind; then both are the same
+        while (mServerGame.getTick() != mClientGame.getTick()) {
+            if (mServerGame.getTick() < mClientGame.getTick()) {
+                mServer.advance(0);
+                exchange(mClient, mClientCodec, mServer, mServerCodec, true);
+            } else {
+                mClient.advance(0);
+                exchange(mServer, mServerCodec, mClient, mClientCodec, true);
+            }
+        }
+        assertEquals(mServerGame.checksum(), mClientGame.checksum());
+
+        //a few bytes per tick and direction
+        assertTrue(mBytes / (2 * ticks) < 16);
+    }
+
+    @Test
+    public void divergedGame_desyncDetected() throws Exception {
+        for (int i = 0; i < Lockstep.CHECKSUM_INTERVAL; i++) {
+            mServer.advance(250);
+            mClient.advance(250);
+            exchange(mServer, mServerCodec, mClient, mClientCodec, true);
+            exchange(mClient, mClientCodec, mServer, mServerCodec, true);
+        }
+        assertEquals(0, mServer.getDesyncs());
+
+        mClientGame.getBall().setCoord(100, 100);
+        for (int i = 0; i < Lockstep.CHECKSUM_INTERVAL; i++) {
+            mServer.advance(250);
+            mClient.advance(250);
+            exchange(mServer, mServerCodec, mClient, mClientCodec, true);
+            exchange(mClient, mClientCodec, mServer, mServerCodec, true);
+        }
+        assertEquals(1, mServer.getDesyncs());
+        assertEquals(1, mClient.getDesyncs());
+    }
+
+    @Test
+    public void noInputFromOtherSide_stalls() throws Exception {
+        for (int i = 0; i < 10; i++) {
+            mServer.advance(250);
+        }
+        //the inputs up to the input delay are known in advance
+        assertEquals(DELAY, mServerGame.getTick());
+        assertEquals(10 - DELAY, mServer.getStalls());
+
+        exchange(mClient, mClientCodec, mServer, mServerCodec, true);
+        mClient.advance(250);
+        exchange(mClient, mClientCodec, mServer, mServerCodec, true);
+        mServer.advance(250);
+        assertEquals(DELAY + 1, mServerGame.getTick());
+    }
+
+    @Test
+    public void fixedTicks_sameChecksumOnEveryJvm() throws Exception {
+        //the simulation must be bit exact everywhere; this value must never change unless
+        //the rules of the game change (then both devices need the new version)
+        Game game = new Game();
+        for (int i = 0; i < 3000; i++) {
+            game.getLeftPaddle().setY(game.getBall().getY() + (i % 101) - 50);
+            game.getRightPaddle().setY(game.getBall().getY() - (i % 67) + 33);
+            game.step();
+        }
+        assertEquals(GOLDEN_CHECKSUM, game.checksum());
+    }
+
+    private static final int GOLDEN_CHECKSUM = -264593600;
+
+    /**
+     * Sends a frame from one side to the other.
+     * @param from the sending side
+     * @param fromCodec its codec
+     * @param to the receiving side
+     * @param toCodec its codec
+     * @param delivered false if the frame is lost
+     */
+    private void exchange(Lockstep from, StateCodec fromCodec, Lockstep to, StateCodec toCodec,
+                          boolean delivered) {
+        from.send(mOut);
+        mBuf.clear();
+        mBytes += fromCodec.encode(mOut, mBuf);
+        mBuf.flip();
+        if (delivered) {
+            assertTrue(toCodec.decode(mBuf, mIn));
+            to.receive(mIn);
+        }
+    }
+}
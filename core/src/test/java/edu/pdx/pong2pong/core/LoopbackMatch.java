@@ -0,0 +1,242 @@
+package edu.pdx.pong2pong.core;
+
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * A server and a client playing a match over a LoopbackNetwork, tick by tick, on a simulated
+ * clock. Both run the game loop of GameView (see Peer): the server simulates the game with the
+ * paddle inputs of the client; the client predicts the ball, and replays its unacknowledged
+ * inputs whenever a state of the server arrives. Both players are bots that follow the ball,
+ * not always closely enough; they touch the screen every tick (see PaddleInput).
+ *
+ * As on the devices, each game loop exchanges its state with a NetworkThread through its
+ * TripleBuffers. On a device, the network thread waits for the other device (TCP sends one
+ * frame per round trip), so it sends only some of the states the game loop publishes, and
+ * the game loop picks up only the newest frame received. Here, each network thread runs once
+ * every 1 to networkTicks ticks (at random); with networkTicks 1, the states of every tick are
+ * exchanged.
+ *
+ * While the match runs, it measures what a player would notice about the network:
+ * how far the ball jumps when the client corrects its prediction, how far the prediction was
+ * off, and how long the client goes without a state from the server.
+ */
+class LoopbackMatch {
+    private static final long TICK_NS = 1000000000L / Game.DEFAULT_TICK_RATE;
+
+    /** the number of predicted ball positions the client remembers */
+    private static final int PREDICTIONS = 256;
+
+    /** a network thread on a device runs about once every 1 to NETWORK_TICKS ticks */
+    static final int NETWORK_TICKS = 4;
+
+    private final Game mServerGame = new Game();
+    private final Game mClientGame = new Game();
+    private final StateCodec mServerCodec = new StateCodec(true, true);
+    private final StateCodec mClientCodec = new StateCodec(false, true);
+    private final LoopbackNetwork mNetwork;
+    private final NetworkThread mServer;
+    private final NetworkThread mClient;
+    private final Random mRandom;
+
+    /** the longest time (ticks) between two rounds of a network thread, and when they run */
+    private final int mNetworkTicks;
+    private final Random mSchedule;
+
+    /** the ticks till the next round of each network thread */
+    private int mServerWait = 0;
+    private int mClientWait = 0;
+
+    /** the game loops, and the input of the bots */
+    private final Peer mServerPeer;
+    private final Peer mClientPeer;
+    private final PaddleInput mServerInput = new PaddleInput();
+    private final PaddleInput mClientInput = new PaddleInput();
+
+    private final StateCheck mServerCheck = new StateCheck(true, StateCheck.DEFAULT_INTERVAL);
+    private final StateCheck mClientCheck = new StateCheck(false, StateCheck.DEFAULT_INTERVAL);
+
+    /**
+     * the ball position the client predicted for a tick of the server, the tick, and the
+     * number of points played by then, indexed by tick % PREDICTIONS
+     */
+    private final int[] mPredictedTick = new int[PREDICTIONS];
+    private final int[] mPredictedX = new int[PREDICTIONS];
+    private final int[] mPredictedY = new int[PREDICTIONS];
+    private final int[] mPredictedPoints = new int[PREDICTIONS];
+
+    /** the bots: how far off the ball they hold their paddles */
+    private int mServerOffset;
+    private int mClientOffset;
+
+    /** measurements */
+    private final Histogram mCorrections = new Histogram("correction");
+    private final Histogram mPredictionErrors = new Histogram("prediction error");
+    private int mTicksWithoutState = 0;
+    private int mLongestGap = 0;
+    private long mTicks = 0;
+
+    /**
+     * @param impairment how the network treats the frames, in both directions
+     * @param seed the seed for the network and the bots
+     */
+    LoopbackMatch(Impairment impairment, long seed) {
+        this(impairment, seed, 1);
+    }
+
+    /**
+     * @param impairment how the network treats the frames, in both directions
+     * @param seed the seed for the network and the bots
+     * @param networkTicks the longest time (ticks) between two rounds of a network thread
+     */
+    LoopbackMatch(Impairment impairment, long seed, int networkTicks) {
+        mNetworkTicks = networkTicks;
+        mServerCodec.setStateCheck(mServerCheck);
+        mClientCodec.setStateCheck(mClientCheck);
+        mNetwork = new LoopbackNetwork(mServerCodec, mClientCodec, impairment, seed);
+        mServer = new NetworkThread(true, mNetwork.getServer());
+        mClient = new NetworkThread(false, mNetwork.getClient());
+        mRandom = new Random(seed);
+        mSchedule = new Random(seed + 2);
+        mServerPeer = new Peer(mServerGame, true, mServer, mServerInput);
+        mClientPeer = new Peer(mClientGame, false, mClient, mClientInput);
+        mServerGame.getBall().start();
+        mClientGame.getBall().start();
+    }
+
+    /**
+     * Plays a number of ticks.
+     * @param ticks the number of ticks
+     * @param bots false once the match is over: the paddles and the server's game stand still,
+     *             while the last frames arrive
+     * @throws IOException
+     */
+    void play(int ticks, boolean bots) throws IOException {
+        for (int i = 0; i < ticks; i++) {
+            if (bots && mTicks % 50 == 0) {
+                mServerOffset = mRandom.nextInt(201) - 100;
+                mClientOffset = mRandom.nextInt(201) - 100;
+            }
+            long now = mNetwork.getTime() + TICK_NS;
+            mNetwork.setTime(now);
+            serverTick(bots, now);
+            if (--mServerWait <= 0) {
+                mServer.step();
+                mServerWait = 1 + mSchedule.nextInt(mNetworkTicks);
+            }
+            if (--mClientWait <= 0) {
+                mClient.step();
+                mClientWait = 1 + mSchedule.nextInt(mNetworkTicks);
+            }
+            clientTick(bots, now);
+            mTicks++;
+        }
+    }
+
+    private void serverTick(boolean bots, long now) {
+        if (bots) {
+            Ball ball = mServerGame.getBall();
+            mServerInput.offerTouch(ball.getY() + mServerOffset, now);
+            mServerPeer.tick(now);
+        }
+        mServerPeer.publish();
+    }
+
+    private void clientTick(boolean bots, long now) {
+        Ball ball = mClientGame.getBall();
+        Paddle left = mClientGame.getLeftPaddle();
+        Paddle right = mClientGame.getRightPaddle();
+        if (bots) {
+            mClientInput.offerTouch(ball.getY() + mClientOffset, now);
+        }
+        int x = ball.getX();
+        int y = ball.getY();
+        int score = left.getScore() + right.getScore();
+
+        if (mClientPeer.tick(now)) {
+            mTicksWithoutState = 0;
+            measurePrediction(mClient.getIncoming().getReadBuffer());
+        } else {
+            mLongestGap = Math.max(mLongestGap, ++mTicksWithoutState);
+        }
+        int tick = mClientPeer.getPredictedTick();
+        mPredictedTick[tick % PREDICTIONS] = tick;
+        mPredictedX[tick % PREDICTIONS] = ball.getX();
+        mPredictedY[tick % PREDICTIONS] = ball.getY();
+        mPredictedPoints[tick % PREDICTIONS] = left.getScore() + right.getScore();
+
+        //how much further than its speed the ball moved; a new round starts in the middle
+        if (score == left.getScore() + right.getScore()) {
+            double moved = Math.hypot(ball.getX() - x, ball.getY() - y);
+            mCorrections.record(Math.max(0, Math.round(moved - ball.getSpeed())));
+        }
+        mClientPeer.publish();
+    }
+
+    /**
+     * Compares the server's ball at a tick with what the client predicted for the tick; the
+     * client cannot predict the start of a new round.
+     * @param in the state of the server the client just applied
+     */
+    private void measurePrediction(Snapshot in) {
+        int i = in.tick % PREDICTIONS;
+        if (mPredictedTick[i] == in.tick && in.tick > 0
+                && mPredictedPoints[i] == in.leftScore + in.rightScore) {
+            mPredictionErrors.record(Math.round(Math.hypot(
+                    in.ballX - mPredictedX[i], in.ballY - mPredictedY[i])));
+        }
+    }
+
+    Game getServerGame() {
+        return mServerGame;
+    }
+
+    Game getClientGame() {
+        return mClientGame;
+    }
+
+    StateCheck getServerCheck() {
+        return mServerCheck;
+    }
+
+    StateCheck getClientCheck() {
+        return mClientCheck;
+    }
+
+    LoopbackNetwork getNetwork() {
+        return mNetwork;
+    }
+
+    /**
+     * Flips a bit of the right score in the next frame to the client: the server sends it in
+     * a full frame, and the client takes the wrong score as the base of the delta frames that
+     * follow, which only send the score again when it changes.
+     */
+    void corruptScoreOnClient() {
+        //the lowest bit of the right score: header (40 bits), ball (21 + 16), paddle (10),
+        //left score (8), right score (8)
+        mNetwork.getToClient().corruptNext(102);
+        mServerCodec.requestFullFrame();
+    }
+
+    /**
+     * @return how far (units of the field) the ball jumped beyond its speed, per tick
+     */
+    Histogram getCorrections() {
+        return mCorrections;
+    }
+
+    /**
+     * @return how far (units of the field) the client's prediction was off the server's ball
+     */
+    Histogram getPredictionErrors() {
+        return mPredictionErrors;
+    }
+
+    /**
+     * @return the longest time (ticks) the client went without a state from the server
+     */
+    int getLongestGap() {
+        return mLongestGap;
+    }
+}
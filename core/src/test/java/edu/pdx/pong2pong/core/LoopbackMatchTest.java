@@ -0,0 +1,126 @@
+package edu.pdx.pong2pong.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Plays full matches between a server and a client over simulated networks, from perfect to
+ * hostile, and checks what a player would notice: how smoothly the ball moves on the client,
+ * and whether both sides agree on the game.
+ */
+public class LoopbackMatchTest {
+
+    /** one minute of play, and two seconds for the last frames to arrive */
+    private static final int TICKS = 60 * Game.DEFAULT_TICK_RATE;
+    private static final int DRAIN_TICKS = 2 * Game.DEFAULT_TICK_RATE;
+
+    /** plays a match, with network threads paced as on a device */
+    private LoopbackMatch play(Impairment impairment) throws Exception {
+        LoopbackMatch match = new LoopbackMatch(impairment, 42, LoopbackMatch.NETWORK_TICKS);
+        match.play(TICKS, true);
+        match.play(DRAIN_TICKS, false);
+        assertSameScore(match);
+        return match;
+    }
+
+    private static void assertSameScore(LoopbackMatch match) {
+        Game server = match.getServerGame();
+        Game client = match.getClientGame();
+        assertTrue(server.getLeftPaddle().getScore() + server.getRightPaddle().getScore() > 0);
+        assertEquals(server.getLeftPaddle().getScore(), client.getLeftPaddle().getScore());
+        assertEquals(server.getRightPaddle().getScore(), client.getRightPaddle().getScore());
+        //the states were checked all along, and the client always got them right
+        assertTrue(match.getClientCheck().getChecks() > TICKS / StateCheck.DEFAULT_INTERVAL / 2);
+        assertTrue(match.getServerCheck().getChecks() > TICKS / StateCheck.DEFAULT_INTERVAL / 2);
+        assertEquals(0, match.getClientCheck().getDesyncs());
+        assertEquals(0, match.getServerCheck().getDesyncs());
+    }
+
+    @Test
+    public void stateChecks_ofTheFramesTheNetworkThreadsSend() throws Exception {
+        //most states the game loops publish are never sent, and some frames received are
+        //never picked up; every checksum sent is still compared, on both sides
+        LoopbackMatch match = new LoopbackMatch(Impairment.wifiDirect(), 42,
+                LoopbackMatch.NETWORK_TICKS);
+        match.play(TICKS, true);
+        match.play(DRAIN_TICKS, false);
+        assertSameScore(match);
+        long checks = match.getClientCheck().getChecks();
+        assertTrue(checks >= TICKS / (StateCheck.DEFAULT_INTERVAL + LoopbackMatch.NETWORK_TICKS));
+        assertEquals(checks, match.getServerCheck().getChecks(), 1);
+    }
+
+    @Test
+    public void corruptedState_detected_andRepaired() throws Exception {
+        LoopbackMatch match = new LoopbackMatch(Impairment.wifiDirect(), 42,
+                LoopbackMatch.NETWORK_TICKS);
+        match.play(TICKS / 4, true);
+        match.corruptScoreOnClient();
+        match.play(Game.DEFAULT_TICK_RATE, true);
+        //found at the next checksum, by both sides
+        assertEquals(1, match.getClientCheck().getDesyncs());
+        assertEquals(1, match.getServerCheck().getDesyncs());
+        assertTrue(match.getClientCheck().getLastDesync().startsWith("tick "));
+
+        //the full frame of the server repaired the client's copy for good
+        long checks = match.getClientCheck().getChecks();
+        match.play(TICKS / 4, true);
+        match.play(DRAIN_TICKS, false);
+        Game server = match.getServerGame();
+        Game client = match.getClientGame();
+        assertEquals(server.getLeftPaddle().getScore(), client.getLeftPaddle().getScore());
+        assertEquals(server.getRightPaddle().getScore(), client.getRightPaddle().getScore());
+        assertTrue(match.getClientCheck().getChecks() > checks + 10);
+        assertEquals(1, match.getClientCheck().getDesyncs());
+        assertEquals(1, match.getServerCheck().getDesyncs());
+    }
+
+    @Test
+    public void perfectNetwork_predictionExact() throws Exception {
+        LoopbackMatch match = play(Impairment.NONE);
+        //the network threads take turns with the game loops
+        assertTrue(match.getLongestGap() <= 2 * LoopbackMatch.NETWORK_TICKS);
+        //only the rounding of the frames; the few large errors are hits of the server's
+        //paddle, which keeps moving while the frames are on the way
+        assertTrue(match.getPredictionErrors().getValueAtPercentile(95) <= 2);
+        assertTrue(match.getCorrections().getValueAtPercentile(95) <= 1);
+    }
+
+    @Test
+    public void wifiDirect_smooth() throws Exception {
+        LoopbackMatch match = play(Impairment.wifiDirect());
+        assertTrue(match.getLongestGap() <= 10);
+        assertTrue(match.getPredictionErrors().getValueAtPercentile(95) <= 4);
+        assertTrue(match.getCorrections().getValueAtPercentile(95) <= 2);
+    }
+
+    @Test
+    public void congested_correctionsWithinOneTick() throws Exception {
+        LoopbackMatch match = play(Impairment.congested());
+        ImpairedLink link = match.getNetwork().getToClient();
+        assertEquals(0.05, (double) link.getLost() / link.getSent(), 0.02);
+        assertTrue(match.getLongestGap() <= 20);
+        //the replay puts each input at the tick the server applies it at, so a lost frame
+        //costs no correction; a ball at full speed moves about 17 units per tick
+        assertEquals(0, match.getCorrections().getValueAtPercentile(50));
+        assertTrue(match.getCorrections().getValueAtPercentile(95) <= 2);
+    }
+
+    @Test
+    public void hostile_stillConsistent() throws Exception {
+        LoopbackMatch match = play(Impairment.hostile());
+        assertTrue(match.getLongestGap() <= 30);
+        assertEquals(0, match.getCorrections().getValueAtPercentile(50));
+    }
+
+    @Test
+    public void sameSeed_sameMatch() throws Exception {
+        LoopbackMatch a = new LoopbackMatch(Impairment.congested(), 7);
+        LoopbackMatch b = new LoopbackMatch(Impairment.congested(), 7);
+        a.play(1000, true);
+        b.play(1000, true);
+        assertEquals(a.getServerGame().checksum(), b.getServerGame().checksum());
+        assertEquals(a.getClientGame().checksum(), b.getClientGame().checksum());
+    }
+}
@@ -0,0 +1,105 @@
+package edu.pdx.pong2pong.core;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+
+import static org.junit.Assert.*;
+
+/**
+ * Records matches with the MatchRecorder and plays them back with the ReplayPlayer.
+ */
+public class MatchRecorderTest {
+
+    private static final int TICKS = 1000;
+    private static final int KEYFRAME_INTERVAL = 60;
+
+    private File mFile;
+
+    /** the checksum of the recorded game after each tick */
+    private final int[] mChecksums = new int[TICKS];
+
+    @Before
+    public void setUp() throws Exception {
+        mFile = File.createTempFile("match", MatchRecorder.EXTENSION);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mFile.delete();
+        MatchRecorder.indexFile(mFile).delete();
+    }
+
+    /**
+     * Plays a game, with the paddles following the ball now and then, and records it.
+     * @param correctEvery the state of the game is set from outside every this many ticks
+     */
+    private void record(int correctEvery) throws Exception {
+        Game game = new Game();
+        MatchRecorder recorder = new MatchRecorder(mFile, game.getTickRate(), KEYFRAME_INTERVAL);
+        for (int i = 0; i < TICKS; i++) {
+            Ball ball = game.getBall();
+            game.getLeftPaddle().setY(ball.getY() + (i / 100) % 3 * 40 - 40);
+            game.getRightPaddle().setY(ball.getY() + (i / 70) % 3 * 40 - 40);
+            game.step();
+            boolean corrected = i % correctEvery == correctEvery - 1;
+            if (corrected) {
+                //e.g. the state of the server arrived
+                ball.setCoord(ball.getX() + 3, ball.getY());
+            }
+            recorder.record(game, corrected);
+            mChecksums[i] = game.checksum();
+        }
+        assertEquals(TICKS, recorder.getTicks());
+        recorder.close();
+        assertEquals(0, recorder.getDropped());
+        assertEquals(mFile.length(), recorder.getBytesWritten());
+    }
+
+    @Test
+    public void replay_matchesTheRecordedGame() throws Exception {
+        record(250);
+        //mostly ticks, which are small
+        assertTrue(mFile.length() < TICKS * MatchRecorder.TICK_SIZE * 2);
+
+        ReplayPlayer player = new ReplayPlayer(mFile);
+        assertEquals(TICKS, player.getTickCount());
+        assertEquals(1, player.getTick());
+        assertEquals(mChecksums[0], player.getGame().checksum());
+        while (player.advance()) {
+            assertEquals(mChecksums[player.getTick() - 1], player.getGame().checksum());
+        }
+        assertEquals(TICKS, player.getTick());
+        assertTrue(player.isFinished());
+    }
+
+    @Test
+    public void seek_landsOnTheTick_backwardsAndForwards() throws Exception {
+        record(97);
+        ReplayPlayer player = new ReplayPlayer(mFile);
+        int[] ticks = {700, 61, 60, 999, 1, 500, TICKS};
+        for (int tick : ticks) {
+            player.seek(tick);
+            assertEquals(tick, player.getTick());
+            assertEquals(mChecksums[tick - 1], player.getGame().checksum());
+        }
+    }
+
+    @Test
+    public void cutShort_withoutIndex_playsWhatIsThere() throws Exception {
+        record(1000);
+        assertTrue(MatchRecorder.indexFile(mFile).delete());
+        //the app was killed in the middle of a record
+        RandomAccessFile raf = new RandomAccessFile(mFile, "rw");
+        raf.setLength(raf.length() - 2);
+        raf.close();
+
+        ReplayPlayer player = new ReplayPlayer(mFile);
+        assertEquals(TICKS - 1, player.getTickCount());
+        player.seek(900);
+        assertEquals(mChecksums[899], player.getGame().checksum());
+    }
+}
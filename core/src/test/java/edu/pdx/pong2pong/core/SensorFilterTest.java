@@ -0,0 +1,75 @@
+package edu.pdx.pong2pong.core;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Feeds simulated tilt readings (100 Hz, like SENSOR_DELAY_GAME) into the filters.
+ */
+public class SensorFilterTest {
+
+    /** the time (ns) between readings */
+    private static final long PERIOD = 10000000L;
+
+    @Test
+    public void deadZone_noJump() throws Exception {
+        SensorFilter f = SensorFilter.none();
+        assertEquals(1.5f, f.filter(1.5f, 0), 0);
+        SensorFilter dz = new SensorFilter(0, 0, 0.3f);
+        assertEquals(0, dz.filter(0.2f, 0), 0);
+        assertEquals(0, dz.filter(-0.3f, PERIOD), 0);
+        assertEquals(0.01f, dz.filter(0.31f, 2 * PERIOD), 1e-5f);
+        assertEquals(-1.7f, dz.filter(-2f, 3 * PERIOD), 1e-5f);
+    }
+
+    @Test
+    public void stillDevice_jitterRemoved() throws Exception {
+        Random random = new Random(1);
+        SensorFilter[] filters = {SensorFilter.oneEuro(), SensorFilter.lowPass()};
+        for (SensorFilter f : filters) {
+            float min = Float.MAX_VALUE;
+            float max = -Float.MAX_VALUE;
+            for (int i = 0; i < 500; i++) {
+                //held at 2 m/s^2, with a noise of +-0.2 m/s^2
+                float v = f.filter(2 + (random.nextFloat() - 0.5f) * 0.4f, i * PERIOD);
+                if (i >= 100) {
+                    min = Math.min(min, v);
+                    max = Math.max(max, v);
+                }
+            }
+            //the paddle would shake by the whole 0.4 m/s^2 without a filter
+            assertTrue(max - min < 0.2f);
+        }
+    }
+
+    @Test
+    public void quickTilt_oneEuroLagsLess() throws Exception {
+        int lowPass = ticksToFollowTilt(SensorFilter.lowPass());
+        int oneEuro = ticksToFollowTilt(SensorFilter.oneEuro());
+        assertTrue(oneEuro < lowPass);
+        //within 50 ms of the end of the tilt
+        assertTrue(oneEuro <= 5);
+    }
+
+    /**
+     * Tilts the device from 0 to 6 m/s^2 in 100 ms.
+     * @return the number of readings after the tilt until the filter is within 0.5 m/s^2
+     */
+    private int ticksToFollowTilt(SensorFilter f) {
+        for (int i = 0; i < 100; i++) {
+            f.filter(0, i * PERIOD);
+        }
+        for (int i = 0; i < 10; i++) {
+            f.filter(0.6f * (i + 1), (100 + i) * PERIOD);
+        }
+        for (int i = 0; ; i++) {
+            //6 m/s^2 minus the dead zone
+            if (f.filter(6, (110 + i) * PERIOD) > 5.7f - 0.5f) {
+                return i;
+            }
+        }
+    }
+}
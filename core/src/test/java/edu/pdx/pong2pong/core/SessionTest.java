@@ -0,0 +1,187 @@
+package edu.pdx.pong2pong.core;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+
+import static org.junit.Assert.*;
+
+/**
+ * Plays a game over Sessions relayed by an OutageProxy, through real NetworkThreads, and
+ * drops the connection in the middle of it.
+ */
+public class SessionTest {
+
+    private static final int GRACE_MS = 1000;
+    private static final int LINK_TIMEOUT_MS = 200;
+
+    private ServerSocket mServerSocket;
+    private OutageProxy mProxy;
+    private Session mServer;
+    private Session mClient;
+    private NetworkThread mServerNet;
+    private NetworkThread mClientNet;
+
+    /** the tick of the last state the server published */
+    private int mTick = 0;
+
+    @Before
+    public void setUp() throws Exception {
+        mServerSocket = new ServerSocket(0);
+        mProxy = new OutageProxy("127.0.0.1", mServerSocket.getLocalPort());
+        Thread acceptor = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    mServer = Session.accept(mServerSocket, new StateCodec(true, true),
+                            GRACE_MS, LINK_TIMEOUT_MS);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        };
+        acceptor.start();
+        mClient = Session.connect("127.0.0.1", mProxy.getPort(), new StateCodec(false, true),
+                GRACE_MS, LINK_TIMEOUT_MS);
+        acceptor.join();
+        assertNotNull(mServer);
+
+        mServerNet = new NetworkThread(true, mServer);
+        mClientNet = new NetworkThread(false, mClient);
+        mServerNet.start();
+        mClientNet.start();
+        play(200);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mServerNet.shutdown();
+        mClientNet.shutdown();
+        mServer.close();
+        mClient.close();
+        mServerSocket.close();
+        mProxy.close();
+        mServerNet.join();
+        mClientNet.join();
+    }
+
+    /**
+     * Publishes a new state on both ends every 5 ms, like two game loops.
+     * @param ms how long (ms) to play
+     */
+    private void play(long ms) throws Exception {
+        long end = System.nanoTime() + ms * 1000000L;
+        while (System.nanoTime() < end) {
+            Snapshot s = mServerNet.getOutgoing().getWriteBuffer();
+            s.tick = ++mTick;
+            s.ballX = mTick % Game.FIELD_X;
+            mServerNet.getOutgoing().publish();
+            s = mClientNet.getOutgoing().getWriteBuffer();
+            s.leftY = mTick % Game.FIELD_Y;
+            s.input = mTick;
+            mClientNet.getOutgoing().publish();
+            Thread.sleep(5);
+        }
+    }
+
+    /**
+     * @return the tick of the latest state the client received
+     */
+    private int receivedTick() {
+        mClientNet.getIncoming().update();
+        return mClientNet.getIncoming().getReadBuffer().tick;
+    }
+
+    @Test
+    public void blip_absorbedByTcp() throws Exception {
+        mProxy.outage(LINK_TIMEOUT_MS / 2);
+        play(500);
+        assertFalse(mServerNet.hasFailed() || mClientNet.hasFailed());
+        assertEquals(0, mServer.getDrops());
+        assertEquals(0, mClient.getDrops());
+        assertEquals(mTick, receivedTick(), 20);
+    }
+
+    @Test
+    public void drop_matchResumes() throws Exception {
+        int before = receivedTick();
+        assertTrue(before > 0);
+        mProxy.outage(GRACE_MS / 2);
+        play(GRACE_MS / 2 + 2 * LINK_TIMEOUT_MS);
+        assertTrue(mServer.getDrops() > 0);
+        assertTrue(mClient.getDrops() > 0);
+        play(500);
+
+        assertFalse(mServerNet.hasFailed() || mClientNet.hasFailed());
+        assertFalse(mServer.isSuspended() || mClient.isSuspended());
+        assertEquals(mServer.getDrops(), mServer.getResumes());
+        assertEquals(mClient.getDrops(), mClient.getResumes());
+        assertEquals(2, mProxy.getRelayed(), 1);
+        //the frames flow again, and the delta frames pick up where they left off
+        assertEquals(mTick, receivedTick(), 20);
+        assertEquals(mTick % Game.FIELD_X, mClientNet.getIncoming().getReadBuffer().ballX, 20);
+        //the connection came back shortly after the outage
+        long resume = mServer.getResumeTime().getMax();
+        assertTrue(resume < (GRACE_MS / 2 + 200) * 1000000L);
+    }
+
+    @Test
+    public void longOutage_matchEnds() throws Exception {
+        mProxy.outage(GRACE_MS * 3);
+        play(GRACE_MS + 3 * LINK_TIMEOUT_MS);
+        assertTrue(mServerNet.hasFailed());
+        assertTrue(mClientNet.hasFailed());
+        assertEquals(0, mServer.getResumes());
+        assertEquals(0, mClient.getResumes());
+    }
+
+    @Test
+    public void newClient_cannotTakeOverSession() throws Exception {
+        mProxy.outage(GRACE_MS / 2);
+        long end = System.currentTimeMillis() + GRACE_MS;
+        while (!mServer.isSuspended() && System.currentTimeMillis() < end) {
+            play(10);
+        }
+        assertTrue(mServer.isSuspended());
+        //a client that starts a new session, directly at the server, is refused
+        try {
+            Session.connect("127.0.0.1", mServerSocket.getLocalPort(),
+                    new StateCodec(false, true), GRACE_MS, LINK_TIMEOUT_MS);
+            fail("the server took a new client while waiting for the old one");
+        } catch (IOException e) {
+            assertEquals("the server refused the session", e.getMessage());
+        }
+        play(GRACE_MS);
+        assertFalse(mServerNet.hasFailed() || mClientNet.hasFailed());
+        assertEquals(mServer.getDrops(), mServer.getResumes());
+    }
+
+    @Test
+    public void close_cancelsConnect() throws Exception {
+        //a server that accepts, but never answers the handshake
+        ServerSocket silent = new ServerSocket(0);
+        final Session session = Session.client("127.0.0.1", silent.getLocalPort(),
+                new StateCodec(false, true), GRACE_MS, 10000);
+        new Thread() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(100);
+                } catch (InterruptedException e) {}
+                session.close();
+            }
+        }.start();
+        long start = System.nanoTime();
+        try {
+            session.connect();
+            fail("connected to a silent server");
+        } catch (IOException e) {
+            //cancelled long before the link timeout
+            assertTrue(System.nanoTime() - start < 2000 * 1000000L);
+        }
+        silent.close();
+    }
+}
@@ -0,0 +1,102 @@
+package edu.pdx.pong2pong.core;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.net.Socket;
+
+import static org.junit.Assert.*;
+
+/**
+ * Connects viewers to a SpectatorChannel over local TCP connections.
+ */
+public class SpectatorChannelTest {
+
+    private final SpectatorChannel mChannel;
+
+    public SpectatorChannelTest() throws Exception {
+        mChannel = new SpectatorChannel(0);
+    }
+
+    @After
+    public void tearDown() {
+        mChannel.close();
+    }
+
+    private static Snapshot state(int tick) {
+        Snapshot s = new Snapshot();
+        s.ballX = 500 + tick;
+        s.ballY = 250;
+        s.ballVx = 0.6f;
+        s.ballVy = -0.8f;
+        s.leftY = 100;
+        s.rightY = 400;
+        s.leftScore = 2;
+        s.rightScore = 5;
+        s.tick = tick;
+        return s;
+    }
+
+    /**
+     * Broadcasts until all viewers are accepted.
+     */
+    private int connect(int viewers) throws Exception {
+        int tick = 0;
+        long end = System.currentTimeMillis() + 5000;
+        while (mChannel.getViewerCount() < viewers && System.currentTimeMillis() < end) {
+            mChannel.broadcast(state(++tick));
+            Thread.sleep(1);
+        }
+        assertEquals(viewers, mChannel.getViewerCount());
+        return tick;
+    }
+
+    @Test
+    public void viewers_receiveWholeGame() throws Exception {
+        Transport a = new TcpTransport(new Socket("127.0.0.1", mChannel.getPort()),
+                SpectatorChannel.viewerCodec());
+        Transport b = new TcpTransport(new Socket("127.0.0.1", mChannel.getPort()),
+                SpectatorChannel.viewerCodec());
+        int tick = connect(2);
+        mChannel.broadcast(state(++tick));
+
+        for (Transport t : new Transport[] {a, b}) {
+            Snapshot r = new Snapshot();
+            //read up to the last frame broadcast
+            do {
+                assertTrue(t.receive(r));
+            } while (r.tick != tick);
+            assertEquals(500 + tick, r.ballX);
+            assertEquals(0.6f, r.ballVx, 0.01f);
+            //both paddles, unlike a client or a server frame
+            assertEquals(100, r.leftY);
+            assertEquals(400, r.rightY);
+            assertEquals(2, r.leftScore);
+            assertEquals(5, r.rightScore);
+            t.close();
+        }
+    }
+
+    @Test
+    public void slowViewer_missesFrames_gameGoesOn() throws Exception {
+        //a viewer that never reads
+        Socket slow = new Socket("127.0.0.1", mChannel.getPort());
+        slow.setReceiveBufferSize(1024);
+        int tick = connect(1);
+        //broadcast until the socket buffers are full; broadcasting never blocks
+        for (int i = 0; i < 10000000 && mChannel.getFramesDropped() == 0; i++) {
+            mChannel.broadcast(state(++tick));
+        }
+        assertTrue(mChannel.getFramesDropped() > 0);
+        assertEquals(1, mChannel.getViewerCount());
+
+        //a viewer that leaves is removed
+        slow.close();
+        long end = System.currentTimeMillis() + 5000;
+        while (mChannel.getViewerCount() > 0 && System.currentTimeMillis() < end) {
+            mChannel.broadcast(state(++tick));
+            Thread.sleep(1);
+        }
+        assertEquals(0, mChannel.getViewerCount());
+    }
+}
@@ -0,0 +1,282 @@
+package edu.pdx.pong2pong.core;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+/**
+ * Round-trip tests for the frames of the StateCodec.
+ */
+public class StateCodecTest {
+
+    private final StateCodec mServer = new StateCodec(true, true);
+    private final StateCodec mClient = new StateCodec(false, true);
+    private final ByteBuffer mBuf = ByteBuffer.allocate(StateCodec.MAX_FRAME_SIZE);
+
+    private static Snapshot serverState(int ballX, int ballY, int rightY) {
+        Snapshot s = new Snapshot();
+        s.ballX = ballX;
+        s.ballY = ballY;
+        s.ballVx = -0.5f;
+        s.ballVy = 0.866f;
+        s.leftY = 123;
+        s.rightY = rightY;
+        s.leftScore = 3;
+        s.rightScore = 11;
+        s.input = 41;
+        return s;
+    }
+
+    private int send(StateCodec from, Snapshot s) {
+        mBuf.clear();
+        int size = from.encode(s, mBuf);
+        mBuf.flip();
+        assertEquals(size, mBuf.remaining());
+        return size;
+    }
+
+    private void ack() {
+        Snapshot s = new Snapshot();
+        s.leftY = 250;
+        send(mClient, s);
+        assertTrue(mServer.decode(mBuf, new Snapshot()));
+    }
+
+    @Test
+    public void fullFrame_roundTrip() throws Exception {
+        int size = send(mServer, serverState(500, 250, 300));
+        assertTrue(size <= StateCodec.MAX_FRAME_SIZE);
+
+        Snapshot r = new Snapshot();
+        r.leftY = 77;
+        assertTrue(mClient.decode(mBuf, r));
+        assertEquals(1, r.seq);
+        assertEquals(500, r.ballX);
+        assertEquals(250, r.ballY);
+        assertEquals(-0.5f, r.ballVx, 0.01f);
+        assertEquals(0.866f, r.ballVy, 0.01f);
+        assertEquals(300, r.rightY);
+        assertEquals(3, r.leftScore);
+        assertEquals(11, r.rightScore);
+        assertEquals(41, r.input);
+        //the client controls the left paddle; the server does not send it
+        assertEquals(77, r.leftY);
+    }
+
+    @Test
+    public void clientFrame_roundTrip() throws Exception {
+        Snapshot s = new Snapshot();
+        s.leftY = -20;
+        s.ballX = 999;
+        s.input = 70000;
+        int size = send(mClient, s);
+        //header, paddle, input and tick, and the checksum of a StateCheck
+        assertEquals(17, size);
+
+        Snapshot r = new Snapshot();
+        assertTrue(mServer.decode(mBuf, r));
+        assertEquals(-20, r.leftY);
+        assertEquals(70000 & StateCodec.SEQ_MASK, r.input);
+        assertEquals(0, r.ballX);
+    }
+
+    @Test
+    public void values_areClampedToField() throws Exception {
+        Snapshot s = serverState(-5000, 5000, 2000);
+        s.rightScore = 1000;
+        send(mServer, s);
+
+        Snapshot r = new Snapshot();
+        assertTrue(mClient.decode(mBuf, r));
+        assertEquals(-512, r.ballX);
+        assertEquals(767, r.ballY);
+        assertEquals(767, r.rightY);
+        assertEquals(255, r.rightScore);
+    }
+
+    @Test
+    public void deltaFrame_onlyAfterAck() throws Exception {
+        int full = send(mServer, serverState(500, 250, 300));
+        assertTrue(mClient.decode(mBuf, new Snapshot()));
+        //no ack yet: full frame
+        assertEquals(full, send(mServer, serverState(510, 250, 300)));
+        Snapshot r = new Snapshot();
+        assertTrue(mClient.decode(mBuf, r));
+
+        ack();
+        int delta = send(mServer, serverState(520, 260, 300));
+        assertTrue(delta < full);
+        assertTrue(mClient.decode(mBuf, r));
+        assertEquals(3, r.seq);
+        assertEquals(520, r.ballX);
+        assertEquals(260, r.ballY);
+        assertEquals(300, r.rightY);
+        assertEquals(11, r.rightScore);
+        assertEquals(-0.5f, r.ballVx, 0.01f);
+    }
+
+    @Test
+    public void deltaFrame_withUnknownBase_isDropped() throws Exception {
+        send(mServer, serverState(500, 250, 300));
+        assertTrue(mClient.decode(mBuf, new Snapshot()));
+        ack();
+
+        //a second client that never saw the base frame
+        StateCodec other = new StateCodec(false, true);
+        send(mServer, serverState(520, 250, 300));
+        assertFalse(other.decode(mBuf, new Snapshot()));
+        assertEquals(1, other.getFramesDropped());
+    }
+
+    @Test
+    public void staleFrame_isDropped() throws Exception {
+        send(mServer, serverState(500, 250, 300));
+        byte[] first = new byte[mBuf.remaining()];
+        mBuf.get(first);
+        send(mServer, serverState(510, 250, 300));
+        assertTrue(mClient.decode(mBuf, new Snapshot()));
+
+        Snapshot r = new Snapshot();
+        assertFalse(mClient.decode(ByteBuffer.wrap(first), r));
+        assertEquals(1, mClient.getFramesDropped());
+        assertEquals(0, r.ballX);
+    }
+
+    @Test
+    public void sequenceNumber_wrapsAround() throws Exception {
+        StateCodec server = new StateCodec(true, false);
+        Snapshot r = new Snapshot();
+        for (int i = 0; i < 70000; i++) {
+            mBuf.clear();
+            server.encode(serverState(i % 1000, 250, 300), mBuf);
+            mBuf.flip();
+            assertTrue(mClient.decode(mBuf, r));
+        }
+        assertEquals(69999 % 1000, r.ballX);
+        assertEquals(0, mClient.getFramesDropped());
+    }
+
+    @Test
+    public void wrongVersion_isDropped() throws Exception {
+        send(mServer, serverState(500, 250, 300));
+        mBuf.put(0, (byte) 0xf0);
+        assertFalse(mClient.decode(mBuf, new Snapshot()));
+    }
+
+    @Test
+    public void truncatedFrame_isDropped() throws Exception {
+        send(mServer, serverState(500, 250, 300));
+        mBuf.limit(mBuf.limit() - 2);
+        assertFalse(mClient.decode(mBuf, new Snapshot()));
+    }
+
+    @Test
+    public void pingAndPong_travelWithTheFrames() throws Exception {
+        ClockSync serverClock = new ClockSync();
+        ClockSync clientClock = new ClockSync();
+        mServer.setClockSync(serverClock);
+        mClient.setClockSync(clientClock);
+        Snapshot r = new Snapshot();
+        //the first frames carry pings, the answers carry pongs
+        int withPing = send(mServer, serverState(500, 250, 300));
+        assertTrue(mClient.decode(mBuf, r));
+        send(mClient, r);
+        assertTrue(mServer.decode(mBuf, new Snapshot()));
+        send(mServer, serverState(500, 250, 300));
+        assertTrue(mClient.decode(mBuf, r));
+        assertEquals(1, serverClock.getSamples());
+        assertEquals(1, clientClock.getSamples());
+        //both clocks are the same here, and the frames went nowhere
+        assertEquals(0, serverClock.getOffset(), 1000);
+        assertTrue(serverClock.getRtt() < 100000);
+        assertEquals(500, r.ballX);
+
+        //no ping is due for a while: the frames are as small as without ClockSync
+        int without = send(mServer, serverState(510, 250, 300));
+        assertTrue(without < withPing);
+    }
+
+    @Test
+    public void inputTime_travelsOnce_onTheReceiversClock() throws Exception {
+        mServer.setClockSync(new ClockSync());
+        mClient.setClockSync(new ClockSync());
+        Snapshot input = new Snapshot();
+        input.leftY = 250;
+        input.inputTime = System.nanoTime() - 5000000L;
+        //the offset of the clocks is not known yet: the time is dropped
+        send(mClient, input);
+        Snapshot r = new Snapshot();
+        assertTrue(mServer.decode(mBuf, r));
+        assertEquals(0, r.inputTime);
+        send(mServer, serverState(500, 250, 300));
+        assertTrue(mClient.decode(mBuf, new Snapshot()));
+
+        //a new input: the server gets its time, as its clock reads it (the same clock here)
+        input.inputTime += 1000000L;
+        int with = send(mClient, input);
+        assertTrue(mServer.decode(mBuf, r));
+        assertEquals(input.inputTime, r.inputTime, 1000000L);
+        assertEquals(250, r.leftY);
+
+        //the same input again: its time is not sent again
+        int without = send(mClient, input);
+        assertTrue(mServer.decode(mBuf, r));
+        assertEquals(0, r.inputTime);
+        assertTrue(without < with);
+    }
+
+    @Test
+    public void desync_detected_andFixedByAFullFrame() throws Exception {
+        StateCheck serverCheck = new StateCheck(true, StateCheck.DEFAULT_INTERVAL);
+        StateCheck clientCheck = new StateCheck(false, StateCheck.DEFAULT_INTERVAL);
+        mServer.setStateCheck(serverCheck);
+        mClient.setStateCheck(clientCheck);
+        Snapshot r = new Snapshot();
+        Snapshot s = serverState(500, 250, 300);
+        s.tick = 30;
+        send(mServer, s);
+        assertTrue(mClient.decode(mBuf, r));
+        assertEquals(30, r.checksumTick);
+        assertEquals(1, clientCheck.getChecks());
+        //the client sends its checksum back
+        ack();
+        assertEquals(1, serverCheck.getChecks());
+
+        //a bit error in a full frame: the lowest bit of the right score
+        s = serverState(505, 250, 300);
+        s.tick = 45;
+        s.rightScore = 12;
+        mServer.requestFullFrame();
+        send(mServer, s);
+        mBuf.put(12, (byte) (mBuf.get(12) ^ 0x02));
+        assertTrue(mClient.decode(mBuf, r));
+        assertEquals(13, r.rightScore);
+        ack();
+
+        //the score is not sent again, so the client only notices at the next checksum
+        s = serverState(510, 250, 300);
+        s.tick = 60;
+        s.rightScore = 12;
+        send(mServer, s);
+        assertTrue(mClient.decode(mBuf, r));
+        assertEquals(13, r.rightScore);
+        assertEquals(1, clientCheck.getDesyncs());
+        assertEquals(60, clientCheck.getTick());
+        assertTrue(clientCheck.getLastDesync().startsWith("tick 60: "));
+
+        //the server finds the desync, too, in the client's checksum
+        ack();
+        assertEquals(1, serverCheck.getDesyncs());
+        ack();
+        assertEquals(1, serverCheck.getDesyncs());
+
+        //the server's answer: its state in a full frame
+        int full = send(mServer, s);
+        assertTrue(mClient.decode(mBuf, r));
+        assertEquals(12, r.rightScore);
+        int delta = send(mServer, s);
+        assertTrue(delta < full);
+    }
+}
@@ -0,0 +1,44 @@
+package edu.pdx.pong2pong.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the number formatting of TextBuffer against the formatting of the JDK.
+ */
+public class TextBufferTest {
+
+    private final TextBuffer mText = new TextBuffer(64);
+
+    @Test
+    public void integers_formattedLikeLongToString() throws Exception {
+        long[] values = {0, 7, -7, 10, 1234567890123L, -1000, Long.MAX_VALUE, Long.MIN_VALUE};
+        for (long value : values) {
+            assertEquals(Long.toString(value), mText.clear().append(value).toString());
+        }
+    }
+
+    @Test
+    public void decimals_rounded() throws Exception {
+        assertEquals("16.67", mText.clear().append(1000f / 60, 2).toString());
+        assertEquals("-9.810", mText.clear().append(-9.81f, 3).toString());
+        assertEquals("0.05", mText.clear().append(0.049f, 2).toString());
+        assertEquals("0.00", mText.clear().append(-0.001f, 2).toString());
+        assertEquals("3", mText.clear().append(2.5f, 0).toString());
+    }
+
+    @Test
+    public void mixed_appendedInOrder() throws Exception {
+        mText.clear().append("screen: ").append(1920).append('x').append(1080);
+        assertEquals("screen: 1920x1080", mText.toString());
+        assertEquals(17, mText.length());
+    }
+
+    @Test
+    public void tooLong_cutOff() throws Exception {
+        TextBuffer text = new TextBuffer(8);
+        text.append("score: ").append(12345);
+        assertEquals("score: 1", text.toString());
+    }
+}
@@ -0,0 +1,203 @@
+/*
+ * Copyright (C) 2015 Josef Mihalits, Randon Stasney, Dakota Ward
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.pdx.pong2pong.core;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+
+/**
+ * A TCP relay between a client and a server that can go dark for a while, like a WiFi Direct
+ * link that drops out: during an outage, the bytes on the relayed connections stop flowing
+ * (they are delivered when it is over, if the ends are still there), and new connections are
+ * refused. For testing how a Session survives drops, on the loopback interface; a test
+ * fixture, which does not ship in the app.
+ *
+ * Each relayed connection takes two threads, one per direction.
+ */
+public class OutageProxy {
+    /** the time (ms) a relay waits before it checks again whether the outage is over */
+    private static final int POLL_MS = 5;
+
+    /** the server the connections are relayed to */
+    private final String mHost;
+    private final int mPort;
+
+    /** accepts the connections of the clients */
+    private final ServerSocket mServerSocket;
+
+    /** all sockets of the relayed connections, for closing them */
+    private final ArrayList<Socket> mSockets = new ArrayList<Socket>();
+
+    /** the end of the current outage (System.nanoTime()) */
+    private volatile long mOutageEnd = System.nanoTime();
+
+    /** the number of connections relayed, and refused */
+    private volatile int mRelayed = 0;
+    private volatile int mRefused = 0;
+
+    /**
+     * Starts relaying connections to a server.
+     * @param host the address of the server
+     * @param port the port of the server
+     * @throws IOException
+     */
+    public OutageProxy(String host, int port) throws IOException {
+        mHost = host;
+        mPort = port;
+        mServerSocket = new ServerSocket(0);
+        Thread acceptor = new Thread("OutageProxy") {
+            @Override
+            public void run() {
+                acceptAll();
+            }
+        };
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    /**
+     * @return the port the clients connect to
+     */
+    public int getPort() {
+        return mServerSocket.getLocalPort();
+    }
+
+    /**
+     * Starts an outage.
+     * @param ms how long (ms) the outage lasts
+     */
+    public void outage(long ms) {
+        mOutageEnd = System.nanoTime() + ms * 1000000L;
+    }
+
+    /**
+     * @return true during an outage
+     */
+    public boolean isOut() {
+        return System.nanoTime() - mOutageEnd < 0;
+    }
+
+    /**
+     * @return the number of connections relayed to the server
+     */
+    public int getRelayed() {
+        return mRelayed;
+    }
+
+    /**
+     * @return the number of connections refused during outages
+     */
+    public int getRefused() {
+        return mRefused;
+    }
+
+    /**
+     * Stops relaying, and closes all connections.
+     */
+    public void close() {
+        try {
+            mServerSocket.close();
+        } catch (IOException e) {}
+        synchronized (mSockets) {
+            for (Socket s : mSockets) {
+                close(s);
+            }
+            mSockets.clear();
+        }
+    }
+
+    /**
+     * Accepts the clients till the proxy is closed.
+     */
+    private void acceptAll() {
+        while (true) {
+            Socket client;
+            try {
+                client = mServerSocket.accept();
+            } catch (IOException e) {
+                return; //closed
+            }
+            if (isOut()) {
+                mRefused++;
+                close(client);
+                continue;
+            }
+            Socket server;
+            try {
+                server = new Socket(mHost, mPort);
+                server.setTcpNoDelay(true);
+                client.setTcpNoDelay(true);
+            } catch (IOException e) {
+                close(client);
+                continue;
+            }
+            synchronized (mSockets) {
+                mSockets.add(client);
+                mSockets.add(server);
+            }
+            mRelayed++;
+            relay(client, server);
+            relay(server, client);
+        }
+    }
+
+    /**
+     * Starts a thread that copies the bytes of one direction of a connection. When either end
+     * closes, the whole connection is closed.
+     * @param from the socket the bytes are read from
+     * @param to the socket the bytes are written to
+     */
+    private void relay(final Socket from, final Socket to) {
+        Thread t = new Thread("OutageProxy relay") {
+            @Override
+            public void run() {
+                byte[] buf = new byte[4096];
+                try {
+                    InputStream in = from.getInputStream();
+                    OutputStream out = to.getOutputStream();
+                    int n;
+                    while ((n = in.read(buf)) > 0) {
+                        while (isOut()) {
+                            Thread.sleep(POLL_MS);
+                        }
+                        out.write(buf, 0, n);
+                    }
+                } catch (IOException e) {
+                    //one of the ends is gone
+                } catch (InterruptedException e) {}
+                close(from);
+                close(to);
+            }
+        };
+        t.setDaemon(true);
+        t.start();
+    }
+
+    /**
+     * Closes a socket, ignoring errors.
+     * @param socket the socket
+     */
+    private static void close(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {}
+    }
+}
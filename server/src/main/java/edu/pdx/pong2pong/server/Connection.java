@@ -0,0 +1,315 @@
+/*
+ * Copyright (C) 2015 Josef Mihalits, Randon Stasney, Dakota Ward
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.pdx.pong2pong.server;
+
+import edu.pdx.pong2pong.core.ClockSync;
+import edu.pdx.pong2pong.core.Snapshot;
+import edu.pdx.pong2pong.core.StateCodec;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+
+/**
+ * A non-blocking TCP connection that speaks the protocol of Session: it starts with a
+ * handshake, in which the client sends the token of its session (0 for a new one) as 8 bytes,
+ * and the server answers with the token of the session, or with 0 if it does not know the
+ * client's (see readToken(), writeToken() and handshake()); then each frame of the StateCodec
+ * is preceded by one byte holding its length. Used by the server for its clients, and by the
+ * load test for the clients it simulates.
+ *
+ * When the connection drops, the client may connect again with its token; the new channel
+ * then takes the place of the old one (see reopen()), and the frames go on through the same
+ * StateCodec.
+ *
+ * Nothing is queued: a frame is only sent when the previous one has left completely, so a
+ * slow reader gets fewer, but always the newest, states.
+ */
+public class Connection {
+    /** the connected channel (non-blocking); closed while the connection is dropped */
+    private SocketChannel mChannel;
+
+    /** identifies the session of the client */
+    private final long mToken;
+
+    /** packs and unpacks the frames, across all channels of the session */
+    private final StateCodec mCodec;
+
+    /** the bytes received, until they make a complete frame */
+    private final ByteBuffer mIn = ByteBuffer.allocate(4096);
+
+    /** the frame being sent: length byte and frame */
+    private final ByteBuffer mOut = ByteBuffer.allocate(1 + StateCodec.MAX_FRAME_SIZE);
+
+    /** the latest snapshot received */
+    private final Snapshot mReceived = new Snapshot();
+
+    /** true if a snapshot arrived since the last call to takeReceived() */
+    private boolean mHasReceived = false;
+
+    /** the time (System.nanoTime()) bytes last arrived */
+    private long mLastReceived;
+
+    /** set while the connection is dropped, and the time (System.nanoTime()) it dropped */
+    private boolean mDropped = false;
+    private long mDroppedAt;
+
+    /** set by close(); a closed connection cannot be reopened */
+    private boolean mClosed = false;
+
+    /** the number of frames not sent because the previous one had not left yet */
+    private long mSkipped = 0;
+
+    /**
+     * @param channel the connected channel, done with the handshake; it is switched to
+     *                non-blocking mode
+     * @param isServer true for the server's end of the connection
+     * @param token the token of the session
+     * @throws IOException
+     */
+    public Connection(SocketChannel channel, boolean isServer, long token) throws IOException {
+        mToken = token;
+        mCodec = new StateCodec(isServer, true);
+        //answer the pings of the other side, so that it can measure its RTT
+        mCodec.setClockSync(new ClockSync());
+        open(channel);
+    }
+
+    /**
+     * Server: reads the token a client presents when it connects.
+     * @param channel the channel of the client, in blocking mode
+     * @param timeoutMs how long (ms) to wait for the token
+     * @return the token; 0 if the client starts a new session
+     * @throws IOException if the token did not arrive in time
+     */
+    public static long readToken(SocketChannel channel, int timeoutMs) throws IOException {
+        channel.socket().setSoTimeout(timeoutMs);
+        return new DataInputStream(channel.socket().getInputStream()).readLong();
+    }
+
+    /**
+     * Server: answers the handshake of a client.
+     * @param channel the channel of the client
+     * @param token the token of the client's session; 0 to turn the client away
+     * @throws IOException
+     */
+    public static void writeToken(SocketChannel channel, long token) throws IOException {
+        ByteBuffer out = ByteBuffer.allocate(8);
+        out.putLong(token).flip();
+        while (out.hasRemaining()) {
+            channel.write(out);
+        }
+    }
+
+    /**
+     * Client: presents a token to the server, and reads its answer.
+     * @param channel the channel to the server, in blocking mode
+     * @param token the token of the session; 0 for a new session
+     * @param timeoutMs how long (ms) to wait for the answer
+     * @return the token of the session; 0 if the server turned the client away
+     * @throws IOException
+     */
+    public static long handshake(SocketChannel channel, long token, int timeoutMs)
+            throws IOException {
+        writeToken(channel, token);
+        return readToken(channel, timeoutMs);
+    }
+
+    /**
+     * @return the channel
+     */
+    public SocketChannel getChannel() {
+        return mChannel;
+    }
+
+    /**
+     * @return the token of the session
+     */
+    public long getToken() {
+        return mToken;
+    }
+
+    /**
+     * Reads what has arrived, and decodes all complete frames.
+     * @return true if a new snapshot arrived (see takeReceived())
+     * @throws IOException if the connection broke or was closed by the other side
+     */
+    public boolean read() throws IOException {
+        int n = mChannel.read(mIn);
+        if (n < 0) {
+            throw new EOFException("connection closed by peer");
+        }
+        if (n > 0) {
+            mLastReceived = System.nanoTime();
+        }
+        mIn.flip();
+        while (mIn.remaining() > 0) {
+            int size = mIn.get(mIn.position()) & 0xff;
+            if (mIn.remaining() < 1 + size) {
+                break;
+            }
+            int end = mIn.position() + 1 + size;
+            int limit = mIn.limit();
+            mIn.position(mIn.position() + 1);
+            mIn.limit(end);
+            if (mCodec.decode(mIn, mReceived)) {
+                mHasReceived = true;
+            }
+            mIn.limit(limit);
+            mIn.position(end);
+        }
+        mIn.compact();
+        return mHasReceived;
+    }
+
+    /**
+     * Returns the latest snapshot received, once.
+     * @return the snapshot; null if none arrived since the last call
+     */
+    public Snapshot takeReceived() {
+        if (!mHasReceived) {
+            return null;
+        }
+        mHasReceived = false;
+        return mReceived;
+    }
+
+    /**
+     * Sends a snapshot, unless the previous frame has not left yet.
+     * @param s the snapshot
+     * @return false if the frame was skipped
+     * @throws IOException
+     */
+    public boolean send(Snapshot s) throws IOException {
+        if (mOut.hasRemaining()) {
+            mChannel.write(mOut);
+            if (mOut.hasRemaining()) {
+                mSkipped++;
+                return false;
+            }
+        }
+        mOut.clear();
+        mOut.position(1);
+        int size = mCodec.encode(s, mOut);
+        mOut.put(0, (byte) size);
+        mOut.flip();
+        mChannel.write(mOut);
+        return true;
+    }
+
+    /**
+     * @return the number of frames not sent because the previous one had not left yet
+     */
+    public long getSkipped() {
+        return mSkipped;
+    }
+
+    /**
+     * @return the time (System.nanoTime()) bytes last arrived, or the connection was (re)opened
+     */
+    public long getLastReceived() {
+        return mLastReceived;
+    }
+
+    /**
+     * @return true if the connection is open, and not dropped
+     */
+    public boolean isConnected() {
+        return !mDropped && !mClosed;
+    }
+
+    /**
+     * @return true while the connection is dropped, and the client may reopen it
+     */
+    public boolean isDropped() {
+        return mDropped;
+    }
+
+    /**
+     * @return the time (System.nanoTime()) the connection dropped
+     */
+    public long getDroppedAt() {
+        return mDroppedAt;
+    }
+
+    /**
+     * Closes the channel after it broke, or went silent; the client may reopen the
+     * connection with its token.
+     * @param now the current time (System.nanoTime())
+     */
+    public void drop(long now) {
+        if (isConnected()) {
+            mDropped = true;
+            mDroppedAt = now;
+            close(mChannel);
+        }
+    }
+
+    /**
+     * Carries on over a new channel of the client, e.g. after the old one dropped. The old
+     * channel is closed, and the frames that were only partly sent or received are lost.
+     * @param channel the new channel, done with the handshake; it is switched to non-blocking
+     *                mode
+     * @return false if the connection was closed, and the new channel with it
+     * @throws IOException
+     */
+    public boolean reopen(SocketChannel channel) throws IOException {
+        if (mClosed) {
+            close(channel);
+            return false;
+        }
+        close(mChannel);
+        open(channel);
+        return true;
+    }
+
+    /**
+     * Closes the connection; it cannot be reopened.
+     */
+    public void close() {
+        mClosed = true;
+        close(mChannel);
+    }
+
+    /**
+     * Makes a channel the current one.
+     * @param channel the channel, done with the handshake
+     * @throws IOException
+     */
+    private void open(SocketChannel channel) throws IOException {
+        mChannel = channel;
+        mChannel.configureBlocking(false);
+        mChannel.socket().setTcpNoDelay(true);
+        mIn.clear();
+        mOut.clear();
+        mOut.flip();
+        mLastReceived = System.nanoTime();
+        mDropped = false;
+    }
+
+    /**
+     * Closes a channel, ignoring errors.
+     * @param channel the channel
+     */
+    private static void close(SocketChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            //closing anyway
+        }
+    }
+}
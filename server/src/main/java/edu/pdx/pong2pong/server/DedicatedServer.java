@@ -0,0 +1,340 @@
+/*
+ * Copyright (C) 2015 Josef Mihalits, Randon Stasney, Dakota Ward
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.pdx.pong2pong.server;
+
+import edu.pdx.pong2pong.core.Game;
+import edu.pdx.pong2pong.core.Session;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A headless server that runs many matches at once. Clients connect to it as they would to
+ * the group owner of a WiFi Direct game (TCP, port 8080); every two clients that connect
+ * play a match (see Match). The matches are spread over a number of TickLoops, usually one
+ * per core.
+ *
+ * The clients connect with a Session, as to a device: the server gives each new client a
+ * token in the handshake (see Connection). A client whose connection dropped connects again
+ * with its token, and its match, which paused meanwhile, goes on; a client that is not back
+ * within the grace period ends its match.
+ *
+ * Usage: java edu.pdx.pong2pong.server.DedicatedServer [--port n] [--loops n] [--bot]
+ *            [--grace ms]
+ * With --bot, every client plays a bot at once instead of waiting for a second client.
+ */
+public class DedicatedServer {
+    /** the port the clients connect to (see GameView.openNetwork()) */
+    public static final int DEFAULT_PORT = 8080;
+
+    /** how long (ms) a client may take to send its token, and may stay silent in a match */
+    private static final int LINK_TIMEOUT_MS = Session.DEFAULT_LINK_TIMEOUT_MS;
+
+    /** a client, by its token: its connection, and the loop and match it plays in */
+    private static class Client {
+        final Connection connection;
+        TickLoop loop;
+        Match match;
+
+        Client(Connection connection) {
+            this.connection = connection;
+        }
+    }
+
+    /** accepts the clients */
+    private final ServerSocketChannel mServerChannel;
+
+    /** the loops the matches run on */
+    private final TickLoop[] mLoops;
+
+    /** true to pair every client with a bot */
+    private final boolean mBots;
+
+    /** how long (ms) a dropped client may take to come back */
+    private final int mGraceMs;
+
+    /** the clients whose matches have not ended, by token (written by the acceptor thread) */
+    private final Map<Long, Client> mClients = new ConcurrentHashMap<Long, Client>();
+
+    /** the thread accepting the clients */
+    private final Thread mAcceptor;
+
+    /** a client waiting for an opponent; null if none */
+    private Client mWaiting;
+
+    /** cleared to stop accepting clients */
+    private volatile boolean mRun = true;
+
+    /**
+     * Opens the server socket; the server is started with start().
+     * @param port the port to listen on; 0 for any free port
+     * @param loops the number of TickLoops (threads running matches)
+     * @param tickRate the number of ticks per second of each match
+     * @param bots true to pair every client with a bot
+     * @param graceMs how long (ms) a client whose connection dropped may take to come back
+     * @throws IOException
+     */
+    public DedicatedServer(int port, int loops, int tickRate, boolean bots, int graceMs)
+            throws IOException {
+        mServerChannel = ServerSocketChannel.open();
+        mServerChannel.socket().setReuseAddress(true);
+        mServerChannel.socket().bind(new InetSocketAddress(port));
+        mBots = bots;
+        mGraceMs = graceMs;
+        mLoops = new TickLoop[loops];
+        for (int i = 0; i < loops; i++) {
+            mLoops[i] = new TickLoop("TickLoop-" + i, tickRate);
+        }
+        mAcceptor = new Thread("Acceptor") {
+            @Override
+            public void run() {
+                accept();
+            }
+        };
+    }
+
+    /**
+     * @return the port the server listens on
+     */
+    public int getPort() {
+        return mServerChannel.socket().getLocalPort();
+    }
+
+    /**
+     * @return the loops the matches run on
+     */
+    public TickLoop[] getLoops() {
+        return mLoops;
+    }
+
+    /**
+     * @param token the token of a session
+     * @return true if a client with this token plays a match, or waits for one, that has
+     *         not ended
+     */
+    public boolean hasClient(long token) {
+        Client client = mClients.get(token);
+        return client != null && (client.match == null || !client.match.isFinished());
+    }
+
+    /**
+     * Starts the loops and accepts clients.
+     */
+    public void start() {
+        for (TickLoop loop : mLoops) {
+            loop.start();
+        }
+        mAcceptor.start();
+    }
+
+    /**
+     * Stops accepting clients, ends all matches and waits for the threads to finish.
+     */
+    public void stop() {
+        mRun = false;
+        try {
+            mServerChannel.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        for (TickLoop loop : mLoops) {
+            loop.shutdown();
+        }
+        join(mAcceptor);
+        for (TickLoop loop : mLoops) {
+            join(loop);
+        }
+        if (mWaiting != null) {
+            mWaiting.connection.close();
+        }
+    }
+
+    /**
+     * Waits for a thread to finish.
+     * @param thread the thread
+     */
+    private static void join(Thread thread) {
+        while (true) {
+            try {
+                thread.join();
+                break;
+            } catch (InterruptedException e) {}
+        }
+    }
+
+    /**
+     * Accepts the clients: answers their handshake, pairs the new ones and hands each match
+     * to the least busy loop, and hands those that come back to their match. A client has up
+     * to the link timeout to send its token; meanwhile, the others wait.
+     */
+    private void accept() {
+        while (mRun) {
+            SocketChannel channel = null;
+            try {
+                channel = mServerChannel.accept();
+                long token = Connection.readToken(channel, LINK_TIMEOUT_MS);
+                if (token == 0) {
+                    startSession(channel);
+                } else {
+                    resumeSession(channel, token);
+                }
+            } catch (IOException e) {
+                if (channel != null) {
+                    //the client did not finish the handshake
+                    close(channel);
+                } else if (mRun) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    /**
+     * Gives a new client a token, and pairs it with the waiting client (or a bot).
+     * @param channel the channel of the client
+     * @throws IOException
+     */
+    private void startSession(SocketChannel channel) throws IOException {
+        removeFinished();
+        long token = Session.newToken();
+        while (mClients.containsKey(token)) {
+            token = Session.newToken();
+        }
+        Client client = new Client(new Connection(channel, true, token));
+        //known before the client learns its token
+        mClients.put(token, client);
+        Connection.writeToken(channel, token);
+        if (mBots) {
+            startMatch(client, null);
+        } else if (mWaiting == null || !mWaiting.connection.getChannel().isConnected()) {
+            if (mWaiting != null) {
+                mClients.remove(mWaiting.connection.getToken());
+                mWaiting.connection.close();
+            }
+            mWaiting = client;
+        } else {
+            startMatch(mWaiting, client);
+            mWaiting = null;
+        }
+    }
+
+    /**
+     * Hands the new channel of a client that came back to its connection; turns the client
+     * away if its match has ended, or the server does not know its token.
+     * @param channel the channel of the client
+     * @param token the token the client presented
+     * @throws IOException
+     */
+    private void resumeSession(SocketChannel channel, long token) throws IOException {
+        if (!hasClient(token)) {
+            mClients.remove(token);
+            Connection.writeToken(channel, 0);
+            close(channel);
+            return;
+        }
+        Connection.writeToken(channel, token);
+        Client client = mClients.get(token);
+        if (client.loop == null) {
+            //still waiting for an opponent
+            client.connection.reopen(channel);
+        } else {
+            client.loop.resume(client.connection, channel);
+        }
+    }
+
+    /**
+     * Forgets the clients whose matches have ended.
+     */
+    private void removeFinished() {
+        Iterator<Client> clients = mClients.values().iterator();
+        while (clients.hasNext()) {
+            Match match = clients.next().match;
+            if (match != null && match.isFinished()) {
+                clients.remove();
+            }
+        }
+    }
+
+    /**
+     * @param left the client playing the left paddle
+     * @param right the client playing the right paddle; null for a bot
+     */
+    private void startMatch(Client left, Client right) {
+        TickLoop loop = mLoops[0];
+        for (TickLoop l : mLoops) {
+            if (l.getMatchCount() < loop.getMatchCount()) {
+                loop = l;
+            }
+        }
+        Match match = new Match(loop.getTickRate(), left.connection,
+                right == null ? null : right.connection, mGraceMs, LINK_TIMEOUT_MS);
+        left.loop = loop;
+        left.match = match;
+        if (right != null) {
+            right.loop = loop;
+            right.match = match;
+        }
+        loop.add(match);
+    }
+
+    /**
+     * Closes a channel, ignoring errors.
+     * @param channel the channel
+     */
+    private static void close(SocketChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            //closing anyway
+        }
+    }
+
+    /**
+     * Runs the server until the process is killed.
+     * @param args [--port n] [--loops n] [--bot] [--grace ms]
+     * @throws IOException
+     */
+    public static void main(String[] args) throws IOException {
+        int port = DEFAULT_PORT;
+        int loops = Runtime.getRuntime().availableProcessors();
+        boolean bots = false;
+        int grace = Session.DEFAULT_GRACE_MS;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--port")) {
+                port = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("--loops")) {
+                loops = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("--bot")) {
+                bots = true;
+            } else if (args[i].equals("--grace")) {
+                grace = Integer.parseInt(args[++i]);
+            } else {
+                System.err.println("usage: DedicatedServer [--port n] [--loops n] [--bot] "
+                        + "[--grace ms]");
+                System.exit(1);
+            }
+        }
+        DedicatedServer server = new DedicatedServer(port, loops, Game.DEFAULT_TICK_RATE, bots,
+                grace);
+        server.start();
+        System.out.println("listening on port " + server.getPort() + " with " + loops
+                + " tick loops" + (bots ? ", clients play bots" : ""));
+    }
+}
@@ -0,0 +1,210 @@
+/*
+ * Copyright (C) 2015 Josef Mihalits, Randon Stasney, Dakota Ward
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.pdx.pong2pong.server;
+
+import edu.pdx.pong2pong.core.Game;
+import edu.pdx.pong2pong.core.Histogram;
+import edu.pdx.pong2pong.core.Session;
+import edu.pdx.pong2pong.core.Snapshot;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+
+/**
+ * Finds how many concurrent matches one core can run at the tick rate. A DedicatedServer
+ * with a single TickLoop is loaded with more and more matches, each between two simulated
+ * clients that answer every state with a paddle input, over real TCP connections. The
+ * clients run on one other thread.
+ *
+ * A load is sustained if the loop drops no ticks, and the p99 of its work per tick leaves
+ * half of the tick free (for the OS, the network stack and the GC). The clients share the
+ * machine, so the result is a lower bound for a server that only runs matches.
+ */
+public class LoadTest {
+    /** how long (ms) each load is measured, after a warm-up of the same length */
+    private static final int MEASURE_MS = 5000;
+
+    /** the loads tried: the number of matches */
+    private static final int[] MATCHES = {50, 100, 200, 400, 800, 1600, 3200, 6400};
+
+    /**
+     * Runs the load test and prints a line per load.
+     * @param args not used
+     * @throws Exception
+     */
+    public static void main(String[] args) throws Exception {
+        int tickRate = Game.DEFAULT_TICK_RATE;
+        long budget = 1000000000L / tickRate / 2;
+        System.out.println("tick rate " + tickRate + "/s; budget per tick (p99): "
+                + budget / 1e6 + " ms");
+        int sustained = 0;
+        for (int matches : MATCHES) {
+            Result r;
+            try {
+                r = run(matches, tickRate);
+            } catch (IOException e) {
+                //usually the limit of open files; see ulimit -n
+                System.out.println(String.format("%5d matches: could not connect: %s", matches, e));
+                break;
+            }
+            boolean ok = r.droppedTicks == 0 && r.p99 <= budget;
+            System.out.println(String.format("%5d matches: tick work p50 %.3f ms, p99 %.3f ms, "
+                    + "max %.3f ms, ticks dropped %d, states/s per client %.1f%s",
+                    matches, r.p50 / 1e6, r.p99 / 1e6, r.max / 1e6, r.droppedTicks,
+                    r.statesPerSecond, ok ? "" : "  <- overloaded"));
+            if (!ok) {
+                break;
+            }
+            sustained = matches;
+        }
+        System.out.println("max concurrent matches per core: " + sustained);
+    }
+
+    /** the measurements of one load */
+    private static class Result {
+        long p50;
+        long p99;
+        long max;
+        long droppedTicks;
+        double statesPerSecond;
+    }
+
+    /**
+     * Runs a server with one loop under a load.
+     * @param matches the number of matches
+     * @param tickRate the tick rate
+     * @return the measurements
+     */
+    private static Result run(int matches, int tickRate) throws Exception {
+        DedicatedServer server = new DedicatedServer(0, 1, tickRate, false,
+                Session.DEFAULT_GRACE_MS);
+        server.start();
+        Clients clients;
+        try {
+            clients = new Clients(server.getPort(), 2 * matches);
+        } catch (IOException e) {
+            server.stop();
+            throw e;
+        }
+        clients.start();
+        TickLoop loop = server.getLoops()[0];
+        while (loop.getMatchCount() < matches) {
+            Thread.sleep(10);
+        }
+
+        Thread.sleep(MEASURE_MS);
+        loop.resetStats();
+        long dropped = loop.getDroppedTicks();
+        long states = clients.getStates();
+        Thread.sleep(MEASURE_MS);
+
+        Result r = new Result();
+        Histogram work = loop.getTickWork();
+        r.p50 = work.getValueAtPercentile(50);
+        r.p99 = work.getValueAtPercentile(99);
+        r.max = work.getMax();
+        r.droppedTicks = loop.getDroppedTicks() - dropped;
+        r.statesPerSecond = (clients.getStates() - states) * 1000.0 / MEASURE_MS / (2 * matches);
+        clients.shutdown();
+        server.stop();
+        return r;
+    }
+
+    /**
+     * The simulated clients, on one thread: each follows the ball with its paddle, and
+     * answers every state it receives, like the client program does.
+     */
+    private static class Clients extends Thread {
+        private final Selector mSelector;
+        private final ArrayList<Connection> mConnections = new ArrayList<Connection>();
+        private final Snapshot mOut = new Snapshot();
+        private volatile boolean mRun = true;
+        private volatile long mStates = 0;
+        private int mInput = 0;
+
+        Clients(int port, int count) throws IOException {
+            super("Clients");
+            mSelector = Selector.open();
+            try {
+                for (int i = 0; i < count; i++) {
+                    SocketChannel channel =
+                            SocketChannel.open(new InetSocketAddress("127.0.0.1", port));
+                    long token = Connection.handshake(channel, 0,
+                            Session.DEFAULT_LINK_TIMEOUT_MS);
+                    Connection c = new Connection(channel, false, token);
+                    channel.register(mSelector, SelectionKey.OP_READ, c);
+                    mConnections.add(c);
+                }
+            } catch (IOException e) {
+                for (Connection c : mConnections) {
+                    c.close();
+                }
+                mSelector.close();
+                throw e;
+            }
+        }
+
+        long getStates() {
+            return mStates;
+        }
+
+        void shutdown() throws InterruptedException {
+            mRun = false;
+            mSelector.wakeup();
+            join();
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (mRun) {
+                    mSelector.select(100);
+                    Iterator<SelectionKey> keys = mSelector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        Connection c = (Connection) key.attachment();
+                        if (!c.read()) {
+                            continue;
+                        }
+                        Snapshot in = c.takeReceived();
+                        mStates++;
+                        mOut.leftY = in.ballY;
+                        mOut.input = ++mInput;
+                        mOut.tick = in.tick;
+                        c.send(mOut);
+                    }
+                }
+            } catch (IOException e) {
+                if (mRun) {
+                    e.printStackTrace();
+                }
+            }
+            for (Connection c : mConnections) {
+                c.close();
+            }
+            try {
+                mSelector.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+}
@@ -0,0 +1,225 @@
+/*
+ * Copyright (C) 2015 Josef Mihalits, Randon Stasney, Dakota Ward
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.pdx.pong2pong.server;
+
+import edu.pdx.pong2pong.core.Ball;
+import edu.pdx.pong2pong.core.Game;
+import edu.pdx.pong2pong.core.Paddle;
+import edu.pdx.pong2pong.core.Snapshot;
+import java.io.IOException;
+
+/**
+ * A game between two clients on the server. Each client runs the unmodified client program,
+ * so each believes it plays the left paddle against the server's right paddle. The first
+ * client does; for the second, the field is mirrored: its paddle is the right paddle of the
+ * game, and it receives the ball and the scores as seen from the other side.
+ *
+ * Without a second client, a bot plays the right paddle.
+ *
+ * When the connection of a client drops (it breaks, or nothing arrives for the link timeout),
+ * the match pauses, like a game between two devices over a Session; the other client keeps
+ * getting the paused state. The match goes on once the client is back with its token, and
+ * only ends if the grace period runs out first.
+ */
+public class Match {
+    /** the game; the server is the authority on ball and score */
+    private final Game mGame;
+
+    /** the players; mRight is null if a bot plays the right paddle */
+    private final Connection mLeft;
+    private final Connection mRight;
+
+    /** the number of the last paddle input of each client applied to the game */
+    private int mLeftInput;
+    private int mRightInput;
+
+    /** the state sent to the clients; reused for every frame */
+    private final Snapshot mOut = new Snapshot();
+
+    /** how long (ns) a dropped connection may take to come back */
+    private final long mGraceNs;
+
+    /** after how long (ns) without a frame a connection counts as dropped */
+    private final long mLinkTimeoutNs;
+
+    /** set once the match has ended (read by the thread accepting the clients) */
+    private volatile boolean mFinished = false;
+
+    /**
+     * @param tickRate the number of ticks per second
+     * @param left the client playing the left paddle
+     * @param right the client playing the right paddle; null for a bot
+     * @param graceMs how long (ms) a dropped connection may take to come back
+     * @param linkTimeoutMs after how long (ms) without a frame a connection counts as dropped
+     */
+    public Match(int tickRate, Connection left, Connection right, int graceMs,
+                 int linkTimeoutMs) {
+        mGame = new Game(tickRate);
+        mLeft = left;
+        mRight = right;
+        mGraceNs = graceMs * 1000000L;
+        mLinkTimeoutNs = linkTimeoutMs * 1000000L;
+        mGame.getBall().start();
+    }
+
+    /**
+     * @return the left player
+     */
+    public Connection getLeft() {
+        return mLeft;
+    }
+
+    /**
+     * @return the right player; null if a bot plays the right paddle
+     */
+    public Connection getRight() {
+        return mRight;
+    }
+
+    /**
+     * @return the game
+     */
+    public Game getGame() {
+        return mGame;
+    }
+
+    /**
+     * Drops the connections that went silent, and ends the match if a connection stayed
+     * dropped for longer than the grace period.
+     * @param now the current time (System.nanoTime())
+     * @return true if the match has ended
+     */
+    public boolean checkConnections(long now) {
+        if (!mFinished && (expired(mLeft, now) || (mRight != null && expired(mRight, now)))) {
+            finish();
+        }
+        return mFinished;
+    }
+
+    /**
+     * @param c a connection of the match
+     * @param now the current time (System.nanoTime())
+     * @return true if the connection dropped for longer than the grace period
+     */
+    private boolean expired(Connection c, long now) {
+        if (c.isConnected() && now - c.getLastReceived() > mLinkTimeoutNs) {
+            c.drop(now);
+        }
+        return c.isDropped() && now - c.getDroppedAt() > mGraceNs;
+    }
+
+    /**
+     * @return true while the connection of a client is dropped
+     */
+    public boolean isPaused() {
+        return mLeft.isDropped() || (mRight != null && mRight.isDropped());
+    }
+
+    /**
+     * Advances the game by one tick, with the latest paddle inputs of the clients; a paused
+     * match stands still.
+     */
+    public void step() {
+        if (isPaused()) {
+            return;
+        }
+        Snapshot in = mLeft.takeReceived();
+        if (in != null) {
+            mGame.getLeftPaddle().setY(in.leftY);
+            mLeftInput = in.input;
+        }
+        Paddle right = mGame.getRightPaddle();
+        if (mRight == null) {
+            right.setY(mGame.getBall().getY());
+        } else {
+            in = mRight.takeReceived();
+            if (in != null) {
+                //a mirrored field only swaps left and right; y is the same
+                right.setY(in.leftY);
+                mRightInput = in.input;
+            }
+        }
+        mGame.step();
+    }
+
+    /**
+     * Sends the state of the game to the clients that are connected. A connection that
+     * breaks is dropped.
+     * @param now the current time (System.nanoTime())
+     */
+    public void send(long now) {
+        send(mLeft, false, now);
+        if (mRight != null) {
+            send(mRight, true, now);
+        }
+    }
+
+    /**
+     * @param c a connection of the match
+     * @param mirrored true for the client playing the right paddle
+     * @param now the current time (System.nanoTime())
+     */
+    private void send(Connection c, boolean mirrored, long now) {
+        if (!c.isConnected()) {
+            return;
+        }
+        try {
+            c.send(state(mirrored));
+        } catch (IOException e) {
+            c.drop(now);
+        }
+    }
+
+    /**
+     * @param mirrored true for the client playing the right paddle
+     * @return the state of the game, as seen by the client
+     */
+    private Snapshot state(boolean mirrored) {
+        Ball ball = mGame.getBall();
+        Paddle own = mirrored ? mGame.getRightPaddle() : mGame.getLeftPaddle();
+        Paddle other = mirrored ? mGame.getLeftPaddle() : mGame.getRightPaddle();
+        Snapshot out = mOut;
+        out.ballX = mirrored ? Game.FIELD_X - ball.getX() : ball.getX();
+        out.ballY = ball.getY();
+        out.ballVx = mirrored ? -ball.getVx() : ball.getVx();
+        out.ballVy = ball.getVy();
+        out.leftY = own.getY();
+        out.rightY = other.getY();
+        out.leftScore = own.getScore();
+        out.rightScore = other.getScore();
+        out.input = mirrored ? mRightInput : mLeftInput;
+        out.tick = mGame.getTick();
+        return out;
+    }
+
+    /**
+     * Ends the match and closes both connections.
+     */
+    public void finish() {
+        mFinished = true;
+        mLeft.close();
+        if (mRight != null) {
+            mRight.close();
+        }
+    }
+
+    /**
+     * @return true if the match has ended
+     */
+    public boolean isFinished() {
+        return mFinished;
+    }
+}
@@ -0,0 +1,213 @@
+/*
+ * Copyright (C) 2015 Josef Mihalits, Randon Stasney, Dakota Ward
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.pdx.pong2pong.server;
+
+import edu.pdx.pong2pong.core.Game;
+import edu.pdx.pong2pong.core.Histogram;
+import edu.pdx.pong2pong.core.NetworkThread;
+import edu.pdx.pong2pong.core.OutageProxy;
+import edu.pdx.pong2pong.core.Session;
+import edu.pdx.pong2pong.core.Snapshot;
+import edu.pdx.pong2pong.core.StateCodec;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.Random;
+
+/**
+ * Measures how well matches between two devices survive drops of their connection. Many
+ * matches are played at once, each between a server and a client Session like those of the
+ * game, through real NetworkThreads and an OutageProxy, which takes the connection down once
+ * per match. The outages range from a blip to longer than the grace period.
+ *
+ * For each length of outage, prints the percentage of the matches that survived it, and the
+ * time it took the connection to come back (the time the match was paused), from the moment
+ * a Session noticed the drop.
+ */
+public class ResumeTest {
+    private static final long MS = 1000000L;
+
+    /** the lengths (ms) of the outages tried */
+    private static final int[] OUTAGES = {200, 500, 1000, 2000, 5000, 8000, 12000, 20000};
+
+    /** the number of matches per length of outage */
+    private static final int MATCHES = 10;
+
+    /** the time (ms) between two states of a match (a game loop at 50 frames/s) */
+    private static final int FRAME_MS = 20;
+
+    /** how long (ms) a match is played before and after the outage */
+    private static final int PLAY_MS = 1000;
+
+    /**
+     * Runs the test and prints a line per length of outage.
+     * @param args optional: the grace period (ms)
+     * @throws Exception
+     */
+    public static void main(String[] args) throws Exception {
+        int grace = args.length > 0 ? Integer.parseInt(args[0]) : Session.DEFAULT_GRACE_MS;
+        int linkTimeout = Session.DEFAULT_LINK_TIMEOUT_MS;
+        System.out.println("grace period " + grace + " ms, link timeout " + linkTimeout
+                + " ms, " + MATCHES + " matches per outage");
+
+        Random random = new Random(42);
+        ArrayList<Match> matches = new ArrayList<Match>();
+        for (int outage : OUTAGES) {
+            for (int i = 0; i < MATCHES; i++) {
+                //the outages start at different points of the exchange of frames
+                matches.add(new Match(outage, PLAY_MS + random.nextInt(500), grace, linkTimeout));
+            }
+        }
+        long start = System.nanoTime();
+        long end = start + (PLAY_MS + 500 + OUTAGES[OUTAGES.length - 1] + PLAY_MS) * MS;
+        int tick = 0;
+        while (System.nanoTime() < end) {
+            long now = System.nanoTime();
+            tick++;
+            for (Match m : matches) {
+                m.play(tick, (now - start) / MS);
+            }
+            Thread.sleep(FRAME_MS);
+        }
+
+        int survived = 0;
+        int transientMatches = 0;
+        int transientSurvived = 0;
+        for (int i = 0; i < OUTAGES.length; i++) {
+            int ok = 0;
+            Histogram resume = new Histogram("time to resume");
+            for (int j = 0; j < MATCHES; j++) {
+                Match m = matches.get(i * MATCHES + j);
+                if (m.hasSurvived()) {
+                    ok++;
+                }
+                m.recordResumeTimes(resume);
+                m.close();
+            }
+            survived += ok;
+            if (OUTAGES[i] < grace) {
+                transientMatches += MATCHES;
+                transientSurvived += ok;
+            }
+            System.out.println(String.format("outage %6d ms: %3d%% survived, "
+                    + "time to resume p50 %.0f ms, p99 %.0f ms (%d ends resumed)",
+                    OUTAGES[i], 100 * ok / MATCHES, resume.getValueAtPercentile(50) / 1e6,
+                    resume.getValueAtPercentile(99) / 1e6, resume.getCount()));
+        }
+        System.out.println(String.format("%d%% of all matches survived; %d%% of those with "
+                + "outages shorter than the grace period", 100 * survived / matches.size(),
+                transientMatches == 0 ? 0 : 100 * transientSurvived / transientMatches));
+    }
+
+    /**
+     * A match between a server and a client, over its own OutageProxy.
+     */
+    private static class Match {
+        private final ServerSocket mServerSocket;
+        private final OutageProxy mProxy;
+        private final Session mServer;
+        private final Session mClient;
+        private final NetworkThread mServerNet;
+        private final NetworkThread mClientNet;
+
+        /** the length (ms) of the outage, and when (ms after the start) it begins */
+        private final int mOutage;
+        private final int mOutageAt;
+        private boolean mOutageStarted = false;
+
+        Match(int outage, int outageAt, int grace, int linkTimeout) throws Exception {
+            mOutage = outage;
+            mOutageAt = outageAt;
+            mServerSocket = new ServerSocket(0);
+            mProxy = new OutageProxy("127.0.0.1", mServerSocket.getLocalPort());
+            final Session[] server = new Session[1];
+            final int g = grace;
+            final int l = linkTimeout;
+            Thread acceptor = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        server[0] = Session.accept(mServerSocket, new StateCodec(true, true), g, l);
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    }
+                }
+            };
+            acceptor.start();
+            mClient = Session.connect("127.0.0.1", mProxy.getPort(), new StateCodec(false, true),
+                    grace, linkTimeout);
+            acceptor.join();
+            mServer = server[0];
+            mServerNet = new NetworkThread(true, mServer);
+            mClientNet = new NetworkThread(false, mClient);
+            mServerNet.start();
+            mClientNet.start();
+        }
+
+        /**
+         * Publishes a new state on both ends, like two game loops, and starts the outage
+         * when it is due.
+         * @param tick the tick of the state
+         * @param elapsed the time (ms) since the start
+         */
+        void play(int tick, long elapsed) {
+            if (!mOutageStarted && elapsed >= mOutageAt) {
+                mOutageStarted = true;
+                mProxy.outage(mOutage);
+            }
+            Snapshot s = mServerNet.getOutgoing().getWriteBuffer();
+            s.tick = tick;
+            s.ballX = tick % Game.FIELD_X;
+            mServerNet.getOutgoing().publish();
+            s = mClientNet.getOutgoing().getWriteBuffer();
+            s.leftY = tick % Game.FIELD_Y;
+            s.input = tick;
+            mClientNet.getOutgoing().publish();
+        }
+
+        /**
+         * @return true if neither end gave up on the match
+         */
+        boolean hasSurvived() {
+            return !mServerNet.hasFailed() && !mClientNet.hasFailed();
+        }
+
+        /**
+         * Adds the times to resume of both ends to a histogram.
+         * @param h the histogram
+         */
+        void recordResumeTimes(Histogram h) {
+            for (Session s : new Session[] {mServer, mClient}) {
+                Histogram r = s.getResumeTime();
+                //the sessions only resume once or twice per match, so the maximum is exact
+                if (r.getCount() > 0) {
+                    h.record(r.getMax());
+                }
+            }
+        }
+
+        void close() throws Exception {
+            mServerNet.shutdown();
+            mClientNet.shutdown();
+            mServer.close();
+            mClient.close();
+            mServerSocket.close();
+            mProxy.close();
+            mServerNet.join();
+            mClientNet.join();
+        }
+    }
+}
@@ -0,0 +1,287 @@
+/*
+ * Copyright (C) 2015 Josef Mihalits, Randon Stasney, Dakota Ward
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.pdx.pong2pong.server;
+
+import edu.pdx.pong2pong.core.FixedStepper;
+import edu.pdx.pong2pong.core.Histogram;
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs many matches on one thread (meant to be one per core). A single Selector waits for
+ * the paddle inputs of all their clients, and a FixedStepper decides when the next tick is
+ * due; then every match is stepped, and each client is sent the new state.
+ *
+ * The inputs are read as they arrive, between the ticks; a match uses the newest input of
+ * each client when it is stepped, like GameView does on the device. A client that comes back
+ * after its connection dropped is handed over to the loop, too (see resume()).
+ */
+public class TickLoop extends Thread {
+    /** the maximum number of ticks simulated at once, after the thread was delayed */
+    private static final int MAX_CATCH_UP = 5;
+
+    /** waits for the clients' frames */
+    private final Selector mSelector;
+
+    /** decides when the next tick is due */
+    private final FixedStepper mStepper;
+
+    /** the tick rate of the matches */
+    private final int mTickRate;
+
+    /** the matches run by this loop (only touched by this thread) */
+    private final ArrayList<Match> mMatches = new ArrayList<Match>();
+
+    /** matches handed over by other threads, started at the next iteration */
+    private final ConcurrentLinkedQueue<Match> mNewMatches = new ConcurrentLinkedQueue<Match>();
+
+    /** a client that came back, with the new channel of its connection */
+    private static class Resume {
+        final Connection connection;
+        final SocketChannel channel;
+
+        Resume(Connection connection, SocketChannel channel) {
+            this.connection = connection;
+            this.channel = channel;
+        }
+    }
+
+    /** clients that came back, handed over by other threads, reopened at the next iteration */
+    private final ConcurrentLinkedQueue<Resume> mResumes = new ConcurrentLinkedQueue<Resume>();
+
+    /** the number of matches running or about to start */
+    private final AtomicInteger mMatchCount = new AtomicInteger();
+
+    /** how long (ns) stepping all matches and sending their states takes, per tick */
+    private final Histogram mTickWork = new Histogram("tick work");
+
+    /** set to clear mTickWork at the next iteration */
+    private volatile boolean mResetStats = false;
+
+    /** cleared to ask the thread to finish */
+    private volatile boolean mRun = true;
+
+    /**
+     * @param name the name of the thread
+     * @param tickRate the number of ticks per second
+     * @throws IOException
+     */
+    public TickLoop(String name, int tickRate) throws IOException {
+        super(name);
+        mTickRate = tickRate;
+        mSelector = Selector.open();
+        mStepper = new FixedStepper(tickRate, MAX_CATCH_UP);
+    }
+
+    /**
+     * Hands a new match over to the loop. May be called from any thread.
+     * @param match the match
+     */
+    public void add(Match match) {
+        mMatchCount.incrementAndGet();
+        mNewMatches.add(match);
+        mSelector.wakeup();
+    }
+
+    /**
+     * Hands the new channel of a client that came back over to the loop, which carries on
+     * with it. May be called from any thread.
+     * @param connection the connection of the client, in a match of this loop
+     * @param channel the new channel, done with the handshake
+     */
+    public void resume(Connection connection, SocketChannel channel) {
+        mResumes.add(new Resume(connection, channel));
+        mSelector.wakeup();
+    }
+
+    /**
+     * @return the number of matches running or about to start
+     */
+    public int getMatchCount() {
+        return mMatchCount.get();
+    }
+
+    /**
+     * @return the tick rate of the matches
+     */
+    public int getTickRate() {
+        return mTickRate;
+    }
+
+    /**
+     * @return how long (ns) stepping all matches and sending their states takes, per tick
+     */
+    public Histogram getTickWork() {
+        return mTickWork;
+    }
+
+    /**
+     * Asks the loop to clear getTickWork(), e.g. after a warm-up. May be called from any thread.
+     */
+    public void resetStats() {
+        mResetStats = true;
+        mSelector.wakeup();
+    }
+
+    /**
+     * @return the number of ticks dropped because the loop fell too far behind
+     */
+    public long getDroppedTicks() {
+        return mStepper.getDroppedTicks();
+    }
+
+    /**
+     * Asks the thread to stop; all its matches are finished.
+     */
+    public void shutdown() {
+        mRun = false;
+        mSelector.wakeup();
+    }
+
+    /**
+     * The entry point of the loop.
+     */
+    @Override
+    public void run() {
+        try {
+            while (mRun) {
+                if (mResetStats) {
+                    mTickWork.reset();
+                    mResetStats = false;
+                }
+                startNewMatches();
+                reopenConnections();
+                int ticks = mStepper.advance(System.nanoTime());
+                if (ticks > 0) {
+                    long start = System.nanoTime();
+                    tick(ticks);
+                    mTickWork.record(System.nanoTime() - start);
+                }
+                //wait for input until the next tick is due
+                long wait = (long) ((1 - mStepper.getAlpha()) * mStepper.getTickNs()) / 1000000;
+                if (wait > 0) {
+                    mSelector.select(wait);
+                } else {
+                    mSelector.selectNow();
+                }
+                readInputs();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        for (Match match : mMatches) {
+            match.finish();
+        }
+        try {
+            mSelector.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Registers the connections of the matches handed over.
+     */
+    private void startNewMatches() throws IOException {
+        Match match;
+        while ((match = mNewMatches.poll()) != null) {
+            register(match.getLeft());
+            if (match.getRight() != null) {
+                register(match.getRight());
+            }
+            mMatches.add(match);
+        }
+    }
+
+    /**
+     * Carries on with the new channels of the clients that came back. The connection of a
+     * match that ended meanwhile closes the new channel.
+     */
+    private void reopenConnections() throws IOException {
+        Resume resume;
+        while ((resume = mResumes.poll()) != null) {
+            if (resume.connection.reopen(resume.channel)) {
+                register(resume.connection);
+            }
+        }
+    }
+
+    /**
+     * Waits for the frames of a connection.
+     * @param c the connection
+     */
+    private void register(Connection c) throws IOException {
+        c.getChannel().register(mSelector, SelectionKey.OP_READ, c);
+    }
+
+    /**
+     * Steps all matches and sends their states; ends the matches whose clients did not come
+     * back in time.
+     * @param ticks the number of ticks due
+     */
+    private void tick(int ticks) {
+        long now = System.nanoTime();
+        for (int i = 0; i < mMatches.size(); i++) {
+            Match match = mMatches.get(i);
+            if (match.checkConnections(now)) {
+                continue;
+            }
+            for (int t = 0; t < ticks; t++) {
+                match.step();
+            }
+            match.send(now);
+        }
+        //remove the matches that have ended, keeping the order of the others
+        int kept = 0;
+        for (int i = 0; i < mMatches.size(); i++) {
+            Match match = mMatches.get(i);
+            if (!match.isFinished()) {
+                mMatches.set(kept++, match);
+            }
+        }
+        while (mMatches.size() > kept) {
+            mMatches.remove(mMatches.size() - 1);
+            mMatchCount.decrementAndGet();
+        }
+    }
+
+    /**
+     * Reads the frames of all clients that sent something.
+     */
+    private void readInputs() {
+        Iterator<SelectionKey> keys = mSelector.selectedKeys().iterator();
+        while (keys.hasNext()) {
+            SelectionKey key = keys.next();
+            keys.remove();
+            Connection c = (Connection) key.attachment();
+            if (!c.isConnected() || c.getChannel() != key.channel()) {
+                continue;
+            }
+            try {
+                c.read();
+            } catch (IOException e) {
+                //the match pauses until the client is back, or the grace period is over
+                c.drop(System.nanoTime());
+            }
+        }
+    }
+}
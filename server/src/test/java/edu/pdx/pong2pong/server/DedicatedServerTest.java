@@ -0,0 +1,175 @@
+package edu.pdx.pong2pong.server;
+
+import edu.pdx.pong2pong.core.Game;
+import edu.pdx.pong2pong.core.OutageProxy;
+import edu.pdx.pong2pong.core.Session;
+import edu.pdx.pong2pong.core.Snapshot;
+import edu.pdx.pong2pong.core.StateCodec;
+import org.junit.After;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.nio.channels.SocketChannel;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Connects clients to a DedicatedServer with the client side of the game (a Session and a
+ * StateCodec), as GameView does.
+ */
+public class DedicatedServerTest {
+
+    private static final int GRACE_MS = 5000;
+    private static final int LINK_TIMEOUT_MS = 200;
+
+    private DedicatedServer mServer;
+    private OutageProxy mProxy;
+
+    @After
+    public void tearDown() throws Exception {
+        if (mServer != null) {
+            mServer.stop();
+        }
+        if (mProxy != null) {
+            mProxy.close();
+        }
+    }
+
+    private Session connect(int port) throws Exception {
+        Session session = Session.connect("127.0.0.1", port, new StateCodec(false, true),
+                GRACE_MS, LINK_TIMEOUT_MS);
+        //the handshake went through, and the server knows the token it gave out
+        assertTrue(session.getToken() != 0);
+        assertTrue(mServer.hasClient(session.getToken()));
+        return session;
+    }
+
+    @Test
+    public void twoClients_playMirroredMatch() throws Exception {
+        mServer = new DedicatedServer(0, 2, Game.DEFAULT_TICK_RATE, false, GRACE_MS);
+        mServer.start();
+        Session a = connect(mServer.getPort());
+        Session b = connect(mServer.getPort());
+        assertTrue(a.getToken() != b.getToken());
+
+        //the ball x of each tick, as each client sees it
+        Map<Integer, Integer> ballA = new HashMap<Integer, Integer>();
+        Map<Integer, Integer> ballB = new HashMap<Integer, Integer>();
+        Snapshot inA = new Snapshot();
+        Snapshot inB = new Snapshot();
+        Snapshot out = new Snapshot();
+        for (int i = 0; i < 60; i++) {
+            //like NetworkThread on the client: receive a state, answer with the paddle
+            assertTrue(a.receive(inA));
+            ballA.put(inA.tick, inA.ballX);
+            out.leftY = 100;
+            out.input = i + 1;
+            a.send(out);
+            assertTrue(b.receive(inB));
+            ballB.put(inB.tick, inB.ballX);
+            out.leftY = 400;
+            b.send(out);
+        }
+        //every frame of the server was understood, from the first one on
+        assertEquals(0, a.getPacketsDropped());
+        assertEquals(0, b.getPacketsDropped());
+        assertEquals(0, a.getDrops());
+
+        //both play the same game, from opposite sides
+        int common = 0;
+        for (Map.Entry<Integer, Integer> e : ballA.entrySet()) {
+            Integer x = ballB.get(e.getKey());
+            if (x != null) {
+                assertEquals(Game.FIELD_X, e.getValue() + x, 1);
+                common++;
+            }
+        }
+        assertTrue(common > 30);
+        //each sees its own paddle input acknowledged, and the other's paddle on the right
+        assertTrue(inA.input > 0);
+        assertEquals(400, inA.rightY);
+        assertEquals(100, inB.rightY);
+        a.close();
+        b.close();
+    }
+
+    @Test
+    public void singleClient_playsBot() throws Exception {
+        mServer = new DedicatedServer(0, 1, Game.DEFAULT_TICK_RATE, true, 500);
+        mServer.start();
+        Session a = connect(mServer.getPort());
+        Snapshot in = new Snapshot();
+        Snapshot out = new Snapshot();
+        //the client does not move; the bot does not miss
+        out.leftY = 0;
+        for (int i = 0; i < 2 * Game.DEFAULT_TICK_RATE; i++) {
+            assertTrue(a.receive(in));
+            a.send(out);
+        }
+        assertEquals(0, a.getPacketsDropped());
+        assertEquals(0, in.leftScore);
+        assertTrue(in.rightScore > 0);
+        assertEquals(1, mServer.getLoops()[0].getMatchCount());
+
+        //the match ends when the client does not come back within the grace period
+        long token = a.getToken();
+        a.close();
+        long end = System.currentTimeMillis() + 3000;
+        while (mServer.getLoops()[0].getMatchCount() > 0 && System.currentTimeMillis() < end) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, mServer.getLoops()[0].getMatchCount());
+        assertFalse(mServer.hasClient(token));
+    }
+
+    @Test
+    public void droppedClient_resumesPausedMatch() throws Exception {
+        mServer = new DedicatedServer(0, 1, Game.DEFAULT_TICK_RATE, true, GRACE_MS);
+        mServer.start();
+        mProxy = new OutageProxy("127.0.0.1", mServer.getPort());
+        Session a = connect(mProxy.getPort());
+        long token = a.getToken();
+        Snapshot in = new Snapshot();
+        Snapshot out = new Snapshot();
+        for (int i = 0; i < Game.DEFAULT_TICK_RATE; i++) {
+            assertTrue(a.receive(in));
+            a.send(out);
+        }
+        int before = in.tick;
+
+        //three seconds without a connection; the server notices within its link timeout
+        mProxy.outage(3000);
+        while (!a.receive(in)) {
+            //the session was back, but the frame was lost with the old connection
+        }
+        a.send(out);
+        assertTrue(a.receive(in));
+        assertEquals(1, a.getResumes());
+        assertEquals(token, a.getToken());
+        assertTrue(mServer.hasClient(token));
+        //the match stood still for most of the outage (180 ticks), and goes on
+        assertTrue("ticks during the outage: " + (in.tick - before),
+                in.tick - before < 2 * Game.DEFAULT_TICK_RATE);
+        int after = in.tick;
+        for (int i = 0; i < Game.DEFAULT_TICK_RATE; i++) {
+            assertTrue(a.receive(in));
+            a.send(out);
+        }
+        assertTrue(in.tick > after);
+        assertEquals(1, mServer.getLoops()[0].getMatchCount());
+        a.close();
+    }
+
+    @Test
+    public void unknownToken_turnedAway() throws Exception {
+        mServer = new DedicatedServer(0, 1, Game.DEFAULT_TICK_RATE, true, GRACE_MS);
+        mServer.start();
+        SocketChannel channel =
+                SocketChannel.open(new InetSocketAddress("127.0.0.1", mServer.getPort()));
+        assertEquals(0, Connection.handshake(channel, 42, LINK_TIMEOUT_MS));
+        channel.close();
+        assertEquals(0, mServer.getLoops()[0].getMatchCount());
+    }
+}